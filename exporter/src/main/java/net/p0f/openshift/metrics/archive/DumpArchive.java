@@ -0,0 +1,250 @@
+package net.p0f.openshift.metrics.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+
+/*
+ * Keeps the processed collector dumps in one compressed file per hour,
+ * instead of a file per dump under done/ that is never deleted.
+ *
+ * Every dump is appended to the file of the hour it was written in (UTC),
+ * as a gzip member of its own, so the files can simply be zcat'ed, and a
+ * crash can at most cost the member being written. Within the member the
+ * dump is preceded by a line
+ *
+ *    #@ <source> <epoch milliseconds> <length>
+ *
+ * telling where it came from, when it was written and how many bytes of
+ * it follow.
+ *
+ * Compression and writing happen on a thread of their own, at the lowest
+ * priority. Ingest only ever offers dumps to its bounded queue, and should
+ * the archiver fall that far behind, they are dropped, not waited for.
+ * Whenever a new hour starts, the oldest files are deleted until both the
+ * size and the age retention are satisfied.
+ */
+@ApplicationScoped
+@Named("dumpArchive")
+public class DumpArchive implements Runnable {
+    static final Logger LOG = Logger.getLogger(DumpArchive.class.getName());
+
+    public static final String HEADER = "#@ ";
+    public static final String SUFFIX = ".gz";
+    public static final DateTimeFormatter HOUR = DateTimeFormatter.ofPattern("yyyyMMdd-HH").withZone(ZoneOffset.UTC);
+
+    @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
+    String dataPath;
+
+    // Either "gzip" or "none", which leaves every dump in done/ for good.
+    @ConfigProperty(defaultValue = "gzip", name = "exporter.archive")
+    String codec;
+
+    // Deflate level, 1 (fastest) to 9 (smallest).
+    @ConfigProperty(defaultValue = "6", name = "exporter.archive.level")
+    int level;
+
+    // Dumps waiting to be archived.
+    @ConfigProperty(defaultValue = "64", name = "exporter.archive.queue")
+    int queueSize;
+
+    // Bytes of archive kept, zero for no limit.
+    @ConfigProperty(defaultValue = "536870912", name = "exporter.archive.retention.size")
+    long retentionSize;
+
+    // Milliseconds worth of archive kept, zero for no limit.
+    @ConfigProperty(defaultValue = "604800000", name = "exporter.archive.retention.time")
+    long retentionTime;
+
+    ArrayBlockingQueue<Dump> queue;
+    Thread thread;
+    volatile boolean running;
+    boolean full;
+
+    // Only used by the archiver thread.
+    String currentHour;
+    OutputStream out;
+
+    public boolean isEnabled() {
+        return "gzip".equals(this.codec);
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!isEnabled()) {
+            return;
+        }
+        this.queue = new ArrayBlockingQueue<>(this.queueSize);
+        this.running = true;
+        this.thread = new Thread(this, "dump-archiver");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+        this.thread.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (this.thread != null) {
+            this.running = false;
+            try {
+                // Give it a chance to write out what is queued.
+                this.thread.join(5000);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+     * Queues a dump for archiving, never waiting for room.
+     */
+    public void submit(String source, byte[] payload, Long modified) {
+        if (this.queue == null) {
+            return;
+        }
+        long written = modified == null || modified <= 0 ? System.currentTimeMillis() : modified;
+        if (this.queue.offer(new Dump(source, written, payload))) {
+            this.full = false;
+        } else if (!this.full) {
+            LOG.warning("Archive queue is full, dropping " + source + " dumps.");
+            this.full = true;
+        }
+    }
+
+    @Override
+    public void run() {
+        Path dir = Paths.get(this.dataPath, "archive");
+        try {
+            Files.createDirectories(dir);
+            applyRetention(dir);
+        } catch (IOException ioe) {
+            LOG.warning("Failed to prepare archive " + dir + ": " + ioe);
+        }
+        while (this.running || !this.queue.isEmpty()) {
+            Dump d;
+            try {
+                d = this.queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                break;
+            }
+            if (d == null) {
+                continue;
+            }
+            try {
+                append(dir, d);
+            } catch (IOException ioe) {
+                LOG.warning("Failed to archive " + d.source + " dump: " + ioe);
+                closeCurrent();
+            }
+        }
+        closeCurrent();
+    }
+
+    void append(Path dir, Dump d) throws IOException {
+        String hour = HOUR.format(Instant.ofEpochMilli(d.written));
+        if (!hour.equals(this.currentHour)) {
+            closeCurrent();
+            applyRetention(dir);
+            this.out = new BufferedOutputStream(Files.newOutputStream(dir.resolve(hour + SUFFIX),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+            this.currentHour = hour;
+        }
+        Member m = new Member(this.out, this.level);
+        try {
+            m.write((HEADER + d.source + " " + d.written + " " + d.payload.length + "\n").getBytes(StandardCharsets.US_ASCII));
+            m.write(d.payload);
+            m.finish();
+        } finally {
+            m.release();
+        }
+        this.out.flush();
+    }
+
+    void closeCurrent() {
+        if (this.out != null) {
+            try {
+                this.out.close();
+            } catch (IOException ioe) {
+                LOG.fine("Failed to close archive file: " + ioe);
+            }
+            this.out = null;
+            this.currentHour = null;
+        }
+    }
+
+    void applyRetention(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : ds) {
+                files.add(p);
+            }
+        }
+        // Named after the hour, so they sort in time order.
+        files.sort(null);
+        long total = 0;
+        for (Path p : files) {
+            total += Files.size(p);
+        }
+        String oldest = HOUR.format(Instant.ofEpochMilli(System.currentTimeMillis() - this.retentionTime));
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            boolean tooOld = this.retentionTime > 0 && name.compareTo(oldest) < 0;
+            boolean tooBig = this.retentionSize > 0 && total > this.retentionSize;
+            if (!tooOld && !tooBig) {
+                break;
+            }
+            long size = Files.size(p);
+            Files.deleteIfExists(p);
+            total -= size;
+            LOG.fine("Deleted archive " + p + " (" + size + " bytes).");
+        }
+    }
+
+    static final class Dump {
+        final String source;
+        final long written;
+        final byte[] payload;
+
+        Dump(String source, long written, byte[] payload) {
+            this.source = source;
+            this.written = written;
+            this.payload = payload;
+        }
+    }
+
+    /*
+     * One gzip member, which leaves the underlying stream open.
+     */
+    static final class Member extends GZIPOutputStream {
+        Member(OutputStream out, int level) throws IOException {
+            super(out, 64 * 1024);
+            this.def.setLevel(level);
+        }
+
+        void release() {
+            this.def.end();
+        }
+    }
+}
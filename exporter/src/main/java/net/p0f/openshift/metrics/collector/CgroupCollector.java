@@ -0,0 +1,474 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/*
+ * Reads per-pod resource usage from the cgroup v2 hierarchy of the
+ * kubelet (kubepods.slice with the systemd driver, kubepods with cgroupfs),
+ * where every pod has a cgroup of its own, either right below the root
+ * (guaranteed pods) or below the one of its QoS class.
+ *
+ * The files of every pod are opened once and read with positional reads,
+ * which make cgroupfs regenerate them, into a single buffer. The key/value
+ * files (cpu.stat, memory.stat) are laid out the same for every cgroup of a
+ * kernel, so the line each key is on is learned once and then only checked.
+ *
+ * The directories are only listed again when the watch service (inotify)
+ * reports pod cgroups coming or going, or every so often in case it missed
+ * some, or could not be set up at all. A pod whose files cannot be read any
+ * more is dropped right away.
+ */
+@ApplicationScoped
+@Named("cgroupCollector")
+public class CgroupCollector {
+    static final Logger LOG = Logger.getLogger(CgroupCollector.class.getName());
+
+    // The pod UID, with underscores instead of dashes in systemd slice names.
+    static final Pattern POD = Pattern.compile(
+            "pod([0-9a-f]{8}[-_][0-9a-f]{4}[-_][0-9a-f]{4}[-_][0-9a-f]{4}[-_][0-9a-f]{12})(?:\\.slice)?$");
+
+    static final String[] FILES = {
+            "cpu.stat", "memory.current", "memory.stat", "io.stat", "cpu.pressure", "memory.pressure", "io.pressure"
+    };
+    static final int CPU_STAT = 0;
+    static final int MEMORY_CURRENT = 1;
+    static final int MEMORY_STAT = 2;
+    static final int IO_STAT = 3;
+    static final int CPU_PRESSURE = 4;
+    static final int MEMORY_PRESSURE = 5;
+    static final int IO_PRESSURE = 6;
+
+    static final byte[] SOME = ProcFile.key("some");
+    static final byte[] FULL = ProcFile.key("full");
+    static final byte[] TOTAL_EQ = ProcFile.key("total=");
+
+    static final double USEC = 1e-6;
+
+    /*
+     * Everything read for a pod, in the order of its values: the file, the
+     * key in it (if there is more than one value in the file), the scale to
+     * turn it into base units, and how it is exported.
+     */
+    public static final Field[] FIELDS = {
+            new Field(CPU_STAT, "usage_usec", USEC, "pod.cpu.usage", true),
+            new Field(CPU_STAT, "user_usec", USEC, "pod.cpu.user", true),
+            new Field(CPU_STAT, "system_usec", USEC, "pod.cpu.system", true),
+            new Field(CPU_STAT, "nr_periods", 1, "pod.cpu.periods", true),
+            new Field(CPU_STAT, "nr_throttled", 1, "pod.cpu.throttled.periods", true),
+            new Field(CPU_STAT, "throttled_usec", USEC, "pod.cpu.throttled", true),
+            new Field(MEMORY_CURRENT, null, 1, "pod.memory.current", false),
+            new Field(MEMORY_STAT, "anon", 1, "pod.memory.anon", false),
+            new Field(MEMORY_STAT, "file", 1, "pod.memory.file", false),
+            new Field(MEMORY_STAT, "kernel_stack", 1, "pod.memory.kernel.stack", false),
+            new Field(MEMORY_STAT, "slab", 1, "pod.memory.slab", false),
+            new Field(MEMORY_STAT, "sock", 1, "pod.memory.sock", false),
+            new Field(MEMORY_STAT, "shmem", 1, "pod.memory.shmem", false),
+            new Field(MEMORY_STAT, "file_dirty", 1, "pod.memory.file.dirty", false),
+            new Field(MEMORY_STAT, "file_writeback", 1, "pod.memory.file.writeback", false),
+            new Field(MEMORY_STAT, "pgfault", 1, "pod.memory.fault.minor", true),
+            new Field(MEMORY_STAT, "pgmajfault", 1, "pod.memory.fault.major", true),
+            new Field(MEMORY_STAT, "workingset_refault_anon", 1, "pod.memory.refault.anon", true),
+            new Field(MEMORY_STAT, "workingset_refault_file", 1, "pod.memory.refault.file", true),
+            // Summed up over all devices, in the order the kernel writes them.
+            new Field(IO_STAT, "rbytes=", 1, "pod.io.read.bytes", true),
+            new Field(IO_STAT, "wbytes=", 1, "pod.io.write.bytes", true),
+            new Field(IO_STAT, "rios=", 1, "pod.io.read.ops", true),
+            new Field(IO_STAT, "wios=", 1, "pod.io.write.ops", true),
+            new Field(IO_STAT, "dbytes=", 1, "pod.io.discard.bytes", true),
+            new Field(IO_STAT, "dios=", 1, "pod.io.discard.ops", true),
+            new Field(CPU_PRESSURE, "some", USEC, "pod.pressure.cpu.some", true),
+            new Field(CPU_PRESSURE, "full", USEC, "pod.pressure.cpu.full", true),
+            new Field(MEMORY_PRESSURE, "some", USEC, "pod.pressure.memory.some", true),
+            new Field(MEMORY_PRESSURE, "full", USEC, "pod.pressure.memory.full", true),
+            new Field(IO_PRESSURE, "some", USEC, "pod.pressure.io.some", true),
+            new Field(IO_PRESSURE, "full", USEC, "pod.pressure.io.full", true)
+    };
+
+    @ConfigProperty(defaultValue = "/sys/fs/cgroup/kubepods.slice", name = "exporter.cgroup.root")
+    String root;
+
+    // Milliseconds between full rescans of the tree, whatever inotify says.
+    @ConfigProperty(defaultValue = "300000", name = "exporter.cgroup.rescan")
+    long rescanPeriod;
+
+    // Only ever used with the lock held.
+    final ProcFile buf = new ProcFile(Paths.get("/"), 8192);
+    final KeyTable cpuStat = new KeyTable(CPU_STAT);
+    final KeyTable memoryStat = new KeyTable(MEMORY_STAT);
+    final int memoryCurrent = fields(MEMORY_CURRENT)[0];
+    final int[] ioFields = fields(IO_STAT);
+    final int[][] pressureFields = { fields(CPU_PRESSURE), fields(MEMORY_PRESSURE), fields(IO_PRESSURE) };
+
+    Path rootPath;
+    WatchService watcher;
+    final Map<Path, Pod> pods = new HashMap<>();
+    long lastScan;
+
+    /*
+     * Reads all the pods, returning the ones that are there now.
+     */
+    public synchronized List<Pod> collect() throws IOException {
+        long start = System.nanoTime();
+        if (this.rootPath == null) {
+            open();
+            rescan();
+        } else if (changed() || start - this.lastScan > TimeUnit.MILLISECONDS.toNanos(this.rescanPeriod)) {
+            rescan();
+        }
+
+        Iterator<Pod> it = this.pods.values().iterator();
+        while (it.hasNext()) {
+            Pod pod = it.next();
+            try {
+                read(pod);
+            } catch (IOException ioe) {
+                // Removed cgroups answer ENODEV through the channels still open.
+                LOG.fine("Pod cgroup " + pod.dir + " is gone: " + ioe);
+                it.remove();
+                pod.close();
+            }
+        }
+
+        LOG.fine("Read " + this.pods.size() + " pod cgroups in " + (System.nanoTime() - start) / 1000 + "us.");
+        return new ArrayList<>(this.pods.values());
+    }
+
+    void open() {
+        this.rootPath = Paths.get(this.root);
+        try {
+            this.watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException ioe) {
+            LOG.warning("Cannot watch " + this.rootPath + ", only rescanning it every " + this.rescanPeriod
+                    + "ms: " + ioe);
+        }
+    }
+
+    /*
+     * True if any of the watched directories changed since the last call.
+     */
+    boolean changed() {
+        if (this.watcher == null) {
+            return false;
+        }
+        boolean changed = false;
+        WatchKey key;
+        while ((key = this.watcher.poll()) != null) {
+            changed |= !key.pollEvents().isEmpty();
+            key.reset();
+        }
+        return changed;
+    }
+
+    /*
+     * Lists the pod cgroups, below the root and below each QoS class,
+     * opening the new ones and closing the vanished ones.
+     */
+    void rescan() throws IOException {
+        this.lastScan = System.nanoTime();
+        Map<Path, String> found = new HashMap<>();
+        watch(this.rootPath);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.rootPath, Files::isDirectory)) {
+            for (Path dir : ds) {
+                String name = dir.getFileName().toString();
+                if (POD.matcher(name).find()) {
+                    found.put(dir, "guaranteed");
+                } else if (name.contains("burstable") || name.contains("besteffort")) {
+                    String qos = name.contains("burstable") ? "burstable" : "besteffort";
+                    watch(dir);
+                    try (DirectoryStream<Path> qds = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                        for (Path pod : qds) {
+                            if (POD.matcher(pod.getFileName().toString()).find()) {
+                                found.put(pod, qos);
+                            }
+                        }
+                    } catch (NoSuchFileException nsfe) {
+                        // Just removed.
+                    }
+                }
+            }
+        } catch (NoSuchFileException nsfe) {
+            LOG.fine("No cgroups at " + this.rootPath + " yet.");
+        }
+
+        Iterator<Pod> it = this.pods.values().iterator();
+        while (it.hasNext()) {
+            Pod pod = it.next();
+            if (!found.containsKey(pod.dir)) {
+                it.remove();
+                pod.close();
+            }
+        }
+        int added = 0;
+        for (Map.Entry<Path, String> e : found.entrySet()) {
+            if (!this.pods.containsKey(e.getKey())) {
+                Matcher m = POD.matcher(e.getKey().getFileName().toString());
+                m.find();
+                try {
+                    this.pods.put(e.getKey(), new Pod(e.getKey(), m.group(1).replace('_', '-'), e.getValue()));
+                    added++;
+                } catch (IOException ioe) {
+                    LOG.fine("Cannot open pod cgroup " + e.getKey() + ": " + ioe);
+                }
+            }
+        }
+        LOG.fine("Rescanned " + this.rootPath + ": " + this.pods.size() + " pods, " + added + " new.");
+    }
+
+    void watch(Path dir) {
+        if (this.watcher == null) {
+            return;
+        }
+        try {
+            // Same key as before if it is already registered.
+            dir.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException ioe) {
+            LOG.fine("Cannot watch " + dir + ": " + ioe);
+        }
+    }
+
+    /*
+     * Reads all the files of the pod into its spare values, then makes
+     * those the current ones.
+     */
+    void read(Pod pod) throws IOException {
+        double[] v = pod.spare;
+        Arrays.fill(v, 0);
+        ProcFile f = this.buf;
+        FileChannel[] ch = pod.channels;
+
+        // cpu.stat is always there, and tells whether the pod still is.
+        f.load(ch[CPU_STAT], true);
+        this.cpuStat.parse(f, v);
+        if (ch[MEMORY_CURRENT] != null && f.load(ch[MEMORY_CURRENT], true) && f.nextLine()) {
+            v[this.memoryCurrent] = Math.max(f.nextLong(), 0);
+        }
+        if (ch[MEMORY_STAT] != null && f.load(ch[MEMORY_STAT], true)) {
+            this.memoryStat.parse(f, v);
+        }
+        if (ch[IO_STAT] != null && f.load(ch[IO_STAT], true)) {
+            // 8:0 rbytes=1 wbytes=2 rios=3 wios=4 dbytes=5 dios=6
+            while (f.nextLine()) {
+                for (int i : this.ioFields) {
+                    if (!f.skipPastWord(FIELDS[i].key)) {
+                        break;
+                    }
+                    v[i] += Math.max(f.nextLong(), 0) * FIELDS[i].scale;
+                }
+            }
+        }
+        for (int p = 0; p < this.pressureFields.length; p++) {
+            FileChannel c = ch[CPU_PRESSURE + p];
+            if (c == null || !f.load(c, true)) {
+                continue;
+            }
+            // some avg10=0.00 avg60=0.00 avg300=0.00 total=12345
+            int[] fields = this.pressureFields[p];
+            while (f.nextLine()) {
+                int i = f.startsWith(SOME) ? fields[0] : f.startsWith(FULL) ? fields[1] : -1;
+                if (i >= 0 && f.skipPastWord(TOTAL_EQ)) {
+                    v[i] = Math.max(f.nextLong(), 0) * FIELDS[i].scale;
+                }
+            }
+        }
+
+        pod.spare = pod.values;
+        pod.values = v;
+    }
+
+    static int[] fields(int file) {
+        int[] fields = new int[0];
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].file == file) {
+                fields = Arrays.copyOf(fields, fields.length + 1);
+                fields[fields.length - 1] = i;
+            }
+        }
+        return fields;
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        for (Pod pod : this.pods.values()) {
+            pod.close();
+        }
+        this.pods.clear();
+        if (this.watcher != null) {
+            try {
+                this.watcher.close();
+            } catch (IOException ioe) {
+                LOG.fine("Failed to close watch service: " + ioe);
+            }
+        }
+    }
+
+    public static final class Field {
+        final int file;
+        final byte[] key;
+        final double scale;
+        final String name;
+        final boolean counter;
+
+        Field(int file, String key, double scale, String name, boolean counter) {
+            this.file = file;
+            this.key = key == null ? null : ProcFile.key(key);
+            this.scale = scale;
+            this.name = name;
+            this.counter = counter;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Cumulative since the cgroup was created, rather than a current level.
+        public boolean isCounter() {
+            return counter;
+        }
+    }
+
+    /*
+     * The keys of a "key value" file, with the line each of them was on the
+     * last time. Lines are only compared with the key expected there, and
+     * the whole file is looked at again (and the lines learned anew) only
+     * if one of them is not where it was.
+     */
+    static final class KeyTable {
+        final int[] fields;
+        // Per line, the index into fields of its key, or -1 for lines of no interest.
+        int[] lines = new int[0];
+
+        KeyTable(int file) {
+            this.fields = fields(file);
+        }
+
+        void parse(ProcFile f, double[] values) {
+            if (this.lines.length == 0 || !parseKnown(f, values)) {
+                f.rewind();
+                learn(f, values);
+            }
+        }
+
+        boolean parseKnown(ProcFile f, double[] values) {
+            int line = 0;
+            while (f.nextLine()) {
+                if (line == this.lines.length) {
+                    return false;
+                }
+                int k = this.lines[line++];
+                if (k < 0) {
+                    continue;
+                }
+                Field field = FIELDS[this.fields[k]];
+                if (!f.isKey(field.key)) {
+                    return false;
+                }
+                values[this.fields[k]] = Math.max(f.nextLong(), 0) * field.scale;
+            }
+            return line == this.lines.length;
+        }
+
+        void learn(ProcFile f, double[] values) {
+            int[] lines = new int[64];
+            int line = 0;
+            while (f.nextLine()) {
+                if (line == lines.length) {
+                    lines = Arrays.copyOf(lines, line * 2);
+                }
+                lines[line] = -1;
+                for (int k = 0; k < this.fields.length; k++) {
+                    Field field = FIELDS[this.fields[k]];
+                    if (f.isKey(field.key)) {
+                        values[this.fields[k]] = Math.max(f.nextLong(), 0) * field.scale;
+                        lines[line] = k;
+                        break;
+                    }
+                }
+                line++;
+            }
+            this.lines = Arrays.copyOf(lines, line);
+        }
+    }
+
+    /*
+     * The cgroup of a pod, with its files kept open. Values are written to
+     * the spare array and then swapped in, so readers always see all the
+     * values of one read.
+     */
+    public static final class Pod {
+        final Path dir;
+        final String uid;
+        final String qos;
+        final FileChannel[] channels = new FileChannel[FILES.length];
+        volatile double[] values = new double[FIELDS.length];
+        double[] spare = new double[FIELDS.length];
+
+        Pod(Path dir, String uid, String qos) throws IOException {
+            this.dir = dir;
+            this.uid = uid;
+            this.qos = qos;
+            for (int i = 0; i < FILES.length; i++) {
+                try {
+                    this.channels[i] = FileChannel.open(dir.resolve(FILES[i]), StandardOpenOption.READ);
+                } catch (NoSuchFileException nsfe) {
+                    if (i == CPU_STAT) {
+                        close();
+                        throw nsfe;
+                    }
+                    // No PSI, or the controller is not enabled for it.
+                }
+            }
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        public String getQos() {
+            return qos;
+        }
+
+        public double get(int field) {
+            return this.values[field];
+        }
+
+        void close() {
+            for (int i = 0; i < this.channels.length; i++) {
+                if (this.channels[i] != null) {
+                    try {
+                        this.channels[i].close();
+                    } catch (IOException ioe) {
+                        LOG.fine("Failed to close " + this.dir.resolve(FILES[i]) + ": " + ioe);
+                    }
+                    this.channels[i] = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/*
+ * Tells which container an accounting record belongs to, from the cgroup
+ * of the process, which the exporter can see as it shares the PID
+ * namespace of the host.
+ *
+ * Records are only written once a process has exited, so by the time they
+ * are read its own /proc entry is long gone. What is usually still there
+ * is its parent (the shell, JVM or init of the container that spawned it),
+ * which is in the same container. Every lookup is remembered in a bounded
+ * LRU cache, by pid, together with the time span that pid stood for that
+ * process: from its start until its exit, once its own record shows up.
+ * A record whose parent is cached for the time it was started in is
+ * resolved without touching /proc at all, and its own result is cached in
+ * turn for the records of its children.
+ *
+ * Parents that are gone as well are remembered as unknown, but only for
+ * processes started before they were found missing, so that a new process
+ * reusing the pid gets looked up again.
+ */
+@ApplicationScoped
+@Named("containerResolver")
+public class ContainerResolver {
+    static final Logger LOG = Logger.getLogger(ContainerResolver.class.getName());
+
+    // Container ID as the last part of a cgroup path, as the systemd (crio-<id>.scope and
+    // so on) or cgroupfs (just <id>) drivers name it. conmon scopes do not match.
+    static final Pattern CONTAINER_ID = Pattern.compile(
+            "/(?:(?:crio|docker|cri-containerd|containerd)-)?([0-9a-f]{64})(?:\\.scope)?$");
+    // Clock ticks per second of /proc/<pid>/stat, USER_HZ, which is always 100.
+    static final long USER_HZ = 100;
+
+    // Whether to resolve containers at all.
+    @ConfigProperty(defaultValue = "false", name = "exporter.psacct.containers")
+    boolean enabled;
+
+    // Most processes to remember.
+    @ConfigProperty(defaultValue = "8192", name = "exporter.psacct.containers.cache")
+    int cacheSize;
+
+    @ConfigProperty(defaultValue = "/proc", name = "exporter.procfs.root")
+    String procRoot;
+
+    Path proc;
+    // Epoch seconds, what /proc/<pid>/stat start times are relative to.
+    long bootTime;
+
+    Map<Integer, Resolved> cache;
+
+    @PostConstruct
+    void init() {
+        if (!this.enabled) {
+            return;
+        }
+        this.proc = Paths.get(this.procRoot);
+        ProcFile stat = new ProcFile(this.proc.resolve("stat"), 16384);
+        byte[] btime = ProcFile.key("btime");
+        try {
+            if (stat.load()) {
+                while (stat.nextLine()) {
+                    if (stat.isKey(btime)) {
+                        this.bootTime = stat.nextLong();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            LOG.warning("Failed to read boot time from " + stat.getPath() + ": " + ioe);
+        }
+        final int max = this.cacheSize;
+        this.cache = new LinkedHashMap<Integer, Resolved>(max * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Resolved> eldest) {
+                return size() > max;
+            }
+        };
+        LOG.fine("Resolving psacct containers through " + this.proc + ", booted at " + this.bootTime
+                + ", caching up to " + max + " processes");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * Returns the container ID of the process of a record, or an empty
+     * string if it was not in a container or could not be told. Times are
+     * in epoch seconds.
+     */
+    public synchronized String resolve(int pid, int ppid, long start, long exit) {
+        Resolved e = this.cache.get(pid);
+        if (e != null && sameSecond(e.start, start)) {
+            // Resolved while it was alive, or seen as the parent of others.
+            e.end = Math.min(e.end, exit);
+            return e.container;
+        }
+        String container = parent(ppid, start);
+        this.cache.put(pid, new Resolved(start, exit, container));
+        return container;
+    }
+
+    String parent(int ppid, long childStart) {
+        if (ppid <= 0) {
+            return "";
+        }
+        Resolved e = this.cache.get(ppid);
+        if (e != null && e.start <= childStart + 1 && childStart <= e.end) {
+            return e.container;
+        }
+
+        long start = startTime(ppid);
+        if (start < 0) {
+            // Gone, which stays true for whatever was started until now.
+            this.cache.put(ppid, new Resolved(0, System.currentTimeMillis() / 1000, ""));
+            return "";
+        }
+        if (start > childStart + 1) {
+            // Already reused by a younger process, which is not the parent.
+            return "";
+        }
+        String container = cgroupContainer(ppid);
+        if (container == null) {
+            this.cache.put(ppid, new Resolved(0, System.currentTimeMillis() / 1000, ""));
+            return "";
+        }
+        this.cache.put(ppid, new Resolved(start, Long.MAX_VALUE, container));
+        return container;
+    }
+
+    /*
+     * Start time of a process in epoch seconds, from field 22 of its stat
+     * file, or -1 if there is no such process. The command name in
+     * parentheses may contain anything, so fields are counted from the
+     * last closing parenthesis.
+     */
+    long startTime(int pid) {
+        byte[] stat;
+        try {
+            stat = Files.readAllBytes(this.proc.resolve(Integer.toString(pid)).resolve("stat"));
+        } catch (IOException ioe) {
+            return -1;
+        }
+        int i = stat.length - 1;
+        while (i >= 0 && stat[i] != ')') {
+            i--;
+        }
+        // ") " is followed by field 3, the state.
+        int field = 2;
+        for (i++; i < stat.length && field < 22; i++) {
+            if (stat[i] == ' ') {
+                field++;
+            }
+        }
+        long ticks = 0;
+        int digits = 0;
+        for (; i < stat.length && stat[i] >= '0' && stat[i] <= '9'; i++) {
+            ticks = ticks * 10 + (stat[i] - '0');
+            digits++;
+        }
+        return digits == 0 ? -1 : this.bootTime + ticks / USER_HZ;
+    }
+
+    /*
+     * The container ID in any of the cgroup paths of the process, an empty
+     * string if there is none, or null if the process is gone.
+     */
+    String cgroupContainer(int pid) {
+        String cgroups;
+        try {
+            cgroups = new String(Files.readAllBytes(this.proc.resolve(Integer.toString(pid)).resolve("cgroup")),
+                    StandardCharsets.US_ASCII);
+        } catch (IOException ioe) {
+            return null;
+        }
+        for (String line : cgroups.split("\n")) {
+            Matcher m = CONTAINER_ID.matcher(line);
+            if (m.find()) {
+                return m.group(1).intern();
+            }
+        }
+        return "";
+    }
+
+    /*
+     * Start times from /proc and from the records are both cut down to
+     * whole seconds, but not from the same instant.
+     */
+    static boolean sameSecond(long a, long b) {
+        return Math.abs(a - b) <= 1;
+    }
+
+    /*
+     * A process as known to the cache: its container, for the time span
+     * from its start to its exit (or until it was found to be gone).
+     */
+    static final class Resolved {
+        final long start;
+        long end;
+        final String container;
+
+        Resolved(long start, long end, String container) {
+            this.start = start;
+            this.end = end;
+            this.container = container;
+        }
+    }
+}
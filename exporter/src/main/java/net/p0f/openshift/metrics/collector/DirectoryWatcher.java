@@ -0,0 +1,184 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.ProducerTemplate;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import net.p0f.openshift.metrics.archive.DumpArchive;
+
+/*
+ * Picks up the collector dumps as soon as they appear, instead of having
+ * the Camel file component poll for them (see exporter.ingest).
+ *
+ * The collectors write each dump to a temporary name and rename it into
+ * place, and a rename into the watched directory is reported as a create
+ * event, so whatever shows up under the expected name is complete and can
+ * be read right away, with no read lock to wait out. Each file is then
+ * deleted or moved to done/ just like the file component does (see
+ * DumpArchive), and its contents handed to the same route, along with its
+ * modification time so that the latency can be measured the same way in
+ * both modes.
+ */
+@ApplicationScoped
+@Named("directoryWatcher")
+public class DirectoryWatcher implements Runnable {
+    static final Logger LOG = Logger.getLogger(DirectoryWatcher.class.getName());
+
+    public static final String SYSSTAT_ENDPOINT = "direct:sysstat-file";
+    public static final String PSACCT_ENDPOINT = "direct:psacct-file";
+
+    static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    static final DateTimeFormatter SECOND = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
+    String dataPath;
+
+    // Either "poll" (the Camel file component) or "watch".
+    @ConfigProperty(defaultValue = "poll", name = "exporter.ingest")
+    String ingest;
+
+    @ConfigProperty(defaultValue = "sadf", name = "exporter.sysstat.source")
+    String sysstatSource;
+
+    @ConfigProperty(defaultValue = "sa", name = "exporter.psacct.source")
+    String psacctSource;
+
+    @Inject
+    ProducerTemplate producer;
+
+    @Inject
+    DumpArchive dumpArchive;
+
+    // File name to watch for, and where to send it and as what.
+    final Map<String, String[]> targets = new LinkedHashMap<>();
+
+    WatchService watcher;
+    Thread thread;
+
+    void onStart(@Observes StartupEvent ev) throws IOException {
+        if (!"watch".equals(this.ingest)) {
+            return;
+        }
+        if ("sadf".equals(this.sysstatSource)) {
+            this.targets.put("sysstat-dump.json", new String[] { SYSSTAT_ENDPOINT, "sysstat" });
+        }
+        if ("sa".equals(this.psacctSource)) {
+            this.targets.put("psacct-dump-all", new String[] { PSACCT_ENDPOINT, "psacct" });
+        }
+        if (this.targets.isEmpty()) {
+            return;
+        }
+        Path dir = Paths.get(this.dataPath);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        dir.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        LOG.info("Watching " + dir + " for " + this.targets.keySet());
+
+        this.thread = new Thread(this, "ingest-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (this.watcher != null) {
+            try {
+                this.watcher.close();
+            } catch (IOException ioe) {
+                LOG.fine("Failed to close watch service: " + ioe);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Path dir = Paths.get(this.dataPath);
+        // Whatever was written while nobody was watching.
+        rescan(dir);
+        try {
+            while (true) {
+                WatchKey key = this.watcher.take();
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        LOG.fine("Watch events overflowed, rescanning " + dir);
+                        rescan(dir);
+                        continue;
+                    }
+                    String name = e.context().toString();
+                    String[] target = this.targets.get(name);
+                    if (target != null) {
+                        ingest(dir.resolve(name), target[0], target[1]);
+                    }
+                }
+                if (!key.reset()) {
+                    LOG.warning("Directory " + dir + " is no longer accessible, not watching it any more.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.fine("Stopped watching " + dir);
+        }
+    }
+
+    void rescan(Path dir) {
+        for (Map.Entry<String, String[]> t : this.targets.entrySet()) {
+            Path file = dir.resolve(t.getKey());
+            if (Files.exists(file)) {
+                ingest(file, t.getValue()[0], t.getValue()[1]);
+            }
+        }
+    }
+
+    void ingest(Path file, String endpoint, String prefix) {
+        byte[] body;
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(file).toMillis();
+            body = Files.readAllBytes(file);
+            // Out of the way before the next one is renamed into place.
+            if (this.dumpArchive.isEnabled()) {
+                // The route archives it.
+                Files.delete(file);
+            } else {
+                LocalDateTime now = LocalDateTime.now();
+                Path done = Paths.get(this.dataPath, "done", DAY.format(now), prefix + "-" + SECOND.format(now));
+                Files.createDirectories(done.getParent());
+                Files.move(file, done, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (NoSuchFileException nsfe) {
+            // Already taken care of.
+            return;
+        } catch (IOException ioe) {
+            LOG.warning("Failed to pick up " + file + ": " + ioe);
+            return;
+        }
+        try {
+            this.producer.sendBodyAndHeader(endpoint, body, Exchange.FILE_LAST_MODIFIED, modified);
+        } catch (RuntimeException re) {
+            LOG.warning("Failed to process " + file + ": " + re);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.exporter.ExecHistograms;
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Reads kernel process accounting records (struct acct_v3) directly from
+ * the pacct file, instead of having the sidecar summarise them with "sa".
+ *
+ * The file is kept open and only records appended since the last call are
+ * decoded, so nothing ever needs to truncate it. When the sidecar rotates
+ * the file (renames it, creates a new one and switches accounting over to
+ * it), the new file may show up before the kernel has stopped appending to
+ * the old one. So the old file is kept open, and drained again on every
+ * read, until it has stopped growing from one read to the next; only then
+ * is it closed, so no records are lost in between.
+ *
+ * Layout of struct acct_v3 (see linux/acct.h), 64 bytes in native order:
+ *    0 ac_flag     1 ac_version  2 ac_tty      4 ac_exitcode
+ *    8 ac_uid     12 ac_gid     16 ac_pid     20 ac_ppid
+ *   24 ac_btime   28 ac_etime (float)
+ *   32 ac_utime   34 ac_stime   36 ac_mem     38 ac_io
+ *   40 ac_rw      42 ac_minflt  44 ac_majflt  46 ac_swaps (all comp_t)
+ *   48 ac_comm[16]
+ */
+@ApplicationScoped
+@Named("pacctReader")
+public class PacctReader {
+    static final Logger LOG = Logger.getLogger(PacctReader.class.getName());
+
+    static final int RECORD_SIZE = 64;
+    static final int ACCT_VERSION = 3;
+    static final int ACCT_BYTEORDER = 0x80;
+    static final int AFORK = 0x01;
+    // Times are reported in AHZ ticks, which is always 100.
+    static final float AHZ = 100f;
+
+    @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
+    String dataPath;
+
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    @Inject
+    ExecHistograms execHistograms;
+
+    @Inject
+    ContainerResolver containerResolver;
+
+    final ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    final ProcFile.NameTable names = new ProcFile.NameTable();
+    final byte[] comm = new byte[16];
+
+    // The file accounting goes to, and the one it was rotated away from, until done with.
+    Source current;
+    Source retired;
+    boolean warnedVersion;
+
+    /*
+     * Returns per-command (and, if resolved, per-container) aggregates of
+     * all the records appended since the previous call.
+     */
+    public synchronized List<ProcessAccountingRecord> readNewRecords() throws IOException {
+        // By container, then by command.
+        Map<String, Map<String, ProcessAccountingRecord>> aggregates = new HashMap<>();
+        Path path = Paths.get(this.dataPath, "pacct");
+
+        if (this.retired != null) {
+            drainRetired(aggregates);
+        }
+
+        if (this.current == null) {
+            this.current = open(path);
+        }
+        if (this.current != null) {
+            drain(this.current, aggregates);
+
+            // Rotated by the sidecar? Everything up to now was in the old file.
+            Object currentKey = fileKey(path);
+            if (currentKey != null && !Objects.equals(currentKey, this.current.fileKey)) {
+                LOG.fine("Accounting file " + path + " was rotated, switching over.");
+                if (this.retired != null) {
+                    // Rotated again already, the one before is long done with.
+                    drain(this.retired, aggregates);
+                    this.retired.close();
+                }
+                this.retired = this.current;
+                this.current = open(path);
+                if (this.current != null) {
+                    drain(this.current, aggregates);
+                }
+            }
+        }
+
+        if (this.execHistograms.isEnabled()) {
+            this.execHistograms.touchRecorded();
+        }
+        List<ProcessAccountingRecord> records = new ArrayList<>();
+        for (Map<String, ProcessAccountingRecord> commands : aggregates.values()) {
+            records.addAll(commands.values());
+        }
+        LOG.fine("Read " + records.size() + " distinct commands in " + aggregates.size() + " containers from "
+                + path + (this.current != null ? " up to offset " + this.current.offset : ""));
+        return records;
+    }
+
+    static Source open(Path path) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException nsfe) {
+            LOG.fine("No accounting file at " + path + " yet.");
+            return null;
+        }
+        return new Source(channel, fileKey(path));
+    }
+
+    /*
+     * Reads what was appended to the rotated file since the last time, and
+     * closes it if there was nothing: accounting has switched over by now.
+     */
+    void drainRetired(Map<String, Map<String, ProcessAccountingRecord>> aggregates) throws IOException {
+        long size = this.retired.size;
+        drain(this.retired, aggregates);
+        if (this.retired.size == size) {
+            LOG.fine("Rotated accounting file stopped growing at " + size + " bytes, closing it.");
+            this.retired.close();
+            this.retired = null;
+        }
+    }
+
+    void drain(Source src, Map<String, Map<String, ProcessAccountingRecord>> aggregates) throws IOException {
+        long size = src.channel.size();
+        if (size < src.offset) {
+            // Truncated in place - whatever was appended in between is gone.
+            LOG.warning("Accounting file shrank from " + src.offset + " to " + size + " bytes, starting over.");
+            src.offset = 0;
+        }
+        src.size = size;
+        // Only ever consume whole records.
+        long end = size - size % RECORD_SIZE;
+        while (src.offset < end) {
+            this.buf.clear();
+            this.buf.limit((int) Math.min(this.buf.capacity(), end - src.offset));
+            int n = src.channel.read(this.buf, src.offset);
+            if (n <= 0) {
+                break;
+            }
+            int whole = n - n % RECORD_SIZE;
+            for (int rec = 0; rec < whole; rec += RECORD_SIZE) {
+                decode(rec, aggregates);
+            }
+            src.offset += whole;
+        }
+    }
+
+    void decode(int rec, Map<String, Map<String, ProcessAccountingRecord>> aggregates) {
+        int version = this.buf.get(rec + 1) & 0xff;
+        if ((version & ~ACCT_BYTEORDER) != ACCT_VERSION) {
+            if (!this.warnedVersion) {
+                LOG.warning("Unsupported accounting record version " + (version & ~ACCT_BYTEORDER) + ", skipping.");
+                this.warnedVersion = true;
+            }
+            return;
+        }
+        this.buf.order((version & ACCT_BYTEORDER) != 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        // Same naming as "sa": commands that forked but never exec'd get a star.
+        String name = command(rec, (this.buf.get(rec) & AFORK) != 0);
+        float elapsed = this.buf.getFloat(rec + 28);
+
+        String container = "";
+        if (this.containerResolver.isEnabled()) {
+            long btime = this.buf.getInt(rec + 24) & 0xffffffffL;
+            container = this.containerResolver.resolve(this.buf.getInt(rec + 16), this.buf.getInt(rec + 20),
+                    btime, btime + (long) Math.ceil(elapsed / AHZ));
+        }
+        Map<String, ProcessAccountingRecord> commands = aggregates.get(container);
+        if (commands == null) {
+            commands = new HashMap<>();
+            aggregates.put(container, commands);
+        }
+        ProcessAccountingRecord par = commands.get(name);
+        if (par == null) {
+            par = new ProcessAccountingRecord();
+            par.setProcessName(name);
+            par.setHostName(this.nodeIdentity.getName());
+            par.setContainerName(container);
+            commands.put(name, par);
+        }
+
+        long user = comp(rec + 32);
+        long system = comp(rec + 34);
+        par.setNumCalls(par.getNumCalls() + 1);
+        par.setElapsedTime(par.getElapsedTime() + elapsed / AHZ);
+        par.setUserTime(par.getUserTime() + user / AHZ);
+        par.setSystemTime(par.getSystemTime() + system / AHZ);
+        par.setMinFaults(par.getMinFaults() + (int) comp(rec + 42));
+        par.setMajFaults(par.getMajFaults() + (int) comp(rec + 44));
+        par.setSwapEvents(par.getSwapEvents() + (int) comp(rec + 46));
+
+        // The only place individual execs are seen, the rest only ever gets sums.
+        if (this.execHistograms.isEnabled()) {
+            this.execHistograms.record(name, container, elapsed, user, system);
+        }
+    }
+
+    String command(int rec, boolean forked) {
+        int len = 0;
+        while (len < 15 && this.buf.get(rec + 48 + len) != 0) {
+            this.comm[len] = this.buf.get(rec + 48 + len);
+            len++;
+        }
+        if (forked) {
+            this.comm[len++] = '*';
+        }
+        return this.names.intern(this.comm, 0, len);
+    }
+
+    /*
+     * comp_t is a 13-bit mantissa with a 3-bit base-8 exponent.
+     */
+    long comp(int idx) {
+        int c = this.buf.getShort(idx) & 0xffff;
+        return (long) (c & 0x1fff) << (((c >> 13) & 0x7) * 3);
+    }
+
+    static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (this.retired != null) {
+            this.retired.close();
+            this.retired = null;
+        }
+        if (this.current != null) {
+            this.current.close();
+            this.current = null;
+        }
+    }
+
+    /*
+     * An open accounting file, and how far it has been read.
+     */
+    static final class Source {
+        final FileChannel channel;
+        final Object fileKey;
+        long offset;
+        // As of the last drain.
+        long size;
+
+        Source(FileChannel channel, Object fileKey) {
+            this.channel = channel;
+            this.fileKey = fileKey;
+        }
+
+        void close() {
+            try {
+                this.channel.close();
+            } catch (IOException ioe) {
+                LOG.fine("Failed to close accounting file: " + ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * A line scanner over the contents of a single /proc or /sys file.
+ *
+ * The file is re-read into the same byte buffer on every load(), and all
+ * numeric parsing happens directly on the bytes, so that steady-state
+ * collection does not allocate. Only words (device names) are turned into
+ * Strings, and those are interned through a small table, so the same name
+ * yields the same String instance on every cycle.
+ */
+public class ProcFile {
+    private final Path path;
+    private byte[] buf;
+    private int len;
+
+    // Current line is [lineStart, lineEnd), cursor is pos.
+    private int lineStart;
+    private int lineEnd;
+    private int pos;
+
+    private final NameTable names = new NameTable();
+
+    public ProcFile(Path path) {
+        this(path, 4096);
+    }
+
+    public ProcFile(Path path, int initialSize) {
+        this.path = path;
+        this.buf = new byte[initialSize];
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /*
+     * Reads the whole file. Returns false if it does not exist (such as
+     * /proc/pressure on kernels without PSI).
+     */
+    public boolean load() throws IOException {
+        try (FileChannel fc = FileChannel.open(this.path, StandardOpenOption.READ)) {
+            return load(fc, false);
+        } catch (NoSuchFileException nsfe) {
+            this.len = 0;
+            rewind();
+            return false;
+        }
+    }
+
+    /*
+     * Reads the whole file from an already open channel. With positional
+     * reads, sysfs and cgroupfs regenerate the contents for offset zero, so
+     * the same channel can be re-used across cycles. They also fill as much
+     * of the buffer as there is, so a short read is the end of the file,
+     * which saves the read that would return nothing.
+     */
+    public boolean load(FileChannel fc, boolean positional) throws IOException {
+        this.len = 0;
+        while (true) {
+            if (this.len == this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, this.buf.length * 2);
+            }
+            ByteBuffer bb = ByteBuffer.wrap(this.buf, this.len, this.buf.length - this.len);
+            int n = positional ? fc.read(bb, this.len) : fc.read(bb);
+            if (n <= 0) {
+                break;
+            }
+            this.len += n;
+            if (positional && this.len < this.buf.length) {
+                break;
+            }
+        }
+        rewind();
+        return true;
+    }
+
+    public void rewind() {
+        this.lineStart = 0;
+        this.lineEnd = -1;
+        this.pos = 0;
+    }
+
+    public boolean isEmpty() {
+        return this.len == 0;
+    }
+
+    /*
+     * Moves to the next line. Must be called before reading the first one.
+     */
+    public boolean nextLine() {
+        int start = this.lineEnd + 1;
+        if (start >= this.len) {
+            return false;
+        }
+        int end = start;
+        while (end < this.len && this.buf[end] != '\n') {
+            end++;
+        }
+        this.lineStart = start;
+        this.lineEnd = end;
+        this.pos = start;
+        return true;
+    }
+
+    public boolean startsWith(byte[] prefix) {
+        if (this.lineEnd - this.lineStart < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.buf[this.lineStart + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * True if the line starts with the key, followed by a blank or a colon,
+     * which is how /proc/meminfo, /proc/vmstat and friends look.
+     */
+    public boolean isKey(byte[] key) {
+        if (!startsWith(key)) {
+            return false;
+        }
+        int after = this.lineStart + key.length;
+        return after < this.lineEnd && (this.buf[after] == ' ' || this.buf[after] == ':' || this.buf[after] == '\t');
+    }
+
+    /*
+     * Positions the cursor just after the first occurrence of b in the
+     * current line, returning false if there is none.
+     */
+    public boolean skipPast(byte b) {
+        while (this.pos < this.lineEnd) {
+            if (this.buf[this.pos++] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Positions the cursor just after the first occurrence of the word in
+     * the current line, returning false if there is none.
+     */
+    public boolean skipPastWord(byte[] word) {
+        int last = this.lineEnd - word.length;
+        outer:
+        for (int i = this.pos; i <= last; i++) {
+            for (int j = 0; j < word.length; j++) {
+                if (this.buf[i + j] != word[j]) {
+                    continue outer;
+                }
+            }
+            this.pos = i + word.length;
+            return true;
+        }
+        return false;
+    }
+
+    public void skipBlanks() {
+        while (this.pos < this.lineEnd && (this.buf[this.pos] == ' ' || this.buf[this.pos] == '\t')) {
+            this.pos++;
+        }
+    }
+
+    /*
+     * Returns the next blank-separated word in the current line, up to (and
+     * consuming) the optional terminator, or null if the line is exhausted.
+     */
+    public String nextWord(byte terminator) {
+        skipBlanks();
+        int start = this.pos;
+        while (this.pos < this.lineEnd
+                && this.buf[this.pos] != ' '
+                && this.buf[this.pos] != '\t'
+                && this.buf[this.pos] != terminator) {
+            this.pos++;
+        }
+        if (this.pos == start) {
+            return null;
+        }
+        String word = this.names.intern(this.buf, start, this.pos - start);
+        if (this.pos < this.lineEnd && this.buf[this.pos] == terminator) {
+            this.pos++;
+        }
+        return word;
+    }
+
+    public String nextWord() {
+        return nextWord((byte) ' ');
+    }
+
+    /*
+     * Parses the next unsigned decimal number in the current line, skipping
+     * anything in front of it. Returns -1 if there is none.
+     */
+    public long nextLong() {
+        while (this.pos < this.lineEnd && !isDigit(this.buf[this.pos])) {
+            this.pos++;
+        }
+        if (this.pos == this.lineEnd) {
+            return -1;
+        }
+        long v = 0;
+        while (this.pos < this.lineEnd && isDigit(this.buf[this.pos])) {
+            v = v * 10 + (this.buf[this.pos++] - '0');
+        }
+        return v;
+    }
+
+    /*
+     * Same as above, but for hexadecimal numbers, such as the ones in
+     * /proc/net/softnet_stat.
+     */
+    public long nextHex() {
+        while (this.pos < this.lineEnd && hexValue(this.buf[this.pos]) < 0) {
+            this.pos++;
+        }
+        if (this.pos == this.lineEnd) {
+            return -1;
+        }
+        long v = 0;
+        int h;
+        while (this.pos < this.lineEnd && (h = hexValue(this.buf[this.pos])) >= 0) {
+            v = (v << 4) | h;
+            this.pos++;
+        }
+        return v;
+    }
+
+    /*
+     * Parses the next unsigned decimal fraction (such as "12.34") in the
+     * current line. Returns -1 if there is none.
+     */
+    public double nextDouble() {
+        long whole = nextLong();
+        if (whole < 0) {
+            return -1;
+        }
+        double v = whole;
+        if (this.pos < this.lineEnd && this.buf[this.pos] == '.') {
+            this.pos++;
+            double scale = 0.1;
+            while (this.pos < this.lineEnd && isDigit(this.buf[this.pos])) {
+                v += (this.buf[this.pos++] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return v;
+    }
+
+    /*
+     * Convenience for single-value files, such as /sys/class/net/x/speed.
+     * Returns the default if the file is missing, empty or not a number
+     * (which includes negative values).
+     */
+    public long readLong(long dflt) {
+        try {
+            if (!load() || !nextLine()) {
+                return dflt;
+            }
+            long v = nextLong();
+            return v < 0 || this.buf[this.lineStart] == '-' ? dflt : v;
+        } catch (IOException ioe) {
+            return dflt;
+        }
+    }
+
+    public static byte[] key(String k) {
+        return k.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /*
+     * Open-addressing table mapping byte sequences to String instances.
+     * Grows when half full; names that disappear (such as veth devices of
+     * deleted pods) are flushed once the table is too large to grow further.
+     */
+    static class NameTable {
+        private static final int MAX_SIZE = 1 << 16;
+
+        private byte[][] keys = new byte[64][];
+        private String[] values = new String[64];
+        private int size;
+
+        String intern(byte[] b, int off, int len) {
+            int h = 1;
+            for (int i = off; i < off + len; i++) {
+                h = 31 * h + b[i];
+            }
+            int mask = this.keys.length - 1;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (this.keys[slot] != null) {
+                if (Arrays.equals(this.keys[slot], 0, this.keys[slot].length, b, off, off + len)) {
+                    return this.values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            String s = new String(b, off, len, StandardCharsets.US_ASCII);
+            this.keys[slot] = Arrays.copyOfRange(b, off, off + len);
+            this.values[slot] = s;
+            if (++this.size * 2 > this.keys.length) {
+                resize();
+            }
+            return s;
+        }
+
+        private void resize() {
+            byte[][] oldKeys = this.keys;
+            String[] oldValues = this.values;
+            int newLength = oldKeys.length * 2;
+            if (newLength > MAX_SIZE) {
+                // Start over rather than grow without bounds.
+                newLength = oldKeys.length;
+                oldKeys = new byte[0][];
+            }
+            this.keys = new byte[newLength][];
+            this.values = new String[newLength];
+            this.size = 0;
+            int mask = newLength - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int h = 1;
+                for (byte x : oldKeys[i]) {
+                    h = 31 * h + x;
+                }
+                int slot = (h ^ (h >>> 16)) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+                this.size++;
+            }
+        }
+    }
+}
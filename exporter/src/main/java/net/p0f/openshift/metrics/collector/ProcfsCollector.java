@@ -0,0 +1,749 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+/*
+ * Fills SysstatMeasurement straight from /proc and /sys, without the sadc
+ * and sadf round trip.
+ *
+ * Kernel counters are cumulative, so every cycle remembers the raw values
+ * and the next one reports the per-second rates (or percentages) computed
+ * from the deltas, the same way sar does. The very first cycle therefore
+ * only primes the counters and returns null.
+ *
+ * Field semantics follow "sar -A" (see SysstatMeasurement), except for NFS
+ * client and server statistics, which are not collected.
+ */
+@ApplicationScoped
+@Named("procfsCollector")
+public class ProcfsCollector {
+    static final Logger LOG = Logger.getLogger(ProcfsCollector.class.getName());
+
+    static final byte[] CPU = ProcFile.key("cpu");
+    static final byte[] CTXT = ProcFile.key("ctxt");
+    static final byte[] PROCESSES = ProcFile.key("processes");
+    static final byte[] PROCS_BLOCKED = ProcFile.key("procs_blocked");
+
+    static final byte[] PSWPIN = ProcFile.key("pswpin");
+    static final byte[] PSWPOUT = ProcFile.key("pswpout");
+    static final byte[] PGPGIN = ProcFile.key("pgpgin");
+    static final byte[] PGPGOUT = ProcFile.key("pgpgout");
+    static final byte[] PGFAULT = ProcFile.key("pgfault");
+    static final byte[] PGMAJFAULT = ProcFile.key("pgmajfault");
+    static final byte[] PGFREE = ProcFile.key("pgfree");
+    static final byte[] PGSCAN_KSWAPD = ProcFile.key("pgscan_kswapd");
+    static final byte[] PGSCAN_DIRECT = ProcFile.key("pgscan_direct");
+    static final byte[] PGSCAN_DIRECT_THROTTLE = ProcFile.key("pgscan_direct_throttle");
+    static final byte[] PGSTEAL_KSWAPD = ProcFile.key("pgsteal_kswapd");
+    static final byte[] PGSTEAL_DIRECT = ProcFile.key("pgsteal_direct");
+
+    static final byte[] MEM_TOTAL = ProcFile.key("MemTotal");
+    static final byte[] MEM_FREE = ProcFile.key("MemFree");
+    static final byte[] MEM_AVAILABLE = ProcFile.key("MemAvailable");
+    static final byte[] BUFFERS = ProcFile.key("Buffers");
+    static final byte[] CACHED = ProcFile.key("Cached");
+    static final byte[] SWAP_CACHED = ProcFile.key("SwapCached");
+    static final byte[] ACTIVE = ProcFile.key("Active");
+    static final byte[] INACTIVE = ProcFile.key("Inactive");
+    static final byte[] SWAP_TOTAL = ProcFile.key("SwapTotal");
+    static final byte[] SWAP_FREE = ProcFile.key("SwapFree");
+    static final byte[] DIRTY = ProcFile.key("Dirty");
+    static final byte[] ANON_PAGES = ProcFile.key("AnonPages");
+    static final byte[] SLAB = ProcFile.key("Slab");
+    static final byte[] KERNEL_STACK = ProcFile.key("KernelStack");
+    static final byte[] PAGE_TABLES = ProcFile.key("PageTables");
+    static final byte[] COMMITTED_AS = ProcFile.key("Committed_AS");
+    static final byte[] VMALLOC_USED = ProcFile.key("VmallocUsed");
+    static final byte[] HUGE_TOTAL = ProcFile.key("HugePages_Total");
+    static final byte[] HUGE_FREE = ProcFile.key("HugePages_Free");
+    static final byte[] HUGE_RSVD = ProcFile.key("HugePages_Rsvd");
+    static final byte[] HUGE_SURP = ProcFile.key("HugePages_Surp");
+    static final byte[] HUGE_SIZE = ProcFile.key("Hugepagesize");
+
+    static final byte[] SOME = ProcFile.key("some");
+    static final byte[] FULL = ProcFile.key("full");
+    static final byte[] TOTAL_EQ = ProcFile.key("total=");
+
+    static final byte[] SOCKETS = ProcFile.key("sockets:");
+    static final byte[] TCP = ProcFile.key("TCP:");
+    static final byte[] UDP = ProcFile.key("UDP:");
+    static final byte[] RAW = ProcFile.key("RAW:");
+    static final byte[] FRAG = ProcFile.key("FRAG:");
+    static final byte[] USED = ProcFile.key("used ");
+    static final byte[] INUSE = ProcFile.key("inuse ");
+    static final byte[] TW = ProcFile.key(" tw ");
+
+    @ConfigProperty(defaultValue = "/proc", name = "exporter.procfs.root")
+    String procRoot;
+
+    @ConfigProperty(defaultValue = "/sys", name = "exporter.sysfs.root")
+    String sysRoot;
+
+    ProcFile stat;
+    ProcFile vmstat;
+    ProcFile meminfo;
+    ProcFile loadavg;
+    ProcFile diskstats;
+    ProcFile netDev;
+    ProcFile softnetStat;
+    ProcFile sockstat;
+    ProcFile psiCpu;
+    ProcFile psiIo;
+    ProcFile psiMem;
+    ProcFile hostname;
+    ProcFile dentryState;
+    ProcFile fileNr;
+    ProcFile inodeState;
+    ProcFile ptyNr;
+
+    // Previous raw counters, keyed by device (or CPU) name.
+    final Map<String, String> cpuNames = new HashMap<>();
+    final Map<String, long[]> prevCpu = new HashMap<>();
+    final Map<String, long[]> prevSoftnet = new HashMap<>();
+    final Map<String, DiskState> prevDisk = new HashMap<>();
+    final Map<String, NetState> prevNet = new HashMap<>();
+    final long[] prevStat = new long[2];
+    final long[] prevVm = new long[10];
+    final long[] prevPsi = new long[5];
+
+    long prevNanos = -1;
+    long generation = 0;
+
+    public SysstatMeasurement collect() throws IOException {
+        return collectAt(System.nanoTime());
+    }
+
+    // With the time the counters are read at, in nanoseconds.
+    synchronized SysstatMeasurement collectAt(long now) throws IOException {
+        if (this.stat == null) {
+            open();
+        }
+
+        double itv = this.prevNanos < 0 ? 0 : (now - this.prevNanos) / 1e9;
+        boolean primed = this.prevNanos >= 0;
+        this.prevNanos = now;
+        this.generation++;
+
+        SysstatMeasurement sm = new SysstatMeasurement();
+        sm.setHostname(this.hostname.load() && this.hostname.nextLine() ? this.hostname.nextWord() : null);
+
+        sm.setCpuLoad(new ArrayList<>());
+        sm.setProcessAndContextSwitch(new SysstatMeasurement.ProcessAndContextSwitch());
+        sm.setQueue(new SysstatMeasurement.Queue());
+        readStat(sm, itv);
+
+        sm.setSwapPages(new SysstatMeasurement.SwapPages());
+        sm.setPaging(new SysstatMeasurement.Paging());
+        readVmstat(sm, itv);
+
+        sm.setMemory(new SysstatMeasurement.Memory());
+        sm.setHugepages(new SysstatMeasurement.Hugepages());
+        readMeminfo(sm);
+
+        sm.setKernel(new SysstatMeasurement.Kernel());
+        readKernel(sm);
+
+        readLoadavg(sm);
+
+        sm.setIo(new SysstatMeasurement.Io());
+        sm.setDisk(new ArrayList<>());
+        readDiskstats(sm, itv);
+
+        sm.setNetwork(new SysstatMeasurement.Network());
+        readNetDev(sm, itv);
+        readSoftnet(sm, itv);
+        readSockstat(sm);
+
+        sm.setPsi(new SysstatMeasurement.Psi());
+        readPsi(sm, itv);
+
+        if (!primed) {
+            LOG.fine("Primed procfs counters, first sample available after the next cycle.");
+            return null;
+        }
+        return sm;
+    }
+
+    void open() {
+        Path proc = Paths.get(this.procRoot);
+        this.stat = new ProcFile(proc.resolve("stat"), 16384);
+        this.vmstat = new ProcFile(proc.resolve("vmstat"), 8192);
+        this.meminfo = new ProcFile(proc.resolve("meminfo"));
+        this.loadavg = new ProcFile(proc.resolve("loadavg"), 128);
+        this.diskstats = new ProcFile(proc.resolve("diskstats"), 16384);
+        this.netDev = new ProcFile(proc.resolve("net/dev"), 16384);
+        this.softnetStat = new ProcFile(proc.resolve("net/softnet_stat"), 16384);
+        this.sockstat = new ProcFile(proc.resolve("net/sockstat"), 512);
+        this.psiCpu = new ProcFile(proc.resolve("pressure/cpu"), 256);
+        this.psiIo = new ProcFile(proc.resolve("pressure/io"), 256);
+        this.psiMem = new ProcFile(proc.resolve("pressure/memory"), 256);
+        this.hostname = new ProcFile(proc.resolve("sys/kernel/hostname"), 256);
+        this.dentryState = new ProcFile(proc.resolve("sys/fs/dentry-state"), 128);
+        this.fileNr = new ProcFile(proc.resolve("sys/fs/file-nr"), 128);
+        this.inodeState = new ProcFile(proc.resolve("sys/fs/inode-state"), 128);
+        this.ptyNr = new ProcFile(proc.resolve("sys/kernel/pty/nr"), 128);
+    }
+
+    void readStat(SysstatMeasurement sm, double itv) throws IOException {
+        ProcFile f = this.stat;
+        f.load();
+        // Those of the node, not the CPU quota of the container we run in.
+        int numCpus = 0;
+        while (f.nextLine()) {
+            if (f.startsWith(CPU)) {
+                // "cpu" is the aggregate, which sar calls "all".
+                String cpu = this.cpuNames.computeIfAbsent(f.nextWord(),
+                                                n -> n.length() == 3 ? "all" : n.substring(3));
+                long[] raw = new long[10];
+                for (int i = 0; i < raw.length; i++) {
+                    raw[i] = Math.max(f.nextLong(), 0);
+                }
+                long[] prev = this.prevCpu.put(cpu, raw);
+                sm.getCpuLoad().add(cpuLoad(cpu, raw, prev));
+                if (!"all".equals(cpu)) {
+                    numCpus++;
+                }
+            } else if (f.isKey(CTXT)) {
+                sm.getProcessAndContextSwitch().setCswch(rate(f.nextLong(), this.prevStat, 0, itv));
+            } else if (f.isKey(PROCESSES)) {
+                sm.getProcessAndContextSwitch().setProc(rate(f.nextLong(), this.prevStat, 1, itv));
+            } else if (f.isKey(PROCS_BLOCKED)) {
+                sm.getQueue().setBlocked((int) f.nextLong());
+            }
+        }
+        sm.setNumCpus(numCpus);
+        // Forget hot-unplugged CPUs.
+        if (this.prevCpu.size() > sm.getCpuLoad().size()) {
+            this.prevCpu.keySet().retainAll(names(sm.getCpuLoad()));
+        }
+    }
+
+    static SysstatMeasurement.CpuLoad cpuLoad(String name, long[] raw, long[] prev) {
+        // user nice system idle iowait irq softirq steal guest guest_nice
+        long[] d = new long[10];
+        for (int i = 0; i < d.length; i++) {
+            d[i] = prev == null ? 0 : Math.max(raw[i] - prev[i], 0);
+        }
+        // Guest time is already included in user and nice time.
+        double total = d[0] + d[1] + d[2] + d[3] + d[4] + d[5] + d[6] + d[7];
+        SysstatMeasurement.CpuLoad cl = new SysstatMeasurement.CpuLoad();
+        cl.setCpu(name);
+        if (total > 0) {
+            cl.setUsr(pct(Math.max(d[0] - d[8], 0), total));
+            cl.setNice(pct(Math.max(d[1] - d[9], 0), total));
+            cl.setSys(pct(d[2], total));
+            cl.setIdle(pct(d[3], total));
+            cl.setIowait(pct(d[4], total));
+            cl.setIrq(pct(d[5], total));
+            cl.setSoft(pct(d[6], total));
+            cl.setSteal(pct(d[7], total));
+            cl.setGuest(pct(d[8], total));
+            cl.setGnice(pct(d[9], total));
+        }
+        return cl;
+    }
+
+    void readVmstat(SysstatMeasurement sm, double itv) throws IOException {
+        ProcFile f = this.vmstat;
+        f.load();
+        long scanKswapd = 0;
+        long scanDirect = 0;
+        long steal = 0;
+        SysstatMeasurement.Paging pg = sm.getPaging();
+        while (f.nextLine()) {
+            if (f.isKey(PSWPIN)) {
+                sm.getSwapPages().setPswpin(rate(f.nextLong(), this.prevVm, 0, itv));
+            } else if (f.isKey(PSWPOUT)) {
+                sm.getSwapPages().setPswpout(rate(f.nextLong(), this.prevVm, 1, itv));
+            } else if (f.isKey(PGPGIN)) {
+                pg.setPgpgin(rate(f.nextLong(), this.prevVm, 2, itv));
+            } else if (f.isKey(PGPGOUT)) {
+                pg.setPgpgout(rate(f.nextLong(), this.prevVm, 3, itv));
+            } else if (f.isKey(PGFAULT)) {
+                pg.setFault(rate(f.nextLong(), this.prevVm, 4, itv));
+            } else if (f.isKey(PGMAJFAULT)) {
+                pg.setMajflt(rate(f.nextLong(), this.prevVm, 5, itv));
+            } else if (f.isKey(PGFREE)) {
+                pg.setPgfree(rate(f.nextLong(), this.prevVm, 6, itv));
+            } else if (f.startsWith(PGSCAN_KSWAPD)) {
+                // Older kernels report per-zone counters (pgscan_kswapd_normal...).
+                f.skipPast((byte) ' ');
+                scanKswapd += Math.max(f.nextLong(), 0);
+            } else if (f.startsWith(PGSCAN_DIRECT) && !f.startsWith(PGSCAN_DIRECT_THROTTLE)) {
+                f.skipPast((byte) ' ');
+                scanDirect += Math.max(f.nextLong(), 0);
+            } else if (f.startsWith(PGSTEAL_KSWAPD) || f.startsWith(PGSTEAL_DIRECT)) {
+                f.skipPast((byte) ' ');
+                steal += Math.max(f.nextLong(), 0);
+            }
+        }
+        long dScanK = Math.max(scanKswapd - this.prevVm[7], 0);
+        long dScanD = Math.max(scanDirect - this.prevVm[8], 0);
+        long dSteal = Math.max(steal - this.prevVm[9], 0);
+        pg.setPgscank(rate(scanKswapd, this.prevVm, 7, itv));
+        pg.setPgscand(rate(scanDirect, this.prevVm, 8, itv));
+        pg.setPgsteal(rate(steal, this.prevVm, 9, itv));
+        pg.setVmeffPercent(dScanK + dScanD > 0 ? pct(dSteal, dScanK + dScanD) : 0);
+    }
+
+    void readMeminfo(SysstatMeasurement sm) throws IOException {
+        ProcFile f = this.meminfo;
+        f.load();
+        long total = 0, free = 0, avail = 0, buffers = 0, cached = 0, swapCached = 0;
+        long active = 0, inactive = 0, swapTotal = 0, swapFree = 0, dirty = 0, anon = 0;
+        long slab = 0, kstack = 0, pgtbl = 0, commit = 0, vmalloc = 0;
+        long hugeTotal = 0, hugeFree = 0, hugeRsvd = 0, hugeSurp = 0, hugeSize = 0;
+        while (f.nextLine()) {
+            if (f.isKey(MEM_TOTAL)) {
+                total = f.nextLong();
+            } else if (f.isKey(MEM_FREE)) {
+                free = f.nextLong();
+            } else if (f.isKey(MEM_AVAILABLE)) {
+                avail = f.nextLong();
+            } else if (f.isKey(BUFFERS)) {
+                buffers = f.nextLong();
+            } else if (f.isKey(CACHED)) {
+                cached = f.nextLong();
+            } else if (f.isKey(SWAP_CACHED)) {
+                swapCached = f.nextLong();
+            } else if (f.isKey(ACTIVE)) {
+                active = f.nextLong();
+            } else if (f.isKey(INACTIVE)) {
+                inactive = f.nextLong();
+            } else if (f.isKey(SWAP_TOTAL)) {
+                swapTotal = f.nextLong();
+            } else if (f.isKey(SWAP_FREE)) {
+                swapFree = f.nextLong();
+            } else if (f.isKey(DIRTY)) {
+                dirty = f.nextLong();
+            } else if (f.isKey(ANON_PAGES)) {
+                anon = f.nextLong();
+            } else if (f.isKey(SLAB)) {
+                slab = f.nextLong();
+            } else if (f.isKey(KERNEL_STACK)) {
+                kstack = f.nextLong();
+            } else if (f.isKey(PAGE_TABLES)) {
+                pgtbl = f.nextLong();
+            } else if (f.isKey(COMMITTED_AS)) {
+                commit = f.nextLong();
+            } else if (f.isKey(VMALLOC_USED)) {
+                vmalloc = f.nextLong();
+            } else if (f.isKey(HUGE_TOTAL)) {
+                hugeTotal = f.nextLong();
+            } else if (f.isKey(HUGE_FREE)) {
+                hugeFree = f.nextLong();
+            } else if (f.isKey(HUGE_RSVD)) {
+                hugeRsvd = f.nextLong();
+            } else if (f.isKey(HUGE_SURP)) {
+                hugeSurp = f.nextLong();
+            } else if (f.isKey(HUGE_SIZE)) {
+                hugeSize = f.nextLong();
+            }
+        }
+
+        SysstatMeasurement.Memory m = sm.getMemory();
+        long used = total - free - buffers - cached - slab;
+        if (used < 0) {
+            used = total - free;
+        }
+        long swapUsed = swapTotal - swapFree;
+        m.setMemfree((int) free);
+        m.setAvail((int) avail);
+        m.setMemused((int) used);
+        m.setMemusedPercent(pct(used, total));
+        m.setBuffers((int) buffers);
+        m.setCached((int) cached);
+        m.setCommit((int) commit);
+        m.setCommitPercent(pct(commit, total + swapTotal));
+        m.setActive((int) active);
+        m.setInactive((int) inactive);
+        m.setDirty((int) dirty);
+        m.setAnonpg((int) anon);
+        m.setSlab((int) slab);
+        m.setKstack((int) kstack);
+        m.setPgtbl((int) pgtbl);
+        m.setVmused((int) vmalloc);
+        m.setSwpfree((int) swapFree);
+        m.setSwpused((int) swapUsed);
+        m.setSwpusedPercent(pct(swapUsed, swapTotal));
+        m.setSwpcad((int) swapCached);
+        m.setSwpcadPercent(pct(swapCached, swapUsed));
+
+        SysstatMeasurement.Hugepages hp = sm.getHugepages();
+        hp.setHugfree((int) (hugeFree * hugeSize));
+        hp.setHugused((int) ((hugeTotal - hugeFree) * hugeSize));
+        hp.setHugusedPercent(pct(hugeTotal - hugeFree, hugeTotal));
+        hp.setHugrsvd((int) (hugeRsvd * hugeSize));
+        hp.setHugsurp((int) (hugeSurp * hugeSize));
+    }
+
+    void readKernel(SysstatMeasurement sm) throws IOException {
+        SysstatMeasurement.Kernel k = sm.getKernel();
+        // nr_dentry nr_unused ...
+        if (this.dentryState.load() && this.dentryState.nextLine()) {
+            this.dentryState.nextLong();
+            k.setDentunusd((int) this.dentryState.nextLong());
+        }
+        // allocated free max
+        if (this.fileNr.load() && this.fileNr.nextLine()) {
+            long allocated = this.fileNr.nextLong();
+            k.setFileNr((int) (allocated - this.fileNr.nextLong()));
+        }
+        // nr_inodes nr_free_inodes ...
+        if (this.inodeState.load() && this.inodeState.nextLine()) {
+            long inodes = this.inodeState.nextLong();
+            k.setInodeNr((int) (inodes - this.inodeState.nextLong()));
+        }
+        k.setPtyNr((int) this.ptyNr.readLong(0));
+    }
+
+    void readLoadavg(SysstatMeasurement sm) throws IOException {
+        ProcFile f = this.loadavg;
+        if (!f.load() || !f.nextLine()) {
+            return;
+        }
+        // 0.20 0.18 0.12 1/80 11206
+        SysstatMeasurement.Queue q = sm.getQueue();
+        q.setLdavg1((float) f.nextDouble());
+        q.setLdavg5((float) f.nextDouble());
+        q.setLdavg15((float) f.nextDouble());
+        // Do not count ourselves as running.
+        q.setRunqSz((int) Math.max(f.nextLong() - 1, 0));
+        q.setPlistSz((int) f.nextLong());
+    }
+
+    void readDiskstats(SysstatMeasurement sm, double itv) throws IOException {
+        ProcFile f = this.diskstats;
+        f.load();
+        long[] io = new long[6];
+        double[] ioRates = new double[6];
+        while (f.nextLine()) {
+            long major = f.nextLong();
+            long minor = f.nextLong();
+            String name = f.nextWord();
+            if (name == null) {
+                continue;
+            }
+            DiskState ds = this.prevDisk.get(name);
+            if (ds == null) {
+                ds = new DiskState("dev" + major + "-" + minor,
+                                    Files.isDirectory(Paths.get(this.sysRoot, "block", name)));
+                this.prevDisk.put(name, ds);
+            }
+            ds.generation = this.generation;
+            if (!ds.wholeDisk) {
+                // sar -d only reports whole devices, not partitions.
+                continue;
+            }
+
+            // rd_ios rd_merges rd_sectors rd_ticks wr_ios wr_merges wr_sectors wr_ticks
+            // in_flight io_ticks time_in_queue [dc_ios dc_merges dc_sectors dc_ticks]
+            long[] raw = new long[15];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = Math.max(f.nextLong(), 0);
+            }
+            long[] prev = ds.raw;
+            ds.raw = raw;
+            if (raw[0] + raw[4] + raw[11] == 0) {
+                // Never used, like most loop and ram devices.
+                continue;
+            }
+
+            long dRdIos = delta(raw, prev, 0);
+            long dWrIos = delta(raw, prev, 4);
+            long dDcIos = delta(raw, prev, 11);
+            long dRdSec = delta(raw, prev, 2);
+            long dWrSec = delta(raw, prev, 6);
+            long dDcSec = delta(raw, prev, 13);
+            long ios = dRdIos + dWrIos + dDcIos;
+
+            SysstatMeasurement.Disk d = new SysstatMeasurement.Disk();
+            d.setDiskDevice(ds.device);
+            d.setTps(rate(ios, itv));
+            d.setRkB(rate(dRdSec / 2.0, itv));
+            d.setWkB(rate(dWrSec / 2.0, itv));
+            d.setDkB(rate(dDcSec / 2.0, itv));
+            if (ios > 0) {
+                d.setAreqSz((float) ((dRdSec + dWrSec + dDcSec) / 2.0 / ios));
+                d.setAwait((float) ((double) (delta(raw, prev, 3) + delta(raw, prev, 7) + delta(raw, prev, 14)) / ios));
+            }
+            d.setAquSz(rate(delta(raw, prev, 10) / 1000.0, itv));
+            d.setUtilPercent(itv > 0 ? (float) Math.min(delta(raw, prev, 9) / itv / 10.0, 100.0) : 0);
+            sm.getDisk().add(d);
+
+            io[0] += dRdIos;
+            io[1] += dWrIos;
+            io[2] += dDcIos;
+            io[3] += dRdSec;
+            io[4] += dWrSec;
+            io[5] += dDcSec;
+        }
+        for (int i = 0; i < io.length; i++) {
+            ioRates[i] = rate(io[i], itv);
+        }
+        SysstatMeasurement.Io sio = sm.getIo();
+        sio.setTps((float) (ioRates[0] + ioRates[1] + ioRates[2]));
+        sio.getIoReads().setRtps((float) ioRates[0]);
+        sio.getIoWrites().setWtps((float) ioRates[1]);
+        sio.getIoDiscard().setDtps((float) ioRates[2]);
+        sio.getIoReads().setBread((float) ioRates[3]);
+        sio.getIoWrites().setBwrtn((float) ioRates[4]);
+        sio.getIoDiscard().setBdscd((float) ioRates[5]);
+
+        expire(this.prevDisk);
+    }
+
+    void readNetDev(SysstatMeasurement sm, double itv) throws IOException {
+        ProcFile f = this.netDev;
+        f.load();
+        // Two lines of headers.
+        f.nextLine();
+        f.nextLine();
+        SysstatMeasurement.Network n = sm.getNetwork();
+        while (f.nextLine()) {
+            String iface = f.nextWord((byte) ':');
+            if (iface == null) {
+                continue;
+            }
+            NetState ns = this.prevNet.get(iface);
+            if (ns == null) {
+                ns = new NetState(new ProcFile(Paths.get(this.sysRoot, "class/net", iface, "speed"), 32));
+                this.prevNet.put(iface, ns);
+            }
+            ns.generation = this.generation;
+            if (ns.speed < 0 || ns.generation % 60 == 0) {
+                // Link speed in Mb/s, re-checked every now and then.
+                ns.speed = ns.speedFile.readLong(0);
+            }
+
+            // rx: bytes packets errs drop fifo frame compressed multicast
+            // tx: bytes packets errs drop fifo colls carrier compressed
+            long[] raw = new long[16];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = Math.max(f.nextLong(), 0);
+            }
+            long[] prev = ns.raw;
+            ns.raw = raw;
+
+            SysstatMeasurement.Network.NetDev nd = new SysstatMeasurement.Network.NetDev();
+            nd.setIface(iface);
+            double rxBytes = rate(delta(raw, prev, 0), itv);
+            double txBytes = rate(delta(raw, prev, 8), itv);
+            nd.setRxkB((float) (rxBytes / 1024));
+            nd.setTxkB((float) (txBytes / 1024));
+            nd.setRxpck(rate(delta(raw, prev, 1), itv));
+            nd.setTxpck(rate(delta(raw, prev, 9), itv));
+            nd.setRxcmp(rate(delta(raw, prev, 6), itv));
+            nd.setTxcmp(rate(delta(raw, prev, 15), itv));
+            nd.setRxmcst(rate(delta(raw, prev, 7), itv));
+            if (ns.speed > 0) {
+                // Assumes full duplex, like sar.
+                nd.setIfutilPercent((float) Math.min(Math.max(rxBytes, txBytes) * 8 / (ns.speed * 1e6) * 100, 100));
+            }
+            n.getNetDev().add(nd);
+
+            SysstatMeasurement.Network.NetEDev ne = new SysstatMeasurement.Network.NetEDev();
+            ne.setIface(iface);
+            ne.setRxerr(rate(delta(raw, prev, 2), itv));
+            ne.setTxerr(rate(delta(raw, prev, 10), itv));
+            ne.setColl(rate(delta(raw, prev, 13), itv));
+            ne.setRxdrop(rate(delta(raw, prev, 3), itv));
+            ne.setTxdrop(rate(delta(raw, prev, 11), itv));
+            ne.setTxcarr(rate(delta(raw, prev, 14), itv));
+            ne.setRxfram(rate(delta(raw, prev, 5), itv));
+            ne.setRxfifo(rate(delta(raw, prev, 4), itv));
+            ne.setTxfifo(rate(delta(raw, prev, 12), itv));
+            n.getNetEDev().add(ne);
+        }
+        expire(this.prevNet);
+    }
+
+    void readSoftnet(SysstatMeasurement sm, double itv) throws IOException {
+        ProcFile f = this.softnetStat;
+        if (!f.load()) {
+            return;
+        }
+        // processed dropped time_squeeze (5x unused) cpu_collision received_rps flow_limit_count
+        double[] all = new double[5];
+        List<SysstatMeasurement.Network.Softnet> perCpu = new ArrayList<>();
+        int cpu = 0;
+        while (f.nextLine()) {
+            long[] raw = new long[11];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = Math.max(f.nextHex(), 0);
+            }
+            String name = Integer.toString(cpu++);
+            long[] prev = this.prevSoftnet.put(name, raw);
+
+            SysstatMeasurement.Network.Softnet s = new SysstatMeasurement.Network.Softnet();
+            s.setCpu(name);
+            s.setTotal(rate(delta(raw, prev, 0), itv));
+            s.setDropd(rate(delta(raw, prev, 1), itv));
+            s.setSqueezd(rate(delta(raw, prev, 2), itv));
+            s.setRxRps(rate(delta(raw, prev, 9), itv));
+            s.setFlwLim(rate(delta(raw, prev, 10), itv));
+            perCpu.add(s);
+
+            all[0] += s.getTotal();
+            all[1] += s.getDropd();
+            all[2] += s.getSqueezd();
+            all[3] += s.getRxRps();
+            all[4] += s.getFlwLim();
+        }
+        SysstatMeasurement.Network.Softnet s = new SysstatMeasurement.Network.Softnet();
+        s.setCpu("all");
+        s.setTotal((float) all[0]);
+        s.setDropd((float) all[1]);
+        s.setSqueezd((float) all[2]);
+        s.setRxRps((float) all[3]);
+        s.setFlwLim((float) all[4]);
+        sm.getNetwork().getSoftnet().add(s);
+        sm.getNetwork().getSoftnet().addAll(perCpu);
+    }
+
+    void readSockstat(SysstatMeasurement sm) throws IOException {
+        ProcFile f = this.sockstat;
+        if (!f.load()) {
+            return;
+        }
+        SysstatMeasurement.Network.NetSock ns = sm.getNetwork().getNetSock();
+        while (f.nextLine()) {
+            if (f.startsWith(SOCKETS) && f.skipPastWord(USED)) {
+                ns.setTotsck((int) f.nextLong());
+            } else if (f.startsWith(TCP)) {
+                if (f.skipPastWord(INUSE)) {
+                    ns.setTcpsck((int) f.nextLong());
+                }
+                if (f.skipPastWord(TW)) {
+                    ns.setTcpTw((int) f.nextLong());
+                }
+            } else if (f.startsWith(UDP) && f.skipPastWord(INUSE)) {
+                ns.setUdpsck((int) f.nextLong());
+            } else if (f.startsWith(RAW) && f.skipPastWord(INUSE)) {
+                ns.setRawsck((int) f.nextLong());
+            } else if (f.startsWith(FRAG) && f.skipPastWord(INUSE)) {
+                ns.setIpFrag((int) f.nextLong());
+            }
+        }
+    }
+
+    void readPsi(SysstatMeasurement sm, double itv) throws IOException {
+        SysstatMeasurement.Psi psi = sm.getPsi();
+        readPsiFile(this.psiCpu, psi.getPsiCpu(), null, 0, itv);
+        readPsiFile(this.psiIo, psi.getPsiIo(), psi.getPsiIo(), 1, itv);
+        readPsiFile(this.psiMem, psi.getPsiMem(), psi.getPsiMem(), 3, itv);
+    }
+
+    void readPsiFile(ProcFile f, SysstatMeasurement.Psi.PsiCpu some, SysstatMeasurement.Psi.PsiIoAndMem full,
+                        int slot, double itv) throws IOException {
+        if (!f.load()) {
+            return;
+        }
+        // some avg10=0.00 avg60=0.00 avg300=0.00 total=0
+        // full avg10=0.00 avg60=0.00 avg300=0.00 total=0
+        while (f.nextLine()) {
+            boolean isSome = f.startsWith(SOME);
+            if (!isSome && (full == null || !f.startsWith(FULL))) {
+                continue;
+            }
+            f.skipPast((byte) '=');
+            float avg10 = (float) f.nextDouble();
+            f.skipPast((byte) '=');
+            float avg60 = (float) f.nextDouble();
+            f.skipPast((byte) '=');
+            float avg300 = (float) f.nextDouble();
+            f.skipPastWord(TOTAL_EQ);
+            int idx = isSome ? slot : slot + 1;
+            // Total stall time is in microseconds, remembered on the priming cycle as well.
+            float avg = (float) Math.min(rate(f.nextLong(), this.prevPsi, idx, itv) / 1e4, 100);
+            if (isSome) {
+                some.setSomeAvg10(avg10);
+                some.setSomeAvg60(avg60);
+                some.setSomeAvg300(avg300);
+                some.setSomeAvg(avg);
+            } else {
+                full.setFullAvg10(avg10);
+                full.setFullAvg60(avg60);
+                full.setFullAvg300(avg300);
+                full.setFullAvg(avg);
+            }
+        }
+    }
+
+    /*
+     * Rate of a counter remembered in prev[idx], which is updated in place.
+     */
+    static float rate(long value, long[] prev, int idx, double itv) {
+        long d = Math.max(value - prev[idx], 0);
+        prev[idx] = value;
+        return rate(d, itv);
+    }
+
+    static float rate(double delta, double itv) {
+        return itv > 0 ? (float) (delta / itv) : 0;
+    }
+
+    static long delta(long[] raw, long[] prev, int idx) {
+        return prev == null ? 0 : Math.max(raw[idx] - prev[idx], 0);
+    }
+
+    static float pct(double part, double total) {
+        return total > 0 ? (float) (part * 100.0 / total) : 0;
+    }
+
+    static List<String> names(List<SysstatMeasurement.CpuLoad> cpus) {
+        List<String> names = new ArrayList<>(cpus.size());
+        for (SysstatMeasurement.CpuLoad cl : cpus) {
+            names.add(cl.getCpu());
+        }
+        return names;
+    }
+
+    // Drops state for devices that were not seen in this cycle.
+    <T extends DeviceState> void expire(Map<String, T> states) {
+        for (Iterator<T> it = states.values().iterator(); it.hasNext(); ) {
+            if (it.next().generation != this.generation) {
+                it.remove();
+            }
+        }
+    }
+
+    static class DeviceState {
+        long generation;
+        long[] raw;
+    }
+
+    static class DiskState extends DeviceState {
+        final String device;
+        final boolean wholeDisk;
+        DiskState(String device, boolean wholeDisk) {
+            this.device = device;
+            this.wholeDisk = wholeDisk;
+        }
+    }
+
+    static class NetState extends DeviceState {
+        // Kept for as long as the interface is, like its buffer.
+        final ProcFile speedFile;
+        long speed = -1;
+        NetState(ProcFile speedFile) {
+            this.speedFile = speedFile;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.Collector;
+
+/*
+ * Per-command histograms of the elapsed, user and system time of every
+ * single exec, which tell one long run from thousands of short ones where
+ * the psacct sums cannot. They are fed one accounting record at a time by
+ * the pacct reader, so they only exist with the pacct source.
+ *
+ * Each command of each container gets three LogLinearHistograms of the
+ * same fixed layout, one unit being an accounting tick (1/100 s, the
+ * resolution of the records). Only so many commands get histograms of
+ * their own, all the others share those of TopKProcesses.OTHER outside of
+ * any container; commands that stop showing up are dropped by the meter
+ * sweeper, like their psacct meters, to make room for new ones.
+ *
+ * Micrometer has no histogram with buckets of our own making, so they are
+ * exported by a collector of the Prometheus client, registered with the
+ * registry the Prometheus meter registry scrapes.
+ */
+@ApplicationScoped
+@Named("execHistograms")
+public class ExecHistograms {
+    static final Logger LOG = Logger.getLogger(ExecHistograms.class.getName());
+
+    static final double TICK = 0.01;
+
+    static final String[] NAMES = {
+            "psacct_exec_elapsed_seconds",
+            "psacct_exec_user_seconds",
+            "psacct_exec_system_seconds"
+    };
+    static final String[] HELP = {
+            "Elapsed time of each exec",
+            "User time of each exec",
+            "System time of each exec"
+    };
+    // In the order of the tags of the psacct meters of the same process.
+    static final List<String> LABELS = Collections.unmodifiableList(Arrays.asList("container", "host", "process"));
+    static final List<String> BUCKET_LABELS = Collections.unmodifiableList(
+            Arrays.asList("container", "host", "process", "le"));
+
+    @Inject
+    PrometheusMeterRegistry prometheusRegistry;
+
+    @Inject
+    MeterSweeper sweeper;
+
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    // How many commands get histograms of their own, zero for no histograms at all.
+    @ConfigProperty(defaultValue = "0", name = "exporter.psacct.histograms")
+    int maxCommands;
+
+    // Powers of two covered above the first bucket of one tick.
+    @ConfigProperty(defaultValue = "16", name = "exporter.psacct.histograms.octaves")
+    int octaves;
+
+    // Buckets each power of two is split into.
+    @ConfigProperty(defaultValue = "2", name = "exporter.psacct.histograms.sub-buckets")
+    int subBuckets;
+
+    double[] bounds;
+    // The "le" label of each bucket, overflow included.
+    String[] le;
+    Collector collector;
+
+    // By container, then by command. Guarded by this.
+    final Map<String, Map<String, Command>> commands = new HashMap<>();
+    int size;
+
+    @PostConstruct
+    void init() {
+        if (this.maxCommands <= 0) {
+            return;
+        }
+        this.bounds = LogLinearHistogram.bounds(this.octaves, this.subBuckets);
+        this.le = le(this.bounds);
+        LOG.fine("Keeping exec histograms of " + this.bounds.length + " buckets up to "
+                + this.le[this.bounds.length - 1] + "s for up to " + this.maxCommands + " commands");
+
+        this.collector = new Collector() {
+            @Override
+            public List<MetricFamilySamples> collect() {
+                return ExecHistograms.this.collect();
+            }
+        };
+        this.prometheusRegistry.getPrometheusRegistry().register(this.collector);
+    }
+
+    @PreDestroy
+    void close() {
+        if (this.collector != null) {
+            this.prometheusRegistry.getPrometheusRegistry().unregister(this.collector);
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.maxCommands > 0;
+    }
+
+    /*
+     * The "le" label of each bucket, in seconds, and of the overflow one.
+     */
+    static String[] le(double[] bounds) {
+        String[] le = new String[bounds.length + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            le[i] = Collector.doubleToGoString(bounds[i] * TICK);
+        }
+        le[bounds.length] = "+Inf";
+        return le;
+    }
+
+    /*
+     * Adds a single exec of the command in the container ("" for none),
+     * with its times in ticks.
+     */
+    public synchronized void record(String command, String container, double elapsed, double user,
+            double system) {
+        Map<String, Command> byCommand = this.commands.get(container);
+        Command c = byCommand == null ? null : byCommand.get(command);
+        if (c == null) {
+            c = add(command, container);
+        }
+        c.histograms[0].record(elapsed);
+        c.histograms[1].record(user);
+        c.histograms[2].record(system);
+        c.recorded = true;
+    }
+
+    Command add(String command, String container) {
+        String name = command;
+        if (this.size >= this.maxCommands) {
+            Map<String, Command> none = this.commands.get("");
+            Command other = none == null ? null : none.get(TopKProcesses.OTHER);
+            if (other != null) {
+                return other;
+            }
+            // Room is kept for it, so it goes over the limit by one at most.
+            name = TopKProcesses.OTHER;
+            container = "";
+        }
+        Command c = new Command(name, container, this.bounds, this.subBuckets);
+        this.commands.computeIfAbsent(container, x -> new HashMap<>()).put(name, c);
+        this.size++;
+        this.sweeper.track(c, Collections.emptyList(), () -> remove(c));
+        return c;
+    }
+
+    synchronized void remove(Command c) {
+        LOG.fine("Removing exec histograms for " + c.name + " in \"" + c.container + "\"");
+        Map<String, Command> byCommand = this.commands.get(c.container);
+        if (byCommand != null && byCommand.remove(c.name, c)) {
+            this.size--;
+            if (byCommand.isEmpty()) {
+                this.commands.remove(c.container);
+            }
+        }
+    }
+
+    /*
+     * Marks the commands recorded since the last call as seen, once per
+     * read of the accounting file rather than once per record.
+     */
+    public void touchRecorded() {
+        List<Command> recorded = new ArrayList<>();
+        synchronized (this) {
+            for (Map<String, Command> byCommand : this.commands.values()) {
+                for (Command c : byCommand.values()) {
+                    if (c.recorded) {
+                        c.recorded = false;
+                        recorded.add(c);
+                    }
+                }
+            }
+        }
+        for (Command c : recorded) {
+            this.sweeper.touch(c);
+        }
+    }
+
+    List<Collector.MetricFamilySamples> collect() {
+        String host = this.nodeIdentity.getName();
+        List<List<Collector.MetricFamilySamples.Sample>> samples = new ArrayList<>();
+        for (int h = 0; h < NAMES.length; h++) {
+            samples.add(new ArrayList<>());
+        }
+
+        long[] cumulative = new long[this.le.length];
+        synchronized (this) {
+            for (Map<String, Command> byCommand : this.commands.values()) {
+                for (Command c : byCommand.values()) {
+                    List<String> values = Arrays.asList(c.container, host, c.name);
+                    for (int h = 0; h < NAMES.length; h++) {
+                        LogLinearHistogram histogram = c.histograms[h];
+                        List<Collector.MetricFamilySamples.Sample> s = samples.get(h);
+                        long count = histogram.cumulativeCounts(cumulative);
+                        for (int i = 0; i < cumulative.length; i++) {
+                            s.add(new Collector.MetricFamilySamples.Sample(NAMES[h] + "_bucket", BUCKET_LABELS,
+                                    Arrays.asList(c.container, host, c.name, this.le[i]), cumulative[i]));
+                        }
+                        s.add(new Collector.MetricFamilySamples.Sample(NAMES[h] + "_count", LABELS, values, count));
+                        s.add(new Collector.MetricFamilySamples.Sample(NAMES[h] + "_sum", LABELS, values,
+                                histogram.getSum() * TICK));
+                    }
+                }
+            }
+        }
+
+        List<Collector.MetricFamilySamples> families = new ArrayList<>(NAMES.length);
+        for (int h = 0; h < NAMES.length; h++) {
+            families.add(new Collector.MetricFamilySamples(NAMES[h], Collector.Type.HISTOGRAM, HELP[h],
+                    samples.get(h)));
+        }
+        return families;
+    }
+
+    /*
+     * The histograms of one command in one container, also the key it is
+     * tracked by in the sweeper, which must not be mistaken for the psacct
+     * meters of the same process.
+     */
+    static final class Command {
+        final String name;
+        final String container;
+        final LogLinearHistogram[] histograms = new LogLinearHistogram[NAMES.length];
+        boolean recorded;
+
+        Command(String name, String container, double[] bounds, int subBuckets) {
+            this.name = name;
+            this.container = container;
+            for (int h = 0; h < this.histograms.length; h++) {
+                this.histograms[h] = new LogLinearHistogram(bounds, subBuckets);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/*
+ * Time from a collector dump being written to the meters being updated
+ * from it, by source.
+ */
+@ApplicationScoped
+@Named("ingestLatency")
+public class IngestLatency {
+    @Inject
+    MeterRegistry mr;
+
+    final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /*
+     * Records the latency of a file last modified at the given time, in
+     * milliseconds since the epoch, if known.
+     */
+    public void record(String source, Long modified) {
+        if (modified == null || modified <= 0) {
+            return;
+        }
+        Timer t = this.timers.computeIfAbsent(source, s -> Timer.builder("exporter.ingest.latency")
+                .tags("source", s)
+                .register(this.mr));
+        t.record(Math.max(0, System.currentTimeMillis() - modified), TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,92 @@
+package net.p0f.openshift.metrics.exporter;
+
+/*
+ * A histogram of fixed size with log-linear buckets, like HdrHistogram:
+ * every power of two from the unit up is split into the same number of
+ * equally wide buckets, so the relative error is the same at any scale,
+ * and finding the bucket of a value takes its binary exponent rather than
+ * a search.
+ *
+ * The first bucket holds everything up to one unit, the last one
+ * everything above the unit times two to the number of octaves. Values
+ * are in units; what a unit is (here, an accounting tick) is up to the
+ * caller. Not thread-safe.
+ */
+final class LogLinearHistogram {
+    final int subBuckets;
+    // Upper bounds (inclusive) of all buckets but the overflow one, in units.
+    final double[] bounds;
+    // One more than bounds, the last one being the overflow bucket.
+    final long[] counts;
+    double sum;
+
+    // Histograms of the same layout can share the bounds.
+    LogLinearHistogram(double[] bounds, int subBuckets) {
+        this.subBuckets = subBuckets;
+        this.bounds = bounds;
+        this.counts = new long[bounds.length + 1];
+    }
+
+    /*
+     * The upper bounds of the first bucket, then of each sub-bucket of each
+     * octave: 1, then 2^k * (1 + j / subBuckets) for j from 1 to subBuckets.
+     */
+    static double[] bounds(int octaves, int subBuckets) {
+        double[] bounds = new double[1 + octaves * subBuckets];
+        bounds[0] = 1;
+        for (int k = 0; k < octaves; k++) {
+            double base = Math.scalb(1.0, k);
+            for (int j = 1; j <= subBuckets; j++) {
+                bounds[k * subBuckets + j] = base + base * j / subBuckets;
+            }
+        }
+        return bounds;
+    }
+
+    void record(double value) {
+        this.counts[index(value)]++;
+        this.sum += value;
+    }
+
+    /*
+     * A value in (2^k, 2^(k+1)] is in sub-bucket j = ceil((v / 2^k - 1) * n)
+     * of octave k, that is bucket k * n + j. Powers of two themselves
+     * close the octave below. Where n is not a power of two, the bounds
+     * are rounded, and values right next to them can come out one bucket
+     * off, which comparing with the bound puts right.
+     */
+    int index(double value) {
+        if (!(value > 1)) {
+            return 0;
+        }
+        if (value > this.bounds[this.bounds.length - 1]) {
+            return this.bounds.length;
+        }
+        int k = Math.getExponent(value);
+        int j = (int) Math.ceil((Math.scalb(value, -k) - 1) * this.subBuckets);
+        int index = Math.min(k * this.subBuckets + j, this.bounds.length - 1);
+        if (value > this.bounds[index]) {
+            index++;
+        } else if (value <= this.bounds[index - 1]) {
+            index--;
+        }
+        return index;
+    }
+
+    double getSum() {
+        return sum;
+    }
+
+    /*
+     * Copies the counts, made cumulative as Prometheus wants them, into the
+     * array, which must be as long as the counts. Returns the total count.
+     */
+    long cumulativeCounts(long[] into) {
+        long total = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            total += this.counts[i];
+            into[i] = total;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,118 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/*
+ * Removes groups of meters (all the meters of a process, a disk, a network
+ * interface...) from the registry once nothing was reported for them for a
+ * while, so that vanished processes and devices stop being exported as
+ * zeroes forever.
+ *
+ * Groups are kept in access order, and every touch moves a group to the
+ * tail, so the least recently seen ones are always at the head. A sweep
+ * therefore only ever looks at the groups it evicts, plus one.
+ */
+@ApplicationScoped
+@Named("meterSweeper")
+public class MeterSweeper {
+    static final Logger LOG = Logger.getLogger(MeterSweeper.class.getName());
+
+    @Inject
+    MeterRegistry mr;
+
+    // Idle time in milliseconds after which meters are removed, zero to keep them forever.
+    @ConfigProperty(defaultValue = "900000", name = "exporter.meters.ttl")
+    long ttl;
+
+    final LinkedHashMap<Object, Group> groups = new LinkedHashMap<>(256, 0.75f, true);
+
+    /*
+     * Starts tracking a group of meters. The optional callback runs when it
+     * is evicted, before its meters are removed from the registry.
+     */
+    public synchronized void track(Object key, Collection<Meter> meters, Runnable onEvict) {
+        this.groups.put(key, new Group(meters, onEvict, System.nanoTime()));
+    }
+
+    /*
+     * Marks the group as just seen. Does nothing if it is not tracked.
+     */
+    public synchronized void touch(Object key) {
+        Group g = this.groups.get(key);
+        if (g != null) {
+            g.lastSeen = System.nanoTime();
+        }
+    }
+
+    /*
+     * Stops tracking the group without touching its meters, for when its
+     * owner removes them by itself.
+     */
+    public synchronized void forget(Object key) {
+        this.groups.remove(key);
+    }
+
+    /*
+     * Evicts all the groups that have not been seen for longer than the TTL.
+     * Returns how many there were.
+     */
+    public int sweep() {
+        if (this.ttl <= 0) {
+            return 0;
+        }
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(this.ttl);
+        List<Group> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Group> it = this.groups.values().iterator();
+            while (it.hasNext()) {
+                Group g = it.next();
+                if (g.lastSeen - cutoff > 0) {
+                    break;
+                }
+                it.remove();
+                evicted.add(g);
+            }
+        }
+
+        // The registry has its own locking, no need to hold ours.
+        for (Group g : evicted) {
+            if (g.onEvict != null) {
+                g.onEvict.run();
+            }
+            for (Meter m : g.meters) {
+                this.mr.remove(m);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            LOG.fine("Evicted " + evicted.size() + " idle meter groups.");
+        }
+        return evicted.size();
+    }
+
+    static final class Group {
+        final Collection<Meter> meters;
+        final Runnable onEvict;
+        long lastSeen;
+
+        Group(Collection<Meter> meters, Runnable onEvict, long lastSeen) {
+            this.meters = meters;
+            this.onEvict = onEvict;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -1,18 +1,109 @@
 package net.p0f.openshift.metrics.exporter;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import net.p0f.openshift.metrics.exposition.ScrapeCache;
+import net.p0f.openshift.metrics.history.SampleHistory;
+import net.p0f.openshift.metrics.store.SegmentStore;
 
 @ApplicationScoped
 @Path("/metrics")
 public class MetricsResource {
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    @Inject
+    ScrapeCache scrapeCache;
+
+    @Inject
+    SampleHistory sampleHistory;
+
+    @Inject
+    SegmentStore segmentStore;
+
     @GET
     @Path("/version")
     @Produces(MediaType.TEXT_PLAIN)
     public String hello() {
         return "MetricsExporter v1.0.0";
     }
-}
\ No newline at end of file
+
+    @GET
+    @Path("/identity")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String identity() {
+        return this.nodeIdentity.getName();
+    }
+
+    // The only way to have the node name resolved again after startup.
+    @POST
+    @Path("/identity/refresh")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String refreshIdentity() {
+        return this.nodeIdentity.refresh();
+    }
+
+    /*
+     * Everything from the exposition table (see exporter.exposition=direct),
+     * followed by whatever else is in the Micrometer registry. The body is
+     * only rendered once per ingest generation (and max-age), see ScrapeCache.
+     */
+    @GET
+    @Path("/prometheus")
+    @Produces(PROMETHEUS_TEXT)
+    public Response prometheus(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        ScrapeCache.Entry e = this.scrapeCache.get();
+        if (e.matches(ifNoneMatch)) {
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, e.getETag())
+                    .build();
+        }
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        return Response.ok(gzip ? e.getGzip() : e.getPlain())
+                .header(HttpHeaders.ETAG, e.getETag())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.CONTENT_ENCODING, gzip ? "gzip" : null)
+                .build();
+    }
+
+    /*
+     * The recent samples kept by SampleHistory that are newer than since
+     * (milliseconds since the epoch), with their timestamps, streamed
+     * straight from the history buffers.
+     */
+    @GET
+    @Path("/history")
+    @Produces(PROMETHEUS_TEXT)
+    public Response history(@QueryParam("since") @DefaultValue("0") long since) {
+        StreamingOutput body = out -> this.sampleHistory.stream(since, out);
+        return Response.ok(body).build();
+    }
+
+    /*
+     * Samples read back from the segment store (see exporter.store.enabled)
+     * for the given window, in milliseconds since the epoch.
+     */
+    @GET
+    @Path("/store")
+    @Produces(PROMETHEUS_TEXT)
+    public Response store(@QueryParam("since") @DefaultValue("0") long since,
+            @QueryParam("until") @DefaultValue("9223372036854775807") long until) {
+        StreamingOutput body = out -> this.segmentStore.stream(since, until, out);
+        return Response.ok(body).build();
+    }
+}
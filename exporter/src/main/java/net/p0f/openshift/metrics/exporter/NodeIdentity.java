@@ -0,0 +1,165 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.quarkus.runtime.StartupEvent;
+
+/*
+ * The name of the node the exporter runs on, used as the "host" tag of all
+ * the meters.
+ *
+ * It is resolved once at startup, and only ever again when explicitly asked
+ * to (see MetricsResource), never per record. In order of preference, it
+ * comes from:
+ *
+ * - exporter.node.name, or the NODE_NAME environment variable (the daemonset
+ *   sets it from spec.nodeName via the downward API)
+ * - /etc/hostname, which is the node's with hostNetwork
+ * - the nodename reported by sysstat, once the first measurement arrives
+ * - the local host name, without any reverse DNS lookup
+ */
+@ApplicationScoped
+@Named("nodeIdentity")
+public class NodeIdentity {
+    static final Logger LOG = Logger.getLogger(NodeIdentity.class.getName());
+
+    public static final String UNRESOLVABLE = "UNRESOLVABLE";
+
+    // Where the current name came from, in decreasing order of preference.
+    static final int SOURCE_CONFIG = 0;
+    static final int SOURCE_HOSTNAME_FILE = 1;
+    static final int SOURCE_SYSSTAT = 2;
+    static final int SOURCE_LOCALHOST = 3;
+    static final int SOURCE_NONE = 4;
+
+    @ConfigProperty(name = "exporter.node.name")
+    Optional<String> configuredName;
+
+    @ConfigProperty(defaultValue = "/etc/hostname", name = "exporter.node.hostname-file")
+    String hostnameFile;
+
+    volatile String name = UNRESOLVABLE;
+    volatile int source = SOURCE_NONE;
+    String sysstatName;
+
+    /*
+     * An identity that is never resolved, for use outside of CDI. Without a
+     * name, it takes whatever nodename sysstat offers.
+     */
+    public static NodeIdentity fixed(String name) {
+        NodeIdentity ni = new NodeIdentity();
+        if (name != null) {
+            ni.set(name, SOURCE_CONFIG);
+        }
+        return ni;
+    }
+
+    void onStart(@Observes StartupEvent ev) {
+        LOG.fine("Node identity is " + this.name);
+    }
+
+    @PostConstruct
+    void init() {
+        refresh();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*
+     * Resolves the name again, from scratch.
+     */
+    public synchronized String refresh() {
+        String n = nonEmpty(this.configuredName.orElse(null));
+        int s = SOURCE_CONFIG;
+        if (n == null) {
+            n = nonEmpty(System.getenv("NODE_NAME"));
+        }
+        if (n == null) {
+            n = readHostnameFile();
+            s = SOURCE_HOSTNAME_FILE;
+        }
+        if (n == null && this.sysstatName != null) {
+            n = this.sysstatName;
+            s = SOURCE_SYSSTAT;
+        }
+        if (n == null) {
+            n = localHostName();
+            s = SOURCE_LOCALHOST;
+        }
+        if (n == null) {
+            n = UNRESOLVABLE;
+            s = SOURCE_NONE;
+        }
+        set(n, s);
+        return n;
+    }
+
+    /*
+     * Offers the nodename seen in a sysstat measurement. It is only adopted
+     * if nothing better was found, and is cheap to call on every sample.
+     */
+    public void offer(String nodename) {
+        if (this.source < SOURCE_SYSSTAT || nodename == null || nodename.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            this.sysstatName = nodename;
+            if (this.source > SOURCE_SYSSTAT) {
+                set(nodename, SOURCE_SYSSTAT);
+            }
+        }
+    }
+
+    void set(String n, int s) {
+        if (!n.equals(this.name)) {
+            LOG.info("Node identity is now " + n + " (source " + s + ", was " + this.name + ")");
+        }
+        this.name = n.intern();
+        this.source = s;
+    }
+
+    String readHostnameFile() {
+        try {
+            return nonEmpty(new String(Files.readAllBytes(Paths.get(this.hostnameFile)), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException nsfe) {
+            return null;
+        } catch (IOException ioe) {
+            LOG.fine("Could not read " + this.hostnameFile + ": " + ioe);
+            return null;
+        }
+    }
+
+    static String localHostName() {
+        try {
+            // Not getCanonicalHostName(), which may go to DNS.
+            return nonEmpty(InetAddress.getLocalHost().getHostName());
+        } catch (UnknownHostException uhe) {
+            return null;
+        }
+    }
+
+    static String nonEmpty(String s) {
+        if (s == null) {
+            return null;
+        }
+        s = s.trim();
+        return s.isEmpty() ? null : s;
+    }
+}
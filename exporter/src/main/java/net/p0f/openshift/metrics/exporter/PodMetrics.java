@@ -0,0 +1,85 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import net.p0f.openshift.metrics.collector.CgroupCollector;
+
+/*
+ * The meters of every pod read by CgroupCollector. They read the values
+ * of the pod as last read, so all there is to do per round is to register
+ * the pods seen for the first time and to remove the ones that are gone.
+ * Values that are cumulative in the cgroup files are counters, the rest
+ * gauges.
+ */
+@ApplicationScoped
+@Named("podMetrics")
+public class PodMetrics {
+    static final Logger LOG = Logger.getLogger(PodMetrics.class.getName());
+
+    @Inject
+    MeterRegistry mr;
+
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    final Map<CgroupCollector.Pod, List<Meter>> meters = new IdentityHashMap<>();
+
+    public synchronized void update(List<CgroupCollector.Pod> pods) {
+        for (CgroupCollector.Pod pod : pods) {
+            if (!this.meters.containsKey(pod)) {
+                LOG.fine("Registering pod metrics for " + pod.getUid());
+                this.meters.put(pod, register(pod));
+            }
+        }
+
+        if (this.meters.size() > pods.size()) {
+            Set<CgroupCollector.Pod> current = new HashSet<>(pods);
+            Iterator<Map.Entry<CgroupCollector.Pod, List<Meter>>> it = this.meters.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<CgroupCollector.Pod, List<Meter>> e = it.next();
+                if (!current.contains(e.getKey())) {
+                    LOG.fine("Retiring pod metrics for " + e.getKey().getUid());
+                    for (Meter m : e.getValue()) {
+                        this.mr.remove(m);
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    List<Meter> register(CgroupCollector.Pod pod) {
+        Tags tags = Tags.of("host", this.nodeIdentity.getName(), "pod_uid", pod.getUid(), "qos", pod.getQos());
+        List<Meter> registered = new ArrayList<>(CgroupCollector.FIELDS.length);
+        for (int f = 0; f < CgroupCollector.FIELDS.length; f++) {
+            final int field = f;
+            CgroupCollector.Field d = CgroupCollector.FIELDS[f];
+            if (d.isCounter()) {
+                registered.add(FunctionCounter.builder(d.getName(), pod, p -> p.get(field))
+                        .tags(tags)
+                        .register(this.mr));
+            } else {
+                registered.add(Gauge.builder(d.getName(), pod, p -> p.get(field))
+                        .tags(tags)
+                        .register(this.mr));
+            }
+        }
+        return registered;
+    }
+}
@@ -1,16 +1,31 @@
 package net.p0f.openshift.metrics.exporter;
 
-import java.util.HashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.exposition.Samples;
 import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
 
 @ApplicationScoped
@@ -18,138 +33,325 @@ import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
 public class ProcessAccountingMetrics {
     static final Logger LOG = Logger.getLogger(ProcessAccountingMetrics.class.getName());
 
+    // Exchange property holding the snapshot being built for the current file.
+    public static final String SNAPSHOT_PROPERTY = "psacctSnapshot";
+
+    // Gauge (or counter) names, in the order of the PsacctSnapshot fields.
+    public static final String[] GAUGES = {
+            "psacct.invocation.count",
+            "psacct.time.elapsed",
+            "psacct.time.user",
+            "psacct.time.system",
+            "psacct.vm.fault.major",
+            "psacct.vm.fault.minor",
+            "psacct.vm.swap.events"
+    };
+
     @Inject
     MeterRegistry mr;
 
-    HashMap<String, Counter> totalInvocationCount = new HashMap<>();
-    HashMap<String, AtomicInteger> invocationCount = new HashMap<>();
-    HashMap<String, AtomicInteger> totalTime = new HashMap<>();
-    HashMap<String, AtomicInteger> userTime = new HashMap<>();
-    HashMap<String, AtomicInteger> systemTime = new HashMap<>();
-    HashMap<String, AtomicInteger> majFaults = new HashMap<>();
-    HashMap<String, AtomicInteger> minFaults = new HashMap<>();
-    HashMap<String, AtomicInteger> swapEvents = new HashMap<>();
+    @Inject
+    MeterSweeper sweeper;
 
-    public void registerRecord(ProcessAccountingRecord par) {
-        LOG.fine("Got record: " + par);
-        String hn = par.getHostName();
-        String pn = par.getProcessName();
-        String key = pn + "@" + hn;
+    @Inject
+    Event<Samples> samples;
 
-        Tags tags = Tags.of("host", hn, "process", pn);
+    // How many processes get series of their own, zero for no limit.
+    @ConfigProperty(defaultValue = "256", name = "exporter.psacct.topk")
+    int topK;
 
-        if (!this.totalInvocationCount.containsKey(key)) {
-            LOG.fine("Registering psacct.invocation.total for " + key);
-            this.totalInvocationCount.put(key,
-                    Counter.builder("psacct.invocation.total")
-                    .tags(tags)
-                    .register(this.mr));
-        }
-        this.totalInvocationCount.get(key).increment(par.getNumCalls());
+    // Either "cpu" (user plus system time) or "invocations".
+    @ConfigProperty(defaultValue = "cpu", name = "exporter.psacct.topk.by")
+    String topKBy;
 
-        if (!this.invocationCount.containsKey(key)) {
-            LOG.fine("Registering psacct.invocation.count for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.invocationCount.put(key, g);
-            this.mr.gauge("psacct.invocation.count", tags, g);
-        }
-        this.invocationCount.get(key).set(par.getNumCalls());
+    // Applied to the ranking once per generation.
+    @ConfigProperty(defaultValue = "0.95", name = "exporter.psacct.topk.decay")
+    double topKDecay;
 
-        if (!this.totalTime.containsKey(key)) {
-            LOG.fine("Registering psacct.time.elapsed for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.totalTime.put(key, g);
-            this.mr.gauge("psacct.time.elapsed", tags, g);
-        }
-        // Needs to be in ms because there's no AtomicFloat.
-        this.totalTime.get(key).set(Float.valueOf(par.getElapsedTime() * 1000).intValue());
+    // Either "gauge" (each snapshot as is) or "counter" (all snapshots so far, summed up).
+    @ConfigProperty(defaultValue = "gauge", name = "exporter.psacct.mode")
+    String mode;
+
+    TopKProcesses limiter;
+    boolean counters;
+
+    // Records per second through the routes is the rate of the latter over the rate of the sum of the former.
+    Timer snapshotTimer;
+    Counter snapshotRecords;
 
-        if (!this.userTime.containsKey(key)) {
-            LOG.fine("Registering psacct.time.user for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.userTime.put(key, g);
-            this.mr.gauge("psacct.time.user", tags, g);
+    // All the meters of a process live in one object, registered exactly once.
+    final ConcurrentHashMap<ProcessKey, ProcessMeters> meters = new ConcurrentHashMap<>();
+
+    final AtomicLong generations = new AtomicLong();
+
+    // What the gauges report, replaced as a whole by publishSnapshot().
+    volatile PsacctSnapshot current = PsacctSnapshot.EMPTY;
+
+    @PostConstruct
+    void init() {
+        this.snapshotTimer = Timer.builder("psacct.snapshot.duration").register(this.mr);
+        this.snapshotRecords = Counter.builder("psacct.snapshot.records").register(this.mr);
+        this.counters = "counter".equals(this.mode);
+        if (this.counters) {
+            LOG.fine("Accumulating psacct snapshots into counters");
         }
-        // Needs to be in ms because there's no AtomicFloat.
-        this.userTime.get(key).set(Float.valueOf(par.getUserTime() * 1000).intValue());
+        if (this.topK > 0) {
+            LOG.fine("Limiting psacct series to the top " + this.topK + " processes by " + this.topKBy);
+            this.limiter = new TopKProcesses(this.topK, this.topKBy, this.topKDecay);
+        }
+    }
+
+    public PsacctSnapshot.Builder beginSnapshot() {
+        PsacctSnapshot.Builder builder = new PsacctSnapshot.Builder(this.generations.incrementAndGet());
+        LOG.fine("Starting psacct snapshot generation " + builder.getGeneration());
+        return builder;
+    }
+
+    public void registerRecord(ProcessAccountingRecord par, PsacctSnapshot.Builder snapshot) {
+        LOG.fine("Got record: " + par);
+        snapshot.add(par);
+    }
 
-        if (!this.systemTime.containsKey(key)) {
-            LOG.fine("Registering psacct.time.system for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.systemTime.put(key, g);
-            this.mr.gauge("psacct.time.system", tags, g);
+    /*
+     * Same as the above, for a whole batch of records at once.
+     */
+    public void registerRecords(List<ProcessAccountingRecord> records, PsacctSnapshot.Builder snapshot) {
+        LOG.fine("Got a batch of " + records.size() + " records.");
+        for (ProcessAccountingRecord par : records) {
+            snapshot.add(par);
         }
-        // Needs to be in ms because there's no AtomicFloat.
-        this.systemTime.get(key).set(Float.valueOf(par.getSystemTime() * 1000).intValue());
+    }
+
+    public void publishSnapshot(PsacctSnapshot.Builder snapshot) {
+        // From the start of the snapshot, so covering the split and dispatch of the records.
+        this.snapshotTimer.record(System.nanoTime() - snapshot.getStarted(), TimeUnit.NANOSECONDS);
+        this.snapshotRecords.increment(snapshot.getRecords());
 
-        if (!this.majFaults.containsKey(key)) {
-            LOG.fine("Registering psacct.vm.fault.major for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.majFaults.put(key, g);
-            this.mr.gauge("psacct.vm.fault.major", tags, g);
+        PsacctSnapshot next = snapshot.build();
+        if (this.limiter != null) {
+            next = this.limiter.fold(next);
+            retireDemoted();
         }
-        this.majFaults.get(key).set(par.getMajFaults());
 
-        if (!this.minFaults.containsKey(key)) {
-            LOG.fine("Registering psacct.vm.fault.minor for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.minFaults.put(key, g);
-            this.mr.gauge("psacct.vm.fault.minor", tags, g);
+        // Make sure all the meters exist before their values become visible.
+        int count = next.size() * PsacctSnapshot.FIELDS;
+        byte[][] series = new byte[count][];
+        double[] values = new double[count];
+        int i = 0;
+        for (Map.Entry<ProcessKey, double[]> e : next.getValues().entrySet()) {
+            ProcessKey key = e.getKey();
+            ProcessMeters pm = this.meters.get(key);
+            if (pm == null) {
+                pm = this.meters.computeIfAbsent(key, this::newProcessMeters);
+            }
+            pm.totalInvocationCount.increment(e.getValue()[PsacctSnapshot.INVOCATIONS]);
+            this.sweeper.touch(key);
+
+            double[] v = e.getValue();
+            if (this.counters) {
+                v = pm.accumulate(v);
+            }
+            System.arraycopy(pm.prefixes, 0, series, i, PsacctSnapshot.FIELDS);
+            System.arraycopy(v, 0, values, i, PsacctSnapshot.FIELDS);
+            i += PsacctSnapshot.FIELDS;
         }
-        this.minFaults.get(key).set(par.getMinFaults());
 
-        if (!this.swapEvents.containsKey(key)) {
-            LOG.fine("Registering psacct.vm.swap.events for " + key);
-            AtomicInteger g = new AtomicInteger(0);
-            this.swapEvents.put(key, g);
-            this.mr.gauge("psacct.vm.swap.events", tags, g);
+        this.current = next;
+        LOG.fine("Published psacct snapshot generation " + next.getGeneration() + " with " + next.size() + " processes.");
+        this.samples.fire(new Samples(Samples.PSACCT, System.currentTimeMillis(), series, values, i));
+    }
+
+    ProcessMeters newProcessMeters(ProcessKey key) {
+        ProcessMeters pm = new ProcessMeters(key, this);
+        // Once idle for long enough, forget the process altogether. The meters are removed by retire().
+        this.sweeper.track(key, Collections.emptyList(), () -> retire(pm));
+        return pm;
+    }
+
+    /*
+     * Drops the meters of processes that fell out of the top K. Should they
+     * climb back up, they are registered anew.
+     */
+    void retireDemoted() {
+        for (ProcessMeters pm : this.meters.values()) {
+            if (!this.limiter.isTracked(pm.getKey())) {
+                this.sweeper.forget(pm.getKey());
+                retire(pm);
+            }
         }
-        this.swapEvents.get(key).set(par.getSwapEvents());
     }
 
-    public void resetGauges() {
-        LOG.fine("Resetting all gauges for a new metric.");
+    /*
+     * Removes the meters of the process from the registry, and the process
+     * from the map, while holding the same lock as computeIfAbsent() does
+     * when registering them. Otherwise a snapshot coming in between could
+     * get the meters about to be removed back from the registry, and keep
+     * them for good.
+     */
+    void retire(ProcessMeters pm) {
+        this.meters.computeIfPresent(pm.getKey(), (key, current) -> {
+            if (current != pm) {
+                return current;
+            }
+            LOG.fine("Removing psacct meters for " + key);
+            pm.remove(this.mr);
+            return null;
+        });
+    }
+
+    public PsacctSnapshot getCurrent() {
+        return current;
+    }
+
+    /*
+     * Identifies a process on a host, in a container (empty if not in one,
+     * or not known). The hash is computed once, and all names are interned,
+     * as the same few hundred of them keep coming back with every snapshot.
+     */
+    public static final class ProcessKey {
+        final String processName;
+        final String hostName;
+        final String containerName;
+        final int hash;
 
-        LOG.finer("Resetting psacct.invocation.count...");
-        for (String x : this.invocationCount.keySet()) {
-            LOG.finest("Resetting gauge psacct.invocation.count " + x);
-            this.invocationCount.get(x).set(0);
+        public ProcessKey(String processName, String hostName) {
+            this(processName, hostName, "");
         }
 
-        LOG.finer("Resetting psacct.time.elapsed...");
-        for (String x : this.totalTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.time.elapsed " + x);
-            this.totalTime.get(x).set(0);
+        public ProcessKey(String processName, String hostName, String containerName) {
+            this.processName = processName.intern();
+            this.hostName = hostName.intern();
+            this.containerName = containerName.intern();
+            this.hash = 31 * (31 * this.processName.hashCode() + this.hostName.hashCode())
+                    + this.containerName.hashCode();
+        }
+        public String getProcessName() {
+            return processName;
+        }
+        public String getHostName() {
+            return hostName;
+        }
+        public String getContainerName() {
+            return containerName;
         }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProcessKey)) {
+                return false;
+            }
+            ProcessKey pk = (ProcessKey) o;
+            // Interned, so identity comparison is enough.
+            return this.hash == pk.hash
+                    && this.processName == pk.processName
+                    && this.hostName == pk.hostName
+                    && this.containerName == pk.containerName;
+        }
+        @Override
+        public String toString() {
+            return containerName.isEmpty()
+                    ? processName + "@" + hostName
+                    : processName + "@" + hostName + "/" + containerName;
+        }
+    }
+
+    /*
+     * The tags of all the meters of a process.
+     */
+    public static Tags tags(ProcessKey key) {
+        return Tags.of("host", key.getHostName(), "process", key.getProcessName(),
+                "container", key.getContainerName());
+    }
 
-        LOG.finer("Resetting psacct.time.user...");
-        for (String x : this.userTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.time.user " + x);
-            this.userTime.get(x).set(0);
+    /*
+     * The Prometheus name the registry gives a counter.
+     */
+    static String counterName(String name) {
+        String promName = ExpositionTable.sanitize(name);
+        return promName.endsWith("_total") ? promName : promName + "_total";
+    }
+
+    /*
+     * The psacct meters of a single process. The gauges hold no values of
+     * their own, they look the process up in the current snapshot. The
+     * counters of counter mode read the totals kept here instead, which
+     * every snapshot the process appears in is added to.
+     *
+     * Snapshots only cover what happened since the previous one (the
+     * sidecar clears pacct every period unless CUMULATIVE is set, and the
+     * pacct reader only reads new records), so the totals only ever grow.
+     * Should the process be dropped from the registry (idle for too long,
+     * or out of the top K), it starts over from zero when it comes back,
+     * which Prometheus takes as a counter reset.
+     */
+    public static final class ProcessMeters {
+        final ProcessKey key;
+        final ProcessAccountingMetrics owner;
+        final Counter totalInvocationCount;
+        final List<Meter> registered = new ArrayList<>();
+        // Exposition prefix of each gauge, for the samples handed out.
+        final byte[][] prefixes = new byte[PsacctSnapshot.FIELDS][];
+        // Counter mode only, replaced as a whole so that a scrape never sees half of an update.
+        volatile double[] totals = new double[PsacctSnapshot.FIELDS];
+
+        ProcessMeters(ProcessKey key, ProcessAccountingMetrics owner) {
+            LOG.fine("Registering psacct meters for " + key);
+            this.key = key;
+            this.owner = owner;
+            Tags tags = tags(key);
+            MeterRegistry mr = owner.mr;
+
+            this.totalInvocationCount = Counter.builder("psacct.invocation.total")
+                    .tags(tags)
+                    .register(mr);
+            this.registered.add(this.totalInvocationCount);
+            for (int f = 0; f < PsacctSnapshot.FIELDS; f++) {
+                final int field = f;
+                if (owner.counters) {
+                    this.registered.add(FunctionCounter.builder(GAUGES[field], this, pm -> pm.totals[field])
+                            .tags(tags)
+                            .register(mr));
+                    this.prefixes[field] = ExpositionTable.encode(counterName(GAUGES[field]), tags);
+                } else {
+                    this.registered.add(Gauge.builder(GAUGES[field], this, pm -> pm.get(field))
+                            .tags(tags)
+                            .register(mr));
+                    this.prefixes[field] = ExpositionTable.encode(ExpositionTable.sanitize(GAUGES[field]), tags);
+                }
+            }
         }
 
-        LOG.finer("Resetting psacct.time.system...");
-        for (String x : this.systemTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.time.system " + x);
-            this.systemTime.get(x).set(0);
+        public ProcessKey getKey() {
+            return key;
         }
 
-        LOG.finer("Resetting psacct.vm.fault.major...");
-        for (String x : this.systemTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.vm.fault.major " + x);
-            this.majFaults.get(x).set(0);
+        void remove(MeterRegistry mr) {
+            for (Meter m : this.registered) {
+                mr.remove(m);
+            }
         }
 
-        LOG.finer("Resetting psacct.vm.fault.minor...");
-        for (String x : this.systemTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.vm.fault.minor " + x);
-            this.minFaults.get(x).set(0);
+        public double get(int field) {
+            return this.owner.current.get(this.key, field);
         }
 
-        LOG.finer("Resetting psacct.vm.swap.events...");
-        for (String x : this.systemTime.keySet()) {
-            LOG.finest("Resetting gauge psacct.vm.swap.events " + x);
-            this.swapEvents.get(x).set(0);
+        /*
+         * Adds the snapshot values to the totals, returning the new totals.
+         * Snapshots may be published from several threads at once.
+         */
+        synchronized double[] accumulate(double[] values) {
+            double[] next = this.totals.clone();
+            for (int f = 0; f < PsacctSnapshot.FIELDS; f++) {
+                next[f] += values[f];
+            }
+            this.totals = next;
+            return next;
         }
     }
 }
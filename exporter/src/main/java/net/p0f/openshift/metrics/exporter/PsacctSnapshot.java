@@ -0,0 +1,117 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics.ProcessKey;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * The complete psacct state of one input file (or one pacct read), as seen
+ * by the gauges.
+ *
+ * Snapshots are built off to the side while the records of a file are being
+ * registered, and only become visible once all of them are in, by replacing
+ * the current snapshot in one go. A scrape therefore always sees one whole
+ * generation, never a half-populated or half-reset one.
+ */
+public final class PsacctSnapshot {
+    // Value indices, all times in milliseconds.
+    public static final int INVOCATIONS = 0;
+    public static final int ELAPSED = 1;
+    public static final int USER = 2;
+    public static final int SYSTEM = 3;
+    public static final int MAJ_FAULTS = 4;
+    public static final int MIN_FAULTS = 5;
+    public static final int SWAPS = 6;
+    public static final int FIELDS = 7;
+
+    static final PsacctSnapshot EMPTY = new PsacctSnapshot(0, Collections.emptyMap());
+
+    final long generation;
+    final Map<ProcessKey, double[]> values;
+
+    PsacctSnapshot(long generation, Map<ProcessKey, double[]> values) {
+        this.generation = generation;
+        this.values = values;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /*
+     * Returns the value, or zero if the process did not appear in this
+     * generation.
+     */
+    public double get(ProcessKey key, int field) {
+        double[] v = this.values.get(key);
+        return v == null ? 0 : v[field];
+    }
+
+    /*
+     * All the processes of this generation. Neither the map nor the arrays
+     * may be modified.
+     */
+    public Map<ProcessKey, double[]> getValues() {
+        return values;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /*
+     * Collects the records of a single generation. Records may be added
+     * from several threads at once; duplicates are summed up.
+     */
+    public static final class Builder {
+        final long generation;
+        final ConcurrentHashMap<ProcessKey, double[]> values = new ConcurrentHashMap<>();
+        // For measuring how fast records get through the routes.
+        final long started = System.nanoTime();
+        final LongAdder records = new LongAdder();
+
+        public Builder(long generation) {
+            this.generation = generation;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        // How many records were added so far.
+        public long getRecords() {
+            return this.records.sum();
+        }
+
+        public void add(ProcessAccountingRecord par) {
+            this.records.increment();
+            ProcessKey key = new ProcessKey(par.getProcessName(), par.getHostName(), par.getContainerName());
+            this.values.compute(key, (k, v) -> {
+                if (v == null) {
+                    v = new double[FIELDS];
+                }
+                v[INVOCATIONS] += par.getNumCalls();
+                v[ELAPSED] += par.getElapsedTime() * 1000d;
+                v[USER] += par.getUserTime() * 1000d;
+                v[SYSTEM] += par.getSystemTime() * 1000d;
+                v[MAJ_FAULTS] += par.getMajFaults();
+                v[MIN_FAULTS] += par.getMinFaults();
+                v[SWAPS] += par.getSwapEvents();
+                return v;
+            });
+        }
+
+        public PsacctSnapshot build() {
+            return new PsacctSnapshot(this.generation, Collections.unmodifiableMap(new HashMap<>(this.values)));
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+/*
+ * What SysstatMetrics exports, as tables of sadf JSON paths (relative to
+ * the statistics object, or to a device in one of its lists) and the names
+ * of the gauges they go into.
+ *
+ * Paths are resolved against the @JsonProperty names of the model once,
+ * when the class is loaded, and every getter along the way is turned into
+ * a lambda by LambdaMetafactory, so that reading a value costs the same as
+ * calling the getter directly. Exporting another sysstat value is a matter
+ * of adding its field to the model and a line to one of the tables.
+ */
+final class SysstatDescriptors {
+    static final Logger LOG = Logger.getLogger(SysstatDescriptors.class.getName());
+
+    static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // Tagged with the host only.
+    static final Table<SysstatMeasurement> NODE = new Table<>("node", SysstatMeasurement.class, null, null, null,
+            "process-and-context-switch.cswch", "sysstat.sched.ctxswitch",
+            "process-and-context-switch.proc", "sysstat.sched.newproc",
+
+            "swap-pages.pswpin", "sysstat.vm.paging.pg.in",
+            "swap-pages.pswpout", "sysstat.vm.paging.pg.out",
+
+            "paging.pgpgin", "sysstat.vm.paging.kb.in",
+            "paging.pgpgout", "sysstat.vm.paging.kb.out",
+            "paging.fault", "sysstat.vm.fault.total",
+            "paging.majflt", "sysstat.vm.fault.major",
+            "paging.pgfree", "sysstat.vm.pg.freed",
+            "paging.pgscank", "sysstat.vm.pg.scan.kswapd",
+            "paging.pgscand", "sysstat.vm.pg.scan.direct",
+            "paging.pgsteal", "sysstat.vm.pg.cache.reclaimed",
+            "paging.vmeff-percent", "sysstat.vm.efficiency.pct",
+
+            "io.tps", "sysstat.io.tps.total",
+            "io.io-reads.rtps", "sysstat.io.tps.read",
+            "io.io-reads.bread", "sysstat.io.blk.read",
+            "io.io-writes.wtps", "sysstat.io.tps.write",
+            "io.io-writes.bwrtn", "sysstat.io.blk.write",
+            "io.io-discard.dtps", "sysstat.io.tps.discard",
+            "io.io-discard.bdscd", "sysstat.io.blk.discard",
+
+            "memory.memfree", "sysstat.mem.kb.free",
+            "memory.avail", "sysstat.mem.kb.avail",
+            "memory.memused", "sysstat.mem.kb.used",
+            "memory.memused-percent", "sysstat.mem.pct.used",
+            "memory.buffers", "sysstat.mem.kb.buf",
+            "memory.cached", "sysstat.mem.kb.cache",
+            "memory.commit", "sysstat.mem.kb.commit",
+            "memory.commit-percent", "sysstat.mem.pct.commit",
+            "memory.active", "sysstat.mem.kb.active",
+            "memory.inactive", "sysstat.mem.kb.inactive",
+            "memory.dirty", "sysstat.mem.kb.dirty",
+            "memory.anonpg", "sysstat.mem.kb.anonpg",
+            "memory.slab", "sysstat.mem.kb.slab",
+            "memory.kstack", "sysstat.mem.kb.kstack",
+            "memory.pgtbl", "sysstat.mem.kb.pgtbl",
+            "memory.vmused", "sysstat.mem.kb.vmused",
+            "memory.swpfree", "sysstat.mem.swap.kb.free",
+            "memory.swpused", "sysstat.mem.swap.kb.used",
+            "memory.swpused-percent", "sysstat.mem.swap.pct.used",
+            "memory.swpcad", "sysstat.mem.swap.kb.cached",
+            "memory.swpcad-percent", "sysstat.mem.swap.pct.cached",
+
+            "hugepages.hugfree", "sysstat.mem.huge.kb.free",
+            "hugepages.hugused", "sysstat.mem.huge.kb.used",
+            "hugepages.hugused-percent", "sysstat.mem.huge.pct.used",
+            "hugepages.hugrsvd", "sysstat.mem.huge.kb.reserved",
+            "hugepages.hugsurp", "sysstat.mem.huge.kb.surplus",
+
+            "kernel.dentunusd", "sysstat.kernel.dentry.unused",
+            "kernel.file-nr", "sysstat.kernel.nr.file",
+            "kernel.inode-nr", "sysstat.kernel.nr.inode",
+            "kernel.pty-nr", "sysstat.kernel.nr.pty",
+
+            "queue.runq-sz", "sysstat.sched.sz.runq",
+            "queue.plist-sz", "sysstat.sched.sz.plist",
+            "queue.ldavg-1", "sysstat.sched.load.1",
+            "queue.ldavg-5", "sysstat.sched.load.5",
+            "queue.ldavg-15", "sysstat.sched.load.15",
+            "queue.blocked", "sysstat.sched.sz.blocked",
+
+            "network.net-nfs.call", "sysstat.net.nfs.total",
+            "network.net-nfs.retrans", "sysstat.net.nfs.retrans",
+            "network.net-nfs.read", "sysstat.net.nfs.read",
+            "network.net-nfs.write", "sysstat.net.nfs.write",
+            "network.net-nfs.access", "sysstat.net.nfs.access",
+            "network.net-nfs.getatt", "sysstat.net.nfs.getattr",
+
+            "network.net-nfsd.scall", "sysstat.net.nfsd.total",
+            "network.net-nfsd.badcall", "sysstat.net.nfsd.error",
+            "network.net-nfsd.packet", "sysstat.net.nfsd.packets.total",
+            "network.net-nfsd.udp", "sysstat.net.nfsd.packets.udp",
+            "network.net-nfsd.tcp", "sysstat.net.nfsd.packets.tcp",
+            "network.net-nfsd.hit", "sysstat.net.nfsd.cache.hit",
+            "network.net-nfsd.miss", "sysstat.net.nfsd.cache.miss",
+            "network.net-nfsd.sread", "sysstat.net.nfsd.op.read",
+            "network.net-nfsd.swrite", "sysstat.net.nfsd.op.write",
+            "network.net-nfsd.saccess", "sysstat.net.nfsd.op.access",
+            "network.net-nfsd.sgetatt", "sysstat.net.nfsd.op.getattr",
+
+            "network.net-sock.totsck", "sysstat.net.sock.total",
+            "network.net-sock.tcpsck", "sysstat.net.sock.tcp",
+            "network.net-sock.udpsck", "sysstat.net.sock.udp",
+            "network.net-sock.rawsck", "sysstat.net.sock.raw",
+            "network.net-sock.ip-frag", "sysstat.net.ip.fragments",
+            "network.net-sock.tcp-tw", "sysstat.net.sock.timewait",
+
+            "psi.psi-cpu.some_avg10", "sysstat.pressure.cpu.some.10",
+            "psi.psi-cpu.some_avg60", "sysstat.pressure.cpu.some.60",
+            "psi.psi-cpu.some_avg300", "sysstat.pressure.cpu.some.300",
+            "psi.psi-cpu.some_avg", "sysstat.pressure.cpu.some.fromlast",
+
+            "psi.psi-io.some_avg10", "sysstat.pressure.io.some.10",
+            "psi.psi-io.some_avg60", "sysstat.pressure.io.some.60",
+            "psi.psi-io.some_avg300", "sysstat.pressure.io.some.300",
+            "psi.psi-io.some_avg", "sysstat.pressure.io.some.fromlast",
+            "psi.psi-io.full_avg10", "sysstat.pressure.io.all.10",
+            "psi.psi-io.full_avg60", "sysstat.pressure.io.all.60",
+            "psi.psi-io.full_avg300", "sysstat.pressure.io.all.300",
+            "psi.psi-io.full_avg", "sysstat.pressure.io.all.fromlast",
+
+            "psi.psi-mem.some_avg10", "sysstat.pressure.mem.some.10",
+            "psi.psi-mem.some_avg60", "sysstat.pressure.mem.some.60",
+            "psi.psi-mem.some_avg300", "sysstat.pressure.mem.some.300",
+            "psi.psi-mem.some_avg", "sysstat.pressure.mem.some.fromlast",
+            "psi.psi-mem.full_avg10", "sysstat.pressure.mem.all.10",
+            "psi.psi-mem.full_avg60", "sysstat.pressure.mem.all.60",
+            "psi.psi-mem.full_avg300", "sysstat.pressure.mem.all.300",
+            "psi.psi-mem.full_avg", "sysstat.pressure.mem.all.fromlast");
+
+    static final Table<SysstatMeasurement.CpuLoad> CPU = new Table<>("cpu",
+            SysstatMeasurement.CpuLoad.class, "cpu-load",
+            "cpu", "cpu",
+            "usr", "sysstat.cpu.usr",
+            "sys", "sysstat.cpu.sys",
+            "nice", "sysstat.cpu.nice",
+            "iowait", "sysstat.cpu.iowait",
+            "steal", "sysstat.cpu.steal",
+            "irq", "sysstat.cpu.irq",
+            "soft", "sysstat.cpu.soft",
+            "guest", "sysstat.cpu.guest",
+            "gnice", "sysstat.cpu.gnice",
+            "idle", "sysstat.cpu.idle");
+
+    static final Table<SysstatMeasurement.Disk> DISK = new Table<>("blkdev",
+            SysstatMeasurement.Disk.class, "disk",
+            "blkdev", "disk-device",
+            "tps", "sysstat.io.dev.tps",
+            "rkB", "sysstat.io.dev.read",
+            "wkB", "sysstat.io.dev.write",
+            "dkB", "sysstat.io.dev.discard",
+            "areq-sz", "sysstat.io.dev.queue.kb",
+            "aqu-sz", "sysstat.io.dev.queue.req",
+            "await", "sysstat.io.dev.queue.wait",
+            "util-percent", "sysstat.io.dev.saturation");
+
+    static final Table<SysstatMeasurement.Network.NetDev> NET_DEV = new Table<>("netdev",
+            SysstatMeasurement.Network.NetDev.class, "network.net-dev",
+            "iface", "iface",
+            "rxpck", "sysstat.net.if.pkt.recv",
+            "txpck", "sysstat.net.if.pkt.xmit",
+            "rxkB", "sysstat.net.if.kb.recv",
+            "txkB", "sysstat.net.if.kb.xmit",
+            "rxcmp", "sysstat.net.if.pkt.compressed.recv",
+            "txcmp", "sysstat.net.if.pkt.compressed.xmit",
+            "rxmcst", "sysstat.net.if.pkt.multicast.recv",
+            "ifutil-percent", "sysstat.net.if.saturation");
+
+    static final Table<SysstatMeasurement.Network.NetEDev> NET_EDEV = new Table<>("netedev",
+            SysstatMeasurement.Network.NetEDev.class, "network.net-edev",
+            "iface", "iface",
+            "rxerr", "sysstat.net.if.err.recv.total",
+            "txerr", "sysstat.net.if.err.xmit.total",
+            "coll", "sysstat.net.if.err.xmit.collision",
+            "rxdrop", "sysstat.net.if.err.recv.drop",
+            "txdrop", "sysstat.net.if.err.xmit.drop",
+            "txcarr", "sysstat.net.if.err.xmit.carrier",
+            "rxfram", "sysstat.net.if.err.recv.framing",
+            "rxfifo", "sysstat.net.if.err.recv.fifo",
+            "txfifo", "sysstat.net.if.err.xmit.fifo");
+
+    static final Table<SysstatMeasurement.Network.Softnet> SOFTNET = new Table<>("softnet",
+            SysstatMeasurement.Network.Softnet.class, "network.softnet",
+            "cpu", "cpu",
+            "total", "sysstat.net.frames.total",
+            "dropd", "sysstat.net.frames.drop",
+            "squeezd", "sysstat.net.irq.squeeze",
+            "rx_rps", "sysstat.net.irq.recv",
+            "flw_lim", "sysstat.net.irq.flowlimit");
+
+    // In the order of the sections of SysstatColumns.
+    static final Table<?>[] TABLES = { NODE, CPU, DISK, NET_DEV, NET_EDEV, SOFTNET };
+
+    private SysstatDescriptors() {
+    }
+
+    /*
+     * The gauges of one kind of object: the statistics as a whole, or each
+     * device of a list. Devices are told apart by a label, whose value is
+     * read from their key field.
+     */
+    static final class Table<T> {
+        final String kind;
+        // JSON path of the device list, null for the statistics object.
+        final String list;
+        final String label;
+        final String keyPath;
+        final Function<T, String> key;
+        final Descriptor[] descriptors;
+
+        // Pairs of JSON path and gauge name.
+        @SuppressWarnings("unchecked")
+        Table(String kind, Class<T> type, String list, String label, String keyPath, String... pathsAndNames) {
+            this.kind = kind;
+            this.list = list;
+            this.label = label;
+            this.keyPath = keyPath;
+            this.key = keyPath == null ? null : (Function<T, String>) (Function<?, ?>) function(getter(type, keyPath));
+            this.descriptors = new Descriptor[pathsAndNames.length / 2];
+            for (int i = 0; i < this.descriptors.length; i++) {
+                this.descriptors[i] = new Descriptor(type, pathsAndNames[2 * i], pathsAndNames[2 * i + 1]);
+            }
+            LOG.fine("Resolved " + this.descriptors.length + " " + kind + " gauges.");
+        }
+
+        String[] paths() {
+            String[] paths = new String[this.descriptors.length];
+            for (int i = 0; i < paths.length; i++) {
+                paths[i] = this.descriptors[i].path;
+            }
+            return paths;
+        }
+    }
+
+    /*
+     * A single gauge: the objects on the way to its value, if any, and the
+     * value itself.
+     */
+    static final class Descriptor {
+        final String path;
+        final String name;
+        final Function<Object, Object>[] hops;
+        final ToDoubleFunction<Object> value;
+
+        @SuppressWarnings("unchecked")
+        Descriptor(Class<?> type, String path, String name) {
+            this.path = path;
+            this.name = name;
+            String[] fields = path.split("\\.");
+            this.hops = new Function[fields.length - 1];
+            for (int i = 0; i < this.hops.length; i++) {
+                Method g = getter(type, fields[i]);
+                this.hops[i] = function(g);
+                type = g.getReturnType();
+            }
+            this.value = toDouble(getter(type, fields[fields.length - 1]));
+        }
+
+        /*
+         * The object holding the value, which the gauge can be bound to as
+         * long as the measurement is updated in place.
+         */
+        Object holder(Object root) {
+            Object o = root;
+            for (Function<Object, Object> hop : this.hops) {
+                o = hop.apply(o);
+            }
+            return o;
+        }
+    }
+
+    /*
+     * The getter of the field carrying the JSON property, in the class or
+     * any of its superclasses.
+     */
+    static Method getter(Class<?> type, String property) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                JsonProperty jp = f.getAnnotation(JsonProperty.class);
+                if (jp == null || !property.equals(jp.value().isEmpty() ? f.getName() : jp.value())) {
+                    continue;
+                }
+                String name = "get" + Character.toUpperCase(f.getName().charAt(0)) + f.getName().substring(1);
+                try {
+                    return type.getMethod(name);
+                } catch (NoSuchMethodException nsme) {
+                    throw new IllegalStateException("No " + name + "() for \"" + property + "\" in "
+                            + type.getSimpleName(), nsme);
+                }
+            }
+        }
+        throw new IllegalStateException("No \"" + property + "\" in " + type.getSimpleName());
+    }
+
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> function(Method getter) {
+        try {
+            MethodHandle mh = LOOKUP.unreflect(getter);
+            CallSite cs = LambdaMetafactory.metafactory(LOOKUP, "apply",
+                    MethodType.methodType(Function.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    mh, MethodType.methodType(getter.getReturnType(), getter.getDeclaringClass()));
+            return (Function<Object, Object>) cs.getTarget().invokeExact();
+        } catch (Throwable t) {
+            LOG.fine("Falling back to reflection for " + getter + ": " + t);
+            return o -> invoke(getter, o);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static ToDoubleFunction<Object> toDouble(Method getter) {
+        try {
+            MethodHandle mh = LOOKUP.unreflect(getter);
+            // The float and int getters are widened to double by the lambda itself.
+            CallSite cs = LambdaMetafactory.metafactory(LOOKUP, "applyAsDouble",
+                    MethodType.methodType(ToDoubleFunction.class),
+                    MethodType.methodType(double.class, Object.class),
+                    mh, MethodType.methodType(double.class, getter.getDeclaringClass()));
+            return (ToDoubleFunction<Object>) cs.getTarget().invokeExact();
+        } catch (Throwable t) {
+            LOG.fine("Falling back to reflection for " + getter + ": " + t);
+            return o -> ((Number) invoke(getter, o)).doubleValue();
+        }
+    }
+
+    static Object invoke(Method getter, Object o) {
+        try {
+            return getter.invoke(o);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Failed to call " + getter, e);
+        }
+    }
+}
@@ -1,15 +1,33 @@
 package net.p0f.openshift.metrics.exporter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Logger;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.exposition.Samples;
+import net.p0f.openshift.metrics.model.SysstatColumns;
 import net.p0f.openshift.metrics.model.SysstatMeasurement;
+import net.p0f.openshift.metrics.processor.SysstatColumnReader;
 
 @ApplicationScoped
 @Named("sysstatMetrics")
@@ -19,9 +37,65 @@ public class SysstatMetrics {
     @Inject
     MeterRegistry mr;
 
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    @Inject
+    ExpositionTable expositionTable;
+
+    @Inject
+    Event<Samples> samples;
+
+    // Either "micrometer" (gauges in the meter registry too) or "direct" (see ExpositionTable).
+    @ConfigProperty(defaultValue = "micrometer", name = "exporter.exposition")
+    String exposition;
+
+    String host;
+    // Bumped with every measurement.
+    volatile long generation;
+
+    // Per-device meters, keyed by device name.
+    final Map<String, Device<SysstatMeasurement.CpuLoad>> cpus = new HashMap<>();
+    final Map<String, Device<SysstatMeasurement.Disk>> disks = new HashMap<>();
+    final Map<String, Device<SysstatMeasurement.Network.NetDev>> netDevs = new HashMap<>();
+    final Map<String, Device<SysstatMeasurement.Network.NetEDev>> netEDevs = new HashMap<>();
+    final Map<String, Device<SysstatMeasurement.Network.Softnet>> softnets = new HashMap<>();
+
     SysstatMeasurement lastMeasurement = null;
 
+    // Only with the "columns" parser (see processDump), in the order of
+    // SysstatDescriptors.TABLES, along with the meters of each of their rows.
+    SysstatColumns columns;
+    final List<List<List<Runnable>>> rowMeters = new ArrayList<>();
+
+    // Top-level sadf fields a record must have, and those it should have.
+    static final String[] REQUIRED = {
+            "cpu-load", "process-and-context-switch", "paging", "io", "memory", "kernel", "queue", "disk", "network"
+    };
+    static final String[] EXPECTED = { "swap-pages", "hugepages", "psi" };
+
+    /*
+     * An instance outside of CDI, such as for replaying archived dumps
+     * (see Replay). Gauges only go into a table of its own, and the host is
+     * the one given, or else the nodename of the first measurement.
+     */
+    public static SysstatMetrics standalone(String host) {
+        SysstatMetrics m = new SysstatMetrics();
+        m.exposition = "direct";
+        m.expositionTable = new ExpositionTable();
+        m.nodeIdentity = NodeIdentity.fixed(host);
+        return m;
+    }
+
     public void processMetricRecord(SysstatMeasurement sm) {
+        ExpositionTable.Snapshot captured = update(sm);
+        this.samples.fire(captured.toSamples(Samples.SYSSTAT, System.currentTimeMillis()));
+    }
+
+    /*
+     * Updates all the gauges from the measurement and returns their values.
+     */
+    public ExpositionTable.Snapshot update(SysstatMeasurement sm) {
         LOG.fine("Updating sysstat metrics records...");
 
         // sanitize fields that may be null
@@ -44,506 +118,231 @@ public class SysstatMetrics {
             sm.setPsi(new SysstatMeasurement.Psi());
         }
 
+        this.nodeIdentity.offer(sm.getHostname());
+
         if (this.lastMeasurement == null) {
-            LOG.fine("Initialising sysstat metrics for " + sm.getHostname());
+            this.host = this.nodeIdentity.getName();
+            LOG.fine("Initialising sysstat metrics for " + this.host);
 
             this.lastMeasurement = sm;
-            Tags tags = Tags.of("host", this.lastMeasurement.getHostname());
-
-            for (SysstatMeasurement.CpuLoad cl : this.lastMeasurement.getCpuLoad()) {
-                LOG.fine("Registering CPU metrics for CPU-" + cl.getCpu());
-                Tags ctags = Tags.of("host", this.lastMeasurement.getHostname(), "cpu", cl.getCpu());
-    
-                Gauge.builder("sysstat.cpu.usr", cl::getUsr)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.sys", cl::getSys)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.nice", cl::getNice)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.iowait", cl::getIowait)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.steal", cl::getSteal)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.irq", cl::getIrq)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.soft", cl::getSoft)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.guest", cl::getGuest)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.gnice", cl::getGnice)
-                        .tags(ctags)
-                        .register(this.mr);
-                Gauge.builder("sysstat.cpu.idle", cl::getIdle)
-                            .tags(ctags)
-                            .register(this.mr);
-            }
+            register(SysstatDescriptors.NODE, sm);
+        } else {
+            // clone sm into lastMeasurement
+            LOG.fine("Cloning new metric into existing one...");
+            this.lastMeasurement.clone(sm);
+        }
 
-            LOG.fine("Registering process and context switch metrics");
-            SysstatMeasurement.ProcessAndContextSwitch pcs =
-                        this.lastMeasurement.getProcessAndContextSwitch();
-            Gauge.builder("sysstat.sched.ctxswitch", pcs::getCswch)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.newproc", pcs::getProc)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering swap metrics");
-            SysstatMeasurement.SwapPages sp = this.lastMeasurement.getSwapPages();
-            Gauge.builder("sysstat.vm.paging.pg.in", sp::getPswpin)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.paging.pg.out", sp::getPswpout)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering paging metrics");
-            SysstatMeasurement.Paging pg = this.lastMeasurement.getPaging();
-            Gauge.builder("sysstat.vm.paging.kb.in", pg::getPgpgin)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.paging.kb.out", pg::getPgpgout)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.fault.total", pg::getFault)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.fault.major", pg::getMajflt)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.pg.freed", pg::getPgfree)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.pg.scan.kswapd", pg::getPgscank)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.pg.scan.direct", pg::getPgscand)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.pg.cache.reclaimed", pg::getPgsteal)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.vm.efficiency.pct", pg::getVmeffPercent)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering I/O metrics");
-            SysstatMeasurement.Io io = this.lastMeasurement.getIo();
-            Gauge.builder("sysstat.io.tps.total", io::getTps)
-                        .tags(tags)
-                        .register(this.mr);
-            SysstatMeasurement.Io.IoReads ir = io.getIoReads();
-            Gauge.builder("sysstat.io.tps.read", ir::getRtps)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.io.blk.read", ir::getBread)
-                        .tags(tags)
-                        .register(this.mr);
-            SysstatMeasurement.Io.IoWrites iw = io.getIoWrites();
-            Gauge.builder("sysstat.io.tps.write", iw::getWtps)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.io.blk.write", iw::getBwrtn)
-                        .tags(tags)
-                        .register(this.mr);
-            SysstatMeasurement.Io.IoDiscard id = io.getIoDiscard();
-            Gauge.builder("sysstat.io.tps.discard", id::getDtps)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.io.blk.discard", id::getBdscd)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering memory metrics");
-            SysstatMeasurement.Memory m = this.lastMeasurement.getMemory();
-            Gauge.builder("sysstat.mem.kb.free", m::getMemfree)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.avail", m::getAvail)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.used", m::getMemused)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.pct.used", m::getMemusedPercent)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.buf", m::getBuffers)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.cache", m::getCached)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.commit", m::getCommit)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.pct.commit", m::getCommitPercent)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.active", m::getActive)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.inactive", m::getInactive)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.dirty", m::getDirty)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.anonpg", m::getAnonpg)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.slab", m::getSlab)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.kstack", m::getKstack)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.pgtbl", m::getPgtbl)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.kb.vmused", m::getVmused)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.swap.kb.free", m::getSwpfree)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.swap.kb.used", m::getSwpused)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.swap.pct.used", m::getSwpusedPercent)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.swap.kb.cached", m::getSwpcad)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.swap.pct.cached", m::getSwpcadPercent)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering hugepage metrics");
-            SysstatMeasurement.Hugepages hp = this.lastMeasurement.getHugepages();
-            Gauge.builder("sysstat.mem.huge.kb.free", hp::getHugfree)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.huge.kb.used", hp::getHugused)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.huge.pct.used", hp::getHugusedPercent)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.huge.kb.reserved", hp::getHugrsvd)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.mem.huge.kb.surplus", hp::getHugsurp)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering kernel metrics");
-            SysstatMeasurement.Kernel k = this.lastMeasurement.getKernel();
-            Gauge.builder("sysstat.kernel.dentry.unused", k::getDentunusd)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.kernel.nr.file", k::getFileNr)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.kernel.nr.inode", k::getInodeNr)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.kernel.nr.pty", k::getPtyNr)
-                        .tags(tags)
-                        .register(this.mr);
-
-            LOG.fine("Registering scheduler metrics");
-            SysstatMeasurement.Queue q = this.lastMeasurement.getQueue();
-            Gauge.builder("sysstat.sched.sz.runq", q::getRunqSz)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.sz.plist", q::getPlistSz)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.load.1", q::getLdavg1)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.load.5", q::getLdavg5)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.load.15", q::getLdavg15)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.sched.sz.blocked", q::getBlocked)
-                        .tags(tags)
-                        .register(this.mr);
-
-            for (SysstatMeasurement.Disk dsk : this.lastMeasurement.getDisk()) {
-                LOG.fine("Registering blkdev metrics for " + dsk.getDiskDevice());
-                Tags dtags = Tags.of("host", this.lastMeasurement.getHostname(), "blkdev", dsk.getDiskDevice());
-                Gauge.builder("sysstat.io.dev.tps", dsk::getTps)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.read", dsk::getRkB)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.write", dsk::getWkB)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.discard", dsk::getDkB)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.queue.kb", dsk::getAreqSz)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.queue.req", dsk::getAquSz)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.queue.wait", dsk::getAwait)
-                            .tags(dtags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.io.dev.saturation", dsk::getUtilPercent)
-                            .tags(dtags)
-                            .register(this.mr);
+        // Devices come and go, so they are matched up by name.
+        this.generation++;
+        reconcile(SysstatDescriptors.CPU, this.cpus, sm.getCpuLoad(), SysstatMeasurement.CpuLoad::clone);
+        reconcile(SysstatDescriptors.DISK, this.disks, sm.getDisk(), SysstatMeasurement.Disk::clone);
+        reconcile(SysstatDescriptors.NET_DEV, this.netDevs, sm.getNetwork().getNetDev(),
+                SysstatMeasurement.Network.NetDev::clone);
+        reconcile(SysstatDescriptors.NET_EDEV, this.netEDevs, sm.getNetwork().getNetEDev(),
+                SysstatMeasurement.Network.NetEDev::clone);
+        reconcile(SysstatDescriptors.SOFTNET, this.softnets, sm.getNetwork().getSoftnet(),
+                SysstatMeasurement.Network.Softnet::clone);
+
+        return this.expositionTable.capture();
+    }
+
+    /*
+     * Reads a sadf dump straight into the columns the gauges are bound to,
+     * then registers and retires device gauges and publishes the samples,
+     * like processMetricRecord() does with a parsed measurement. Returns
+     * false if the dump is not a valid record, in which case the gauges are
+     * left alone, though they do show whatever values it had.
+     */
+    public boolean processDump(InputStream in) throws IOException {
+        if (this.columns == null) {
+            this.columns = new SysstatColumns();
+            for (SysstatDescriptors.Table<?> t : SysstatDescriptors.TABLES) {
+                this.columns.addSection(t.list, t.keyPath, t.paths());
+                this.rowMeters.add(new ArrayList<>());
             }
+        }
+        if (!SysstatColumnReader.read(in, this.columns) || !isDumpValid(this.columns)) {
+            LOG.warning("Illegal sysstat record, skipping it.");
+            return false;
+        }
 
-            LOG.fine("Registering network metrics");
-            SysstatMeasurement.Network n = this.lastMeasurement.getNetwork();
-
-            for (SysstatMeasurement.Network.NetDev nd : this.lastMeasurement.getNetwork().getNetDev()) {
-                LOG.fine("Registering netdev metrics for interface " + nd.getIface());
-                Tags ntags = Tags.of("host", this.lastMeasurement.getHostname(), "iface", nd.getIface());
-
-                Gauge.builder("sysstat.net.if.pkt.recv", nd::getRxpck)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.pkt.xmit", nd::getTxpck)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.kb.recv", nd::getRxkB)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.kb.xmit", nd::getTxkB)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.pkt.compressed.recv", nd::getRxcmp)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.pkt.compressed.xmit", nd::getTxcmp)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.pkt.multicast.recv", nd::getRxmcst)
-                            .tags(ntags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.saturation", nd::getIfutilPercent)
-                            .tags(ntags)
-                            .register(this.mr);
+        this.nodeIdentity.offer(this.columns.getHostname());
+        if (this.host == null) {
+            this.host = this.nodeIdentity.getName();
+            LOG.fine("Initialising sysstat metrics for " + this.host);
+        }
+        this.generation++;
+        for (int i = 0; i < SysstatDescriptors.TABLES.length; i++) {
+            reconcile(SysstatDescriptors.TABLES[i], this.columns.getSection(i), this.rowMeters.get(i));
+        }
+
+        ExpositionTable.Snapshot captured = this.expositionTable.capture();
+        this.samples.fire(captured.toSamples(Samples.SYSSTAT, System.currentTimeMillis()));
+        return true;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    // Null until the first measurement.
+    public String getHost() {
+        return host;
+    }
+
+    /*
+     * Registers a gauge with the exposition table, which is where samples
+     * for the history come from, and unless exposing it directly from there,
+     * with the meter registry too. Returns what it takes to remove it again.
+     */
+    Runnable gauge(String name, Tags tags, DoubleSupplier source) {
+        ExpositionTable.Series s = this.expositionTable.add(name, tags, source);
+        if ("direct".equals(this.exposition)) {
+            return () -> this.expositionTable.remove(s);
+        }
+        Gauge g = Gauge.builder(name, source::getAsDouble)
+                .tags(tags)
+                .register(this.mr);
+        return () -> {
+            this.expositionTable.remove(s);
+            this.mr.remove(g);
+        };
+    }
+
+    /*
+     * Registers devices seen for the first time, copies the new values into
+     * the ones already known, and retires those that are gone. The last step
+     * is skipped altogether unless some device was actually missing.
+     */
+    <T> void reconcile(SysstatDescriptors.Table<T> table, Map<String, Device<T>> devices, List<T> incoming,
+            BiConsumer<T, T> update) {
+        if (incoming == null) {
+            return;
+        }
+        int seen = 0;
+        for (T t : incoming) {
+            String name = table.key.apply(t);
+            Device<T> d = devices.get(name);
+            if (d == null) {
+                LOG.fine("Registering " + table.kind + " metrics for " + name);
+                d = new Device<>(t, register(table, t));
+                devices.put(name, d);
+            } else if (d.generation != this.generation) {
+                update.accept(d.value, t);
+            } else {
+                // Listed twice, keep the first one.
+                continue;
             }
+            d.generation = this.generation;
+            seen++;
+        }
 
-            for (SysstatMeasurement.Network.NetEDev ne : this.lastMeasurement.getNetwork().getNetEDev()) {
-                LOG.fine("Registering error metrics for interface " + ne.getIface());
-                Tags etags = Tags.of("host", this.lastMeasurement.getHostname(), "iface", ne.getIface());
-                Gauge.builder("sysstat.net.if.err.recv.total", ne::getRxerr)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.xmit.total", ne::getTxerr)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.xmit.collision", ne::getColl)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.recv.drop", ne::getRxdrop)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.xmit.drop", ne::getTxdrop)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.xmit.carrier", ne::getTxcarr)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.recv.framing", ne::getRxfram)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.recv.fifo", ne::getRxfifo)
-                            .tags(etags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.if.err.xmit.fifo", ne::getTxfifo)
-                            .tags(etags)
-                            .register(this.mr);
+        if (seen < devices.size()) {
+            Iterator<Map.Entry<String, Device<T>>> it = devices.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Device<T>> e = it.next();
+                if (e.getValue().generation != this.generation) {
+                    LOG.fine("Retiring " + table.kind + " metrics for " + e.getKey());
+                    for (Runnable unregister : e.getValue().meters) {
+                        unregister.run();
+                    }
+                    it.remove();
+                }
             }
+        }
+    }
 
-            SysstatMeasurement.Network.NetNfs nn = n.getNetNfs();
-            Gauge.builder("sysstat.net.nfs.total", nn::getCall)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfs.retrans", nn::getRetrans)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfs.read", nn::getRead)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfs.write", nn::getWrite)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfs.access", nn::getAccess)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfs.getattr", nn::getGetatt)
-                        .tags(tags)
-                        .register(this.mr);
-
-            SysstatMeasurement.Network.NetNfsd nd = n.getNetNfsd();
-            Gauge.builder("sysstat.net.nfsd.total", nd::getScall)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.error", nd::getBadcall)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.packets.total", nd::getPacket)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.packets.udp", nd::getUdp)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.packets.tcp", nd::getTcp)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.cache.hit", nd::getHit)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.cache.miss", nd::getMiss)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.op.read", nd::getSread)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.op.write", nd::getSwrite)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.op.access", nd::getSaccess)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.nfsd.op.getattr", nd::getSgetatt)
-                        .tags(tags)
-                        .register(this.mr);
-
-            SysstatMeasurement.Network.NetSock ns = n.getNetSock();
-            Gauge.builder("sysstat.net.sock.total", ns::getTotsck)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.sock.tcp", ns::getTcpsck)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.sock.udp", ns::getUdpsck)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.sock.raw", ns::getRawsck)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.ip.fragments", ns::getIpFrag)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.net.sock.timewait", ns::getTcpTw)
-                        .tags(tags)
-                        .register(this.mr);
-
-            for (SysstatMeasurement.Network.Softnet sn : this.lastMeasurement.getNetwork().getSoftnet()) {
-                LOG.fine("Registering network interrupts for CPU " + sn.getCpu());
-                Tags stags = Tags.of("host", this.lastMeasurement.getHostname(), "cpu", sn.getCpu());
-                Gauge.builder("sysstat.net.frames.total", sn::getTotal)
-                            .tags(stags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.frames.drop", sn::getDropd)
-                            .tags(stags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.irq.squeeze", sn::getSqueezd)
-                            .tags(stags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.irq.recv", sn::getRxRps)
-                            .tags(stags)
-                            .register(this.mr);
-                Gauge.builder("sysstat.net.irq.flowlimit", sn::getFlwLim)
-                            .tags(stags)
-                            .register(this.mr);
+    /*
+     * Registers all the gauges of the table, bound to the object they were
+     * first seen in (see SysstatDescriptors).
+     */
+    <T> List<Runnable> register(SysstatDescriptors.Table<T> table, T value) {
+        Tags tags = table.label == null ? Tags.of("host", this.host)
+                : Tags.of("host", this.host, table.label, table.key.apply(value));
+        List<Runnable> meters = new ArrayList<>(table.descriptors.length);
+        for (SysstatDescriptors.Descriptor d : table.descriptors) {
+            Object holder = Objects.requireNonNull(d.holder(value), d.path);
+            ToDoubleFunction<Object> read = d.value;
+            meters.add(gauge(d.name, tags, () -> read.applyAsDouble(holder)));
+        }
+        return meters;
+    }
+
+    /*
+     * The same as the above for a section of the columns: registers rows
+     * that were seen for the first time and retires those that were not
+     * seen, giving up their row. Allocates nothing unless either happens.
+     */
+    void reconcile(SysstatDescriptors.Table<?> table, SysstatColumns.Section s, List<List<Runnable>> meters) {
+        for (int row = 0; row < s.getRowCount(); row++) {
+            List<Runnable> m = row < meters.size() ? meters.get(row) : null;
+            if (s.isSeen(row)) {
+                if (m == null) {
+                    LOG.fine("Registering " + table.kind + " metrics for " + s.getName(row));
+                    while (meters.size() <= row) {
+                        meters.add(null);
+                    }
+                    meters.set(row, register(table, s, row));
+                }
+            } else if (s.getName(row) != null) {
+                LOG.fine("Retiring " + table.kind + " metrics for " + s.getName(row));
+                if (m != null) {
+                    for (Runnable unregister : m) {
+                        unregister.run();
+                    }
+                    meters.set(row, null);
+                }
+                s.release(row);
             }
+        }
+    }
 
-            LOG.fine("Registering pressure-stall metrics");
-            SysstatMeasurement.Psi psi = this.lastMeasurement.getPsi();
-
-            SysstatMeasurement.Psi.PsiCpu pc = psi.getPsiCpu();
-            Gauge.builder("sysstat.pressure.cpu.some.10", pc::getSomeAvg10)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.cpu.some.60", pc::getSomeAvg60)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.cpu.some.300", pc::getSomeAvg300)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.cpu.some.fromlast", pc::getSomeAvg)
-                        .tags(tags)
-                        .register(this.mr);
-
-            SysstatMeasurement.Psi.PsiIoAndMem pi = psi.getPsiIo();
-            Gauge.builder("sysstat.pressure.io.some.10", pi::getSomeAvg10)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.some.60", pi::getSomeAvg60)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.some.300", pi::getSomeAvg300)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.some.fromlast", pi::getSomeAvg)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.all.10", pi::getFullAvg10)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.all.60", pi::getFullAvg60)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.all.300", pi::getFullAvg300)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.io.all.fromlast", pi::getFullAvg)
-                        .tags(tags)
-                        .register(this.mr);
-
-            SysstatMeasurement.Psi.PsiIoAndMem pm = psi.getPsiMem();
-            Gauge.builder("sysstat.pressure.mem.some.10", pm::getSomeAvg10)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.some.60", pm::getSomeAvg60)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.some.300", pm::getSomeAvg300)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.some.fromlast", pm::getSomeAvg)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.all.10", pm::getFullAvg10)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.all.60", pm::getFullAvg60)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.all.300", pm::getFullAvg300)
-                        .tags(tags)
-                        .register(this.mr);
-            Gauge.builder("sysstat.pressure.mem.all.fromlast", pm::getFullAvg)
-                        .tags(tags)
-                        .register(this.mr);
-        } else {
-            // clone sm into lastMeasurement
-            LOG.fine("Cloning new metric into existing one...");
-            this.lastMeasurement.clone(sm);
+    List<Runnable> register(SysstatDescriptors.Table<?> table, SysstatColumns.Section s, int row) {
+        Tags tags = table.label == null ? Tags.of("host", this.host)
+                : Tags.of("host", this.host, table.label, s.getName(row));
+        List<Runnable> meters = new ArrayList<>(table.descriptors.length);
+        for (int c = 0; c < table.descriptors.length; c++) {
+            int column = c;
+            meters.add(gauge(table.descriptors[c].name, tags, () -> s.get(column, row)));
+        }
+        return meters;
+    }
+
+    /*
+     * A device whose gauges are bound to the value first seen, which is then
+     * updated in place with every new measurement.
+     */
+    static final class Device<T> {
+        final T value;
+        final List<Runnable> meters;
+        long generation;
+
+        Device(T value, List<Runnable> meters) {
+            this.value = value;
+            this.meters = meters;
+        }
+    }
+
+    static boolean isDumpValid(SysstatColumns c) {
+        String nullMetrics = "";
+        for (String f : REQUIRED) {
+            if (!c.isPresent(f)) {
+                nullMetrics += f + ", ";
+            }
+        }
+        String warnMetrics = "";
+        for (String f : EXPECTED) {
+            if (!c.isPresent(f)) {
+                warnMetrics += f + ", ";
+            }
         }
+        if (warnMetrics.length() != 0) {
+            LOG.warning("Some sysstat fields are missing: \"" + warnMetrics.replaceFirst(", $", "") + "\"");
+        }
+        if (nullMetrics.length() != 0) {
+            LOG.warning("Required sysstat fields are missing: \"" + nullMetrics.replaceFirst(", $", "") + "\"");
+        }
+        return nullMetrics.length() == 0;
     }
 
     public static boolean isRecordValid(SysstatMeasurement sm) {
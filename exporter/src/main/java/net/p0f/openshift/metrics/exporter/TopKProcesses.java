@@ -0,0 +1,195 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics.ProcessKey;
+
+/*
+ * Keeps the number of psacct series bounded, no matter how many distinct
+ * commands show up (think CI nodes running randomly named temp binaries).
+ *
+ * Every generation is fed into a space-saving sketch of a fixed number of
+ * counters, weighted either by CPU time or by invocations, and decayed a
+ * bit each time so that the ranking follows what the node is doing now.
+ * Only the top K processes of the sketch keep their own series, all the
+ * others are summed up into a process called "(other processes)", one per
+ * container (of which there are no more than pods on the node). Command
+ * names are at most 15 characters (16 with the "*" sa adds to those that
+ * forked without exec), so that name cannot be taken by a real one.
+ *
+ * The counters are kept in a min-heap by count, so that a newcomer finds
+ * the smallest one to take over right away. Decaying multiplies all of
+ * them by the same factor, which leaves the heap in order.
+ */
+public class TopKProcesses {
+    static final Logger LOG = Logger.getLogger(TopKProcesses.class.getName());
+
+    public static final String OTHER = "(other processes)";
+
+    final int k;
+    final boolean byCpu;
+    final double decay;
+    final int capacity;
+
+    // Space-saving counters, never more than capacity of them, both by key
+    // and in a min-heap by count.
+    final HashMap<ProcessKey, Counter> counters;
+    final Counter[] heap;
+    int size;
+    volatile Set<ProcessKey> top = Collections.emptySet();
+
+    public TopKProcesses(int k, String by, double decay) {
+        this.k = k;
+        this.byCpu = !"invocations".equals(by);
+        this.decay = decay;
+        // Some slack, so that newcomers have a chance to climb up.
+        this.capacity = Math.max(2 * k, k + 16);
+        this.counters = new HashMap<>(this.capacity * 2);
+        this.heap = new Counter[this.capacity];
+    }
+
+    /*
+     * Updates the sketch with a new generation and returns the same
+     * generation with everything outside of the top K folded into OTHER.
+     */
+    public synchronized PsacctSnapshot fold(PsacctSnapshot s) {
+        for (int i = 0; i < this.size; i++) {
+            this.heap[i].count *= this.decay;
+            this.heap[i].error *= this.decay;
+        }
+        for (Map.Entry<ProcessKey, double[]> e : s.getValues().entrySet()) {
+            offer(e.getKey(), weight(e.getValue()));
+        }
+        this.top = selectTop();
+
+        Map<ProcessKey, double[]> folded = new HashMap<>();
+        int others = 0;
+        for (Map.Entry<ProcessKey, double[]> e : s.getValues().entrySet()) {
+            ProcessKey key = e.getKey();
+            if (this.top.contains(key)) {
+                // Shared with the snapshot, and never written to.
+                folded.put(key, e.getValue());
+                continue;
+            }
+            others++;
+            double[] sum = folded.computeIfAbsent(new ProcessKey(OTHER, key.getHostName(), key.getContainerName()),
+                    x -> new double[PsacctSnapshot.FIELDS]);
+            for (int i = 0; i < PsacctSnapshot.FIELDS; i++) {
+                sum[i] += e.getValue()[i];
+            }
+        }
+        if (others > 0) {
+            LOG.fine("Folded " + others + " processes into \"" + OTHER + "\" in generation " + s.getGeneration());
+        }
+        return new PsacctSnapshot(s.getGeneration(), Collections.unmodifiableMap(folded));
+    }
+
+    /*
+     * True if the process currently has series of its own (which the
+     * folded processes always have).
+     */
+    public boolean isTracked(ProcessKey key) {
+        return OTHER.equals(key.getProcessName()) || this.top.contains(key);
+    }
+
+    double weight(double[] v) {
+        return this.byCpu
+                ? v[PsacctSnapshot.USER] + v[PsacctSnapshot.SYSTEM]
+                : v[PsacctSnapshot.INVOCATIONS];
+    }
+
+    void offer(ProcessKey key, double w) {
+        Counter c = this.counters.get(key);
+        if (c != null) {
+            c.count += w;
+            siftDown(c.index);
+            return;
+        }
+        if (this.size < this.capacity) {
+            c = new Counter(key, w, 0);
+            this.counters.put(key, c);
+            this.heap[this.size] = c;
+            c.index = this.size++;
+            siftUp(c.index);
+            return;
+        }
+        // Full: the newcomer takes over the smallest counter, inheriting its
+        // count as the error bound.
+        c = this.heap[0];
+        this.counters.remove(c.key);
+        c.key = key;
+        c.error = c.count;
+        c.count += w;
+        this.counters.put(key, c);
+        siftDown(0);
+    }
+
+    void siftUp(int i) {
+        Counter c = this.heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            Counter p = this.heap[parent];
+            if (p.count <= c.count) {
+                break;
+            }
+            place(p, i);
+            i = parent;
+        }
+        place(c, i);
+    }
+
+    void siftDown(int i) {
+        Counter c = this.heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.size) {
+                break;
+            }
+            if (child + 1 < this.size && this.heap[child + 1].count < this.heap[child].count) {
+                child++;
+            }
+            if (c.count <= this.heap[child].count) {
+                break;
+            }
+            place(this.heap[child], i);
+            i = child;
+        }
+        place(c, i);
+    }
+
+    void place(Counter c, int i) {
+        this.heap[i] = c;
+        c.index = i;
+    }
+
+    Set<ProcessKey> selectTop() {
+        List<Counter> entries = new ArrayList<>(this.counters.values());
+        entries.sort((a, b) -> Double.compare(b.count, a.count));
+        Set<ProcessKey> result = new HashSet<>();
+        for (int i = 0; i < entries.size() && i < this.k; i++) {
+            result.add(entries.get(i).key);
+        }
+        return result;
+    }
+
+    static final class Counter {
+        ProcessKey key;
+        double count;
+        // By how much count may overestimate the weight of the key.
+        double error;
+        int index;
+
+        Counter(ProcessKey key, double count, double error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
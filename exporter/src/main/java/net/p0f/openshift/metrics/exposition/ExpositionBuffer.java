@@ -0,0 +1,220 @@
+package net.p0f.openshift.metrics.exposition;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * A growable byte buffer the exposition is rendered into, meant to be reset
+ * and re-used for every scrape rather than allocated anew.
+ *
+ * Numbers are formatted straight into the buffer. Integral values (most
+ * counters, sizes and counts) never allocate; anything else goes through
+ * Double.toString(), which is what the Prometheus client does as well, so
+ * the output is the same as the Micrometer registry's.
+ */
+public class ExpositionBuffer {
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POS_INF = "+Inf".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEG_INF = "-Inf".getBytes(StandardCharsets.US_ASCII);
+
+    // Largest magnitude Double.toString() still prints without an exponent.
+    private static final double PLAIN_LIMIT = 1e7;
+
+    private byte[] buf;
+    private int len;
+    private Utf8Writer writer;
+
+    public ExpositionBuffer() {
+        this(64 * 1024);
+    }
+
+    public ExpositionBuffer(int initialSize) {
+        this.buf = new byte[initialSize];
+    }
+
+    public void reset() {
+        this.len = 0;
+        if (this.writer != null) {
+            this.writer.high = 0;
+        }
+    }
+
+    public int size() {
+        return len;
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public void write(byte b) {
+        ensure(1);
+        this.buf[this.len++] = b;
+    }
+
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, this.buf, this.len, n);
+        this.len += n;
+    }
+
+    public void writeAscii(CharSequence s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            this.buf[this.len++] = (byte) s.charAt(i);
+        }
+    }
+
+    /*
+     * Formats the value the same way as Double.toString(), which is what
+     * Prometheus clients use, but without going through a String for the
+     * common case of integral values.
+     */
+    public void writeDouble(double v) {
+        if (Double.isNaN(v)) {
+            write(NAN);
+        } else if (v == Double.POSITIVE_INFINITY) {
+            write(POS_INF);
+        } else if (v == Double.NEGATIVE_INFINITY) {
+            write(NEG_INF);
+        } else if (v == (long) v && Math.abs(v) < PLAIN_LIMIT) {
+            if (v == 0 && 1 / v < 0) {
+                write((byte) '-');
+            }
+            writeLong((long) v);
+            write((byte) '.');
+            write((byte) '0');
+        } else {
+            writeAscii(Double.toString(v));
+        }
+    }
+
+    public void writeLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            writeAscii(Long.toString(v));
+            return;
+        }
+        if (v < 0) {
+            write((byte) '-');
+            v = -v;
+        }
+        int digits = 1;
+        for (long x = v; x >= 10; x /= 10) {
+            digits++;
+        }
+        ensure(digits);
+        for (int i = this.len + digits - 1; i >= this.len; i--) {
+            this.buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        this.len += digits;
+    }
+
+    /*
+     * The buffer as a Writer, for renderers that only write to one (such as
+     * the Prometheus client's TextFormat), encoding to UTF-8 as it goes
+     * instead of going through one big String. Always the same instance.
+     */
+    public Writer writer() {
+        if (this.writer == null) {
+            this.writer = new Utf8Writer();
+        }
+        return this.writer;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(this.buf, 0, this.len);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buf, this.len);
+    }
+
+    private void ensure(int n) {
+        if (this.len + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+        }
+    }
+
+    /*
+     * Encodes the way String.getBytes(UTF_8) does, unpaired surrogates
+     * becoming '?'. A high surrogate at the end of one write waits for the
+     * next one, until the buffer is reset.
+     */
+    private final class Utf8Writer extends Writer {
+        private char high;
+
+        @Override
+        public void write(int c) {
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int n) {
+            for (int i = off; i < off + n; i++) {
+                encode(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int n) {
+            for (int i = off; i < off + n; i++) {
+                encode(str.charAt(i));
+            }
+        }
+
+        private void encode(char c) {
+            if (this.high != 0) {
+                char h = this.high;
+                this.high = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(h, c);
+                    ensure(4);
+                    buf[len++] = (byte) (0xf0 | cp >> 18);
+                    buf[len++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                    buf[len++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                    buf[len++] = (byte) (0x80 | cp & 0x3f);
+                    return;
+                }
+                ExpositionBuffer.this.write((byte) '?');
+            }
+            if (c < 0x80) {
+                ExpositionBuffer.this.write((byte) c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buf[len++] = (byte) (0xc0 | c >> 6);
+                buf[len++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c)) {
+                this.high = c;
+            } else if (Character.isLowSurrogate(c)) {
+                ExpositionBuffer.this.write((byte) '?');
+            } else {
+                ensure(3);
+                buf[len++] = (byte) (0xe0 | c >> 12);
+                buf[len++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buf[len++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+
+        // Whatever was written is in the buffer already.
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            if (this.high != 0) {
+                this.high = 0;
+                ExpositionBuffer.this.write((byte) '?');
+            }
+        }
+    }
+}
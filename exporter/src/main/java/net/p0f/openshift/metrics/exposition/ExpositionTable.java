@@ -0,0 +1,260 @@
+package net.p0f.openshift.metrics.exposition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+
+/*
+ * Gauges rendered directly in the Prometheus text format, bypassing the
+ * Micrometer registry. Each capture is also what gets handed out as
+ * Samples for the history.
+ *
+ * Each series is encoded once, when it is added, into the bytes of its
+ * name and labels ("sysstat_cpu_usr{cpu=\"0\",host=\"node\",} "). The
+ * values are read from their sources once per measurement, by capture(),
+ * into a plain double array. A scrape then only copies the prefixes and
+ * formats the numbers of the latest capture, without calling into any of
+ * the sources or touching the registry.
+ */
+@ApplicationScoped
+@Named("expositionTable")
+public class ExpositionTable {
+    static final Logger LOG = Logger.getLogger(ExpositionTable.class.getName());
+
+    // Families in order of registration, each with its series.
+    final LinkedHashMap<String, Family> families = new LinkedHashMap<>();
+    boolean dirty = true;
+    Layout layout = new Layout(new byte[0][], new int[0], new byte[0][], new DoubleSupplier[0]);
+
+    volatile Snapshot current = new Snapshot(this.layout, new double[0], 0);
+    long generation;
+
+    /*
+     * Adds a gauge, returning a handle it can be removed with.
+     */
+    public synchronized Series add(String name, Tags tags, DoubleSupplier source) {
+        String promName = sanitize(name);
+        Family f = this.families.get(promName);
+        if (f == null) {
+            f = new Family(promName);
+            this.families.put(promName, f);
+        }
+        Series s = new Series(f, encode(promName, tags), source);
+        f.series.add(s);
+        this.dirty = true;
+        return s;
+    }
+
+    public synchronized void remove(Series s) {
+        if (s.family.series.remove(s)) {
+            if (s.family.series.isEmpty()) {
+                this.families.remove(s.family.name);
+            }
+            this.dirty = true;
+        }
+    }
+
+    /*
+     * Reads all the sources and publishes their values as the new snapshot.
+     * Meant to be called once per measurement, after all the sources were
+     * updated.
+     */
+    public synchronized Snapshot capture() {
+        if (this.dirty) {
+            this.layout = buildLayout();
+            this.dirty = false;
+        }
+        DoubleSupplier[] sources = this.layout.sources;
+        double[] values = new double[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            values[i] = sources[i].getAsDouble();
+        }
+        Snapshot s = new Snapshot(this.layout, values, ++this.generation);
+        this.current = s;
+        return s;
+    }
+
+    public Snapshot getCurrent() {
+        return current;
+    }
+
+    /*
+     * Renders the current snapshot into the buffer.
+     */
+    public void render(ExpositionBuffer out) {
+        this.current.render(out);
+    }
+
+    Layout buildLayout() {
+        int families = this.families.size();
+        int count = 0;
+        for (Family f : this.families.values()) {
+            count += f.series.size();
+        }
+        byte[][] headers = new byte[families][];
+        int[] familyEnd = new int[families];
+        byte[][] prefixes = new byte[count][];
+        DoubleSupplier[] sources = new DoubleSupplier[count];
+
+        int fi = 0;
+        int si = 0;
+        for (Family f : this.families.values()) {
+            headers[fi] = f.header;
+            for (Series s : f.series) {
+                prefixes[si] = s.prefix;
+                sources[si] = s.source;
+                si++;
+            }
+            familyEnd[fi++] = si;
+        }
+        LOG.fine("Exposition layout now has " + families + " families with " + count + " series.");
+        return new Layout(headers, familyEnd, prefixes, sources);
+    }
+
+    /*
+     * Encodes the series prefix: name, labels and the blank before the value.
+     */
+    public static byte[] encode(String promName, Tags tags) {
+        // Same label order as the Prometheus registry: sorted by name.
+        Map<String, String> labels = new TreeMap<>();
+        for (Tag t : tags) {
+            labels.put(sanitize(t.getKey()), t.getValue());
+        }
+        StringBuilder sb = new StringBuilder(promName);
+        if (!labels.isEmpty()) {
+            sb.append('{');
+            for (Map.Entry<String, String> e : labels.entrySet()) {
+                sb.append(e.getKey()).append("=\"");
+                escape(sb, e.getValue());
+                sb.append("\",");
+            }
+            sb.append('}');
+        }
+        sb.append(' ');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Micrometer names ("sysstat.cpu.usr") to Prometheus ones ("sysstat_cpu_usr").
+     */
+    public static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (i > 0 && c >= '0' && c <= '9');
+            sb.append(ok ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    static void escape(StringBuilder sb, String v) {
+        if (v == null) {
+            return;
+        }
+        for (int i = 0; i < v.length(); i++) {
+            char c = v.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '"') {
+                sb.append("\\\"");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    static final class Family {
+        final String name;
+        final byte[] header;
+        final List<Series> series = new ArrayList<>();
+
+        Family(String name) {
+            this.name = name;
+            // Micrometer has no help text for these either, and writes a blank in its place.
+            this.header = ("# HELP " + name + "  \n# TYPE " + name + " gauge\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public static final class Series {
+        final Family family;
+        final byte[] prefix;
+        final DoubleSupplier source;
+
+        Series(Family family, byte[] prefix, DoubleSupplier source) {
+            this.family = family;
+            this.prefix = prefix;
+            this.source = source;
+        }
+    }
+
+    /*
+     * The flattened families and series, rebuilt only when series are added
+     * or removed.
+     */
+    static final class Layout {
+        final byte[][] headers;
+        // Index of the first series of the next family.
+        final int[] familyEnd;
+        final byte[][] prefixes;
+        final DoubleSupplier[] sources;
+
+        Layout(byte[][] headers, int[] familyEnd, byte[][] prefixes, DoubleSupplier[] sources) {
+            this.headers = headers;
+            this.familyEnd = familyEnd;
+            this.prefixes = prefixes;
+            this.sources = sources;
+        }
+    }
+
+    /*
+     * The values of one capture, along with the layout they belong to.
+     */
+    public static final class Snapshot {
+        final Layout layout;
+        final double[] values;
+        final long generation;
+
+        Snapshot(Layout layout, double[] values, long generation) {
+            this.layout = layout;
+            this.values = values;
+            this.generation = generation;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+
+        public Samples toSamples(String source, long timestamp) {
+            return new Samples(source, timestamp, this.layout.prefixes, this.values, this.values.length);
+        }
+
+        public void render(ExpositionBuffer out) {
+            byte[][] headers = this.layout.headers;
+            int[] familyEnd = this.layout.familyEnd;
+            byte[][] prefixes = this.layout.prefixes;
+            int si = 0;
+            for (int fi = 0; fi < headers.length; fi++) {
+                out.write(headers[fi]);
+                for (; si < familyEnd[fi]; si++) {
+                    out.write(prefixes[si]);
+                    out.writeDouble(this.values[si]);
+                    out.write((byte) '\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.p0f.openshift.metrics.exposition;
+
+/*
+ * One round of samples from a single source ("sysstat" or "psacct"), fired
+ * as a CDI event whenever a new measurement or psacct snapshot is in, for
+ * whoever wants to keep or forward them.
+ *
+ * Series are identified by their encoded exposition prefix (name and
+ * labels, see ExpositionTable), and the same series keeps the same byte[]
+ * instance from one round to the next, so observers can key on identity.
+ * Neither the arrays nor their contents may be modified.
+ */
+public final class Samples {
+    public static final String SYSSTAT = "sysstat";
+    public static final String PSACCT = "psacct";
+
+    final String source;
+    final long timestamp;
+    final byte[][] series;
+    final double[] values;
+    final int count;
+
+    public Samples(String source, long timestamp, byte[][] series, double[] values, int count) {
+        this.source = source;
+        this.timestamp = timestamp;
+        this.series = series;
+        this.values = values;
+        this.count = count;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // Milliseconds since the epoch.
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte[][] getSeries() {
+        return series;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
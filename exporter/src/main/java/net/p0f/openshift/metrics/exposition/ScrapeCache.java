@@ -0,0 +1,194 @@
+package net.p0f.openshift.metrics.exposition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.exporter.SysstatMetrics;
+
+/*
+ * The complete scrape response, rendered and compressed once per ingest
+ * generation and then handed out as is to every scraper until the next
+ * measurement or psacct snapshot arrives. The registry holds more than what
+ * the generations cover (JVM and pod meters, exec histograms...), so once a
+ * response gets older than the maximum age it is rendered again, but only
+ * replaced (and compressed) if that actually changed anything.
+ *
+ * The ETag is derived from the generations, plus a revision for every
+ * change within one, and the start time, so that it changes across
+ * restarts. Scrapers that already have the current body get a 304.
+ */
+@ApplicationScoped
+@Named("scrapeCache")
+public class ScrapeCache {
+    static final Logger LOG = Logger.getLogger(ScrapeCache.class.getName());
+
+    @Inject
+    ExpositionTable expositionTable;
+
+    @Inject
+    PrometheusMeterRegistry prometheusRegistry;
+
+    @Inject
+    SysstatMetrics sysstatMetrics;
+
+    @Inject
+    ProcessAccountingMetrics processAccountingMetrics;
+
+    // The exposition table only needs rendering if its gauges are not in the registry.
+    @ConfigProperty(defaultValue = "micrometer", name = "exporter.exposition")
+    String exposition;
+
+    // Milliseconds after which the rest of the registry is rendered again.
+    @ConfigProperty(defaultValue = "5000", name = "exporter.scrape.max-age")
+    long maxAge;
+
+    final String epoch = Long.toHexString(System.currentTimeMillis());
+
+    // Only ever used with the lock held.
+    final ExpositionBuffer buffer = new ExpositionBuffer();
+
+    volatile Entry current;
+
+    /*
+     * Returns the response for the current generation, rendering it first
+     * if nobody has asked for it yet.
+     */
+    public Entry get() {
+        return getAt(System.currentTimeMillis());
+    }
+
+    Entry getAt(long now) {
+        String generations = currentGenerations();
+        Entry e = this.current;
+        if (e != null && e.generations.equals(generations) && now - e.rendered < this.maxAge) {
+            return e;
+        }
+        synchronized (this) {
+            e = this.current;
+            if (e == null || !e.generations.equals(generations)) {
+                e = render(generations, 0, now);
+                this.current = e;
+            } else if (now - e.rendered >= this.maxAge) {
+                e = refresh(e, now);
+                this.current = e;
+            }
+            return e;
+        }
+    }
+
+    // The exposition table is captured along with every measurement, so the
+    // sysstat generation covers it too.
+    String currentGenerations() {
+        return this.epoch
+                + "-" + this.sysstatMetrics.getGeneration()
+                + "-" + this.processAccountingMetrics.getCurrent().getGeneration();
+    }
+
+    /*
+     * Renders the generation again, keeping the ETag (and the compressed
+     * body) if nothing changed.
+     */
+    Entry refresh(Entry e, long now) {
+        Entry next = render(e.generations, e.revision + 1, now);
+        if (Arrays.equals(next.plain, e.plain)) {
+            LOG.fine("Scrape " + e.etag + " unchanged after " + (now - e.rendered) + "ms.");
+            return new Entry(e.generations, e.revision, e.plain, e.gzip, now);
+        }
+        return next.compress();
+    }
+
+    Entry render(String generations, long revision, long now) {
+        long start = System.nanoTime();
+        this.buffer.reset();
+        if ("direct".equals(this.exposition)) {
+            this.expositionTable.render(this.buffer);
+        }
+        try {
+            // Straight into the buffer, not through a String of it all.
+            this.prometheusRegistry.scrape(this.buffer.writer());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        Entry e = new Entry(generations, revision, this.buffer.toByteArray(), null, now);
+        LOG.fine("Rendered scrape " + e.etag + ": " + e.plain.length + " bytes in "
+                + (System.nanoTime() - start) / 1000 + "us.");
+        return revision == 0 ? e.compress() : e;
+    }
+
+    public static final class Entry {
+        final String generations;
+        final long revision;
+        final String etag;
+        final byte[] plain;
+        final byte[] gzip;
+        // When the registry was last rendered into it, in milliseconds.
+        final long rendered;
+
+        Entry(String generations, long revision, byte[] plain, byte[] gzip, long rendered) {
+            this.generations = generations;
+            this.revision = revision;
+            this.etag = "\"" + generations + (revision == 0 ? "" : "-r" + revision) + "\"";
+            this.plain = plain;
+            this.gzip = gzip;
+            this.rendered = rendered;
+        }
+
+        Entry compress() {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(this.plain.length / 4 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(bos, 8192)) {
+                gz.write(this.plain);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            return new Entry(this.generations, this.revision, this.plain, bos.toByteArray(), this.rendered);
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        // Not to be modified.
+        public byte[] getPlain() {
+            return plain;
+        }
+
+        // Not to be modified.
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        /*
+         * True if the If-None-Match header value lists this entry.
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            if (ifNoneMatch.trim().equals("*")) {
+                return true;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(this.etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.p0f.openshift.metrics.history;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.logging.Logger;
+
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * The last N rounds of samples of a single source, kept off-heap.
+ *
+ * All the memory is allocated up front, as one direct buffer holding a
+ * column of N doubles for each of a fixed number of series slots, plus a
+ * column of N timestamps. Row i of the ring lives at index (i % N) in all
+ * of them, so appending a round never allocates, and old rounds are simply
+ * overwritten.
+ *
+ * Series are assigned a slot when first seen. A slot is only given up once
+ * its series has not been seen for N rounds, that is when none of its
+ * values are left in the ring, so a slot never mixes two series. Should
+ * there be more live series than slots, the surplus is not kept.
+ */
+public class HistoryRing {
+    static final Logger LOG = Logger.getLogger(HistoryRing.class.getName());
+
+    final String source;
+    final int capacity;
+    final int maxSeries;
+
+    final ByteBuffer timestamps;
+    final ByteBuffer values;
+
+    // Per slot: series prefix, and the last row it was written in.
+    final byte[][] slotSeries;
+    final long[] slotLastRow;
+    final IdentityHashMap<byte[], Integer> slots = new IdentityHashMap<>();
+    final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    // Rows appended so far, the next row is at (rows % capacity).
+    long rows;
+    long dropped;
+
+    public HistoryRing(String source, int capacity, int maxSeries) {
+        if ((long) capacity * maxSeries * Double.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("History of " + capacity + " rounds of " + maxSeries
+                    + " " + source + " series does not fit in a single buffer.");
+        }
+        this.source = source;
+        this.capacity = capacity;
+        this.maxSeries = maxSeries;
+        this.timestamps = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder());
+        this.values = ByteBuffer.allocateDirect(maxSeries * capacity * Double.BYTES).order(ByteOrder.nativeOrder());
+        this.slotSeries = new byte[maxSeries][];
+        this.slotLastRow = new long[maxSeries];
+        for (int i = 0; i < maxSeries; i++) {
+            this.freeSlots.add(i);
+        }
+        LOG.fine("Allocated " + (this.values.capacity() + this.timestamps.capacity()) / 1024
+                + "kB of history for " + capacity + " rounds of " + maxSeries + " " + source + " series.");
+    }
+
+    public synchronized void append(Samples s) {
+        long row = this.rows;
+        int idx = (int) (row % this.capacity);
+        this.timestamps.putLong(idx * Long.BYTES, s.getTimestamp());
+
+        byte[][] series = s.getSeries();
+        double[] v = s.getValues();
+        for (int i = 0; i < s.getCount(); i++) {
+            int slot = slotOf(series[i]);
+            if (slot >= 0) {
+                this.values.putDouble((slot * this.capacity + idx) * Double.BYTES, v[i]);
+                this.slotLastRow[slot] = row;
+            }
+        }
+
+        // Whatever was not in this round must not show the value that was
+        // in this row one lap ago.
+        for (int slot = 0; slot < this.maxSeries; slot++) {
+            byte[] owner = this.slotSeries[slot];
+            if (owner == null || this.slotLastRow[slot] == row) {
+                continue;
+            }
+            this.values.putDouble((slot * this.capacity + idx) * Double.BYTES, Double.NaN);
+            if (row - this.slotLastRow[slot] >= this.capacity) {
+                // Nothing of it left in the ring.
+                this.slots.remove(owner);
+                this.slotSeries[slot] = null;
+                this.freeSlots.add(slot);
+            }
+        }
+        this.rows = row + 1;
+    }
+
+    int slotOf(byte[] series) {
+        Integer slot = this.slots.get(series);
+        if (slot != null) {
+            return slot;
+        }
+        slot = this.freeSlots.poll();
+        if (slot == null) {
+            if (this.dropped++ == 0) {
+                LOG.warning("Out of " + this.source + " history slots (" + this.maxSeries + "), some series are not kept.");
+            }
+            return -1;
+        }
+        this.slots.put(series, slot);
+        this.slotSeries[slot] = series;
+        // Rows written before the slot was taken belong to someone else.
+        for (int i = 0; i < this.capacity; i++) {
+            this.values.putDouble((slot * this.capacity + i) * Double.BYTES, Double.NaN);
+        }
+        return slot;
+    }
+
+    /*
+     * Writes all the samples newer than the timestamp, as exposition lines
+     * with timestamps, one series after the other. Values are formatted
+     * straight out of the direct buffer into a small chunk that is flushed
+     * as it fills up, so the range is never copied onto the heap. The lock
+     * is only held for one series at a time, so a slow reader does not hold
+     * up ingestion.
+     */
+    public void stream(long since, ExpositionBuffer chunk, OutputStream out) throws IOException {
+        for (int slot = 0; slot < this.maxSeries; slot++) {
+            synchronized (this) {
+                byte[] series = this.slotSeries[slot];
+                if (series == null) {
+                    continue;
+                }
+                long last = this.rows;
+                for (long row = Math.max(0, last - this.capacity); row < last; row++) {
+                    int idx = (int) (row % this.capacity);
+                    long ts = this.timestamps.getLong(idx * Long.BYTES);
+                    double v = this.values.getDouble((slot * this.capacity + idx) * Double.BYTES);
+                    if (ts <= since || Double.isNaN(v)) {
+                        continue;
+                    }
+                    // The prefix ends with a blank already.
+                    chunk.write(series);
+                    chunk.writeDouble(v);
+                    chunk.write((byte) ' ');
+                    chunk.writeLong(ts);
+                    chunk.write((byte) '\n');
+                }
+            }
+            if (chunk.size() > 32 * 1024) {
+                chunk.writeTo(out);
+                chunk.reset();
+            }
+        }
+        chunk.writeTo(out);
+        chunk.reset();
+    }
+}
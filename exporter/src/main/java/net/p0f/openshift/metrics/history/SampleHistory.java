@@ -0,0 +1,81 @@
+package net.p0f.openshift.metrics.history;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Keeps the last few rounds of sysstat and psacct samples, one HistoryRing
+ * per source, so that a scraper that missed some can catch up from
+ * /metrics/history.
+ */
+@ApplicationScoped
+@Named("sampleHistory")
+public class SampleHistory {
+    static final Logger LOG = Logger.getLogger(SampleHistory.class.getName());
+
+    // Rounds of samples kept per source, zero to keep none.
+    @ConfigProperty(defaultValue = "360", name = "exporter.history.samples")
+    int samples;
+
+    // Series slots allocated up front per source.
+    @ConfigProperty(defaultValue = "4096", name = "exporter.history.series.sysstat")
+    int sysstatSeries;
+
+    @ConfigProperty(defaultValue = "4096", name = "exporter.history.series.psacct")
+    int psacctSeries;
+
+    HistoryRing sysstat;
+    HistoryRing psacct;
+
+    @PostConstruct
+    void init() {
+        if (this.samples <= 0) {
+            LOG.fine("Sample history disabled.");
+            return;
+        }
+        this.sysstat = new HistoryRing(Samples.SYSSTAT, this.samples, this.sysstatSeries);
+        this.psacct = new HistoryRing(Samples.PSACCT, this.samples, this.psacctSeries);
+    }
+
+    void onSamples(@Observes Samples s) {
+        HistoryRing ring = ringOf(s.getSource());
+        if (ring != null) {
+            ring.append(s);
+        }
+    }
+
+    HistoryRing ringOf(String source) {
+        if (Samples.SYSSTAT.equals(source)) {
+            return this.sysstat;
+        }
+        if (Samples.PSACCT.equals(source)) {
+            return this.psacct;
+        }
+        return null;
+    }
+
+    /*
+     * Writes everything newer than the timestamp (milliseconds since the
+     * epoch) to the stream, sysstat series first.
+     */
+    public void stream(long since, OutputStream out) throws IOException {
+        if (this.sysstat == null) {
+            return;
+        }
+        ExpositionBuffer chunk = new ExpositionBuffer(48 * 1024);
+        this.sysstat.stream(since, chunk, out);
+        this.psacct.stream(since, chunk, out);
+        out.flush();
+    }
+}
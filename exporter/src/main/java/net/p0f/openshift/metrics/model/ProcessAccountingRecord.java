@@ -1,12 +1,5 @@
 package net.p0f.openshift.metrics.model;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-
-import org.apache.camel.dataformat.bindy.annotation.CsvRecord;
-import org.apache.camel.dataformat.bindy.annotation.DataField;
-
-@CsvRecord(separator = ",")
 public class ProcessAccountingRecord {
     // Expected input source from "sa -ajlp", meaning:
     //   -a = all records
@@ -17,39 +10,35 @@ public class ProcessAccountingRecord {
     //
     // Typical record:
     //   1  0.01re  0.00u  0.01s  231min  0maj  0swp  sadc
+    //
+    // See PsacctLineParser for how it is read.
 
-    // Assigned.
-    String hostName;
-    @DataField(pos = 8)
+    // Assigned, from NodeIdentity.
+    String hostName = "UNRESOLVABLE";
+    // Assigned by the pacct reader, from ContainerResolver; empty if unknown.
+    String containerName = "";
+    // Parsed.
     String processName;
-    @DataField(pos = 1)
     int numCalls;
-    @DataField(pos = 2)
     float elapsedTime;
-    @DataField(pos = 3)
     float userTime;
-    @DataField(pos = 4)
     float systemTime;
-    @DataField(pos = 5)
     int minFaults;
-    @DataField(pos = 6)
     int majFaults;
-    @DataField(pos = 7)
     int swapEvents;
 
-    public ProcessAccountingRecord() {
-        try {
-            this.hostName = InetAddress.getLocalHost().getCanonicalHostName();
-        } catch (UnknownHostException uhe) {
-            this.hostName = "UNRESOLVABLE";
-        }
-    }
     public String getHostName() {
         return hostName;
     }
     public void setHostName(String hn) {
         this.hostName = hn;
     }
+    public String getContainerName() {
+        return containerName;
+    }
+    public void setContainerName(String cn) {
+        this.containerName = cn;
+    }
     public String getProcessName() {
         return processName;
     }
@@ -102,6 +91,7 @@ public class ProcessAccountingRecord {
     public String toString() {
         return "ProcessAccountingRecord ["
                 + "hostName=" + hostName
+                + ", containerName=" + containerName
                 + ", processName=" + processName
                 + ", numCalls=" + numCalls
                 + ", elapsedTime=" + elapsedTime
@@ -0,0 +1,338 @@
+package net.p0f.openshift.metrics.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * A flat alternative to SysstatMeasurement: a double[] column per exported
+ * value, in sections of the same layout as the descriptor tables of
+ * SysstatMetrics. The statistics object as a whole is a section with a
+ * single row; each device list (CPUs, disks, interfaces, softnet) is a
+ * section with one row per device.
+ *
+ * Rows are handed out by a dictionary of device names, so that a device
+ * keeps its row for as long as it is present, and the gauges bound to it
+ * can keep reading the same slot. A single instance is filled in place
+ * from every dump (see SysstatColumnReader), so that once all the devices
+ * have been seen, parsing a dump allocates next to nothing.
+ */
+public final class SysstatColumns {
+    String hostname;
+    int numCpus;
+    // Bumped with every dump, rows seen in it carry the same.
+    long generation;
+
+    Section[] sections = new Section[0];
+
+    // The JSON paths of all the sections, as a tree.
+    final Path root = new Path();
+    // Per top-level field of the statistics object, whether it was in the last dump.
+    boolean[] present = new boolean[0];
+
+    /*
+     * Adds a section: the values at the paths, either once for the
+     * statistics object (list is null), or for each device in the list at
+     * that path, told apart by their key field. Returns its index.
+     */
+    public int addSection(String list, String key, String... paths) {
+        int index = this.sections.length;
+        Section s = new Section(list != null, paths.length);
+        this.sections = Arrays.copyOf(this.sections, index + 1);
+        this.sections[index] = s;
+
+        Path base = this.root;
+        if (list != null) {
+            base = path(list);
+            base.section = index;
+            base.list = true;
+            path(base, key).key = true;
+        }
+        for (int c = 0; c < paths.length; c++) {
+            Path p = path(base, paths[c]);
+            p.section = index;
+            p.column = c;
+        }
+        return index;
+    }
+
+    Path path(String path) {
+        return path(this.root, path);
+    }
+
+    Path path(Path base, String path) {
+        Path p = base;
+        for (String name : path.split("\\.")) {
+            Path parent = p;
+            p = p.children.computeIfAbsent(name, n -> new Path());
+            if (parent == this.root && p.top < 0) {
+                p.top = this.present.length;
+                this.present = new boolean[p.top + 1];
+            }
+        }
+        return p;
+    }
+
+    /*
+     * Starts a new dump: node values go back to zero, like the sections
+     * missing from it would be in SysstatMeasurement, and devices have to
+     * be seen again. Values are only moved into their columns at the end
+     * of each element, so that gauges never see one half filled in.
+     */
+    public void begin() {
+        this.generation++;
+        Arrays.fill(this.present, false);
+        for (Section s : this.sections) {
+            s.begin(this.generation);
+        }
+    }
+
+    public void end(String hostname, int numCpus) {
+        this.hostname = hostname;
+        this.numCpus = numCpus;
+        for (Section s : this.sections) {
+            if (!s.list) {
+                s.endRow();
+            }
+        }
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public int getNumCpus() {
+        return numCpus;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public Section getSection(int index) {
+        return this.sections[index];
+    }
+
+    public int getSectionCount() {
+        return this.sections.length;
+    }
+
+    // Whether the top-level field of the statistics object was in the last dump.
+    public boolean isPresent(String field) {
+        Path p = this.root.children.get(field);
+        return p != null && this.present[p.top];
+    }
+
+    public void setPresent(Path p) {
+        if (p.top >= 0) {
+            this.present[p.top] = true;
+        }
+    }
+
+    /*
+     * A node of the JSON path tree. A value has the section and column it
+     * goes into, a list the section of its elements, a key field neither.
+     */
+    public static final class Path {
+        final HashMap<String, Path> children = new HashMap<>();
+        int section = -1;
+        int column = -1;
+        int top = -1;
+        boolean list;
+        boolean key;
+
+        public Path child(String name) {
+            return this.children.get(name);
+        }
+
+        public int getSection() {
+            return section;
+        }
+
+        public int getColumn() {
+            return column;
+        }
+
+        public boolean isList() {
+            return list;
+        }
+
+        public boolean isKey() {
+            return key;
+        }
+    }
+
+    /*
+     * The columns of one section, plus the device dictionary for lists.
+     */
+    public static final class Section {
+        final boolean list;
+        // [column][row]
+        double[][] columns;
+        // Per row: device name (null if free) and the last generation it was seen in.
+        String[] names;
+        long[] seen;
+        int rowCount;
+        final HashMap<String, Integer> rows = new HashMap<>();
+        int[] free = new int[16];
+        int freeCount;
+
+        // The element being parsed (or the whole dump, for the statistics
+        // object): its values, and its row once the key is known.
+        final double[] scratch;
+        int row = -1;
+        long generation;
+
+        // Rows in the order of the last dump, which is usually the order of
+        // the next one, so most devices are found without a lookup.
+        int[] order = new int[16];
+        int orderCount;
+        int position;
+
+        Section(boolean list, int columns) {
+            this.list = list;
+            this.scratch = new double[columns];
+            int capacity = list ? 16 : 1;
+            this.columns = new double[columns][capacity];
+            this.names = new String[capacity];
+            this.seen = new long[capacity];
+            if (!list) {
+                this.names[0] = "";
+                this.rowCount = 1;
+            }
+        }
+
+        void begin(long generation) {
+            this.generation = generation;
+            this.orderCount = this.position;
+            this.position = 0;
+            if (!this.list) {
+                // Its only row is filled for the whole dump.
+                beginRow();
+                this.row = 0;
+            }
+        }
+
+        public boolean isList() {
+            return list;
+        }
+
+        // Rows in use are all below this.
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        // Null if the row is free.
+        public String getName(int row) {
+            return this.names[row];
+        }
+
+        public boolean isSeen(int row) {
+            return this.names[row] != null && this.seen[row] == this.generation;
+        }
+
+        public double get(int column, int row) {
+            return this.columns[column][row];
+        }
+
+        public void set(int column, double value) {
+            this.scratch[column] = value;
+        }
+
+        public void beginRow() {
+            Arrays.fill(this.scratch, 0);
+            this.row = -1;
+        }
+
+        /*
+         * Looks up the row of the device whose name is in the characters,
+         * which only takes a String if it is not where it was last time.
+         */
+        public void key(char[] chars, int offset, int length) {
+            if (this.position < this.orderCount) {
+                int hint = this.order[this.position];
+                if (matches(this.names[hint], chars, offset, length)) {
+                    this.row = hint;
+                    return;
+                }
+            }
+            String name = new String(chars, offset, length);
+            Integer r = this.rows.get(name);
+            this.row = r != null ? r : allocate(name);
+        }
+
+        static boolean matches(String name, char[] chars, int offset, int length) {
+            if (name == null || name.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (name.charAt(i) != chars[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+         * Moves the element into its row, unless it had no key or was
+         * already listed, in which case the first one is kept.
+         */
+        public void endRow() {
+            int r = this.row;
+            if (r < 0 || this.seen[r] == this.generation) {
+                return;
+            }
+            for (int c = 0; c < this.scratch.length; c++) {
+                this.columns[c][r] = this.scratch[c];
+            }
+            this.seen[r] = this.generation;
+            if (this.position == this.order.length) {
+                this.order = Arrays.copyOf(this.order, this.position * 2);
+            }
+            this.order[this.position++] = r;
+        }
+
+        int allocate(String name) {
+            int r;
+            if (this.freeCount > 0) {
+                r = this.free[--this.freeCount];
+            } else {
+                r = this.rowCount++;
+                if (r == this.names.length) {
+                    int capacity = r * 2;
+                    this.names = Arrays.copyOf(this.names, capacity);
+                    this.seen = Arrays.copyOf(this.seen, capacity);
+                    double[][] grown = new double[this.columns.length][];
+                    for (int c = 0; c < grown.length; c++) {
+                        grown[c] = Arrays.copyOf(this.columns[c], capacity);
+                    }
+                    this.columns = grown;
+                }
+            }
+            this.names[r] = name;
+            // Not seen yet.
+            this.seen[r] = this.generation - 1;
+            this.rows.put(name, r);
+            return r;
+        }
+
+        /*
+         * Gives up the row of a device that is gone.
+         */
+        public void release(int row) {
+            String name = this.names[row];
+            if (name == null) {
+                return;
+            }
+            this.rows.remove(name);
+            this.names[row] = null;
+            if (this.freeCount == this.free.length) {
+                this.free = Arrays.copyOf(this.free, this.freeCount * 2);
+            }
+            this.free[this.freeCount++] = row;
+        }
+    }
+}
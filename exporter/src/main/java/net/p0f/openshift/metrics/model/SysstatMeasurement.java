@@ -3,7 +3,6 @@ package net.p0f.openshift.metrics.model;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Logger;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -42,7 +41,6 @@ public class SysstatMeasurement implements Serializable {
     //
     // Typical record is too long to show here but look at annotations.
     // Also look at SysstatConsumer to see the necessary transformations.
-    private static final Logger LOG = Logger.getLogger(SysstatMeasurement.class.getName());
 
     @JsonProperty("hostname")
     String hostname;
@@ -165,18 +163,14 @@ public class SysstatMeasurement implements Serializable {
                 + ", numCpus=" + numCpus + ", paging=" + paging + ", processAndContextSwitch=" + processAndContextSwitch
                 + ", psi=" + psi + ", queue=" + queue + ", swapPages=" + swapPages + "]";
     }
+    /*
+     * Copies the scalar sections only. Per-device lists (CPUs, disks, network
+     * interfaces, softnet) are reconciled by name in SysstatMetrics, as
+     * devices come and go between measurements.
+     */
     public void clone(SysstatMeasurement sm) {
         this.hostname = sm.hostname;
         this.numCpus = sm.numCpus;
-        for (int x = 0; x < sm.cpuLoad.size(); x++) {
-            if (this.cpuLoad.size() <= x) {
-                // should not happen - handle metrics registration in this case!
-                LOG.warning("Number of CPUs different between cloned object and myself! " +
-                            "Might need to update metrics trackers?");
-                this.cpuLoad.set(x, new CpuLoad());
-            }
-            this.cpuLoad.get(x).clone(sm.cpuLoad.get(x));
-        }
         this.processAndContextSwitch.clone(sm.processAndContextSwitch);
         this.swapPages.clone(sm.swapPages);
         this.paging.clone(sm.paging);
@@ -185,15 +179,6 @@ public class SysstatMeasurement implements Serializable {
         this.hugepages.clone(sm.hugepages);
         this.kernel.clone(sm.kernel);
         this.queue.clone(sm.queue);
-        for (int x = 0; x < sm.disk.size(); x++) {
-            if (this.disk.size() <= x) {
-                // should not happen - handle metrics registration in this case!
-                LOG.warning("Number of disk devices different between cloned object and myself! " +
-                            "Might need to update metrics trackers?");
-                this.disk.set(x, new Disk());
-            }
-            this.disk.get(x).clone(sm.disk.get(x));
-        }
         this.network.clone(sm.network);
         this.psi.clone(sm.psi);
     }
@@ -1124,37 +1109,11 @@ public class SysstatMeasurement implements Serializable {
             return "Network [netDev=" + netDev + ", netEDev=" + netEDev + ", netNfs=" + netNfs + ", netNfsd=" + netNfsd
                     + ", netSock=" + netSock + ", softnet=" + softnet + "]";
         }
+        // Scalar sections only, see SysstatMeasurement.clone().
         public void clone(Network n) {
-            for (int x = 0; x < n.netDev.size(); x++) {
-                if (this.netDev.size() <= x) {
-                    // should not happen - handle metrics registration in this case!
-                    LOG.warning("Number of network devices different between cloned object and myself! " +
-                                "Might need to update metrics trackers?");
-                    this.netDev.set(x, new NetDev());
-                }
-                this.netDev.get(x).clone(n.netDev.get(x));
-            }   
-            for (int x = 0; x < n.netEDev.size(); x++) {
-                if (this.netEDev.size() <= x) {
-                    // should not happen - handle metrics registration in this case!
-                    LOG.warning("Number of network devices different between cloned object and myself! " +
-                                "Might need to update metrics trackers?");
-                    this.netEDev.set(x, new NetEDev());
-                }
-                this.netEDev.get(x).clone(n.netEDev.get(x));
-            }   
             this.netNfs.clone(n.netNfs);
             this.netNfsd.clone(n.netNfsd);
             this.netSock.clone(n.netSock);
-            for (int x = 0; x < n.softnet.size(); x++) {
-                if (this.softnet.size() <= x) {
-                    // should not happen - handle metrics registration in this case!
-                    LOG.warning("Number of CPUs different between cloned object and myself! " +
-                                "Might need to update metrics trackers?");
-                    this.softnet.set(x, new Softnet());
-                }
-                this.softnet.get(x).clone(n.softnet.get(x));
-            }   
         }
 
         @JsonIgnoreProperties(ignoreUnknown = true)
@@ -0,0 +1,59 @@
+package net.p0f.openshift.metrics.processor;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Parses a group of "sa -ajlp" lines (as split off by tokenize() with a
+ * group size) into a list of records, so that a whole group takes a single
+ * exchange and a single hop through the dispatch queue rather than one per
+ * line. Lines are parsed in place with PsacctLineParser; empty ones are
+ * skipped, and illegal ones logged and dropped, same as one at a time.
+ */
+public class PsacctBatchParser implements Processor {
+    private static final Logger LOG = Logger.getLogger(PsacctBatchParser.class.getName());
+
+    final NodeIdentity identity;
+
+    public PsacctBatchParser(NodeIdentity identity) {
+        this.identity = identity;
+    }
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        exchange.getMessage().setBody(parse(exchange.getIn().getBody(String.class)));
+    }
+
+    public List<ProcessAccountingRecord> parse(String lines) {
+        List<ProcessAccountingRecord> records = new ArrayList<>();
+        String host = this.identity.getName();
+        int len = lines.length();
+        int start = 0;
+        while (start < len) {
+            int end = lines.indexOf('\n', start);
+            if (end < 0) {
+                end = len;
+            }
+            if (end > start) {
+                CharSequence line = CharBuffer.wrap(lines, start, end);
+                ProcessAccountingRecord par = new ProcessAccountingRecord();
+                if (PsacctLineParser.parse(line, par)) {
+                    par.setHostName(host);
+                    records.add(par);
+                } else {
+                    LOG.warning("Illegal record: " + line);
+                }
+            }
+            start = end + 1;
+        }
+        return records;
+    }
+}
@@ -0,0 +1,182 @@
+package net.p0f.openshift.metrics.processor;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Parses a single line of "sa -ajlp" output in one pass, such as:
+ *
+ *   1  0.01re  0.00u  0.01s  231min  0maj  0swp  sadc
+ *
+ * Numbers are read straight from the characters of the line, with their
+ * unit suffixes validated along the way, and stored into the record that
+ * was passed in, so there is no intermediate CSV or token list. Whatever
+ * follows the seventh column is the process name, spaces and all.
+ */
+public class PsacctLineParser implements Processor {
+    private static final Logger LOG = Logger.getLogger(PsacctLineParser.class.getName());
+
+    // Process name used for the summary line, which has none.
+    static final String ANONYMOUS = "ANONYMOUS";
+
+    // Unit suffixes of the seven numeric columns, in order.
+    static final String[] SUFFIXES = { "", "re", "u", "s", "min", "maj", "swp" };
+
+    private static final long[] POW10 = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    final NodeIdentity identity;
+
+    public PsacctLineParser(NodeIdentity identity) {
+        this.identity = identity;
+    }
+
+    /*
+     * Replaces the line with its record, or with null if the line is empty
+     * or not a record, so that routes can filter on the body rather than
+     * validate every line before parsing it.
+     */
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        String line = exchange.getIn().getBody(String.class);
+        ProcessAccountingRecord par = null;
+        if (line == null || line.isEmpty()) {
+            LOG.fine("Skipping empty record.");
+        } else {
+            par = new ProcessAccountingRecord();
+            if (parse(line, par)) {
+                par.setHostName(this.identity.getName());
+            } else {
+                LOG.warning("Illegal psacct record: \"" + line + "\"");
+                par = null;
+            }
+        }
+        exchange.getMessage().setBody(par);
+    }
+
+    public static boolean isRecordValid(String body) {
+        boolean valid = parse(body, null);
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Checking record: \"" + body + "\": " + (valid ? "valid" : "invalid") + ".");
+        }
+        return valid;
+    }
+
+    /*
+     * Parses the line into the record, or merely validates it if the record
+     * is null. Returns false (leaving the record partially filled in) if the
+     * line is not in the expected format.
+     */
+    public static boolean parse(CharSequence line, ProcessAccountingRecord into) {
+        int len = line.length();
+        int pos = 0;
+
+        for (int col = 0; col < SUFFIXES.length; col++) {
+            // Columns are separated by at least one blank.
+            int start = pos;
+            while (pos < len && line.charAt(pos) == ' ') {
+                pos++;
+            }
+            if (pos == len || (col > 0 && pos == start)) {
+                return false;
+            }
+
+            // Integer part.
+            long whole = 0;
+            int digits = 0;
+            char c;
+            while (pos < len && (c = line.charAt(pos)) >= '0' && c <= '9') {
+                whole = whole * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 18) {
+                return false;
+            }
+
+            // Optional fraction, only for the times.
+            long fraction = 0;
+            int scale = 0;
+            if (pos < len && line.charAt(pos) == '.') {
+                if (col < 1 || col > 3) {
+                    return false;
+                }
+                pos++;
+                while (pos < len && (c = line.charAt(pos)) >= '0' && c <= '9') {
+                    if (scale < POW10.length - 1) {
+                        fraction = fraction * 10 + (c - '0');
+                        scale++;
+                    }
+                    pos++;
+                }
+            }
+
+            // Unit suffix.
+            String suffix = SUFFIXES[col];
+            for (int i = 0; i < suffix.length(); i++, pos++) {
+                if (pos == len || line.charAt(pos) != suffix.charAt(i)) {
+                    return false;
+                }
+            }
+            if (pos < len && line.charAt(pos) != ' ') {
+                return false;
+            }
+
+            if (into != null) {
+                store(into, col, whole, fraction, scale);
+            }
+        }
+
+        // The rest of the line, minus surrounding blanks, is the process name.
+        while (pos < len && line.charAt(pos) == ' ') {
+            pos++;
+        }
+        int end = len;
+        while (end > pos && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        if (into != null) {
+            into.setProcessName(end > pos ? line.subSequence(pos, end).toString() : ANONYMOUS);
+        }
+        return true;
+    }
+
+    private static void store(ProcessAccountingRecord into, int col, long whole, long fraction, int scale) {
+        switch (col) {
+            case 0:
+                into.setNumCalls((int) whole);
+                break;
+            case 1:
+                into.setElapsedTime(toFloat(whole, fraction, scale));
+                break;
+            case 2:
+                into.setUserTime(toFloat(whole, fraction, scale));
+                break;
+            case 3:
+                into.setSystemTime(toFloat(whole, fraction, scale));
+                break;
+            case 4:
+                into.setMinFaults((int) whole);
+                break;
+            case 5:
+                into.setMajFaults((int) whole);
+                break;
+            case 6:
+                into.setSwapEvents((int) whole);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static float toFloat(long whole, long fraction, int scale) {
+        return (float) (whole + (double) fraction / POW10[scale]);
+    }
+}
@@ -0,0 +1,172 @@
+package net.p0f.openshift.metrics.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import net.p0f.openshift.metrics.model.SysstatColumns;
+
+/*
+ * Reads sadf output straight into SysstatColumns, in the same single pass
+ * as SysstatJsonReader, but without building any objects: every field of
+ * the statistics object is looked up in the path tree of the columns, and
+ * numbers are written into their column as they go by, everything else is
+ * skipped. Field names come out of the parser's symbol table, and device
+ * names are matched against their row in place, so a steady stream of
+ * dumps of the same node allocates little besides the parser itself.
+ */
+public final class SysstatColumnReader {
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private SysstatColumnReader() {
+    }
+
+    /*
+     * Fills the columns from sysstat.hosts[0], returning false if there were
+     * no statistics in it.
+     */
+    public static boolean read(InputStream in, SysstatColumns columns) throws IOException {
+        String nodename = null;
+        int numCpus = 0;
+        boolean found = false;
+
+        columns.begin();
+        try (JsonParser p = FACTORY.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT || !findField(p, "sysstat")) {
+                throw new IOException("Not a sadf JSON document: missing \"sysstat\" object.");
+            }
+            if (!findField(p, "hosts") || p.currentToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Not a sadf JSON document: missing \"sysstat.hosts\" array.");
+            }
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("No hosts in sadf JSON document.");
+            }
+
+            // Only hosts[0] is of interest, stop reading once it is done.
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if ("nodename".equals(field)) {
+                    nodename = p.getValueAsString();
+                } else if ("number-of-cpus".equals(field)) {
+                    numCpus = p.getValueAsInt();
+                } else if ("statistics".equals(field) && p.currentToken() == JsonToken.START_ARRAY) {
+                    if (p.nextToken() == JsonToken.START_OBJECT) {
+                        object(p, columns, columns.getRoot(), null, true);
+                        found = true;
+                        while (p.nextToken() != JsonToken.END_ARRAY) {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        columns.end(nodename, numCpus);
+        return found;
+    }
+
+    /*
+     * Walks the object the parser is at, down the matching branch of the
+     * path tree. Values go to the section of the enclosing list element, if
+     * any, otherwise to their own.
+     */
+    static void object(JsonParser p, SysstatColumns columns, SysstatColumns.Path at,
+            SysstatColumns.Section element, boolean top) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            SysstatColumns.Path child = at.child(p.getCurrentName());
+            JsonToken t = p.nextToken();
+            if (child == null) {
+                p.skipChildren();
+                continue;
+            }
+            if (top) {
+                columns.setPresent(child);
+            }
+            if (child.isList() && t == JsonToken.START_ARRAY) {
+                SysstatColumns.Section s = columns.getSection(child.getSection());
+                while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+                    if (t == JsonToken.START_OBJECT) {
+                        s.beginRow();
+                        object(p, columns, child, s, false);
+                        s.endRow();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else if (child.isKey() && element != null && t == JsonToken.VALUE_STRING) {
+                element.key(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            } else if (child.getColumn() >= 0 && t.isNumeric()) {
+                SysstatColumns.Section s = element != null ? element : columns.getSection(child.getSection());
+                s.set(child.getColumn(), number(p, t));
+            } else if (t == JsonToken.START_OBJECT) {
+                object(p, columns, child, element, false);
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /*
+     * Jackson turns floats into a String before parsing them, so plain
+     * decimals ("12.34") are read from the characters instead: with no more
+     * than 15 digits, dividing the digits by a power of ten gives exactly
+     * what Double.parseDouble() would. Anything else is left to Jackson.
+     */
+    static double number(JsonParser p, JsonToken t) throws IOException {
+        if (t != JsonToken.VALUE_NUMBER_FLOAT) {
+            return p.getDoubleValue();
+        }
+        char[] chars = p.getTextCharacters();
+        int i = p.getTextOffset();
+        int end = i + p.getTextLength();
+        boolean negative = i < end && chars[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long digits = 0;
+        int count = 0;
+        int scale = -1;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                count++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return p.getDoubleValue();
+            }
+        }
+        if (count > 15 || scale < 0) {
+            return p.getDoubleValue();
+        }
+        double v = digits / POW10[scale];
+        return negative ? -v : v;
+    }
+
+    // Advances the parser to the value of the named field of the current object.
+    private static boolean findField(JsonParser p, String name) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            p.skipChildren();
+        }
+        return false;
+    }
+}
@@ -0,0 +1,131 @@
+package net.p0f.openshift.metrics.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+public class SysstatJsonReader implements Processor {
+    private static final Logger LOG = Logger.getLogger(SysstatJsonReader.class.getName());
+
+    // Both are thread-safe and expensive to create, so share them.
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.readerFor(SysstatMeasurement.class);
+
+    // Only available on HotSpot; used to report bytes allocated per ingest.
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    @Override
+    public void process(Exchange exchange) throws Exception {
+        long startNanos = System.nanoTime();
+        long startBytes = allocatedBytes();
+
+        try (InputStream in = exchange.getIn().getBody(InputStream.class)) {
+            exchange.getMessage().setBody(read(in));
+        }
+
+        if (LOG.isLoggable(Level.FINE)) {
+            LOG.fine("Parsed sysstat dump in " + (System.nanoTime() - startNanos) / 1000 + "us, " +
+                        "allocated " + (allocatedBytes() - startBytes) + " bytes.");
+        }
+    }
+
+    /*
+     * Walks sadf output in a single pass, picking up:
+     * - sysstat.hosts[0].nodename -> hostname
+     * - sysstat.hosts[0].number-of-cpus -> num-cpus
+     * - sysstat.hosts[0].statistics[0] -> everything else
+     *
+     * Anything outside of that is skipped without being materialised.
+     */
+    public static SysstatMeasurement read(InputStream in) throws IOException {
+        SysstatMeasurement sm = null;
+        String nodename = null;
+        int numCpus = 0;
+
+        try (JsonParser p = MAPPER.getFactory().createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT || !findField(p, "sysstat")) {
+                throw new IOException("Not a sadf JSON document: missing \"sysstat\" object.");
+            }
+            if (!findField(p, "hosts") || p.currentToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Not a sadf JSON document: missing \"sysstat.hosts\" array.");
+            }
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("No hosts in sadf JSON document.");
+            }
+
+            // Only hosts[0] is of interest, stop reading once it is done.
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                p.nextToken();
+                if ("nodename".equals(field)) {
+                    nodename = p.getValueAsString();
+                } else if ("number-of-cpus".equals(field)) {
+                    numCpus = p.getValueAsInt();
+                } else if ("statistics".equals(field) && p.currentToken() == JsonToken.START_ARRAY) {
+                    if (p.nextToken() == JsonToken.START_OBJECT) {
+                        sm = READER.readValue(p);
+                        // Skip the rest of the statistics array, if any.
+                        while (p.nextToken() != JsonToken.END_ARRAY) {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        if (sm == null) {
+            // Let the validity check complain about it.
+            LOG.warning("No statistics found in sadf JSON document.");
+            sm = new SysstatMeasurement();
+        }
+        sm.setHostname(nodename);
+        sm.setNumCpus(numCpus);
+        return sm;
+    }
+
+    // Advances the parser to the value of the named field of the current object.
+    private static boolean findField(JsonParser p, String name) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            p.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            p.skipChildren();
+        }
+        return false;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS == null || !LOG.isLoggable(Level.FINE)) {
+            return 0;
+        }
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+            if (tmx instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) tmx;
+            }
+        } catch (Throwable t) {
+            LOG.fine("Thread allocation accounting not available: " + t);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Optionally pushes every sysstat and psacct sample to a Prometheus
+ * remote-write endpoint, instead of (or as well as) waiting to be scraped.
+ *
+ * Each round of samples is split up between a few shards, always sending
+ * the same series through the same shard so that its samples arrive in
+ * order. Every shard has a bounded queue and a thread of its own, which
+ * takes whatever is queued (up to a maximum number of samples) and sends
+ * it as one request, retrying with exponential backoff. Should a shard
+ * fall behind far enough for its queue to fill up, new rounds are dropped
+ * rather than buffered without limit.
+ */
+@ApplicationScoped
+@Named("remoteWrite")
+public class RemoteWrite {
+    static final Logger LOG = Logger.getLogger(RemoteWrite.class.getName());
+
+    @Inject
+    MeterRegistry mr;
+
+    // Receiver to push to, push mode is off unless set.
+    @ConfigProperty(name = "exporter.remote-write.url")
+    Optional<String> url;
+
+    @ConfigProperty(defaultValue = "2", name = "exporter.remote-write.shards")
+    int shardCount;
+
+    // Batches each shard may have queued.
+    @ConfigProperty(defaultValue = "64", name = "exporter.remote-write.queue")
+    int queueSize;
+
+    // Samples per request.
+    @ConfigProperty(defaultValue = "2000", name = "exporter.remote-write.batch.max")
+    int batchMax;
+
+    @ConfigProperty(defaultValue = "10000", name = "exporter.remote-write.timeout")
+    long timeout;
+
+    @ConfigProperty(defaultValue = "100", name = "exporter.remote-write.backoff.min")
+    long backoffMin;
+
+    @ConfigProperty(defaultValue = "30000", name = "exporter.remote-write.backoff.max")
+    long backoffMax;
+
+    // Attempts per request before its samples are given up on.
+    @ConfigProperty(defaultValue = "10", name = "exporter.remote-write.attempts")
+    int attempts;
+
+    HttpClient client;
+    URI uri;
+    Shard[] shards;
+
+    // Encoded labels by exposition prefix, which is compared by identity and
+    // only kept for as long as its series exists.
+    final WeakHashMap<byte[], byte[]> labels = new WeakHashMap<>();
+
+    Counter sent;
+    Counter dropped;
+    Counter retries;
+    DistributionSummary batchSamples;
+    Timer sendLatency;
+
+    @PostConstruct
+    void init() {
+        if (this.url.isEmpty()) {
+            return;
+        }
+        this.uri = URI.create(this.url.get());
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(this.timeout))
+                .build();
+
+        this.sent = Counter.builder("remote.write.samples.sent").register(this.mr);
+        this.dropped = Counter.builder("remote.write.samples.dropped").register(this.mr);
+        this.retries = Counter.builder("remote.write.retries").register(this.mr);
+        this.batchSamples = DistributionSummary.builder("remote.write.batch.samples").register(this.mr);
+        this.sendLatency = Timer.builder("remote.write.send.latency").register(this.mr);
+
+        this.shards = new Shard[this.shardCount];
+        for (int i = 0; i < this.shardCount; i++) {
+            Shard shard = new Shard(i, this);
+            Gauge.builder("remote.write.queue.depth", shard.queue, q -> q.size())
+                    .tags("shard", Integer.toString(i))
+                    .register(this.mr);
+            shard.start();
+            this.shards[i] = shard;
+        }
+        LOG.info("Pushing samples to " + this.uri + " through " + this.shardCount + " shards.");
+    }
+
+    void onSamples(@Observes Samples s) {
+        if (this.shards == null) {
+            return;
+        }
+        int n = this.shards.length;
+        int count = s.getCount();
+        byte[][] series = s.getSeries();
+        double[] values = s.getValues();
+
+        byte[][] encoded = new byte[count][];
+        int[] shardOf = new int[count];
+        int[] perShard = new int[n];
+        synchronized (this.labels) {
+            for (int i = 0; i < count; i++) {
+                byte[] l = this.labels.get(series[i]);
+                if (l == null) {
+                    l = WriteRequest.labels(series[i]);
+                    this.labels.put(series[i], l);
+                }
+                encoded[i] = l;
+                // Stable for as long as the series is around.
+                shardOf[i] = Math.floorMod(System.identityHashCode(l), n);
+                perShard[shardOf[i]]++;
+            }
+        }
+
+        Batch[] open = new Batch[n];
+        for (int i = 0; i < count; i++) {
+            int shard = shardOf[i];
+            Batch b = open[shard];
+            if (b == null) {
+                b = new Batch(s.getTimestamp(), Math.min(perShard[shard], this.batchMax));
+                open[shard] = b;
+            }
+            b.add(encoded[i], values[i]);
+            perShard[shard]--;
+            if (b.isFull()) {
+                this.shards[shard].offer(b);
+                open[shard] = null;
+            }
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (this.shards != null) {
+            for (Shard s : this.shards) {
+                s.stop();
+            }
+        }
+    }
+
+    /*
+     * Samples of one round, all with the same timestamp, for one shard.
+     */
+    static final class Batch {
+        final long timestamp;
+        final byte[][] labels;
+        final double[] values;
+        int count;
+
+        Batch(long timestamp, int size) {
+            this.timestamp = timestamp;
+            this.labels = new byte[size][];
+            this.values = new double[size];
+        }
+
+        void add(byte[] l, double v) {
+            this.labels[this.count] = l;
+            this.values[this.count++] = v;
+        }
+
+        boolean isFull() {
+            return this.count == this.labels.length;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/*
+ * One sender thread and its queue (see RemoteWrite).
+ */
+final class Shard implements Runnable {
+    static final Logger LOG = Logger.getLogger(Shard.class.getName());
+
+    final int index;
+    final RemoteWrite owner;
+    final ArrayBlockingQueue<RemoteWrite.Batch> queue;
+    final Thread thread;
+    volatile boolean running = true;
+
+    // Re-used from one request to the next.
+    final WriteRequest request = new WriteRequest();
+    final int[] table = new int[1 << Snappy.TABLE_BITS];
+    byte[] compressed = new byte[0];
+    boolean full;
+
+    Shard(int index, RemoteWrite owner) {
+        this.index = index;
+        this.owner = owner;
+        this.queue = new ArrayBlockingQueue<>(owner.queueSize);
+        this.thread = new Thread(this, "remote-write-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    void stop() {
+        this.running = false;
+        this.thread.interrupt();
+    }
+
+    void offer(RemoteWrite.Batch b) {
+        if (this.queue.offer(b)) {
+            this.full = false;
+        } else {
+            this.owner.dropped.increment(b.count);
+            if (!this.full) {
+                LOG.warning("Remote-write shard " + this.index + " is falling behind, dropping samples.");
+                this.full = true;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<RemoteWrite.Batch> pending = new ArrayList<>();
+        while (this.running) {
+            RemoteWrite.Batch b;
+            try {
+                b = this.queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                break;
+            }
+            if (b == null) {
+                continue;
+            }
+            // Whatever else is waiting goes along, as long as it fits.
+            int samples = b.count;
+            pending.add(b);
+            RemoteWrite.Batch next;
+            while ((next = this.queue.peek()) != null && samples + next.count <= this.owner.batchMax) {
+                pending.add(this.queue.poll());
+                samples += next.count;
+            }
+            try {
+                send(pending, samples);
+            } catch (InterruptedException ie) {
+                break;
+            }
+            pending.clear();
+        }
+        LOG.fine("Remote-write shard " + this.index + " stopped.");
+    }
+
+    void send(List<RemoteWrite.Batch> batches, int samples) throws InterruptedException {
+        this.request.reset();
+        for (RemoteWrite.Batch b : batches) {
+            for (int i = 0; i < b.count; i++) {
+                this.request.add(b.labels[i], b.values[i], b.timestamp);
+            }
+        }
+        int max = Snappy.maxCompressedLength(this.request.size());
+        if (this.compressed.length < max) {
+            this.compressed = new byte[max];
+        }
+        int len = Snappy.compress(this.request.array(), this.request.size(), this.compressed, this.table);
+        this.owner.batchSamples.record(samples);
+
+        HttpRequest req = HttpRequest.newBuilder(this.owner.uri)
+                .timeout(Duration.ofMillis(this.owner.timeout))
+                .header("Content-Encoding", "snappy")
+                .header("Content-Type", "application/x-protobuf")
+                .header("User-Agent", "metrics-exporter")
+                .header("X-Prometheus-Remote-Write-Version", "0.1.0")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(this.compressed, 0, len))
+                .build();
+
+        long backoff = this.owner.backoffMin;
+        for (int attempt = 1;; attempt++) {
+            long start = System.nanoTime();
+            int status;
+            String error;
+            try {
+                status = this.owner.client.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+                error = "HTTP " + status;
+            } catch (IOException ioe) {
+                status = -1;
+                error = ioe.toString();
+            }
+            this.owner.sendLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            if (status >= 200 && status < 300) {
+                this.owner.sent.increment(samples);
+                LOG.fine("Shard " + this.index + " sent " + samples + " samples in " + len + " bytes.");
+                return;
+            }
+            // Other client errors will not go away by trying again.
+            boolean retriable = status < 0 || status == 429 || status >= 500;
+            if (!retriable || attempt >= this.owner.attempts) {
+                LOG.warning("Dropping " + samples + " samples after " + attempt + " attempts: " + error);
+                this.owner.dropped.increment(samples);
+                return;
+            }
+            LOG.fine("Shard " + this.index + " retrying in " + backoff + "ms: " + error);
+            this.owner.retries.increment();
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, this.owner.backoffMax);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+/*
+ * Snappy compression, block format (not the framed one), which is what the
+ * remote-write protocol expects as the request body.
+ *
+ * A straight port of the simple greedy encoder of the reference
+ * implementation: the input is cut into 64kB blocks, and within each block
+ * a hash table of 4 byte sequences finds earlier occurrences to copy from.
+ * The lookup skips ahead faster the longer it goes without a match, so
+ * incompressible data does not cost much. The protobuf of a remote-write
+ * request repeats label names and values over and over, and typically
+ * shrinks to a fifth or less.
+ */
+final class Snappy {
+    static final int BLOCK = 1 << 16;
+    static final int TABLE_BITS = 14;
+    // Matches are not looked for this close to the end of a block.
+    static final int INPUT_MARGIN = 16 - 1;
+    static final int MIN_BLOCK = 1 + 1 + INPUT_MARGIN;
+
+    private Snappy() {
+    }
+
+    static int maxCompressedLength(int len) {
+        return 32 + len + len / 6;
+    }
+
+    /*
+     * Compresses the first len bytes of src into dst, which must have room
+     * for maxCompressedLength(len) bytes. Returns the compressed length.
+     */
+    static int compress(byte[] src, int len, byte[] dst, int[] table) {
+        int d = putVarint(dst, 0, len);
+        for (int start = 0; start < len; start += BLOCK) {
+            int end = Math.min(start + BLOCK, len);
+            if (end - start < MIN_BLOCK) {
+                d = emitLiteral(dst, d, src, start, end - start);
+            } else {
+                d = compressBlock(src, start, end, dst, d, table);
+            }
+        }
+        return d;
+    }
+
+    static int compressBlock(byte[] src, int start, int end, byte[] dst, int d, int[] table) {
+        // Positions are stored relative to the block start, plus one so that
+        // zero means empty.
+        java.util.Arrays.fill(table, 0);
+        int limit = end - INPUT_MARGIN;
+        int nextEmit = start;
+        int s = start + 1;
+        int nextHash = hash(load32(src, s));
+
+        outer:
+        while (true) {
+            int skip = 32;
+            int nextS = s;
+            int candidate;
+            do {
+                s = nextS;
+                int step = skip >> 5;
+                nextS = s + step;
+                skip += step;
+                if (nextS > limit) {
+                    break outer;
+                }
+                candidate = start + table[nextHash] - 1;
+                table[nextHash] = s - start + 1;
+                nextHash = hash(load32(src, nextS));
+            } while (candidate < start || load32(src, s) != load32(src, candidate));
+
+            d = emitLiteral(dst, d, src, nextEmit, s - nextEmit);
+
+            // Copies for as long as the next bytes keep matching too.
+            do {
+                int base = s;
+                s += 4;
+                for (int c = candidate + 4; s < end && src[c] == src[s]; c++) {
+                    s++;
+                }
+                d = emitCopy(dst, d, base - candidate, s - base);
+                nextEmit = s;
+                if (s >= limit) {
+                    break outer;
+                }
+                table[hash(load32(src, s - 1))] = s - 1 - start + 1;
+                int h = hash(load32(src, s));
+                candidate = start + table[h] - 1;
+                table[h] = s - start + 1;
+            } while (candidate >= start && load32(src, s) == load32(src, candidate));
+            s++;
+            nextHash = hash(load32(src, s));
+        }
+
+        if (nextEmit < end) {
+            d = emitLiteral(dst, d, src, nextEmit, end - nextEmit);
+        }
+        return d;
+    }
+
+    static int emitLiteral(byte[] dst, int d, byte[] src, int off, int len) {
+        if (len == 0) {
+            return d;
+        }
+        int n = len - 1;
+        if (n < 60) {
+            dst[d++] = (byte) (n << 2);
+        } else if (n < 1 << 8) {
+            dst[d++] = (byte) (60 << 2);
+            dst[d++] = (byte) n;
+        } else if (n < 1 << 16) {
+            dst[d++] = (byte) (61 << 2);
+            dst[d++] = (byte) n;
+            dst[d++] = (byte) (n >> 8);
+        } else if (n < 1 << 24) {
+            dst[d++] = (byte) (62 << 2);
+            dst[d++] = (byte) n;
+            dst[d++] = (byte) (n >> 8);
+            dst[d++] = (byte) (n >> 16);
+        } else {
+            dst[d++] = (byte) (63 << 2);
+            dst[d++] = (byte) n;
+            dst[d++] = (byte) (n >> 8);
+            dst[d++] = (byte) (n >> 16);
+            dst[d++] = (byte) (n >> 24);
+        }
+        System.arraycopy(src, off, dst, d, len);
+        return d + len;
+    }
+
+    static int emitCopy(byte[] dst, int d, int offset, int len) {
+        // Two byte offset copies take at most 64 bytes.
+        while (len >= 68) {
+            d = copy2(dst, d, offset, 64);
+            len -= 64;
+        }
+        if (len > 64) {
+            d = copy2(dst, d, offset, 60);
+            len -= 60;
+        }
+        if (len >= 12 || offset >= 2048) {
+            return copy2(dst, d, offset, len);
+        }
+        // One byte offset copy, for 4 to 11 bytes.
+        dst[d++] = (byte) (((offset >> 8) << 5) | ((len - 4) << 2) | 0x01);
+        dst[d++] = (byte) offset;
+        return d;
+    }
+
+    static int copy2(byte[] dst, int d, int offset, int len) {
+        dst[d++] = (byte) (((len - 1) << 2) | 0x02);
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >> 8);
+        return d;
+    }
+
+    static int putVarint(byte[] dst, int d, int v) {
+        while ((v & ~0x7f) != 0) {
+            dst[d++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        dst[d++] = (byte) v;
+        return d;
+    }
+
+    static int load32(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    static int hash(int u) {
+        return (u * 0x1e35a7bd) >>> (32 - TABLE_BITS);
+    }
+}
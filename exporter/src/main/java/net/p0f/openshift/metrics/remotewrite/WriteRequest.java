@@ -0,0 +1,164 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Encodes remote-write requests by hand, the protobuf schema being small
+ * enough not to warrant a code generator:
+ *
+ *    message WriteRequest { repeated TimeSeries timeseries = 1; }
+ *    message TimeSeries   { repeated Label labels = 1; repeated Sample samples = 2; }
+ *    message Label        { string name = 1; string value = 2; }
+ *    message Sample       { double value = 1; int64 timestamp = 2; }
+ *
+ * The labels of a series never change, so they are encoded once (see
+ * labels()) and only copied into every request.
+ */
+final class WriteRequest {
+    private byte[] buf;
+    private int len;
+
+    WriteRequest() {
+        this(256 * 1024);
+    }
+
+    WriteRequest(int initialSize) {
+        this.buf = new byte[initialSize];
+    }
+
+    void reset() {
+        this.len = 0;
+    }
+
+    int size() {
+        return len;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    /*
+     * Adds a time series with a single sample.
+     */
+    void add(byte[] labels, double value, long timestamp) {
+        int sample = 1 + 8 + 1 + varintSize(timestamp);
+        int series = labels.length + 1 + varintSize(sample) + sample;
+        ensure(1 + varintSize(series) + series);
+        put(0x0a);
+        putVarint(series);
+        System.arraycopy(labels, 0, this.buf, this.len, labels.length);
+        this.len += labels.length;
+        put(0x12);
+        putVarint(sample);
+        put(0x09);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            put((int) (bits >>> (8 * i)));
+        }
+        put(0x10);
+        putVarint(timestamp);
+    }
+
+    private void put(int b) {
+        this.buf[this.len++] = (byte) b;
+    }
+
+    private void putVarint(long v) {
+        while ((v & ~0x7fL) != 0) {
+            put((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        put((int) v);
+    }
+
+    private void ensure(int n) {
+        if (this.len + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+        }
+    }
+
+    static int varintSize(long v) {
+        int n = 1;
+        while ((v & ~0x7fL) != 0) {
+            v >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    /*
+     * Turns an exposition prefix (see ExpositionTable), such as
+     * sysstat_cpu_usr{cpu="0",host="node",} into the encoded label fields
+     * of a TimeSeries, the name being the __name__ label. Labels are sorted
+     * by name, as the protocol requires, and those with an empty value are
+     * left out: Prometheus treats them as absent, and a receiver may reject
+     * them (every psacct series has container="" outside of containers).
+     */
+    static byte[] labels(byte[] prefix) {
+        String p = new String(prefix, StandardCharsets.UTF_8).trim();
+        Map<String, String> labels = new TreeMap<>();
+        int brace = p.indexOf('{');
+        labels.put("__name__", brace < 0 ? p : p.substring(0, brace));
+        int i = brace + 1;
+        while (brace >= 0 && i < p.length() && p.charAt(i) != '}') {
+            int eq = p.indexOf('=', i);
+            String name = p.substring(i, eq);
+            StringBuilder value = new StringBuilder();
+            // Skip the opening quote, unescape up to the closing one.
+            int j = eq + 2;
+            for (; p.charAt(j) != '"'; j++) {
+                char c = p.charAt(j);
+                if (c == '\\') {
+                    c = p.charAt(++j);
+                    if (c == 'n') {
+                        c = '\n';
+                    }
+                }
+                value.append(c);
+            }
+            if (value.length() > 0) {
+                labels.put(name, value.toString());
+            }
+            // Past the closing quote and the comma.
+            i = j + 2;
+        }
+
+        List<byte[]> fields = new ArrayList<>();
+        int total = 0;
+        for (Map.Entry<String, String> e : labels.entrySet()) {
+            byte[] field = label(e.getKey(), e.getValue());
+            fields.add(field);
+            total += field.length;
+        }
+        byte[] out = new byte[total];
+        int off = 0;
+        for (byte[] f : fields) {
+            System.arraycopy(f, 0, out, off, f.length);
+            off += f.length;
+        }
+        return out;
+    }
+
+    static byte[] label(String name, String value) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        byte[] v = value.getBytes(StandardCharsets.UTF_8);
+        int body = 1 + varintSize(n.length) + n.length + 1 + varintSize(v.length) + v.length;
+        WriteRequest w = new WriteRequest(1 + varintSize(body) + body);
+        w.put(0x0a);
+        w.putVarint(body);
+        w.put(0x0a);
+        w.putVarint(n.length);
+        System.arraycopy(n, 0, w.buf, w.len, n.length);
+        w.len += n.length;
+        w.put(0x12);
+        w.putVarint(v.length);
+        System.arraycopy(v, 0, w.buf, w.len, v.length);
+        return w.buf;
+    }
+}
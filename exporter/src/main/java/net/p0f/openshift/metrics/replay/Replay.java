@@ -0,0 +1,409 @@
+package net.p0f.openshift.metrics.replay;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import io.micrometer.core.instrument.Tags;
+import net.p0f.openshift.metrics.archive.DumpArchive;
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.exporter.PsacctSnapshot;
+import net.p0f.openshift.metrics.exporter.SysstatMetrics;
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.exposition.Samples;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+import net.p0f.openshift.metrics.processor.PsacctLineParser;
+import net.p0f.openshift.metrics.processor.SysstatJsonReader;
+
+/*
+ * Turns the collector dumps kept in a data path, both the hourly archive
+ * (see DumpArchive) and the done/ directories of older versions, back into
+ * the same series the exporter would have exported at the time, as
+ * OpenMetrics text for "promtool tsdb create-blocks-from openmetrics":
+ *
+ *    java -cp metrics-exporter-1.0.0-SNAPSHOT-runner.jar net.p0f.openshift.metrics.replay.Replay \
+ *        [--host <name>] [--threads <n>] <data path> <output directory>
+ *
+ * Every day is a task in a fork-join pool, which forks a task for each of
+ * its hours. An hour is parsed with the exporter's own parsers and metrics
+ * code, collected in memory by series, and written to a file of its own,
+ * with all the samples of a family together and their original timestamps.
+ */
+public class Replay {
+    static final Logger LOG = Logger.getLogger(Replay.class.getName());
+
+    final Path dataPath;
+    final Path output;
+    // Null to take the sysstat nodename.
+    final String host;
+
+    final AtomicLong dumps = new AtomicLong();
+    final AtomicLong points = new AtomicLong();
+
+    Replay(Path dataPath, Path output, String host) {
+        this.dataPath = dataPath;
+        this.output = output;
+        this.host = host;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--host".equals(args[i]) && i + 1 < args.length) {
+                host = args[++i];
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.size() != 2) {
+            System.err.println("Usage: Replay [--host <name>] [--threads <n>] <data path> <output directory>");
+            System.exit(2);
+        }
+
+        Replay r = new Replay(Paths.get(paths.get(0)), Paths.get(paths.get(1)), host);
+        Files.createDirectories(r.output);
+        long start = System.nanoTime();
+        List<Day> days = r.plan();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(days);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        System.err.println("Replayed " + r.dumps.get() + " dumps of " + days.size() + " days into "
+                + r.points.get() + " samples in " + (System.nanoTime() - start) / 1000000 + "ms.");
+    }
+
+    /*
+     * One task per day of archive files, and per done/ directory.
+     */
+    List<Day> plan() throws IOException {
+        List<Day> days = new ArrayList<>();
+        Path archive = this.dataPath.resolve("archive");
+        if (Files.isDirectory(archive)) {
+            Map<String, List<Path>> byDay = new TreeMap<>();
+            for (Path p : list(archive, "*" + DumpArchive.SUFFIX)) {
+                byDay.computeIfAbsent(p.getFileName().toString().substring(0, 8), d -> new ArrayList<>()).add(p);
+            }
+            for (Map.Entry<String, List<Path>> e : byDay.entrySet()) {
+                days.add(new Day(e.getKey(), e.getValue(), true));
+            }
+        }
+        Path done = this.dataPath.resolve("done");
+        if (Files.isDirectory(done)) {
+            for (Path d : list(done, "[0-9]*")) {
+                if (Files.isDirectory(d)) {
+                    days.add(new Day(d.getFileName().toString(), list(d, "*"), false));
+                }
+            }
+        }
+        return days;
+    }
+
+    static List<Path> list(Path dir, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, glob)) {
+            for (Path p : ds) {
+                paths.add(p);
+            }
+        }
+        paths.sort(null);
+        return paths;
+    }
+
+    final class Day extends RecursiveAction {
+        final String day;
+        final List<Path> files;
+        final boolean archived;
+
+        Day(String day, List<Path> files, boolean archived) {
+            this.day = day;
+            this.files = files;
+            this.archived = archived;
+        }
+
+        @Override
+        protected void compute() {
+            List<Hour> hours = new ArrayList<>();
+            if (this.archived) {
+                // A file per hour already.
+                for (Path p : this.files) {
+                    String name = p.getFileName().toString();
+                    hours.add(new Hour("archive-" + name.substring(0, name.length() - DumpArchive.SUFFIX.length()),
+                            List.of(p), true));
+                }
+            } else {
+                // Named <source>-yyyyMMdd-HHmmss.
+                Map<String, List<Path>> byHour = new TreeMap<>();
+                for (Path p : this.files) {
+                    String name = p.getFileName().toString();
+                    int dash = name.indexOf('-');
+                    if (dash < 0 || name.length() < dash + 12) {
+                        continue;
+                    }
+                    byHour.computeIfAbsent(name.substring(dash + 1, dash + 12), h -> new ArrayList<>()).add(p);
+                }
+                for (Map.Entry<String, List<Path>> e : byHour.entrySet()) {
+                    hours.add(new Hour("done-" + e.getKey(), e.getValue(), false));
+                }
+            }
+            invokeAll(hours);
+        }
+    }
+
+    final class Hour extends RecursiveAction {
+        final String name;
+        final List<Path> files;
+        final boolean archived;
+
+        Hour(String name, List<Path> files, boolean archived) {
+            this.name = name;
+            this.files = files;
+            this.archived = archived;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                List<Dump> dumps = this.archived ? readArchive(this.files.get(0)) : readDone(this.files);
+                dumps.sort(Comparator.comparingLong(d -> d.written));
+                Replay.this.dumps.addAndGet(dumps.size());
+
+                Collector c = new Collector();
+                SysstatMetrics sysstat = SysstatMetrics.standalone(Replay.this.host);
+                for (Dump d : dumps) {
+                    if (Samples.SYSSTAT.equals(d.source)) {
+                        replaySysstat(d, sysstat, c);
+                    }
+                }
+                String h = Replay.this.host != null ? Replay.this.host
+                        : sysstat.getHost() != null ? sysstat.getHost() : NodeIdentity.UNRESOLVABLE;
+                Map<ProcessAccountingMetrics.ProcessKey, byte[][]> prefixes = new HashMap<>();
+                for (Dump d : dumps) {
+                    if (Samples.PSACCT.equals(d.source)) {
+                        replayPsacct(d, h, prefixes, c);
+                    }
+                }
+
+                if (!c.families.isEmpty()) {
+                    Path out = Replay.this.output.resolve(this.name + ".om");
+                    try (OutputStream os = Files.newOutputStream(out)) {
+                        Replay.this.points.addAndGet(c.write(os));
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Failed to replay " + this.name, ioe);
+            }
+        }
+    }
+
+    void replaySysstat(Dump d, SysstatMetrics sysstat, Collector c) {
+        try {
+            SysstatMeasurement sm = SysstatJsonReader.read(new ByteArrayInputStream(d.payload));
+            if (!SysstatMetrics.isRecordValid(sm)) {
+                return;
+            }
+            c.add(sysstat.update(sm).toSamples(Samples.SYSSTAT, d.written));
+        } catch (IOException | RuntimeException e) {
+            LOG.warning("Skipping unreadable sysstat dump of " + d.written + ": " + e);
+        }
+    }
+
+    void replayPsacct(Dump d, String host, Map<ProcessAccountingMetrics.ProcessKey, byte[][]> prefixes, Collector c) {
+        PsacctSnapshot.Builder b = new PsacctSnapshot.Builder(0);
+        for (String line : new String(d.payload, StandardCharsets.UTF_8).split("\n")) {
+            ProcessAccountingRecord par = new ProcessAccountingRecord();
+            if (!line.isEmpty() && PsacctLineParser.parse(line, par)) {
+                par.setHostName(host);
+                b.add(par);
+            }
+        }
+        for (Map.Entry<ProcessAccountingMetrics.ProcessKey, double[]> e : b.build().getValues().entrySet()) {
+            byte[][] p = prefixes.computeIfAbsent(e.getKey(), k -> {
+                Tags tags = ProcessAccountingMetrics.tags(k);
+                byte[][] encoded = new byte[PsacctSnapshot.FIELDS][];
+                for (int f = 0; f < PsacctSnapshot.FIELDS; f++) {
+                    String name = ExpositionTable.sanitize(ProcessAccountingMetrics.GAUGES[f]);
+                    encoded[f] = ExpositionTable.encode(name, tags);
+                }
+                return encoded;
+            });
+            for (int f = 0; f < PsacctSnapshot.FIELDS; f++) {
+                c.add(p[f], d.written, e.getValue()[f]);
+            }
+        }
+    }
+
+    List<Dump> readArchive(Path file) throws IOException {
+        List<Dump> dumps = new ArrayList<>();
+        // Reads all the members one after the other.
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            String header;
+            while ((header = readLine(in)) != null) {
+                String[] f = header.split(" ");
+                if (f.length != 4 || !header.startsWith(DumpArchive.HEADER)) {
+                    throw new IOException("Bad archive header in " + file + ": " + header);
+                }
+                byte[] payload = in.readNBytes(Integer.parseInt(f[3]));
+                dumps.add(new Dump(f[1], Long.parseLong(f[2]), payload));
+            }
+        }
+        return dumps;
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.US_ASCII);
+            }
+            line.write(c);
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    List<Dump> readDone(List<Path> files) throws IOException {
+        List<Dump> dumps = new ArrayList<>();
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            String source = name.substring(0, name.indexOf('-'));
+            // Moved, not rewritten, so this is when the collector wrote it.
+            long written = Files.getLastModifiedTime(p).toMillis();
+            dumps.add(new Dump(source, written, Files.readAllBytes(p)));
+        }
+        return dumps;
+    }
+
+    static final class Dump {
+        final String source;
+        final long written;
+        final byte[] payload;
+
+        Dump(String source, long written, byte[] payload) {
+            this.source = source;
+            this.written = written;
+            this.payload = payload;
+        }
+    }
+
+    /*
+     * The samples of an hour, by family and series, in order of appearance.
+     */
+    static final class Collector {
+        final LinkedHashMap<String, List<Column>> families = new LinkedHashMap<>();
+        // Series prefixes keep their identity, see Samples.
+        final IdentityHashMap<byte[], Column> columns = new IdentityHashMap<>();
+
+        void add(Samples s) {
+            byte[][] series = s.getSeries();
+            double[] values = s.getValues();
+            for (int i = 0; i < s.getCount(); i++) {
+                add(series[i], s.getTimestamp(), values[i]);
+            }
+        }
+
+        void add(byte[] prefix, long ts, double v) {
+            Column c = this.columns.get(prefix);
+            if (c == null) {
+                c = new Column(prefix);
+                this.columns.put(prefix, c);
+                this.families.computeIfAbsent(c.family, f -> new ArrayList<>()).add(c);
+            }
+            c.add(ts, v);
+        }
+
+        long write(OutputStream os) throws IOException {
+            ExpositionBuffer out = new ExpositionBuffer();
+            long n = 0;
+            for (Map.Entry<String, List<Column>> f : this.families.entrySet()) {
+                out.writeAscii("# TYPE ");
+                out.writeAscii(f.getKey());
+                out.writeAscii(" gauge\n");
+                for (Column c : f.getValue()) {
+                    for (int i = 0; i < c.count; i++) {
+                        out.write(c.prefix);
+                        out.writeDouble(c.values[i]);
+                        // In seconds.
+                        out.write((byte) ' ');
+                        out.writeLong(c.timestamps[i] / 1000);
+                        out.write((byte) '.');
+                        long ms = c.timestamps[i] % 1000;
+                        out.write((byte) ('0' + ms / 100));
+                        out.write((byte) ('0' + ms / 10 % 10));
+                        out.write((byte) ('0' + ms % 10));
+                        out.write((byte) '\n');
+                    }
+                    n += c.count;
+                    if (out.size() > 256 * 1024) {
+                        out.writeTo(os);
+                        out.reset();
+                    }
+                }
+            }
+            out.writeAscii("# EOF\n");
+            out.writeTo(os);
+            return n;
+        }
+    }
+
+    static final class Column {
+        final String family;
+        // OpenMetrics does not allow the trailing comma of the exposition prefix.
+        final byte[] prefix;
+        long[] timestamps = new long[64];
+        double[] values = new double[64];
+        int count;
+
+        Column(byte[] prefix) {
+            String p = new String(prefix, StandardCharsets.UTF_8);
+            int end = p.indexOf('{');
+            this.family = end < 0 ? p.trim() : p.substring(0, end);
+            this.prefix = p.replace(",} ", "} ").getBytes(StandardCharsets.UTF_8);
+        }
+
+        void add(long ts, double v) {
+            if (this.count == this.timestamps.length) {
+                this.timestamps = Arrays.copyOf(this.timestamps, this.count * 2);
+                this.values = Arrays.copyOf(this.values, this.count * 2);
+            }
+            this.timestamps[this.count] = ts;
+            this.values[this.count++] = v;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package net.p0f.openshift.metrics.routes;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+@ApplicationScoped
+public class CgroupConsumer extends RouteBuilder {
+    // Whether to read per-pod cgroups at all.
+    @ConfigProperty(defaultValue = "false", name = "exporter.cgroup.enabled")
+    boolean enabled;
+
+    // Sampling period in milliseconds.
+    @ConfigProperty(defaultValue = "10000", name = "exporter.cgroup.period")
+    long period;
+
+    @Override
+    public void configure() throws Exception {
+        if (!this.enabled) {
+            return;
+        }
+
+        from("timer:cgroup?period=" + this.period)
+            .routeId("cgroup-reader")
+            .to("bean:cgroupCollector?method=collect")
+            .log(LoggingLevel.DEBUG, "Read ${body.size} pod cgroups.")
+            .to("bean:podMetrics?method=update");
+    }
+}
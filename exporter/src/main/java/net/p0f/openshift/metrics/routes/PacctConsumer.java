@@ -0,0 +1,59 @@
+package net.p0f.openshift.metrics.routes;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.RouteDefinition;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+
+@ApplicationScoped
+public class PacctConsumer extends RouteBuilder {
+    // Either "sa" (psacct-dump-all written by the collector-psacct sidecar) or "pacct".
+    @ConfigProperty(defaultValue = "sa", name = "exporter.psacct.source")
+    String source;
+
+    // Polling period in milliseconds.
+    @ConfigProperty(defaultValue = "10000", name = "exporter.psacct.period")
+    long period;
+
+    // Anything but zero hands over all the records of a read as one batch.
+    @ConfigProperty(defaultValue = "500", name = "exporter.psacct.batch.size")
+    int batchSize;
+
+    @ConfigProperty(defaultValue = "64", name = "exporter.psacct.queue")
+    int queue;
+
+    @Inject
+    ProcessAccountingMetrics processAccountingMetrics;
+
+    @Override
+    public void configure() throws Exception {
+        if (!"pacct".equals(this.source)) {
+            return;
+        }
+
+        RouteDefinition route = from("timer:pacct?period=" + this.period)
+            .routeId("pacct-reader")
+            .to("bean:pacctReader?method=readNewRecords")
+            .log(LoggingLevel.DEBUG, "Read ${body.size} new pacct aggregates.")
+            // Same as for "sa": a new snapshot per read, published at the end.
+            .setProperty(ProcessAccountingMetrics.SNAPSHOT_PROPERTY, method(this.processAccountingMetrics, "beginSnapshot"));
+
+        if (this.batchSize > 0) {
+            route.to(RegisterProcessAccounting.batchEndpoint(this.queue));
+        } else {
+            route
+                .split(body())
+                    .log(LoggingLevel.DEBUG, "Decoded Psacct: ${body}")
+                    .to("seda:psacct?waitForTaskToComplete=Always")
+                .end();
+        }
+
+        route
+            .to("bean:processAccountingMetrics?method=publishSnapshot(${exchangeProperty.psacctSnapshot})");
+    }
+}
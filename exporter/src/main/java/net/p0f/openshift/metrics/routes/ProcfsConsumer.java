@@ -0,0 +1,42 @@
+package net.p0f.openshift.metrics.routes;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.exporter.SysstatMetrics;
+
+@ApplicationScoped
+public class ProcfsConsumer extends RouteBuilder {
+    // Either "sadf" (sysstat-dump.json from the collector-sysstat sidecar) or "procfs".
+    @ConfigProperty(defaultValue = "sadf", name = "exporter.sysstat.source")
+    String source;
+
+    // Sampling period in milliseconds.
+    @ConfigProperty(defaultValue = "10000", name = "exporter.procfs.period")
+    long period;
+
+    @Override
+    public void configure() throws Exception {
+        if (!"procfs".equals(this.source)) {
+            return;
+        }
+
+        from("timer:procfs?period=" + this.period)
+            .routeId("procfs-reader")
+            .to("bean:procfsCollector?method=collect")
+            // The first sample only primes the counters.
+            .filter(body().isNotNull())
+                .log(LoggingLevel.DEBUG, "Collected Sysstat: ${body}")
+                .setHeader("X-Is-Record-Valid", method(SysstatMetrics.class, "isRecordValid"))
+                .log(LoggingLevel.DEBUG, "Validity check: ${header.X-Is-Record-Valid}")
+                .choice()
+                    .when(header("X-Is-Record-Valid").isEqualTo(false))
+                        .log(LoggingLevel.WARN, "Illegal record: ${body}")
+                    .otherwise()
+                        .to("bean:sysstatMetrics?method=processMetricRecord&scope=Request")
+                .endChoice();
+    }
+}
@@ -1,50 +1,102 @@
 package net.p0f.openshift.metrics.routes;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
-import org.apache.camel.dataformat.bindy.csv.BindyCsvDataFormat;
-import org.apache.camel.spi.DataFormat;
+import org.apache.camel.model.RouteDefinition;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
-import net.p0f.openshift.metrics.processor.PsacctToCsv;
+import net.p0f.openshift.metrics.archive.DumpArchive;
+import net.p0f.openshift.metrics.collector.DirectoryWatcher;
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.processor.PsacctBatchParser;
+import net.p0f.openshift.metrics.processor.PsacctLineParser;
 
 @ApplicationScoped
 public class PsacctConsumer extends RouteBuilder {
     @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
     String dataPath;
 
+    // Either "sa" or "pacct", in which case PacctConsumer takes over.
+    @ConfigProperty(defaultValue = "sa", name = "exporter.psacct.source")
+    String source;
+
+    // Either "poll" (the file component below) or "watch" (see DirectoryWatcher).
+    @ConfigProperty(defaultValue = "poll", name = "exporter.ingest")
+    String ingest;
+
+    // Lines per batch of records, zero to dispatch them one at a time.
+    @ConfigProperty(defaultValue = "500", name = "exporter.psacct.batch.size")
+    int batchSize;
+
+    @ConfigProperty(defaultValue = "64", name = "exporter.psacct.queue")
+    int queue;
+
+    @Inject
+    DumpArchive dumpArchive;
+
+    @Inject
+    NodeIdentity nodeIdentity;
+
+    @Inject
+    ProcessAccountingMetrics processAccountingMetrics;
+
     @Override
     public void configure() throws Exception {
-        PsacctToCsv toCsv = new PsacctToCsv();
-        DataFormat fromCsv = new BindyCsvDataFormat(ProcessAccountingRecord.class);
-        from("file:" + dataPath + "?" +
-                "fileName=psacct-dump-all&" +
-                "readLock=changed&" +
-                "readLockCheckInterval=250&" +
-                "move=done/${date:now:yyyyMMdd}/psacct-${date:now:yyyyMMdd-HHmmss}")
+        if ("pacct".equals(this.source)) {
+            return;
+        }
+
+        PsacctLineParser parser = new PsacctLineParser(this.nodeIdentity);
+        String uri = "watch".equals(this.ingest) ? DirectoryWatcher.PSACCT_ENDPOINT
+                : "file:" + dataPath + "?" +
+                    "fileName=psacct-dump-all&" +
+                    "readLock=changed&" +
+                    "readLockCheckInterval=250&" +
+                    (this.dumpArchive.isEnabled() ? "delete=true"
+                        : "move=done/${date:now:yyyyMMdd}/psacct-${date:now:yyyyMMdd-HHmmss}");
+        RouteDefinition route = from(uri)
             .routeId("psacct-reader")
-            .log(LoggingLevel.DEBUG, "Original Psacct Payload: ${body}")
-            // Reset current gauge status upon receiving a new message.
-            .wireTap("direct:resetPsacct")
-            // Split, unmarshall, and account for, all new records.
-            .split().tokenize("\n").parallelProcessing()
-            .log(LoggingLevel.DEBUG, "Split Psacct Record: ${body}")
-            .setHeader("X-Is-Record-Valid", method(PsacctToCsv.class, "isRecordValid"))
-            .log(LoggingLevel.DEBUG, "Validity check: ${header.X-Is-Record-Valid}")
-            .choice()
-                .when(bodyAs(String.class).isEqualTo(""))
-                    .log(LoggingLevel.DEBUG, "Skipping empty record.")
-                .when(header("X-Is-Record-Valid").isEqualTo(false))
-                    .log(LoggingLevel.WARN, "Illegal record: ${body}")
-                .otherwise()
-                    .process(toCsv)
-                    .log(LoggingLevel.DEBUG, "Transformed Psacct CSV: ${body}")
-                    .unmarshal(fromCsv)
-                    .log(LoggingLevel.INFO, "Unmarshaled Psacct: ${body}")
-                    .to("seda:psacct")
-            .endChoice();
+            .log(LoggingLevel.DEBUG, "Original Psacct Payload: ${body}");
+
+        if (this.dumpArchive.isEnabled()) {
+            route.convertBodyTo(byte[].class)
+                .to("bean:dumpArchive?method=submit('psacct', ${body}, ${header.CamelFileLastModified})");
+        }
+
+        route
+            // Records of this file go into a new snapshot, which replaces the
+            // current one only once all of them have been registered.
+            .setProperty(ProcessAccountingMetrics.SNAPSHOT_PROPERTY, method(this.processAccountingMetrics, "beginSnapshot"));
+
+        if (this.batchSize > 0) {
+            // Split into groups of lines, each parsed and registered as a whole.
+            route
+                .split().tokenize("\n", this.batchSize).streaming().parallelProcessing()
+                    .executorService(getContext().getExecutorServiceManager()
+                            .newFixedThreadPool(this, "psacct-split", RegisterProcessAccounting.threads()))
+                    .process(new PsacctBatchParser(this.nodeIdentity))
+                    .to(RegisterProcessAccounting.batchEndpoint(this.queue))
+                .end();
+        } else {
+            // Split, parse, and account for, all new records, one at a time.
+            route
+                .split().tokenize("\n").parallelProcessing()
+                    .log(LoggingLevel.DEBUG, "Split Psacct Record: ${body}")
+                    // Parsed once, with nothing left of empty and illegal lines.
+                    .process(parser)
+                    .filter(body().isNotNull())
+                        .log(LoggingLevel.INFO, "Parsed Psacct: ${body}")
+                        .to("seda:psacct?waitForTaskToComplete=Always")
+                    .end()
+                .end();
+        }
+
+        route
+            .to("bean:processAccountingMetrics?method=publishSnapshot(${exchangeProperty.psacctSnapshot})")
+            .to("bean:ingestLatency?method=record('psacct', ${header.CamelFileLastModified})");
     }
 }
@@ -1,15 +1,45 @@
 package net.p0f.openshift.metrics.routes;
 
+import javax.enterprise.context.ApplicationScoped;
+
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+@ApplicationScoped
 public class RegisterProcessAccounting extends RouteBuilder {
+    static final String BATCH_ENDPOINT = "seda:psacct-batch";
+
+    // Batches waiting to be registered, beyond which producers block.
+    @ConfigProperty(defaultValue = "64", name = "exporter.psacct.queue")
+    int queue;
 
     @Override
     public void configure() throws Exception {
         from("seda:psacct")
             .routeId("psacct-dispatch")
             .log(LoggingLevel.DEBUG, "Sending ${body.processName}@${body.hostName} for processing.")
-            .to("bean:processAccountingMetrics?method=registerRecord&scope=Request");
+            .to("bean:processAccountingMetrics?method=registerRecord(${body}, ${exchangeProperty.psacctSnapshot})&scope=Request");
+
+        from(BATCH_ENDPOINT + "?size=" + this.queue + "&concurrentConsumers=" + threads())
+            .routeId("psacct-batch-dispatch")
+            .log(LoggingLevel.DEBUG, "Sending a batch of ${body.size} records for processing.")
+            .to("bean:processAccountingMetrics?method=registerRecords(${body}, ${exchangeProperty.psacctSnapshot})");
+    }
+
+    /*
+     * Where to send batches to: the same bounded queue as above, blocking
+     * the sender while it is full rather than piling them up.
+     */
+    static String batchEndpoint(int queue) {
+        return BATCH_ENDPOINT + "?size=" + queue + "&blockWhenFull=true&waitForTaskToComplete=Always";
+    }
+
+    /*
+     * Threads to parse and register records with, one per CPU the container
+     * may use (the JVM takes the CPU limit into account).
+     */
+    static int threads() {
+        return Runtime.getRuntime().availableProcessors();
     }
 }
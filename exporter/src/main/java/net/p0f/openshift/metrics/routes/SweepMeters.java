@@ -0,0 +1,30 @@
+package net.p0f.openshift.metrics.routes;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+@ApplicationScoped
+public class SweepMeters extends RouteBuilder {
+    // Idle time in milliseconds after which meters are removed, zero to keep them forever.
+    @ConfigProperty(defaultValue = "900000", name = "exporter.meters.ttl")
+    long ttl;
+
+    // How often to look for idle meters, in milliseconds.
+    @ConfigProperty(defaultValue = "60000", name = "exporter.meters.sweep.period")
+    long period;
+
+    @Override
+    public void configure() throws Exception {
+        if (this.ttl <= 0) {
+            return;
+        }
+
+        from("timer:meter-sweep?period=" + this.period)
+            .routeId("meter-sweep")
+            .to("bean:meterSweeper?method=sweep")
+            .log(LoggingLevel.DEBUG, "Evicted ${body} idle meter groups.");
+    }
+}
@@ -1,29 +1,74 @@
 package net.p0f.openshift.metrics.routes;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
 
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.jackson.JacksonDataFormat;
+import org.apache.camel.model.RouteDefinition;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import net.p0f.openshift.metrics.archive.DumpArchive;
+import net.p0f.openshift.metrics.collector.DirectoryWatcher;
 import net.p0f.openshift.metrics.exporter.SysstatMetrics;
 import net.p0f.openshift.metrics.model.SysstatMeasurement;
+import net.p0f.openshift.metrics.processor.SysstatJsonReader;
 
 @ApplicationScoped
 public class SysstatConsumer extends RouteBuilder {
     @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
     String dataPath;
 
+    // Either "sadf" or "procfs", in which case ProcfsConsumer takes over.
+    @ConfigProperty(defaultValue = "sadf", name = "exporter.sysstat.source")
+    String source;
+
+    // Either "poll" (the file component below) or "watch" (see DirectoryWatcher).
+    @ConfigProperty(defaultValue = "poll", name = "exporter.ingest")
+    String ingest;
+
+    @Inject
+    DumpArchive dumpArchive;
+
+    // Either "streaming" (single-pass reader), "columns" (single pass into
+    // SysstatColumns) or "jolt" (transform + unmarshal).
+    @ConfigProperty(defaultValue = "streaming", name = "exporter.sysstat.parser")
+    String parser;
+
     @Override
     public void configure() throws Exception {
-        from("file:" + dataPath + "?" +
-                "fileName=sysstat-dump.json&" +
-                "readLock=changed&" +
-                "readLockCheckInterval=250&" +
-                "move=done/${date:now:yyyyMMdd}/sysstat-${date:now:yyyyMMdd-HHmmss}")
+        if ("procfs".equals(this.source)) {
+            return;
+        }
+
+        String uri = "watch".equals(this.ingest) ? DirectoryWatcher.SYSSTAT_ENDPOINT
+                : "file:" + dataPath + "?" +
+                    "fileName=sysstat-dump.json&" +
+                    "readLock=changed&" +
+                    "readLockCheckInterval=250&" +
+                    (this.dumpArchive.isEnabled() ? "delete=true"
+                        : "move=done/${date:now:yyyyMMdd}/sysstat-${date:now:yyyyMMdd-HHmmss}");
+        RouteDefinition route = from(uri)
             .routeId("sysstat-reader")
-            .log(LoggingLevel.DEBUG, "Original Sysstat Payload: ${body}")
+            .log(LoggingLevel.DEBUG, "Original Sysstat Payload: ${body}");
+
+        if (this.dumpArchive.isEnabled()) {
+            // Read into memory once, for both the archive and the parser.
+            route.convertBodyTo(byte[].class)
+                .to("bean:dumpArchive?method=submit('sysstat', ${body}, ${header.CamelFileLastModified})");
+        }
+
+        if ("columns".equals(this.parser)) {
+            // Parsed, checked and published in one go, see SysstatMetrics.processDump().
+            route.to("bean:sysstatMetrics?method=processDump")
+                .filter(body().isEqualTo(true))
+                    .to("bean:ingestLatency?method=record('sysstat', ${header.CamelFileLastModified})")
+                .end();
+            return;
+        }
+
+        if ("jolt".equals(this.parser)) {
             /*
              * Need to transform:
              * - sysstat.hosts[0].nodename -> sysstat.hosts[0].statistics[0].hostname
@@ -36,13 +81,18 @@ public class SysstatConsumer extends RouteBuilder {
              *   https://github.com/bazaarvoice/jolt
              *   https://github.com/apache/camel/blob/main/components/camel-jolt/src/test/resources/org/apache/camel/component/jolt/firstSample/spec.json
              */
-            .to("jolt:net/p0f/openshift/metrics/routes/transformSysstat.json" +
+            route.to("jolt:net/p0f/openshift/metrics/routes/transformSysstat.json" +
                                     "?inputType=JsonString" +
                                     "&outputType=JsonString" +
                                     "&transformDsl=Chainr")
-            .log(LoggingLevel.DEBUG, "Transformed Sysstat Json: ${body}")
-            .unmarshal(new JacksonDataFormat(SysstatMeasurement.class))
-            .log(LoggingLevel.INFO, "Unmarshaled Sysstat: ${body}")
+                .log(LoggingLevel.DEBUG, "Transformed Sysstat Json: ${body}")
+                .unmarshal(new JacksonDataFormat(SysstatMeasurement.class));
+        } else {
+            // Does the same as the above in a single pass over the input stream.
+            route.process(new SysstatJsonReader());
+        }
+
+        route.log(LoggingLevel.INFO, "Unmarshaled Sysstat: ${body}")
             .setHeader("X-Is-Record-Valid", method(SysstatMetrics.class, "isRecordValid"))
             .log(LoggingLevel.DEBUG, "Validity check: ${header.X-Is-Record-Valid}")
             .choice()
@@ -50,6 +100,7 @@ public class SysstatConsumer extends RouteBuilder {
                     .log(LoggingLevel.WARN, "Illegal record: ${body}")
                 .otherwise()
                     .to("bean:sysstatMetrics?method=processMetricRecord&scope=Request")
+                    .to("bean:ingestLatency?method=record('sysstat', ${header.CamelFileLastModified})")
             .endChoice();
     }
 }
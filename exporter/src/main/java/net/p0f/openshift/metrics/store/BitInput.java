@@ -0,0 +1,45 @@
+package net.p0f.openshift.metrics.store;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Reads back what BitOutput wrote, from a range of a (mapped) buffer.
+ */
+final class BitInput {
+    private final ByteBuffer buf;
+    private int pos;
+    private final int end;
+    private long acc;
+    private int accBits;
+
+    BitInput(ByteBuffer buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    long readBits(int n) {
+        if (n > 32) {
+            long high = readBits(n - 32);
+            return (high << 32) | readBits(32);
+        }
+        while (this.accBits < n) {
+            if (this.pos >= this.end) {
+                throw new IllegalStateException("Read past the end of a frame.");
+            }
+            this.acc = (this.acc << 8) | (this.buf.get(this.pos++) & 0xff);
+            this.accBits += 8;
+        }
+        this.accBits -= n;
+        return (this.acc >>> this.accBits) & ((1L << n) - 1);
+    }
+
+    boolean readBit() {
+        return readBits(1) != 0;
+    }
+
+    // Reads n bits as a two's complement number.
+    long readSigned(int n) {
+        return (readBits(n) << (64 - n)) >> (64 - n);
+    }
+}
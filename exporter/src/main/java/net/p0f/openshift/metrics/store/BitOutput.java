@@ -0,0 +1,87 @@
+package net.p0f.openshift.metrics.store;
+
+import java.util.Arrays;
+
+/*
+ * A growable, re-usable byte array written to a bit at a time, most
+ * significant bit first. Also takes whole bytes and ints, as long as it is
+ * byte aligned at the time.
+ */
+final class BitOutput {
+    private byte[] buf = new byte[64 * 1024];
+    private int len;
+    private long acc;
+    private int accBits;
+
+    void reset() {
+        this.len = 0;
+        this.accBits = 0;
+    }
+
+    int size() {
+        return len;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    /*
+     * Writes the lowest n bits of the value.
+     */
+    void writeBits(long v, int n) {
+        if (n > 32) {
+            writeBits(v >>> 32, n - 32);
+            writeBits(v, 32);
+            return;
+        }
+        this.acc = (this.acc << n) | (v & ((1L << n) - 1));
+        this.accBits += n;
+        while (this.accBits >= 8) {
+            this.accBits -= 8;
+            put((byte) (this.acc >>> this.accBits));
+        }
+    }
+
+    /*
+     * Pads the last byte with zeroes.
+     */
+    void align() {
+        if (this.accBits > 0) {
+            writeBits(0, 8 - this.accBits);
+        }
+    }
+
+    void writeByte(int b) {
+        writeBits(b, 8);
+    }
+
+    void writeInt(int v) {
+        writeBits(v, 32);
+    }
+
+    void writeBytes(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, this.buf, this.len, b.length);
+        this.len += b.length;
+    }
+
+    // Overwrites an int written earlier.
+    void setInt(int pos, int v) {
+        this.buf[pos] = (byte) (v >>> 24);
+        this.buf[pos + 1] = (byte) (v >>> 16);
+        this.buf[pos + 2] = (byte) (v >>> 8);
+        this.buf[pos + 3] = (byte) v;
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        this.buf[this.len++] = b;
+    }
+
+    private void ensure(int n) {
+        if (this.len + n > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, this.len + n));
+        }
+    }
+}
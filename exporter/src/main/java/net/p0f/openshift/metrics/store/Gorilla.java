@@ -0,0 +1,128 @@
+package net.p0f.openshift.metrics.store;
+
+import java.util.Arrays;
+
+/*
+ * The time series compression from Facebook's Gorilla paper.
+ *
+ * Timestamps are stored as the difference between consecutive deltas,
+ * which for a fixed sampling period is almost always zero (one bit) or a
+ * few milliseconds of jitter (nine or twelve bits):
+ *    0                  delta of delta is 0
+ *    10   + 7 bits      -64 .. 63
+ *    110  + 9 bits      -256 .. 255
+ *    1110 + 12 bits     -2048 .. 2047
+ *    1111 + 64 bits     anything else
+ *
+ * Values are XORed with the previous value of the same series. Unchanged
+ * values (a lot of the sysstat ones) take a single bit, and slowly moving
+ * ones only store the few bits that differ:
+ *    0                                 same value as before
+ *    10 + meaningful bits              fits in the previous window
+ *    11 + 5 bits leading zeroes
+ *       + 6 bits length - 1
+ *       + meaningful bits              new window
+ *
+ * Values keeps the per series state for either direction.
+ */
+final class Gorilla {
+    // Leading zeroes of a window that was never set, so nothing fits in it.
+    static final int NO_WINDOW = 64;
+
+    private Gorilla() {
+    }
+
+    static void writeTimestamp(BitOutput out, long dod) {
+        if (dod == 0) {
+            out.writeBits(0, 1);
+        } else if (dod >= -64 && dod <= 63) {
+            out.writeBits(0b10, 2);
+            out.writeBits(dod, 7);
+        } else if (dod >= -256 && dod <= 255) {
+            out.writeBits(0b110, 3);
+            out.writeBits(dod, 9);
+        } else if (dod >= -2048 && dod <= 2047) {
+            out.writeBits(0b1110, 4);
+            out.writeBits(dod, 12);
+        } else {
+            out.writeBits(0b1111, 4);
+            out.writeBits(dod, 64);
+        }
+    }
+
+    static long readTimestamp(BitInput in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return in.readSigned(7);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(9);
+        }
+        if (!in.readBit()) {
+            return in.readSigned(12);
+        }
+        return in.readBits(64);
+    }
+
+    /*
+     * Previous value and XOR window of every series, by series id.
+     */
+    static final class Values {
+        long[] bits = new long[0];
+        int[] leading = new int[0];
+        int[] trailing = new int[0];
+
+        void ensure(int ids) {
+            if (ids > this.bits.length) {
+                int n = Math.max(ids, this.bits.length * 2);
+                int old = this.bits.length;
+                this.bits = Arrays.copyOf(this.bits, n);
+                this.leading = Arrays.copyOf(this.leading, n);
+                this.trailing = Arrays.copyOf(this.trailing, n);
+                Arrays.fill(this.leading, old, n, NO_WINDOW);
+            }
+        }
+
+        void write(BitOutput out, int id, double v) {
+            long cur = Double.doubleToRawLongBits(v);
+            long xor = cur ^ this.bits[id];
+            this.bits[id] = cur;
+            if (xor == 0) {
+                out.writeBits(0, 1);
+                return;
+            }
+            // Only five bits to store them in.
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            int prevLead = this.leading[id];
+            int prevTrail = this.trailing[id];
+            if (lead >= prevLead && trail >= prevTrail) {
+                out.writeBits(0b10, 2);
+                out.writeBits(xor >>> prevTrail, 64 - prevLead - prevTrail);
+            } else {
+                int meaningful = 64 - lead - trail;
+                out.writeBits(0b11, 2);
+                out.writeBits(lead, 5);
+                out.writeBits(meaningful - 1, 6);
+                out.writeBits(xor >>> trail, meaningful);
+                this.leading[id] = lead;
+                this.trailing[id] = trail;
+            }
+        }
+
+        double read(BitInput in, int id) {
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    this.leading[id] = (int) in.readBits(5);
+                    int meaningful = (int) in.readBits(6) + 1;
+                    this.trailing[id] = 64 - this.leading[id] - meaningful;
+                }
+                int trail = this.trailing[id];
+                this.bits[id] ^= in.readBits(64 - this.leading[id] - trail) << trail;
+            }
+            return Double.longBitsToDouble(this.bits[id]);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package net.p0f.openshift.metrics.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.logging.Logger;
+
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * A single segment file being written, mapped into memory as a whole.
+ *
+ * After a 16 byte header (magic and start time), the file is a sequence of
+ * frames, each a type byte, a source byte, the payload length as an int and
+ * the payload:
+ *    S  a series: its id (int), then its exposition prefix
+ *    L  the series ids of the rounds that follow: count (int), then the ids
+ *    R  a round of samples: the timestamp, then one value for every series
+ *       of the current layout, all Gorilla compressed (see Gorilla)
+ *
+ * Everything a round needs is written in one go, with the type byte of its
+ * first frame written last, so a reader stops cleanly at a zero type byte
+ * if the exporter died half-way through. A segment only refers to series
+ * and values within itself, so it can be read (and deleted) on its own.
+ */
+final class Segment {
+    static final Logger LOG = Logger.getLogger(Segment.class.getName());
+
+    static final long MAGIC = 0x7030665345473031L; // "p0fSEG01"
+    static final int HEADER = 16;
+    static final int FRAME_HEADER = 6;
+    static final byte SERIES = 'S';
+    static final byte LAYOUT = 'L';
+    static final byte ROUND = 'R';
+
+    static final String[] SOURCES = { Samples.SYSSTAT, Samples.PSACCT };
+
+    final Path path;
+    final long start;
+    final FileChannel channel;
+    final MappedByteBuffer buf;
+    // Readers may look at everything before this.
+    volatile int position = HEADER;
+
+    final IdentityHashMap<byte[], Integer> ids = new IdentityHashMap<>();
+    final Gorilla.Values values = new Gorilla.Values();
+    final SourceState[] sources = { new SourceState(), new SourceState() };
+    long points;
+
+    Segment(Path path, long start, int size) throws IOException {
+        this.path = path;
+        this.start = start;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.buf = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.buf.putLong(0, MAGIC);
+        this.buf.putLong(8, start);
+    }
+
+    static int sourceIndex(String source) {
+        for (int i = 0; i < SOURCES.length; i++) {
+            if (SOURCES[i].equals(source)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Encodes the round into the staging buffer and copies it to the end of
+     * the segment. False if it does not fit, in which case this segment is
+     * not to be written to any more.
+     */
+    boolean append(Samples s, BitOutput out) {
+        int src = sourceIndex(s.getSource());
+        if (src < 0) {
+            return true;
+        }
+        SourceState state = this.sources[src];
+        byte[][] series = s.getSeries();
+        int count = s.getCount();
+
+        out.reset();
+        if (!state.sameLayout(series, count)) {
+            int[] layout = new int[count];
+            for (int i = 0; i < count; i++) {
+                layout[i] = idOf(series[i], out);
+            }
+            int mark = beginFrame(out, LAYOUT, src);
+            out.writeInt(count);
+            for (int id : layout) {
+                out.writeInt(id);
+            }
+            endFrame(out, mark);
+            state.setLayout(series, count, layout);
+        }
+
+        int mark = beginFrame(out, ROUND, src);
+        long ts = s.getTimestamp();
+        if (state.rounds == 0) {
+            out.writeBits(ts, 64);
+        } else {
+            long delta = ts - state.lastTimestamp;
+            Gorilla.writeTimestamp(out, delta - state.lastDelta);
+            state.lastDelta = delta;
+        }
+        state.lastTimestamp = ts;
+        state.rounds++;
+        double[] v = s.getValues();
+        int[] layout = state.layoutIds;
+        for (int i = 0; i < count; i++) {
+            this.values.write(out, layout[i], v[i]);
+        }
+        endFrame(out, mark);
+
+        int pos = this.position;
+        int len = out.size();
+        if (len > this.buf.capacity() - pos) {
+            return false;
+        }
+        byte[] staged = out.array();
+        // All but the very first byte, which marks it all as valid.
+        this.buf.position(pos + 1);
+        this.buf.put(staged, 1, len - 1);
+        this.buf.put(pos, staged[0]);
+        this.position = pos + len;
+        this.points += count;
+        return true;
+    }
+
+    int idOf(byte[] series, BitOutput out) {
+        Integer id = this.ids.get(series);
+        if (id == null) {
+            id = this.ids.size();
+            this.ids.put(series, id);
+            this.values.ensure(id + 1);
+            int mark = beginFrame(out, SERIES, 0);
+            out.writeInt(id);
+            out.writeBytes(series);
+            endFrame(out, mark);
+        }
+        return id;
+    }
+
+    static int beginFrame(BitOutput out, byte type, int source) {
+        out.writeByte(type);
+        out.writeByte(source);
+        int mark = out.size();
+        out.writeInt(0);
+        return mark;
+    }
+
+    static void endFrame(BitOutput out, int mark) {
+        out.align();
+        out.setInt(mark, out.size() - mark - 4);
+    }
+
+    long size() {
+        return position;
+    }
+
+    /*
+     * Flushes the segment and cuts the file down to what was written.
+     */
+    void close() {
+        try {
+            this.buf.force();
+            this.channel.truncate(this.position);
+            this.channel.close();
+        } catch (IOException ioe) {
+            LOG.warning("Failed to close segment " + this.path + ": " + ioe);
+        }
+        LOG.fine("Closed segment " + this.path + ": " + this.points + " points in " + this.position + " bytes.");
+    }
+
+    /*
+     * Timestamp and layout state of one source.
+     */
+    static final class SourceState {
+        long rounds;
+        long lastTimestamp;
+        long lastDelta;
+        byte[][] layoutSeries = new byte[0][];
+        int[] layoutIds = new int[0];
+
+        // The same series, compared by identity, in the same order.
+        boolean sameLayout(byte[][] series, int count) {
+            if (count != this.layoutIds.length) {
+                return false;
+            }
+            for (int i = 0; i < count; i++) {
+                if (series[i] != this.layoutSeries[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void setLayout(byte[][] series, int count, int[] ids) {
+            // The caller's array may be re-used, keep a copy.
+            byte[][] copy = new byte[count][];
+            System.arraycopy(series, 0, copy, 0, count);
+            this.layoutSeries = copy;
+            this.layoutIds = ids;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package net.p0f.openshift.metrics.store;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Decodes a segment file (see Segment), one sample at a time.
+ */
+public class SegmentReader {
+
+    public interface Visitor {
+        void sample(String source, byte[] series, long timestamp, double value) throws IOException;
+    }
+
+    private SegmentReader() {
+    }
+
+    /*
+     * Reads the segment up to the limit (the whole file if negative),
+     * passing the samples of every round newer than since to the visitor.
+     */
+    public static void read(Path path, long limit, long since, Visitor visitor) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = limit < 0 ? ch.size() : Math.min(limit, ch.size());
+            if (size < Segment.HEADER) {
+                return;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getLong(0) != Segment.MAGIC) {
+                throw new IOException(path + " is not a segment file.");
+            }
+            read(buf, (int) size, since, visitor);
+        }
+    }
+
+    static void read(MappedByteBuffer buf, int size, long since, Visitor visitor) throws IOException {
+        List<byte[]> series = new ArrayList<>();
+        Gorilla.Values values = new Gorilla.Values();
+        long[] lastTimestamp = new long[Segment.SOURCES.length];
+        long[] lastDelta = new long[Segment.SOURCES.length];
+        long[] rounds = new long[Segment.SOURCES.length];
+        int[][] layouts = new int[Segment.SOURCES.length][0];
+
+        int pos = Segment.HEADER;
+        while (pos + Segment.FRAME_HEADER <= size) {
+            byte type = buf.get(pos);
+            if (type == 0) {
+                // Nothing written past this point yet.
+                break;
+            }
+            int src = buf.get(pos + 1);
+            int len = buf.getInt(pos + 2);
+            int payload = pos + Segment.FRAME_HEADER;
+            if (len < 0 || payload + len > size) {
+                break;
+            }
+
+            if (type == Segment.SERIES) {
+                int id = buf.getInt(payload);
+                byte[] prefix = new byte[len - 4];
+                buf.position(payload + 4);
+                buf.get(prefix);
+                while (series.size() <= id) {
+                    series.add(null);
+                }
+                series.set(id, prefix);
+                values.ensure(id + 1);
+            } else if (type == Segment.LAYOUT) {
+                int count = buf.getInt(payload);
+                int[] layout = new int[count];
+                for (int i = 0; i < count; i++) {
+                    layout[i] = buf.getInt(payload + 4 + i * 4);
+                }
+                layouts[src] = layout;
+            } else if (type == Segment.ROUND) {
+                BitInput in = new BitInput(buf, payload, len);
+                long ts;
+                if (rounds[src] == 0) {
+                    ts = in.readBits(64);
+                } else {
+                    long delta = lastDelta[src] + Gorilla.readTimestamp(in);
+                    ts = lastTimestamp[src] + delta;
+                    lastDelta[src] = delta;
+                }
+                lastTimestamp[src] = ts;
+                rounds[src]++;
+                // Values have to be decoded either way, they depend on each other.
+                boolean wanted = ts > since;
+                String source = Segment.SOURCES[src];
+                for (int id : layouts[src]) {
+                    double v = values.read(in, id);
+                    if (wanted) {
+                        visitor.sample(source, series.get(id), ts, v);
+                    }
+                }
+            }
+            pos = payload + len;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package net.p0f.openshift.metrics.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Named;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Optionally persists every sysstat and psacct sample to compressed segment
+ * files in the data path, so that a window during which nobody scraped the
+ * exporter can be read back later.
+ *
+ * A new segment is started once the current one is full or old enough,
+ * and after every such roll the oldest segments are deleted until both the
+ * size and the age retention are satisfied.
+ */
+@ApplicationScoped
+@Named("segmentStore")
+public class SegmentStore {
+    static final Logger LOG = Logger.getLogger(SegmentStore.class.getName());
+
+    static final String SUFFIX = ".seg";
+
+    @ConfigProperty(defaultValue = "false", name = "exporter.store.enabled")
+    boolean enabled;
+
+    @ConfigProperty(defaultValue = "/metrics", name = "exporter.data.path")
+    String dataPath;
+
+    // Bytes mapped per segment file.
+    @ConfigProperty(defaultValue = "16777216", name = "exporter.store.segment.size")
+    int segmentSize;
+
+    // Milliseconds after which a segment is closed even if not full.
+    @ConfigProperty(defaultValue = "3600000", name = "exporter.store.segment.duration")
+    long segmentDuration;
+
+    // Bytes of segments kept, zero for no limit.
+    @ConfigProperty(defaultValue = "268435456", name = "exporter.store.retention.size")
+    long retentionSize;
+
+    // Milliseconds worth of segments kept, zero for no limit.
+    @ConfigProperty(defaultValue = "172800000", name = "exporter.store.retention.time")
+    long retentionTime;
+
+    // Only ever used with the lock held.
+    final BitOutput staging = new BitOutput();
+
+    Segment current;
+
+    void onSamples(@Observes Samples s) {
+        if (!this.enabled) {
+            return;
+        }
+        try {
+            append(s);
+        } catch (IOException ioe) {
+            LOG.warning("Failed to store " + s.getSource() + " samples: " + ioe);
+        }
+    }
+
+    synchronized void append(Samples s) throws IOException {
+        long now = System.currentTimeMillis();
+        if (this.current != null && now - this.current.start >= this.segmentDuration) {
+            roll();
+        }
+        if (this.current == null) {
+            this.current = open(now);
+        }
+        if (!this.current.append(s, this.staging)) {
+            roll();
+            this.current = open(now);
+            if (!this.current.append(s, this.staging)) {
+                LOG.warning("A round of " + s.getCount() + " " + s.getSource()
+                        + " samples does not fit in a segment of " + this.segmentSize + " bytes, dropped.");
+            }
+        }
+    }
+
+    Path directory() {
+        return Paths.get(this.dataPath, "store");
+    }
+
+    Segment open(long now) throws IOException {
+        Path dir = directory();
+        Files.createDirectories(dir);
+        // Named after the start time, so that they sort in time order.
+        Path path = dir.resolve(now + SUFFIX);
+        while (Files.exists(path)) {
+            path = dir.resolve(++now + SUFFIX);
+        }
+        LOG.fine("Starting segment " + path);
+        return new Segment(path, now, this.segmentSize);
+    }
+
+    void roll() {
+        if (this.current != null) {
+            this.current.close();
+            this.current = null;
+        }
+        try {
+            applyRetention();
+        } catch (IOException ioe) {
+            LOG.warning("Failed to apply store retention: " + ioe);
+        }
+    }
+
+    void applyRetention() throws IOException {
+        List<Path> segments = segments();
+        long total = 0;
+        for (Path p : segments) {
+            total += Files.size(p);
+        }
+        long oldest = System.currentTimeMillis() - this.retentionTime;
+        for (int i = 0; i < segments.size(); i++) {
+            Path p = segments.get(i);
+            // A segment ends where the next one starts.
+            boolean tooOld = this.retentionTime > 0 && i + 1 < segments.size()
+                    && startOf(segments.get(i + 1)) < oldest;
+            boolean tooBig = this.retentionSize > 0 && total > this.retentionSize;
+            if (!tooOld && !tooBig) {
+                break;
+            }
+            long size = Files.size(p);
+            Files.deleteIfExists(p);
+            total -= size;
+            LOG.fine("Deleted segment " + p + " (" + size + " bytes).");
+        }
+    }
+
+    List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        Path dir = directory();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : ds) {
+                segments.add(p);
+            }
+        }
+        segments.sort((a, b) -> Long.compare(startOf(a), startOf(b)));
+        return segments;
+    }
+
+    static long startOf(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException nfe) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+     * Writes every stored sample taken after since and no later than until
+     * (milliseconds since the epoch) as exposition lines with timestamps,
+     * in the order they were stored.
+     */
+    public void stream(long since, long until, OutputStream out) throws IOException {
+        List<Path> segments;
+        Path active;
+        int activeLimit;
+        synchronized (this) {
+            segments = segments();
+            active = this.current == null ? null : this.current.path;
+            activeLimit = this.current == null ? 0 : this.current.position;
+        }
+        ExpositionBuffer chunk = new ExpositionBuffer(48 * 1024);
+        for (int i = 0; i < segments.size(); i++) {
+            Path p = segments.get(i);
+            if (startOf(p) > until || (i + 1 < segments.size() && startOf(segments.get(i + 1)) <= since)) {
+                continue;
+            }
+            SegmentReader.Visitor v = (source, series, ts, value) -> {
+                if (ts > until) {
+                    return;
+                }
+                chunk.write(series);
+                chunk.writeDouble(value);
+                chunk.write((byte) ' ');
+                chunk.writeLong(ts);
+                chunk.write((byte) '\n');
+                if (chunk.size() > 32 * 1024) {
+                    chunk.writeTo(out);
+                    chunk.reset();
+                }
+            };
+            try {
+                // The active segment only up to what was completely written.
+                SegmentReader.read(p, p.equals(active) ? activeLimit : -1, since, v);
+            } catch (NoSuchFileException nsfe) {
+                // Deleted by retention in the meantime.
+            }
+        }
+        chunk.writeTo(out);
+        out.flush();
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (this.current != null) {
+            this.current.close();
+            this.current = null;
+        }
+    }
+}
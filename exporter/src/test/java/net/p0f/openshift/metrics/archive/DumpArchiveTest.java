@@ -0,0 +1,194 @@
+package net.p0f.openshift.metrics.archive;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Dumps archived by the archiver thread and read back one gzip member at a
+ * time, into the files of the hours they were written in, and old files
+ * going by size and by age.
+ */
+class DumpArchiveTest {
+    static final long HOUR = 3600 * 1000;
+
+    @TempDir
+    Path tmp;
+
+    DumpArchive archive() {
+        DumpArchive a = new DumpArchive();
+        a.dataPath = this.tmp.toString();
+        a.codec = "gzip";
+        a.level = 6;
+        a.queueSize = 64;
+        a.retentionSize = 0;
+        a.retentionTime = 7 * 24 * HOUR;
+        return a;
+    }
+
+    @Test
+    void roundTrip() throws Exception {
+        // Two hours ago, on the hour.
+        long base = System.currentTimeMillis() / HOUR * HOUR - 2 * HOUR;
+        byte[] sysstat = "{\"sysstat\": {\"hosts\": []}}".getBytes(StandardCharsets.US_ASCII);
+        byte[] psacct = "      2       0.50re       0.01u       0.02s       0avio     1234k   sh\n"
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] empty = new byte[0];
+        // Does not compress at all.
+        byte[] noise = new byte[200000];
+        new Random(42).nextBytes(noise);
+
+        DumpArchive a = archive();
+        a.onStart(null);
+        a.submit("sysstat", sysstat, base + 1000);
+        a.submit("psacct", psacct, base + 2000);
+        a.submit("psacct", empty, base + 3000);
+        a.submit("sysstat", noise, base + HOUR + 999);
+        a.onStop(null);
+
+        Path first = file(base);
+        Path second = file(base + HOUR);
+        assertEquals(List.of(first, second), files());
+        assertMembers(List.of(member("sysstat", base + 1000, sysstat), member("psacct", base + 2000, psacct),
+                member("psacct", base + 3000, empty)), members(first));
+        assertMembers(List.of(member("sysstat", base + HOUR + 999, noise)), members(second));
+
+        // Appended to, after a restart.
+        a = archive();
+        a.onStart(null);
+        a.submit("psacct", psacct, base + HOUR + 5000);
+        a.onStop(null);
+        assertEquals(2, members(second).size());
+        assertArrayEquals(member("psacct", base + HOUR + 5000, psacct), members(second).get(1));
+    }
+
+    @Test
+    void retentionBySize() throws Exception {
+        long now = System.currentTimeMillis();
+        Path dir = Files.createDirectories(this.tmp.resolve("archive"));
+        for (int h = 4; h > 0; h--) {
+            Files.write(file(now - h * HOUR), new byte[1000]);
+        }
+        DumpArchive a = archive();
+        a.retentionSize = 2500;
+        a.applyRetention(dir);
+        assertEquals(List.of(file(now - 2 * HOUR), file(now - HOUR)), files());
+
+        // Nothing to go while within the limit.
+        a.retentionSize = 2000;
+        a.applyRetention(dir);
+        assertEquals(2, files().size());
+        a.retentionSize = 0;
+        a.applyRetention(dir);
+        assertEquals(2, files().size());
+    }
+
+    @Test
+    void retentionByAge() throws Exception {
+        long now = System.currentTimeMillis();
+        Path dir = Files.createDirectories(this.tmp.resolve("archive"));
+        for (int h : new int[] { 30, 25, 23, 1 }) {
+            Files.write(file(now - h * HOUR), new byte[10]);
+        }
+        // Not an archive file.
+        Files.write(dir.resolve("README"), new byte[10]);
+
+        DumpArchive a = archive();
+        a.retentionTime = 24 * HOUR;
+        // At startup, before anything is written.
+        a.onStart(null);
+        a.onStop(null);
+        assertEquals(List.of(file(now - 23 * HOUR), file(now - HOUR)), files());
+        assertTrue(Files.exists(dir.resolve("README")));
+    }
+
+    @Test
+    void neverWaitsForRoom() {
+        DumpArchive a = archive();
+        a.queueSize = 2;
+        // Not started: nothing to take dumps off the queue.
+        a.queue = new ArrayBlockingQueue<>(a.queueSize);
+        for (int i = 0; i < 5; i++) {
+            a.submit("psacct", new byte[] { (byte) i }, 1000L * i);
+        }
+        assertEquals(2, a.queue.size());
+        assertTrue(a.full);
+        a.queue.clear();
+        a.submit("psacct", new byte[1], null);
+        assertFalse(a.full);
+    }
+
+    Path file(long millis) {
+        return this.tmp.resolve("archive").resolve(DumpArchive.HOUR.format(Instant.ofEpochMilli(millis)) + DumpArchive.SUFFIX);
+    }
+
+    List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(this.tmp.resolve("archive"), "*" + DumpArchive.SUFFIX)) {
+            ds.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    static byte[] member(String source, long written, byte[] payload) {
+        ByteArrayOutputStream m = new ByteArrayOutputStream();
+        m.writeBytes((DumpArchive.HEADER + source + " " + written + " " + payload.length + "\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        m.writeBytes(payload);
+        return m.toByteArray();
+    }
+
+    /*
+     * The contents of every gzip member of the file, on its own. Headers
+     * are as GZIPOutputStream writes them: ten bytes, no optional fields.
+     */
+    static List<byte[]> members(Path file) throws IOException, DataFormatException {
+        byte[] gz = Files.readAllBytes(file);
+        List<byte[]> members = new ArrayList<>();
+        int off = 0;
+        while (off < gz.length) {
+            assertEquals(0x1f, gz[off] & 0xff);
+            assertEquals(0x8b, gz[off + 1] & 0xff);
+            assertEquals(0, gz[off + 3]);
+            Inflater inf = new Inflater(true);
+            inf.setInput(gz, off + 10, gz.length - off - 10);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            while (!inf.finished()) {
+                out.write(buf, 0, inf.inflate(buf));
+            }
+            // Then the trailer, CRC and length.
+            off = gz.length - inf.getRemaining() + 8;
+            inf.end();
+            members.add(out.toByteArray());
+        }
+        return members;
+    }
+
+    // Byte arrays compare by identity.
+    static void assertMembers(List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), actual.get(i), "member " + i);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package net.p0f.openshift.metrics.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * A synthetic kubepods.slice (see CgroupTree) with pods of every QoS class,
+ * which come and go, and whose files change layout or outgrow the buffer
+ * they are read into.
+ */
+class CgroupCollectorTest {
+    static final String A = "0a1b2c3d-0000-4000-8000-00000000000a";
+    static final String B = "0a1b2c3d-0000-4000-8000-00000000000b";
+    static final String C = "0a1b2c3d-0000-4000-8000-00000000000c";
+    static final String D = "0a1b2c3d-0000-4000-8000-00000000000d";
+
+    // Long enough not to be what finds new pods.
+    static final long HOUR = 3_600_000;
+    static final long WAIT = 10_000;
+
+    @TempDir
+    Path tmp;
+
+    CgroupTree tree;
+    CgroupCollector collector;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.tree = new CgroupTree(this.tmp);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.tree.close();
+    }
+
+    @Test
+    void readsEveryQosClass() throws IOException {
+        this.tree.pod("guaranteed", A, 1);
+        this.tree.pod("burstable", B, 2);
+        this.tree.pod("besteffort", C, 3);
+        // Neither a pod nor a QoS class.
+        Files.createDirectories(this.tree.getRoot().resolve("crio-conmon-1234.scope"));
+        this.collector = this.tree.collector(HOUR);
+
+        Map<String, CgroupCollector.Pod> pods = byUid(this.collector.collect());
+        assertEquals(List.of(A, B, C), List.copyOf(pods.keySet()));
+        assertEquals("guaranteed", pods.get(A).getQos());
+        assertEquals("burstable", pods.get(B).getQos());
+        assertEquals("besteffort", pods.get(C).getQos());
+        assertValues(1, false, pods.get(A));
+        assertValues(2, false, pods.get(B));
+        assertValues(3, false, pods.get(C));
+
+        // The same pods, with their new values.
+        CgroupTree.write(dir(pods.get(B)), "cpu.stat", CgroupTree.cpuStat(20));
+        Map<String, CgroupCollector.Pod> again = byUid(this.collector.collect());
+        assertSame(pods.get(B), again.get(B));
+        assertEquals(20, again.get(B).get(field("pod.cpu.usage")));
+        assertValues(1, false, again.get(A));
+    }
+
+    @Test
+    void podsComeAndGoWithInotify() throws Exception {
+        Path a = this.tree.pod("burstable", A, 1);
+        this.collector = this.tree.collector(HOUR);
+        assertEquals(List.of(A), List.copyOf(byUid(this.collector.collect()).keySet()));
+        assertNotNull(this.collector.watcher, "no watch service");
+
+        // In a QoS class seen before, and in one created since.
+        this.tree.pod("burstable", B, 2);
+        this.tree.pod("besteffort", C, 3);
+        this.tree.pod("guaranteed", D, 4);
+        Map<String, CgroupCollector.Pod> pods = collectUntil(p -> p.size() == 4);
+        assertValues(3, false, pods.get(C));
+
+        this.tree.remove(a);
+        pods = collectUntil(p -> !p.containsKey(A));
+        assertEquals(List.of(B, C, D), List.copyOf(pods.keySet()));
+
+        // Back, as a cgroup of its own.
+        this.tree.pod("burstable", A, 5);
+        pods = collectUntil(p -> p.containsKey(A));
+        assertValues(5, false, pods.get(A));
+    }
+
+    @Test
+    void rescansWithoutInotify() throws IOException {
+        this.collector = this.tree.collector(0);
+        // Nothing there yet.
+        assertTrue(this.collector.collect().isEmpty());
+        this.collector.close();
+        this.collector.watcher = null;
+
+        Path b = this.tree.pod("burstable", B, 2);
+        assertEquals(List.of(B), List.copyOf(byUid(this.collector.collect()).keySet()));
+        this.tree.pod("guaranteed", A, 1);
+        this.tree.remove(b);
+        assertEquals(List.of(A), List.copyOf(byUid(this.collector.collect()).keySet()));
+    }
+
+    @Test
+    void relearnsMemoryStat() throws IOException {
+        Path a = this.tree.pod("guaranteed", A, 1);
+        this.tree.pod("burstable", B, 2);
+        this.collector = this.tree.collector(HOUR);
+        this.collector.collect();
+        int[] learned = this.collector.memoryStat.lines;
+        assertEquals(CgroupTree.memoryStat(1, false).split("\n").length, learned.length);
+
+        // Read with the lines as learned.
+        Map<String, CgroupCollector.Pod> pods = byUid(this.collector.collect());
+        assertSame(learned, this.collector.memoryStat.lines);
+        assertValues(2, false, pods.get(B));
+
+        // One pod on a kernel writing more lines, and fewer: both keep
+        // being read right whichever was learned last.
+        CgroupTree.write(a, "memory.stat", CgroupTree.memoryStat(1, true));
+        for (int i = 0; i < 3; i++) {
+            pods = byUid(this.collector.collect());
+            assertValues(1, true, pods.get(A));
+            assertValues(2, false, pods.get(B));
+        }
+
+        // And the same number of lines, only in another order.
+        String[] lines = CgroupTree.memoryStat(1, false).split("\n");
+        String first = lines[0];
+        lines[0] = lines[lines.length - 1];
+        lines[lines.length - 1] = first;
+        CgroupTree.write(a, "memory.stat", String.join("\n", lines) + "\n");
+        for (int i = 0; i < 2; i++) {
+            pods = byUid(this.collector.collect());
+            assertValues(1, false, pods.get(A));
+            assertValues(2, false, pods.get(B));
+        }
+    }
+
+    @Test
+    void readsPastTheBuffer() throws IOException {
+        Path a = this.tree.pod("guaranteed", A, 1);
+        this.collector = this.tree.collector(HOUR);
+        // Twice the buffer, with the lines of interest at the end.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 2 * 8192; i++) {
+            sb.append("padding_").append(i).append(" 999\n");
+        }
+        String large = sb + CgroupTree.memoryStat(1, false);
+        CgroupTree.write(a, "memory.stat", large);
+        assertValues(1, false, byUid(this.collector.collect()).get(A));
+
+        // Then smaller again, with nothing left over from before.
+        CgroupTree.write(a, "memory.stat", CgroupTree.memoryStat(7, false));
+        CgroupTree.write(a, "cpu.stat", CgroupTree.cpuStat(7));
+        CgroupTree.write(a, "memory.current", (7L << 20) + "\n");
+        CgroupTree.write(a, "io.stat", "8:0 rbytes=77 wbytes=154 rios=231 wios=308 dbytes=385 dios=462\n");
+        for (String resource : new String[] { "cpu", "memory", "io" }) {
+            CgroupTree.write(a, resource + ".pressure", "some avg10=0.00 avg60=0.00 avg300=0.00 total=7000\n"
+                    + "full avg10=0.00 avg60=0.00 avg300=0.00 total=3500\n");
+        }
+        assertValues(7, false, byUid(this.collector.collect()).get(A));
+    }
+
+    @Test
+    void positionalReads() throws IOException {
+        ProcFile f = new ProcFile(this.tmp, 16);
+        // Shorter than the buffer, as long, and longer.
+        for (int size : new int[] { 3, 15, 16, 17, 32, 33, 100, 8 }) {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < size) {
+                sb.append(sb.length() % 4 == 3 ? '\n' : '1');
+            }
+            Path p = this.tmp.resolve("f" + size);
+            Files.writeString(p, sb);
+            try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+                // Twice, at offset zero through the same channel.
+                for (int i = 0; i < 2; i++) {
+                    assertTrue(f.load(fc, true));
+                    // Every fourth byte a newline.
+                    assertEquals(size - size / 4, digits(f), "size " + size);
+                }
+            }
+        }
+        assertFalse(new ProcFile(this.tmp.resolve("missing")).load());
+    }
+
+    // Collects until the pods are as expected, or gives up after a while.
+    Map<String, CgroupCollector.Pod> collectUntil(Predicate<Map<String, CgroupCollector.Pod>> done) throws Exception {
+        long until = System.currentTimeMillis() + WAIT;
+        while (true) {
+            Map<String, CgroupCollector.Pod> pods = byUid(this.collector.collect());
+            if (done.test(pods)) {
+                return pods;
+            }
+            assertTrue(System.currentTimeMillis() < until, "still " + pods.keySet());
+            Thread.sleep(50);
+        }
+    }
+
+    // Lines of "111", the last one maybe cut short.
+    static int digits(ProcFile f) {
+        int digits = 0;
+        while (f.nextLine()) {
+            digits += Long.toString(f.nextLong()).length();
+        }
+        return digits;
+    }
+
+    static Map<String, CgroupCollector.Pod> byUid(List<CgroupCollector.Pod> pods) {
+        Map<String, CgroupCollector.Pod> byUid = new TreeMap<>();
+        for (CgroupCollector.Pod p : pods) {
+            assertEquals(null, byUid.put(p.getUid(), p), "twice: " + p.getUid());
+        }
+        return byUid;
+    }
+
+    static void assertValues(long n, boolean later, CgroupCollector.Pod pod) {
+        assertNotNull(pod);
+        Map<String, Double> expected = CgroupTree.expected(n, later);
+        assertEquals(CgroupCollector.FIELDS.length, expected.size());
+        for (int i = 0; i < CgroupCollector.FIELDS.length; i++) {
+            String name = CgroupCollector.FIELDS[i].getName();
+            assertEquals(expected.get(name), pod.get(i), 1e-9 * n, pod.getUid() + " " + name);
+        }
+    }
+
+    static int field(String name) {
+        for (int i = 0; i < CgroupCollector.FIELDS.length; i++) {
+            if (CgroupCollector.FIELDS[i].getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new AssertionError("no field " + name);
+    }
+
+    static Path dir(CgroupCollector.Pod pod) {
+        return pod.dir;
+    }
+}
@@ -0,0 +1,182 @@
+package net.p0f.openshift.metrics.collector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/*
+ * A kubepods.slice laid out as the kubelet does with the systemd driver,
+ * in a temporary directory, with pods whose files hold values derived from
+ * a single number, so that what is read can be checked against expected().
+ *
+ * Pods are put together next to the tree and moved into it in one go, as
+ * cgroupfs has all the files of a cgroup there as soon as it is created.
+ */
+public final class CgroupTree {
+    final Path root;
+    final Path staging;
+    final List<CgroupCollector> collectors = new ArrayList<>();
+
+    public CgroupTree(Path tmp) throws IOException {
+        this.root = Files.createDirectories(tmp.resolve("kubepods.slice"));
+        this.staging = Files.createDirectories(tmp.resolve("staging"));
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /*
+     * A collector of the tree, with the given milliseconds between full
+     * rescans.
+     */
+    public CgroupCollector collector(long rescanPeriod) {
+        CgroupCollector c = new CgroupCollector();
+        c.root = this.root.toString();
+        c.rescanPeriod = rescanPeriod;
+        this.collectors.add(c);
+        return c;
+    }
+
+    // Closes the files and watch services of the collectors.
+    public void close() {
+        for (CgroupCollector c : this.collectors) {
+            c.close();
+        }
+    }
+
+    /*
+     * Adds the cgroup of a pod of the QoS class, "guaranteed" ones right
+     * below the root, creating the one of the class if need be.
+     */
+    public Path pod(String qos, String uid, long n) throws IOException {
+        String slice = uid.replace('-', '_');
+        Path parent = this.root;
+        String name = "kubepods-pod" + slice + ".slice";
+        if (!"guaranteed".equals(qos)) {
+            parent = Files.createDirectories(this.root.resolve("kubepods-" + qos + ".slice"));
+            name = "kubepods-" + qos + "-pod" + slice + ".slice";
+        }
+        Path staged = Files.createDirectory(this.staging.resolve(name));
+        write(staged, "cpu.stat", cpuStat(n));
+        write(staged, "memory.current", (n << 20) + "\n");
+        write(staged, "memory.stat", memoryStat(n, false));
+        write(staged, "io.stat", "8:0 rbytes=" + n + " wbytes=" + 2 * n + " rios=" + 3 * n + " wios=" + 4 * n
+                + " dbytes=" + 5 * n + " dios=" + 6 * n + "\n"
+                + "259:0 rbytes=" + 10 * n + " wbytes=" + 20 * n + " rios=" + 30 * n + " wios=" + 40 * n
+                + " dbytes=" + 50 * n + " dios=" + 60 * n + "\n");
+        for (String resource : new String[] { "cpu", "memory", "io" }) {
+            write(staged, resource + ".pressure", "some avg10=0.12 avg60=0.05 avg300=0.01 total=" + 1000 * n + "\n"
+                    + "full avg10=0.00 avg60=0.00 avg300=0.00 total=" + 500 * n + "\n");
+        }
+        return Files.move(staged, parent.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void remove(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    // Over what was there, keeping the file (and the channels open on it).
+    public static void write(Path pod, String file, String contents) throws IOException {
+        Files.write(pod.resolve(file), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String cpuStat(long n) {
+        return "usage_usec " + 1_000_000 * n + "\n"
+                + "user_usec " + 600_000 * n + "\n"
+                + "system_usec " + 400_000 * n + "\n"
+                + "core_sched.force_idle_usec 0\n"
+                + "nr_periods " + 10 * n + "\n"
+                + "nr_throttled " + n + "\n"
+                + "throttled_usec " + 5000 * n + "\n"
+                + "nr_bursts 0\n"
+                + "burst_usec 0\n";
+    }
+
+    /*
+     * As written by 5.14 kernels, or else with the lines of later ones
+     * (sec_pagetables, zswap) and without file_writeback, which is
+     * then expected to read zero.
+     */
+    public static String memoryStat(long n, boolean later) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("anon ").append(100 * n).append('\n');
+        sb.append("file ").append(200 * n).append('\n');
+        // Not kernel_stack.
+        sb.append("kernel 999\n");
+        sb.append("kernel_stack ").append(3 * n).append('\n');
+        sb.append("pagetables 999\n");
+        if (later) {
+            sb.append("sec_pagetables 999\n");
+        }
+        sb.append("percpu 999\n");
+        sb.append("sock ").append(5 * n).append('\n');
+        sb.append("shmem ").append(6 * n).append('\n');
+        if (later) {
+            sb.append("zswap 999\n");
+            sb.append("zswapped 999\n");
+        }
+        sb.append("file_mapped 999\n");
+        sb.append("file_dirty ").append(7 * n).append('\n');
+        if (!later) {
+            sb.append("file_writeback ").append(8 * n).append('\n');
+        }
+        sb.append("anon_thp 999\n");
+        sb.append("slab_reclaimable 999\n");
+        sb.append("slab ").append(4 * n).append('\n');
+        sb.append("pgfault ").append(9 * n).append('\n');
+        sb.append("pgmajfault ").append(10 * n).append('\n');
+        sb.append("workingset_refault_anon ").append(11 * n).append('\n');
+        sb.append("workingset_refault_file ").append(12 * n).append('\n');
+        sb.append("workingset_activate_anon 999\n");
+        return sb.toString();
+    }
+
+    /*
+     * The values a pod of the given number reads, by field name, in base
+     * units.
+     */
+    public static Map<String, Double> expected(long n, boolean later) {
+        Map<String, Double> v = new HashMap<>();
+        v.put("pod.cpu.usage", 1.0 * n);
+        v.put("pod.cpu.user", 0.6 * n);
+        v.put("pod.cpu.system", 0.4 * n);
+        v.put("pod.cpu.periods", 10.0 * n);
+        v.put("pod.cpu.throttled.periods", 1.0 * n);
+        v.put("pod.cpu.throttled", 0.005 * n);
+        v.put("pod.memory.current", (double) (n << 20));
+        v.put("pod.memory.anon", 100.0 * n);
+        v.put("pod.memory.file", 200.0 * n);
+        v.put("pod.memory.kernel.stack", 3.0 * n);
+        v.put("pod.memory.slab", 4.0 * n);
+        v.put("pod.memory.sock", 5.0 * n);
+        v.put("pod.memory.shmem", 6.0 * n);
+        v.put("pod.memory.file.dirty", 7.0 * n);
+        v.put("pod.memory.file.writeback", later ? 0 : 8.0 * n);
+        v.put("pod.memory.fault.minor", 9.0 * n);
+        v.put("pod.memory.fault.major", 10.0 * n);
+        v.put("pod.memory.refault.anon", 11.0 * n);
+        v.put("pod.memory.refault.file", 12.0 * n);
+        v.put("pod.io.read.bytes", 11.0 * n);
+        v.put("pod.io.write.bytes", 22.0 * n);
+        v.put("pod.io.read.ops", 33.0 * n);
+        v.put("pod.io.write.ops", 44.0 * n);
+        v.put("pod.io.discard.bytes", 55.0 * n);
+        v.put("pod.io.discard.ops", 66.0 * n);
+        for (String resource : new String[] { "cpu", "memory", "io" }) {
+            v.put("pod.pressure." + resource + ".some", 0.001 * n);
+            v.put("pod.pressure." + resource + ".full", 0.0005 * n);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,162 @@
+package net.p0f.openshift.metrics.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Records resolved against a fake /proc, with the cgroup paths CRI-O,
+ * containerd and Docker give their containers, parents that are gone or
+ * whose pid has been reused by the time the records are read, and children
+ * resolved through what is cached of their parents alone.
+ */
+class ContainerResolverTest {
+    static final String A = "a".repeat(64);
+    static final String B = "0123456789abcdef".repeat(4);
+    static final String POD = "kubepods-burstable-pod0a1b2c3d_0000_4000_8000_00000000000a.slice";
+
+    @TempDir
+    Path tmp;
+
+    Path proc;
+    ContainerResolver resolver;
+    // Epoch seconds, well after boot.
+    long now;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.proc = Files.createDirectories(this.tmp.resolve("proc"));
+        this.now = System.currentTimeMillis() / 1000;
+        Files.writeString(this.proc.resolve("stat"), "cpu  1 2 3 4\nintr 12345\nctxt 678\nbtime "
+                + (this.now - 86400) + "\nprocesses 4242\n");
+        this.resolver = new ContainerResolver();
+        this.resolver.enabled = true;
+        this.resolver.cacheSize = 64;
+        this.resolver.procRoot = this.proc.toString();
+        this.resolver.init();
+    }
+
+    @Test
+    void cgroupPathStyles() throws IOException {
+        String[] cgroups = {
+                // CRI-O with the systemd driver.
+                "0::/kubepods.slice/kubepods-burstable.slice/" + POD + "/crio-" + A + ".scope",
+                // containerd, with the systemd and the cgroupfs driver.
+                "0::/kubepods.slice/kubepods-burstable.slice/" + POD + "/cri-containerd-" + A + ".scope",
+                "0::/kubepods/burstable/pod0a1b2c3d-0000-4000-8000-00000000000a/" + A,
+                // Docker, on cgroup v1 with the controllers listed one by one.
+                "12:pids:/docker/" + A + "\n11:memory:/docker/" + A + "\n0::/",
+                "0::/system.slice/docker-" + A + ".scope",
+        };
+        for (int i = 0; i < cgroups.length; i++) {
+            int parent = 1000 + i;
+            process(parent, this.now - 60, "sh (x) y", cgroups[i]);
+            assertEquals(A, this.resolver.resolve(2000 + i, parent, this.now - 10, this.now), cgroups[i]);
+        }
+
+        // Not containers at all.
+        process(1100, this.now - 60, "conmon", "0::/kubepods.slice/kubepods-burstable.slice/" + POD
+                + "/crio-conmon-" + A + ".scope");
+        assertEquals("", this.resolver.resolve(2100, 1100, this.now - 10, this.now));
+        process(1101, this.now - 60, "sshd", "0::/system.slice/sshd.service");
+        assertEquals("", this.resolver.resolve(2101, 1101, this.now - 10, this.now));
+        // No parent.
+        assertEquals("", this.resolver.resolve(1, 0, this.now - 86400, this.now));
+    }
+
+    @Test
+    void startTimeAfterOddNames() throws IOException {
+        process(10, this.now - 60, ") 1 2 3 (", "0::/");
+        assertEquals(this.now - 60, this.resolver.startTime(10));
+        assertEquals(-1, this.resolver.startTime(11));
+    }
+
+    @Test
+    void childrenThroughCachedParents() throws IOException {
+        process(100, this.now - 600, "java", crio(A));
+        process(300, this.now - 300, "sh", crio(A));
+        // A grandchild of 100 exits first, while its parent 300 is still there.
+        assertEquals(A, this.resolver.resolve(400, 300, this.now - 200, this.now - 190));
+
+        // Then 300 and 100 are gone, and the rest is told from the cache.
+        kill(300);
+        kill(100);
+        assertEquals(A, this.resolver.resolve(401, 300, this.now - 100, this.now - 90));
+        // 300 itself, whose parent was never looked up.
+        assertEquals(A, this.resolver.resolve(300, 100, this.now - 300, this.now - 50));
+        // And a child of the grandchild, cached as it exited.
+        assertEquals(A, this.resolver.resolve(500, 401, this.now - 95, this.now - 92));
+
+        // Started after 300 exited, so that can no longer be its parent.
+        assertEquals("", this.resolver.resolve(402, 300, this.now - 40, this.now - 30));
+    }
+
+    @Test
+    void pidReuse() throws IOException {
+        process(100, this.now - 600, "java", crio(A));
+        assertEquals(A, this.resolver.resolve(200, 100, this.now - 500, this.now - 400));
+
+        // 100 exits, and its pid goes to a process of another container.
+        assertEquals(A, this.resolver.resolve(100, 1, this.now - 600, this.now - 300));
+        process(100, this.now - 250, "python", crio(B));
+        assertEquals(B, this.resolver.resolve(201, 100, this.now - 200, this.now - 150));
+
+        // Records of processes started before the new 100 was.
+        process(102, this.now - 100, "sh", crio(B));
+        assertEquals("", this.resolver.resolve(202, 102, this.now - 200, this.now - 150));
+
+        // 200 again, as another process with another parent.
+        assertEquals(B, this.resolver.resolve(200, 100, this.now - 100, this.now - 90));
+        assertEquals(B, this.resolver.resolve(200, 100, this.now - 100, this.now - 90));
+    }
+
+    @Test
+    void goneIsNotForever() throws IOException {
+        // Gone before its records were read: unknown, for anything started so far.
+        assertEquals("", this.resolver.resolve(700, 600, this.now - 50, this.now - 40));
+        process(600, this.now - 20, "java", crio(A));
+        assertEquals("", this.resolver.resolve(701, 600, this.now - 10, this.now - 5));
+
+        // Whereas processes started since are looked up again, finding the
+        // new 600.
+        assertEquals(A, this.resolver.resolve(702, 600, this.now + 10, this.now + 15));
+    }
+
+    @Test
+    void outsideContainersIsKnown() throws IOException {
+        // A host process: not in any container, for as long as it runs.
+        process(800, this.now - 600, "systemd", "0::/init.scope");
+        assertEquals("", this.resolver.resolve(900, 800, this.now - 50, this.now - 40));
+        // Even if its /proc entry said otherwise later on.
+        process(800, this.now - 600, "systemd", crio(A));
+        assertEquals("", this.resolver.resolve(901, 800, this.now + 10, this.now + 15));
+    }
+
+    static String crio(String id) {
+        return "0::/kubepods.slice/kubepods-burstable.slice/" + POD + "/crio-" + id + ".scope";
+    }
+
+    // A process as found in /proc, with its start time in epoch seconds.
+    void process(int pid, long start, String comm, String cgroup) throws IOException {
+        Path dir = Files.createDirectories(this.proc.resolve(Integer.toString(pid)));
+        long ticks = (start - this.resolver.bootTime) * ContainerResolver.USER_HZ;
+        // Fields 3 to 21, then the start time and some of what follows it.
+        Files.writeString(dir.resolve("stat"), pid + " (" + comm + ") S 1 " + pid + " " + pid
+                + " 0 -1 4194560 1234 0 0 0 5 3 0 0 20 0 1 0 " + ticks + " 12345678 321 18446744073709551615\n");
+        Files.writeString(dir.resolve("cgroup"), cgroup + "\n");
+    }
+
+    void kill(int pid) throws IOException {
+        try (Stream<Path> s = Files.walk(this.proc.resolve(Integer.toString(pid)))) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
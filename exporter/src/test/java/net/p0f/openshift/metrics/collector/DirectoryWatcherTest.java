@@ -0,0 +1,168 @@
+package net.p0f.openshift.metrics.collector;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.p0f.openshift.metrics.archive.DumpArchive;
+
+/*
+ * Dumps renamed into the watched directory the way the collectors do it,
+ * each of which must reach its endpoint exactly once, and be moved to
+ * done/ or, when the routes archive it, deleted.
+ */
+class DirectoryWatcherTest {
+    @TempDir
+    Path tmp;
+
+    Path dir;
+    Path staging;
+    DefaultCamelContext context;
+    // What reached the endpoints: endpoint, body and modification time.
+    final BlockingQueue<Object[]> received = new LinkedBlockingQueue<>();
+    DirectoryWatcher watcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        this.dir = Files.createDirectories(this.tmp.resolve("metrics"));
+        this.staging = Files.createDirectories(this.tmp.resolve("staging"));
+        this.context = new DefaultCamelContext();
+        this.context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from(DirectoryWatcher.SYSSTAT_ENDPOINT).process(e -> receive(DirectoryWatcher.SYSSTAT_ENDPOINT, e));
+                from(DirectoryWatcher.PSACCT_ENDPOINT).process(e -> receive(DirectoryWatcher.PSACCT_ENDPOINT, e));
+            }
+        });
+        this.context.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (this.watcher != null) {
+            this.watcher.onStop(null);
+        }
+        this.context.stop();
+    }
+
+    void receive(String endpoint, Exchange e) {
+        this.received.add(new Object[] { endpoint, e.getIn().getBody(byte[].class),
+                e.getIn().getHeader(Exchange.FILE_LAST_MODIFIED, Long.class) });
+    }
+
+    // Archiving or not, as far as the watcher needs to know.
+    void start(boolean archive) throws IOException {
+        this.watcher = new DirectoryWatcher();
+        this.watcher.dataPath = this.dir.toString();
+        this.watcher.ingest = "watch";
+        this.watcher.sysstatSource = "sadf";
+        this.watcher.psacctSource = "sa";
+        this.watcher.producer = this.context.createProducerTemplate();
+        this.watcher.dumpArchive = new DumpArchive() {
+            @Override
+            public boolean isEnabled() {
+                return archive;
+            }
+        };
+        this.watcher.onStart(null);
+    }
+
+    @Test
+    void movedToDone() throws Exception {
+        start(false);
+        byte[] dump = "{\"sysstat\": {}}".getBytes(StandardCharsets.US_ASCII);
+        long modified = rename("sysstat-dump.json", dump);
+
+        Object[] r = next();
+        assertEquals(DirectoryWatcher.SYSSTAT_ENDPOINT, r[0]);
+        assertArrayEquals(dump, (byte[]) r[1]);
+        assertEquals(modified, r[2]);
+        assertNull(this.received.poll(500, TimeUnit.MILLISECONDS), "received twice");
+
+        assertFalse(Files.exists(this.dir.resolve("sysstat-dump.json")));
+        List<Path> done = done();
+        assertEquals(1, done.size(), done.toString());
+        assertTrue(done.get(0).getFileName().toString().startsWith("sysstat-"), done.toString());
+        assertArrayEquals(dump, Files.readAllBytes(done.get(0)));
+    }
+
+    @Test
+    void deletedWhenArchived() throws Exception {
+        start(true);
+        for (int i = 0; i < 3; i++) {
+            byte[] dump = ("      1       0.00re       0.00u       0.00s       0avio     1234k   dump-" + i + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            rename("psacct-dump-all", dump);
+            Object[] r = next();
+            assertEquals(DirectoryWatcher.PSACCT_ENDPOINT, r[0]);
+            assertArrayEquals(dump, (byte[]) r[1]);
+            assertFalse(Files.exists(this.dir.resolve("psacct-dump-all")));
+        }
+        assertNull(this.received.poll(500, TimeUnit.MILLISECONDS), "received twice");
+        assertFalse(Files.exists(this.dir.resolve("done")));
+    }
+
+    @Test
+    void writtenBeforeStart() throws Exception {
+        byte[] dump = "{}".getBytes(StandardCharsets.US_ASCII);
+        rename("sysstat-dump.json", dump);
+        start(true);
+        assertArrayEquals(dump, (byte[]) next()[1]);
+        assertNull(this.received.poll(500, TimeUnit.MILLISECONDS), "received twice");
+    }
+
+    @Test
+    void othersLeftAlone() throws Exception {
+        start(true);
+        rename("sysstat-dump.json.tmp", new byte[] { '{' });
+        rename("psacct-dump", new byte[] { 'x' });
+        assertNull(this.received.poll(500, TimeUnit.MILLISECONDS));
+        assertTrue(Files.exists(this.dir.resolve("sysstat-dump.json.tmp")));
+        assertTrue(Files.exists(this.dir.resolve("psacct-dump")));
+    }
+
+    // Written elsewhere, then renamed into place. Returns its modification time.
+    long rename(String name, byte[] contents) throws IOException {
+        Path staged = Files.write(this.staging.resolve(name), contents);
+        long modified = System.currentTimeMillis() / 1000 * 1000 - 60000;
+        Files.setLastModifiedTime(staged, FileTime.fromMillis(modified));
+        Files.move(staged, this.dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        return modified;
+    }
+
+    Object[] next() throws InterruptedException {
+        Object[] r = this.received.poll(10, TimeUnit.SECONDS);
+        assertNotNull(r, "nothing received");
+        return r;
+    }
+
+    List<Path> done() throws IOException {
+        try (Stream<Path> s = Files.walk(this.dir.resolve("done"))) {
+            return s.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package net.p0f.openshift.metrics.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.p0f.openshift.metrics.exporter.ExecHistograms;
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Synthetic acct_v3 files, appended to, truncated and rotated the way the
+ * kernel and the psacct sidecar do it.
+ */
+class PacctReaderTest {
+    @TempDir
+    Path tmp;
+
+    Path pacct;
+    PacctReader reader;
+
+    @BeforeEach
+    void setUp() {
+        this.pacct = this.tmp.resolve("pacct");
+        this.reader = new PacctReader();
+        this.reader.dataPath = this.tmp.toString();
+        this.reader.nodeIdentity = NodeIdentity.fixed("node");
+        // Both off by default.
+        this.reader.execHistograms = new ExecHistograms();
+        this.reader.containerResolver = new ContainerResolver();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.reader.close();
+    }
+
+    @Test
+    void noFileYet() throws IOException {
+        assertTrue(this.reader.readNewRecords().isEmpty());
+        append(this.pacct, record("ls", 0, 10, 1, 2));
+        assertEquals(1, calls(this.reader.readNewRecords()).get("ls"));
+    }
+
+    @Test
+    void decodesRecords() throws IOException {
+        ByteBuffer forked = record("bash", PacctReader.AFORK, 250, 0, 0);
+        // comp_t: 13 bit mantissa, 3 bit base-8 exponent, so 2 * 8^1 and 3 * 8^2 ticks.
+        append(this.pacct, record("cc1", 0, 1500, (1 << 13) | 2, (2 << 13) | 3), forked,
+                record("cc1", 0, 500, 100, 4), bigEndian(record("ls", 0, 25, 1, 0)));
+
+        Map<String, ProcessAccountingRecord> records = byName(this.reader.readNewRecords());
+        assertEquals(3, records.size());
+
+        ProcessAccountingRecord cc1 = records.get("cc1");
+        assertEquals(2, cc1.getNumCalls());
+        assertEquals(20.0f, cc1.getElapsedTime(), 1e-4);
+        assertEquals((16 + 100) / 100f, cc1.getUserTime(), 1e-4);
+        assertEquals((192 + 4) / 100f, cc1.getSystemTime(), 1e-4);
+        assertEquals(2 * 7, cc1.getMinFaults());
+        assertEquals(2 * 1, cc1.getMajFaults());
+        assertEquals("node", cc1.getHostName());
+        assertEquals("", cc1.getContainerName());
+
+        // Forked but never exec'd, named like sa does.
+        assertEquals(1, records.get("bash*").getNumCalls());
+        assertEquals(2.5f, records.get("bash*").getElapsedTime(), 1e-4);
+        assertEquals(0.25f, records.get("ls").getElapsedTime(), 1e-4);
+    }
+
+    @Test
+    void skipsOtherVersions() throws IOException {
+        ByteBuffer v2 = record("old", 0, 1, 1, 1);
+        v2.put(1, (byte) 2);
+        append(this.pacct, v2, record("new", 0, 1, 1, 1));
+        assertEquals(Map.of("new", 1), calls(this.reader.readNewRecords()));
+    }
+
+    @Test
+    void readsOnlyAppendedWholeRecords() throws IOException {
+        append(this.pacct, record("a", 0, 1, 1, 1), record("a", 0, 1, 1, 1));
+        assertEquals(2, calls(this.reader.readNewRecords()).get("a"));
+        assertTrue(this.reader.readNewRecords().isEmpty());
+
+        // Half a record is left for later.
+        ByteBuffer b = record("b", 0, 1, 1, 1);
+        append(this.pacct, record("a", 0, 1, 1, 1), slice(b, 0, 20));
+        assertEquals(Map.of("a", 1), calls(this.reader.readNewRecords()));
+        append(this.pacct, slice(b, 20, PacctReader.RECORD_SIZE));
+        assertEquals(Map.of("b", 1), calls(this.reader.readNewRecords()));
+    }
+
+    @Test
+    void startsOverWhenTruncated() throws IOException {
+        append(this.pacct, record("a", 0, 1, 1, 1), record("a", 0, 1, 1, 1));
+        this.reader.readNewRecords();
+        Files.write(this.pacct, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+        append(this.pacct, record("b", 0, 1, 1, 1));
+        assertEquals(Map.of("b", 1), calls(this.reader.readNewRecords()));
+    }
+
+    /*
+     * The sidecar renames the file and creates a new one before switching
+     * accounting over, so the kernel may append to the old one after the
+     * new one has been seen.
+     */
+    @Test
+    void drainsRotatedFileUntilItStopsGrowing() throws IOException {
+        Path old = this.tmp.resolve("pacct.old");
+        append(this.pacct, record("a", 0, 1, 1, 1), record("a", 0, 1, 1, 1));
+        assertEquals(Map.of("a", 2), calls(this.reader.readNewRecords()));
+
+        Files.move(this.pacct, old);
+        append(this.pacct);
+        append(old, record("a", 0, 1, 1, 1));
+        assertEquals(Map.of("a", 1), calls(this.reader.readNewRecords()));
+        assertNotNull(this.reader.retired);
+
+        // Not switched over yet.
+        append(old, record("b", 0, 1, 1, 1), record("b", 0, 1, 1, 1));
+        assertEquals(Map.of("b", 2), calls(this.reader.readNewRecords()));
+        assertNotNull(this.reader.retired);
+
+        // Switched over, the old file has not grown since the last read.
+        append(this.pacct, record("c", 0, 1, 1, 1));
+        assertEquals(Map.of("c", 1), calls(this.reader.readNewRecords()));
+        assertNull(this.reader.retired);
+
+        append(this.pacct, record("c", 0, 1, 1, 1));
+        assertEquals(Map.of("c", 1), calls(this.reader.readNewRecords()));
+    }
+
+    @Test
+    void drainsRotatedFileWhenRotatedAgain() throws IOException {
+        Path old = this.tmp.resolve("pacct.old");
+        append(this.pacct, record("a", 0, 1, 1, 1));
+        this.reader.readNewRecords();
+        Files.move(this.pacct, old);
+        append(this.pacct);
+        this.reader.readNewRecords();
+
+        // Both rotated away in between two reads.
+        append(old, record("a", 0, 1, 1, 1));
+        append(this.pacct, record("b", 0, 1, 1, 1));
+        Files.move(this.pacct, old, StandardCopyOption.REPLACE_EXISTING);
+        append(this.pacct, record("c", 0, 1, 1, 1));
+        assertEquals(Map.of("a", 1, "b", 1, "c", 1), calls(this.reader.readNewRecords()));
+    }
+
+    /*
+     * A struct acct_v3 in little endian, with the given command, flags and
+     * times in ticks (elapsed as a float, user and system as comp_t).
+     */
+    static ByteBuffer record(String command, int flags, float elapsed, int user, int system) {
+        ByteBuffer b = ByteBuffer.allocate(PacctReader.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(0, (byte) flags);
+        b.put(1, (byte) PacctReader.ACCT_VERSION);
+        b.putInt(16, 4242);
+        b.putInt(20, 1);
+        b.putInt(24, 1686733960);
+        b.putFloat(28, elapsed);
+        b.putShort(32, (short) user);
+        b.putShort(34, (short) system);
+        b.putShort(42, (short) 7);
+        b.putShort(44, (short) 1);
+        byte[] comm = command.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < comm.length && i < 15; i++) {
+            b.put(48 + i, comm[i]);
+        }
+        return b;
+    }
+
+    // The same record as written by a big endian kernel.
+    static ByteBuffer bigEndian(ByteBuffer le) {
+        ByteBuffer b = ByteBuffer.allocate(PacctReader.RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        b.put(0, le.get(0));
+        b.put(1, (byte) (le.get(1) | PacctReader.ACCT_BYTEORDER));
+        for (int i = 16; i < 28; i += 4) {
+            b.putInt(i, le.getInt(i));
+        }
+        b.putFloat(28, le.getFloat(28));
+        for (int i = 32; i < 48; i += 2) {
+            b.putShort(i, le.getShort(i));
+        }
+        for (int i = 48; i < 64; i++) {
+            b.put(i, le.get(i));
+        }
+        return b;
+    }
+
+    static ByteBuffer slice(ByteBuffer b, int from, int to) {
+        ByteBuffer s = b.duplicate();
+        s.position(from).limit(to);
+        return s;
+    }
+
+    static void append(Path file, ByteBuffer... records) throws IOException {
+        try (FileChannel fc = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (ByteBuffer r : records) {
+                ByteBuffer d = r.duplicate();
+                while (d.hasRemaining()) {
+                    fc.write(d);
+                }
+            }
+        }
+    }
+
+    static Map<String, ProcessAccountingRecord> byName(List<ProcessAccountingRecord> records) {
+        Map<String, ProcessAccountingRecord> byName = new HashMap<>();
+        for (ProcessAccountingRecord par : records) {
+            byName.put(par.getProcessName(), par);
+        }
+        return byName;
+    }
+
+    static Map<String, Integer> calls(List<ProcessAccountingRecord> records) {
+        Map<String, Integer> calls = new HashMap<>();
+        for (ProcessAccountingRecord par : records) {
+            calls.merge(par.getProcessName(), par.getNumCalls(), Integer::sum);
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,230 @@
+package net.p0f.openshift.metrics.collector;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+/*
+ * Two snapshots of /proc (t0 and t1) taken ten seconds apart, with /sys
+ * telling whole disks and link speeds. The expected figures are worked
+ * out by hand from the deltas in the fixture files.
+ */
+class ProcfsCollectorTest {
+    static final float EPSILON = 1e-4f;
+    static final long SECOND = 1_000_000_000L;
+
+    @TempDir
+    Path tmp;
+
+    Path fixtures;
+    ProcfsCollector collector;
+
+    @BeforeEach
+    void setUp() throws URISyntaxException {
+        this.fixtures = Paths.get(ProcfsCollectorTest.class.getResource("procfs").toURI());
+        this.collector = new ProcfsCollector();
+        this.collector.procRoot = this.tmp.resolve("proc").toString();
+        this.collector.sysRoot = this.fixtures.resolve("sys").toString();
+    }
+
+    @Test
+    void firstCycleOnlyPrimes() throws IOException {
+        snapshot("t0");
+        assertNull(this.collector.collectAt(0));
+        snapshot("t1");
+        assertNotNull(this.collector.collectAt(10 * SECOND));
+    }
+
+    @Test
+    void countsNodeCpus() throws IOException {
+        SysstatMeasurement sm = collect();
+        assertEquals(2, sm.getNumCpus());
+        assertEquals(3, sm.getCpuLoad().size());
+    }
+
+    @Test
+    void cpuLoad() throws IOException {
+        SysstatMeasurement sm = collect();
+        for (SysstatMeasurement.CpuLoad cl : sm.getCpuLoad()) {
+            // Guest time is taken out of user time.
+            assertEquals(5, cl.getUsr(), EPSILON, cl.getCpu());
+            assertEquals(5, cl.getGuest(), EPSILON, cl.getCpu());
+            assertEquals(0, cl.getNice(), EPSILON, cl.getCpu());
+            assertEquals(5, cl.getSys(), EPSILON, cl.getCpu());
+            assertEquals(80, cl.getIdle(), EPSILON, cl.getCpu());
+            assertEquals(2, cl.getIowait(), EPSILON, cl.getCpu());
+            assertEquals(1, cl.getIrq(), EPSILON, cl.getCpu());
+            assertEquals(1, cl.getSoft(), EPSILON, cl.getCpu());
+            assertEquals(1, cl.getSteal(), EPSILON, cl.getCpu());
+        }
+        assertEquals("all", sm.getCpuLoad().get(0).getCpu());
+        assertEquals("1", sm.getCpuLoad().get(2).getCpu());
+    }
+
+    @Test
+    void cpuLoadOfCountersGoingBack() {
+        long[] prev = { 100, 0, 100, 1000, 0, 0, 0, 0, 0, 0 };
+        long[] raw = { 50, 0, 200, 1900, 0, 0, 0, 0, 0, 0 };
+        SysstatMeasurement.CpuLoad cl = ProcfsCollector.cpuLoad("0", raw, prev);
+        assertEquals(0, cl.getUsr(), EPSILON);
+        assertEquals(10, cl.getSys(), EPSILON);
+        assertEquals(90, cl.getIdle(), EPSILON);
+
+        cl = ProcfsCollector.cpuLoad("0", raw, null);
+        assertEquals(0, cl.getIdle(), EPSILON);
+    }
+
+    @Test
+    void rates() throws IOException {
+        SysstatMeasurement sm = collect();
+        assertEquals(5000, sm.getProcessAndContextSwitch().getCswch(), EPSILON);
+        assertEquals(30, sm.getProcessAndContextSwitch().getProc(), EPSILON);
+
+        SysstatMeasurement.Paging pg = sm.getPaging();
+        assertEquals(100, pg.getPgpgin(), EPSILON);
+        assertEquals(300, pg.getPgpgout(), EPSILON);
+        assertEquals(5000, pg.getFault(), EPSILON);
+        assertEquals(1, pg.getMajflt(), EPSILON);
+        assertEquals(5000, pg.getPgfree(), EPSILON);
+        assertEquals(20, pg.getPgscank(), EPSILON);
+        assertEquals(0, pg.getPgscand(), EPSILON);
+        assertEquals(15, pg.getPgsteal(), EPSILON);
+        assertEquals(75, pg.getVmeffPercent(), EPSILON);
+
+        SysstatMeasurement.Psi psi = sm.getPsi();
+        assertEquals(4, psi.getPsiCpu().getSomeAvg10(), EPSILON);
+        assertEquals(5, psi.getPsiCpu().getSomeAvg(), EPSILON);
+        assertEquals(1, psi.getPsiIo().getSomeAvg(), EPSILON);
+        assertEquals(0.5f, psi.getPsiIo().getFullAvg(), EPSILON);
+    }
+
+    @Test
+    void rateOfCounter() {
+        long[] prev = { 100 };
+        assertEquals(5, ProcfsCollector.rate(150, prev, 0, 10), EPSILON);
+        assertEquals(150, prev[0]);
+        // Reset or wrapped, not negative.
+        assertEquals(0, ProcfsCollector.rate(20, prev, 0, 10), EPSILON);
+        assertEquals(20, prev[0]);
+        // No interval yet.
+        assertEquals(0, ProcfsCollector.rate(1000, prev, 0, 0), EPSILON);
+    }
+
+    @Test
+    void disks() throws IOException {
+        SysstatMeasurement sm = collect();
+        // Neither the partition nor the unused loop device.
+        assertEquals(1, sm.getDisk().size());
+
+        SysstatMeasurement.Disk d = sm.getDisk().get(0);
+        assertEquals("dev8-0", d.getDiskDevice());
+        assertEquals(40, d.getTps(), EPSILON);
+        assertEquals(100, d.getRkB(), EPSILON);
+        assertEquals(300, d.getWkB(), EPSILON);
+        assertEquals(0, d.getDkB(), EPSILON);
+        assertEquals(10, d.getAreqSz(), EPSILON);
+        assertEquals(3, d.getAwait(), EPSILON);
+        assertEquals(1.2f, d.getAquSz(), EPSILON);
+        assertEquals(25, d.getUtilPercent(), EPSILON);
+
+        SysstatMeasurement.Io io = sm.getIo();
+        assertEquals(40, io.getTps(), EPSILON);
+        assertEquals(10, io.getIoReads().getRtps(), EPSILON);
+        assertEquals(30, io.getIoWrites().getWtps(), EPSILON);
+        assertEquals(200, io.getIoReads().getBread(), EPSILON);
+        assertEquals(600, io.getIoWrites().getBwrtn(), EPSILON);
+    }
+
+    @Test
+    void network() throws IOException {
+        SysstatMeasurement sm = collect();
+        List<SysstatMeasurement.Network.NetDev> devs = sm.getNetwork().getNetDev();
+        assertEquals(List.of("lo", "eth0"), devs.stream().map(d -> d.getIface()).collect(Collectors.toList()));
+
+        SysstatMeasurement.Network.NetDev eth0 = devs.get(1);
+        assertEquals(100, eth0.getRxkB(), EPSILON);
+        assertEquals(50, eth0.getTxkB(), EPSILON);
+        assertEquals(200, eth0.getRxpck(), EPSILON);
+        assertEquals(100, eth0.getTxpck(), EPSILON);
+        assertEquals(5, eth0.getRxmcst(), EPSILON);
+        // 100 KiB/s of a 1 Gb/s link.
+        assertEquals(0.08192f, eth0.getIfutilPercent(), EPSILON);
+        assertEquals(1, sm.getNetwork().getNetEDev().get(1).getRxdrop(), EPSILON);
+        assertEquals(0, devs.get(0).getIfutilPercent(), EPSILON);
+
+        // Read through the same file from one cycle to the next.
+        ProcFile speed = this.collector.prevNet.get("eth0").speedFile;
+        this.collector.collectAt(20 * SECOND);
+        assertSame(speed, this.collector.prevNet.get("eth0").speedFile);
+    }
+
+    @Test
+    void gauges() throws IOException {
+        SysstatMeasurement sm = collect();
+        assertEquals("worker-0", sm.getHostname());
+
+        SysstatMeasurement.Memory m = sm.getMemory();
+        assertEquals(5000000, m.getMemused());
+        assertEquals(31.25f, m.getMemusedPercent(), EPSILON);
+        assertEquals(75, m.getCommitPercent(), EPSILON);
+        assertEquals(0, m.getSwpusedPercent(), EPSILON);
+
+        SysstatMeasurement.Hugepages hp = sm.getHugepages();
+        assertEquals(8192, hp.getHugfree());
+        assertEquals(24576, hp.getHugused());
+        assertEquals(75, hp.getHugusedPercent(), EPSILON);
+
+        SysstatMeasurement.Queue q = sm.getQueue();
+        // Not counting the exporter itself.
+        assertEquals(2, q.getRunqSz());
+        assertEquals(815, q.getPlistSz());
+        assertEquals(2, q.getBlocked());
+        assertEquals(1.92f, q.getLdavg1(), EPSILON);
+
+        SysstatMeasurement.Kernel k = sm.getKernel();
+        assertEquals(590000, k.getDentunusd());
+        assertEquals(36768, k.getFileNr());
+        assertEquals(312415, k.getInodeNr());
+        assertEquals(1, k.getPtyNr());
+    }
+
+    SysstatMeasurement collect() throws IOException {
+        snapshot("t0");
+        this.collector.collectAt(0);
+        snapshot("t1");
+        return this.collector.collectAt(10 * SECOND);
+    }
+
+    // Replaces the files under the proc root with those of a snapshot.
+    void snapshot(String name) throws IOException {
+        Path from = this.fixtures.resolve(name);
+        Path to = this.tmp.resolve("proc");
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Path target = to.resolve(from.relativize(f).toString());
+                if (Files.isDirectory(f)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(f, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+    }
+}
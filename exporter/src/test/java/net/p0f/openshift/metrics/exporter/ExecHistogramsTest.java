@@ -0,0 +1,107 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.Collector;
+
+/*
+ * Histograms kept per command and container, up to the limit, beyond which
+ * commands share those of TopKProcesses.OTHER, and what they are scraped as.
+ */
+class ExecHistogramsTest {
+    ExecHistograms histograms;
+    PrometheusMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        this.histograms = new ExecHistograms();
+        this.histograms.prometheusRegistry = this.registry;
+        this.histograms.sweeper = new MeterSweeper();
+        this.histograms.nodeIdentity = NodeIdentity.fixed("worker-0");
+        this.histograms.maxCommands = 3;
+        this.histograms.octaves = 3;
+        this.histograms.subBuckets = 2;
+        this.histograms.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.histograms.close();
+    }
+
+    @Test
+    void keyedByContainer() {
+        this.histograms.record("java", "c1", 150, 1, 1);
+        this.histograms.record("java", "c2", 50, 1, 1);
+        this.histograms.record("java", "c1", 50, 1, 1);
+        // A real command called "other".
+        this.histograms.record("other", "", 1, 1, 1);
+        // Beyond the limit, wherever they run.
+        this.histograms.record("sh", "c1", 1, 1, 1);
+        this.histograms.record("awk", "", 1, 1, 1);
+        this.histograms.record("java", "c3", 1000, 1, 1);
+
+        Map<String, Double> counts = counts("psacct_exec_elapsed_seconds_count");
+        assertEquals(Map.of("c1/java", 2.0, "c2/java", 1.0, "/other", 1.0, "/" + TopKProcesses.OTHER, 3.0), counts);
+        assertEquals(4, this.histograms.size);
+        assertEquals(2.0, counts("psacct_exec_elapsed_seconds_sum").get("c1/java"), 1e-9);
+        assertEquals(10.02, counts("psacct_exec_elapsed_seconds_sum").get("/" + TopKProcesses.OTHER), 1e-9);
+
+        String scrape = this.registry.scrape();
+        assertTrue(scrape.contains(
+                "psacct_exec_elapsed_seconds_bucket{container=\"c1\",host=\"worker-0\",process=\"java\",le=\"0.01\",} 0.0"),
+                scrape);
+        assertTrue(scrape.contains(
+                "psacct_exec_elapsed_seconds_bucket{container=\"c1\",host=\"worker-0\",process=\"java\",le=\"+Inf\",} 2.0"),
+                scrape);
+        assertTrue(scrape.contains(
+                "psacct_exec_user_seconds_count{container=\"c2\",host=\"worker-0\",process=\"java\",} 1.0"), scrape);
+    }
+
+    @Test
+    void roomAgainOnceRemoved() {
+        this.histograms.record("java", "c1", 1, 1, 1);
+        this.histograms.record("sh", "c1", 1, 1, 1);
+        this.histograms.record("ls", "c2", 1, 1, 1);
+        this.histograms.record("cat", "c2", 1, 1, 1);
+        assertEquals(4, this.histograms.size);
+
+        this.histograms.remove(this.histograms.commands.get("c2").get("ls"));
+        assertEquals(3, this.histograms.size);
+        this.histograms.remove(this.histograms.commands.get("c1").get("java"));
+        this.histograms.remove(this.histograms.commands.get("c1").get("sh"));
+        assertEquals(Set.of(""), this.histograms.commands.keySet());
+
+        this.histograms.record("cat", "c2", 1, 1, 1);
+        this.histograms.record("cat", "c3", 1, 1, 1);
+        assertEquals(Map.of("c2/cat", 1.0, "c3/cat", 1.0, "/" + TopKProcesses.OTHER, 1.0),
+                counts("psacct_exec_elapsed_seconds_count"));
+    }
+
+    // Values of the samples of the name, by container and process.
+    Map<String, Double> counts(String name) {
+        Map<String, Double> counts = new TreeMap<>();
+        for (Collector.MetricFamilySamples family : this.histograms.collect()) {
+            for (Collector.MetricFamilySamples.Sample s : family.samples) {
+                if (s.name.equals(name)) {
+                    assertEquals(ExecHistograms.LABELS, s.labelNames);
+                    assertEquals("worker-0", s.labelValues.get(1));
+                    counts.put(s.labelValues.get(0) + "/" + s.labelValues.get(2), s.value);
+                }
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,89 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Bucket layouts, which bucket values on and around the bounds go into,
+ * the overflow bucket, and the "le" labels the bounds become.
+ */
+class LogLinearHistogramTest {
+    @Test
+    void bounds() {
+        assertArrayEquals(new double[] { 1, 1.5, 2, 3, 4, 6, 8 }, LogLinearHistogram.bounds(3, 2));
+        assertArrayEquals(new double[] { 1, 1.25, 1.5, 1.75, 2, 2.5, 3, 3.5, 4 }, LogLinearHistogram.bounds(2, 4));
+        assertArrayEquals(new double[] { 1, 2, 4, 8, 16 }, LogLinearHistogram.bounds(4, 1));
+        assertEquals(33, LogLinearHistogram.bounds(16, 2).length);
+    }
+
+    @Test
+    void bucketEdges() {
+        LogLinearHistogram h = new LogLinearHistogram(LogLinearHistogram.bounds(3, 2), 2);
+        // Up to one unit, nothing at all included.
+        assertEquals(0, h.index(0));
+        assertEquals(0, h.index(-5));
+        assertEquals(0, h.index(Double.NaN));
+        assertEquals(0, h.index(1));
+        // Sub-buckets of the first octave, (1, 1.5] and (1.5, 2].
+        assertEquals(1, h.index(Math.nextUp(1.0)));
+        assertEquals(1, h.index(1.5));
+        assertEquals(2, h.index(Math.nextUp(1.5)));
+        // Powers of two close the octave below.
+        assertEquals(2, h.index(2));
+        assertEquals(3, h.index(Math.nextUp(2.0)));
+        assertEquals(4, h.index(4));
+        assertEquals(5, h.index(5));
+        assertEquals(6, h.index(8));
+        // Then the overflow bucket.
+        assertEquals(7, h.index(Math.nextUp(8.0)));
+        assertEquals(7, h.index(1e12));
+        assertEquals(7, h.index(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    void everyBoundClosesItsBucket() {
+        for (int subBuckets : new int[] { 1, 2, 3, 4, 5, 8 }) {
+            double[] bounds = LogLinearHistogram.bounds(20, subBuckets);
+            LogLinearHistogram h = new LogLinearHistogram(bounds, subBuckets);
+            for (int i = 0; i < bounds.length; i++) {
+                String at = subBuckets + " sub-buckets, bound " + bounds[i];
+                assertEquals(i, h.index(bounds[i]), at);
+                assertEquals(i + 1, h.index(Math.nextUp(bounds[i])), at);
+                if (i > 0) {
+                    assertEquals(i, h.index((bounds[i - 1] + bounds[i]) / 2), at);
+                }
+            }
+        }
+    }
+
+    @Test
+    void countsAndSum() {
+        LogLinearHistogram h = new LogLinearHistogram(LogLinearHistogram.bounds(3, 2), 2);
+        for (double v : new double[] { 0, 1, 1.2, 2, 2, 7, 100 }) {
+            h.record(v);
+        }
+        long[] cumulative = new long[h.counts.length];
+        assertEquals(7, h.cumulativeCounts(cumulative));
+        assertArrayEquals(new long[] { 2, 3, 5, 5, 5, 5, 6, 7 }, cumulative);
+        assertEquals(113.2, h.getSum(), 1e-9);
+    }
+
+    @Test
+    void leLabels() {
+        String[] le = ExecHistograms.le(LogLinearHistogram.bounds(16, 2));
+        assertEquals(34, le.length);
+        // Ticks of 10ms, in seconds.
+        assertEquals("0.01", le[0]);
+        assertEquals("0.015", le[1]);
+        assertEquals("0.02", le[2]);
+        assertEquals("0.03", le[3]);
+        assertEquals("491.52", le[31]);
+        assertEquals("655.36", le[32]);
+        assertEquals("+Inf", le[33]);
+        for (int i = 1; i < le.length - 1; i++) {
+            assertEquals(1, Double.compare(Double.parseDouble(le[i]), Double.parseDouble(le[i - 1])), le[i]);
+        }
+    }
+}
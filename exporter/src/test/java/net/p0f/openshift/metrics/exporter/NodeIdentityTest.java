@@ -0,0 +1,95 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * Where the node name comes from, and that it only changes when resolved
+ * again on purpose. NODE_NAME must not be set for these to run.
+ */
+class NodeIdentityTest {
+    @TempDir
+    Path tmp;
+
+    Path hostname;
+    NodeIdentity ni;
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(System.getenv("NODE_NAME") == null);
+        this.hostname = this.tmp.resolve("hostname");
+        this.ni = new NodeIdentity();
+        this.ni.configuredName = Optional.empty();
+        this.ni.hostnameFile = this.hostname.toString();
+    }
+
+    @Test
+    void configuredNameFirst() throws IOException {
+        Files.writeString(this.hostname, "from-file\n");
+        this.ni.configuredName = Optional.of(" configured ");
+        this.ni.init();
+        assertEquals("configured", this.ni.getName());
+        this.ni.offer("from-sysstat");
+        assertEquals("configured", this.ni.getName());
+    }
+
+    @Test
+    void hostnameFileNext() throws IOException {
+        Files.writeString(this.hostname, "from-file\n");
+        this.ni.init();
+        assertEquals("from-file", this.ni.getName());
+        this.ni.offer("from-sysstat");
+        assertEquals("from-file", this.ni.getName());
+    }
+
+    @Test
+    void sysstatOverLocalHost() {
+        this.ni.init();
+        assertEquals(NodeIdentity.SOURCE_LOCALHOST, this.ni.source);
+        this.ni.offer("");
+        assertEquals(NodeIdentity.SOURCE_LOCALHOST, this.ni.source);
+        this.ni.offer("from-sysstat");
+        assertEquals("from-sysstat", this.ni.getName());
+
+        // And kept over the local host name when resolving again.
+        assertEquals("from-sysstat", this.ni.refresh());
+    }
+
+    @Test
+    void changesOnlyWhenRefreshed() throws IOException {
+        Files.writeString(this.hostname, "before");
+        this.ni.init();
+        String before = this.ni.getName();
+
+        Files.writeString(this.hostname, "after");
+        for (int i = 0; i < 1000; i++) {
+            assertSame(before, this.ni.getName());
+        }
+        assertEquals("after", this.ni.refresh());
+        assertNotEquals(before, this.ni.getName());
+    }
+
+    @Test
+    void fixedIsNeverResolved() {
+        NodeIdentity fixed = NodeIdentity.fixed("node");
+        assertEquals("node", fixed.getName());
+        fixed.offer("from-sysstat");
+        assertEquals("node", fixed.getName());
+
+        NodeIdentity unnamed = NodeIdentity.fixed(null);
+        assertEquals(NodeIdentity.UNRESOLVABLE, unnamed.getName());
+        unnamed.offer("from-sysstat");
+        assertEquals("from-sysstat", unnamed.getName());
+    }
+}
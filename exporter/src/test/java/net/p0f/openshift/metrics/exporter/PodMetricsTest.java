@@ -0,0 +1,110 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.p0f.openshift.metrics.collector.CgroupCollector;
+import net.p0f.openshift.metrics.collector.CgroupTree;
+
+/*
+ * The meters of the pods of a synthetic cgroup tree (see CgroupTree), as
+ * pods come and go: registered once per pod, reading whatever was read
+ * last, and removed with the pod.
+ */
+class PodMetricsTest {
+    static final String A = "0a1b2c3d-0000-4000-8000-00000000000a";
+    static final String B = "0a1b2c3d-0000-4000-8000-00000000000b";
+
+    @TempDir
+    Path tmp;
+
+    CgroupTree tree;
+    CgroupCollector collector;
+    SimpleMeterRegistry mr;
+    PodMetrics metrics;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.tree = new CgroupTree(this.tmp);
+        // Rescanning every time, so that nothing depends on inotify.
+        this.collector = this.tree.collector(0);
+        this.mr = new SimpleMeterRegistry();
+        this.metrics = new PodMetrics();
+        this.metrics.mr = this.mr;
+        this.metrics.nodeIdentity = NodeIdentity.fixed("worker-0");
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.tree.close();
+    }
+
+    @Test
+    void followsPods() throws IOException {
+        Path a = this.tree.pod("guaranteed", A, 1);
+        this.tree.pod("burstable", B, 2);
+        this.metrics.update(this.collector.collect());
+        assertEquals(2 * CgroupCollector.FIELDS.length, this.mr.getMeters().size());
+        assertEquals(rounded(CgroupTree.expected(1, false)), values(A));
+        assertEquals(rounded(CgroupTree.expected(2, false)), values(B));
+        Meter usage = this.mr.get("pod.cpu.usage").tag("pod_uid", A).meter();
+        assertTrue(usage instanceof FunctionCounter);
+        assertTrue(this.mr.get("pod.memory.current").tag("pod_uid", A).meter() instanceof Gauge);
+        assertEquals("burstable", this.mr.get("pod.cpu.usage").tag("pod_uid", B).meter().getId().getTag("qos"));
+
+        // New values through the same meters.
+        CgroupTree.write(a, "cpu.stat", CgroupTree.cpuStat(30));
+        this.metrics.update(this.collector.collect());
+        assertSame(usage, this.mr.get("pod.cpu.usage").tag("pod_uid", A).meter());
+        assertEquals(30, this.mr.get("pod.cpu.usage").tag("pod_uid", A).functionCounter().count(), 1e-9);
+        assertEquals(2 * CgroupCollector.FIELDS.length, this.mr.getMeters().size());
+
+        // Gone, and back as another cgroup.
+        this.tree.remove(a);
+        this.metrics.update(this.collector.collect());
+        assertEquals(CgroupCollector.FIELDS.length, this.mr.getMeters().size());
+        assertEquals(0, this.mr.find("pod.cpu.usage").tag("pod_uid", A).meters().size());
+        assertEquals(rounded(CgroupTree.expected(2, false)), values(B));
+
+        this.tree.pod("guaranteed", A, 4);
+        this.metrics.update(this.collector.collect());
+        assertEquals(2 * CgroupCollector.FIELDS.length, this.mr.getMeters().size());
+        assertEquals(rounded(CgroupTree.expected(4, false)), values(A));
+    }
+
+    // What the meters of the pod read, by name.
+    Map<String, Double> values(String uid) {
+        Map<String, Double> values = new TreeMap<>();
+        for (Meter m : this.mr.getMeters()) {
+            if (!uid.equals(m.getId().getTag("pod_uid"))) {
+                continue;
+            }
+            assertEquals("worker-0", m.getId().getTag("host"));
+            values.put(m.getId().getName(), m instanceof FunctionCounter ? ((FunctionCounter) m).count()
+                    : ((Gauge) m).value());
+        }
+        return rounded(values);
+    }
+
+    // As exact as the scaling from microseconds allows.
+    static Map<String, Double> rounded(Map<String, Double> values) {
+        Map<String, Double> rounded = new TreeMap<>();
+        values.forEach((name, v) -> rounded.put(name, Math.round(v * 1e6) / 1e6));
+        return rounded;
+    }
+}
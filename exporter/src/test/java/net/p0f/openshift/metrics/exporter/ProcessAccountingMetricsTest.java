@@ -0,0 +1,278 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.event.NotificationOptions;
+import javax.enterprise.util.TypeLiteral;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics.ProcessKey;
+import net.p0f.openshift.metrics.exposition.Samples;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Records added and snapshots published from many threads at once, the way
+ * the psacct routes do it with parallel processing on. All the times are
+ * multiples of 1/8s, so the sums come out exact in doubles.
+ */
+class ProcessAccountingMetricsTest {
+    static final int THREADS = 8;
+    static final int PROCESSES = 50;
+    static final String HOST = "node";
+
+    SimpleMeterRegistry mr;
+    ProcessAccountingMetrics pam;
+    ExecutorService pool;
+
+    @BeforeEach
+    void setUp() {
+        this.mr = new SimpleMeterRegistry();
+        this.pam = new ProcessAccountingMetrics();
+        this.pam.mr = this.mr;
+        this.pam.sweeper = new MeterSweeper();
+        this.pam.sweeper.mr = this.mr;
+        this.pam.samples = new Fired();
+        this.pam.topKBy = "cpu";
+        this.pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    void builderSumsExactly() throws Exception {
+        init("gauge");
+        PsacctSnapshot.Builder builder = this.pam.beginSnapshot();
+        int perThread = 20000;
+        run(t -> {
+            for (int i = 0; i < perThread; i++) {
+                builder.add(record(i % PROCESSES));
+            }
+        });
+
+        long records = (long) THREADS * perThread;
+        assertEquals(records, builder.getRecords());
+        PsacctSnapshot snapshot = builder.build();
+        assertEquals(PROCESSES, snapshot.size());
+        assertTotals(records / PROCESSES, snapshot.getValues().get(key(0)));
+        assertTotals(records / PROCESSES, snapshot.getValues().get(key(PROCESSES - 1)));
+    }
+
+    @Test
+    void publishesExactTotals() throws Exception {
+        init("counter");
+        int rounds = 200;
+        run(t -> {
+            for (int r = 0; r < rounds; r++) {
+                PsacctSnapshot.Builder builder = this.pam.beginSnapshot();
+                for (int p = 0; p < PROCESSES; p++) {
+                    this.pam.registerRecord(record(p), builder);
+                }
+                this.pam.publishSnapshot(builder);
+            }
+        });
+
+        long snapshots = (long) THREADS * rounds;
+        assertEquals(snapshots, this.pam.generations.get());
+        assertEquals(snapshots, ((Fired) this.pam.samples).fired.get());
+        assertEquals(snapshots * PROCESSES, (long) this.mr.get("psacct.snapshot.records").counter().count());
+        assertEquals(PROCESSES, this.pam.meters.size());
+        for (int p = 0; p < PROCESSES; p++) {
+            ProcessKey key = key(p);
+            assertTotals(snapshots, this.pam.meters.get(key).totals);
+            assertEquals(snapshots, (long) this.mr.get("psacct.invocation.total")
+                    .tags(ProcessAccountingMetrics.tags(key)).counter().count(), key.toString());
+            assertEquals(snapshots * 125, (long) this.mr.get("psacct.time.user")
+                    .tags(ProcessAccountingMetrics.tags(key)).functionCounter().count(), key.toString());
+        }
+    }
+
+    /*
+     * A snapshot published while the sweeper evicts a process must leave it
+     * with all its meters in the registry. The sweeper here publishes one
+     * right after the eviction callback, before it is done with the meters.
+     */
+    @Test
+    void publishesWhileEvicting() throws Exception {
+        AtomicBoolean publishing = new AtomicBoolean();
+        this.pam.sweeper = new MeterSweeper() {
+            @Override
+            public synchronized void track(Object key, Collection<Meter> meters, Runnable onEvict) {
+                super.track(key, meters, () -> {
+                    onEvict.run();
+                    if (publishing.compareAndSet(false, true)) {
+                        publish(0);
+                    }
+                });
+            }
+        };
+        this.pam.sweeper.mr = this.mr;
+        this.pam.sweeper.ttl = 1;
+        init("gauge");
+
+        publish(0);
+        Thread.sleep(10);
+        assertEquals(1, this.pam.sweeper.sweep());
+        assertTrue(publishing.get());
+        assertRegistered(key(0));
+    }
+
+    @Test
+    void retiresDemotedWhilePublishing() throws Exception {
+        this.pam.topK = 5;
+        this.pam.topKDecay = 0.5;
+        init("gauge");
+        int rounds = 300;
+        run(t -> {
+            for (int r = 0; r < rounds; r++) {
+                // Each thread pushes its own processes to the top in turn.
+                PsacctSnapshot.Builder builder = this.pam.beginSnapshot();
+                for (int p = 0; p < PROCESSES; p++) {
+                    ProcessAccountingRecord par = record(p);
+                    if (p % THREADS == t) {
+                        par.setUserTime(1000);
+                    }
+                    builder.add(par);
+                }
+                this.pam.publishSnapshot(builder);
+            }
+        });
+
+        PsacctSnapshot.Builder builder = this.pam.beginSnapshot();
+        this.pam.publishSnapshot(builder);
+        for (ProcessKey key : this.pam.meters.keySet()) {
+            assertRegistered(key);
+        }
+    }
+
+    // All the meters of the process in the map are the ones in the registry.
+    void assertRegistered(ProcessKey key) {
+        ProcessAccountingMetrics.ProcessMeters pm = this.pam.meters.get(key);
+        assertNotNull(pm, key.toString());
+        for (Meter m : pm.registered) {
+            assertSame(m, this.mr.find(m.getId().getName()).tags(m.getId().getTags()).meter(), m.getId().toString());
+        }
+    }
+
+    void publish(int... processes) {
+        PsacctSnapshot.Builder builder = this.pam.beginSnapshot();
+        for (int p : processes) {
+            builder.add(record(p));
+        }
+        this.pam.publishSnapshot(builder);
+    }
+
+    void init(String mode) {
+        this.pam.mode = mode;
+        this.pam.init();
+    }
+
+    // Runs the task on all the threads at once, rethrowing whatever failed.
+    void run(Task task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            futures.add(this.pool.submit(() -> {
+                start.await();
+                task.run(thread);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+    }
+
+    static ProcessKey key(int process) {
+        return new ProcessKey("proc-" + process, HOST);
+    }
+
+    static ProcessAccountingRecord record(int process) {
+        ProcessAccountingRecord par = new ProcessAccountingRecord();
+        par.setProcessName("proc-" + process);
+        par.setHostName(HOST);
+        par.setNumCalls(1);
+        par.setElapsedTime(0.5f);
+        par.setUserTime(0.125f);
+        par.setSystemTime(0.25f);
+        par.setMajFaults(1);
+        par.setMinFaults(3);
+        par.setSwapEvents(0);
+        return par;
+    }
+
+    // What the given number of the above records add up to.
+    static void assertTotals(long records, double[] v) {
+        assertEquals(records, (long) v[PsacctSnapshot.INVOCATIONS]);
+        assertEquals(records * 500, (long) v[PsacctSnapshot.ELAPSED]);
+        assertEquals(records * 125, (long) v[PsacctSnapshot.USER]);
+        assertEquals(records * 250, (long) v[PsacctSnapshot.SYSTEM]);
+        assertEquals(records, (long) v[PsacctSnapshot.MAJ_FAULTS]);
+        assertEquals(records * 3, (long) v[PsacctSnapshot.MIN_FAULTS]);
+        assertEquals(0, (long) v[PsacctSnapshot.SWAPS]);
+    }
+
+    interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    // Counts what would have gone to the observers.
+    static final class Fired implements Event<Samples> {
+        final AtomicLong fired = new AtomicLong();
+
+        @Override
+        public void fire(Samples event) {
+            this.fired.incrementAndGet();
+        }
+
+        @Override
+        public <U extends Samples> CompletionStage<U> fireAsync(U event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends Samples> CompletionStage<U> fireAsync(U event, NotificationOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Event<Samples> select(Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends Samples> Event<U> select(Class<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends Samples> Event<U> select(TypeLiteral<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+import net.p0f.openshift.metrics.processor.SysstatJsonReader;
+
+/*
+ * Every path of the descriptor tables resolved against the model, and the
+ * gauges registered from them checked against those registered one by one
+ * before there were tables (sysstat-series.txt): the same names, labels and
+ * getters.
+ *
+ * The sadf fixture is given a value of its own at every path first, so that
+ * a path resolved to the wrong field cannot go unnoticed for reading zero
+ * like the one it should have.
+ */
+class SysstatDescriptorsTest {
+    static final String SERIES = "/net/p0f/openshift/metrics/exporter/sysstat-series.txt";
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // The model class each table is resolved against.
+    static final Map<SysstatDescriptors.Table<?>, Class<?>> TYPES = Map.of(
+            SysstatDescriptors.NODE, SysstatMeasurement.class,
+            SysstatDescriptors.CPU, SysstatMeasurement.CpuLoad.class,
+            SysstatDescriptors.DISK, SysstatMeasurement.Disk.class,
+            SysstatDescriptors.NET_DEV, SysstatMeasurement.Network.NetDev.class,
+            SysstatDescriptors.NET_EDEV, SysstatMeasurement.Network.NetEDev.class,
+            SysstatDescriptors.SOFTNET, SysstatMeasurement.Network.Softnet.class);
+
+    JsonNode statistics;
+    SysstatMeasurement measurement;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        JsonNode root = MAPPER.readTree(SysstatDumpTest.dump());
+        this.statistics = root.path("sysstat").path("hosts").path(0).path("statistics").path(0);
+        int n = 0;
+        for (SysstatDescriptors.Table<?> t : SysstatDescriptors.TABLES) {
+            for (JsonNode object : objects(t)) {
+                for (SysstatDescriptors.Descriptor d : t.descriptors) {
+                    set(object, d.path, ++n);
+                }
+            }
+        }
+        this.measurement = SysstatJsonReader.read(new ByteArrayInputStream(
+                MAPPER.writeValueAsString(root).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void resolvesEveryPath() {
+        Map<SysstatDescriptors.Table<?>, List<?>> devices = Map.of(
+                SysstatDescriptors.CPU, this.measurement.getCpuLoad(),
+                SysstatDescriptors.DISK, this.measurement.getDisk(),
+                SysstatDescriptors.NET_DEV, this.measurement.getNetwork().getNetDev(),
+                SysstatDescriptors.NET_EDEV, this.measurement.getNetwork().getNetEDev(),
+                SysstatDescriptors.SOFTNET, this.measurement.getNetwork().getSoftnet());
+        for (SysstatDescriptors.Table<?> t : SysstatDescriptors.TABLES) {
+            List<JsonNode> objects = objects(t);
+            List<?> values = t.list == null ? List.of(this.measurement) : devices.get(t);
+            assertEquals(objects.size(), values.size(), t.kind);
+            for (int i = 0; i < objects.size(); i++) {
+                if (t.key != null) {
+                    assertEquals(objects.get(i).path(t.keyPath).asText(), key(t, values.get(i)), t.kind);
+                }
+                for (SysstatDescriptors.Descriptor d : t.descriptors) {
+                    double expected = at(objects.get(i), d.path).asDouble();
+                    assertEquals(expected, d.value.applyAsDouble(d.holder(values.get(i))), t.kind + " " + d.path);
+                }
+            }
+        }
+    }
+
+    @Test
+    void registersSameSeries() throws IOException {
+        // Name to labels and getter, as registered before.
+        Map<String, String> before = new TreeMap<>();
+        try (InputStream in = SysstatDescriptorsTest.class.getResourceAsStream(SERIES)) {
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                if (!line.startsWith("#")) {
+                    String[] f = line.split(" ");
+                    assertEquals(null, before.put(f[0], f[1] + " " + f[2]), "listed twice: " + f[0]);
+                }
+            }
+        }
+
+        Map<String, String> now = new TreeMap<>();
+        for (SysstatDescriptors.Table<?> t : SysstatDescriptors.TABLES) {
+            for (SysstatDescriptors.Descriptor d : t.descriptors) {
+                String labels = t.label == null ? "host" : "host," + t.label;
+                assertEquals(null, now.put(d.name, labels + " " + getter(TYPES.get(t), d.path).getName()),
+                        "two paths for " + d.name);
+            }
+        }
+        assertEquals(before, now);
+
+        // And as they actually end up in a registry, with their values.
+        SimpleMeterRegistry mr = new SimpleMeterRegistry();
+        SysstatMetrics metrics = new SysstatMetrics();
+        metrics.mr = mr;
+        metrics.nodeIdentity = NodeIdentity.fixed("worker-0");
+        metrics.expositionTable = new ExpositionTable();
+        metrics.exposition = "micrometer";
+        metrics.update(this.measurement);
+
+        Map<String, Integer> registered = new HashMap<>();
+        for (Meter m : mr.getMeters()) {
+            String name = m.getId().getName();
+            TreeSet<String> keys = new TreeSet<>();
+            for (Tag tag : m.getId().getTags()) {
+                keys.add(tag.getKey());
+            }
+            String labels = before.get(name);
+            assertNotNull(labels, "not registered before: " + name);
+            assertEquals(new TreeSet<>(List.of(labels.split(" ")[0].split(","))), keys, name);
+            assertEquals("worker-0", m.getId().getTag("host"));
+            registered.merge(name, 1, Integer::sum);
+        }
+        // One of each per node, and per device of the fixture.
+        assertEquals(before.keySet(), registered.keySet());
+        assertEquals(1, registered.get("sysstat.sched.sz.runq"));
+        assertEquals(this.measurement.getCpuLoad().size(), registered.get("sysstat.cpu.idle"));
+        assertEquals(this.measurement.getDisk().size(), registered.get("sysstat.io.dev.tps"));
+        assertEquals(this.measurement.getNetwork().getNetEDev().size(), registered.get("sysstat.net.if.err.xmit.fifo"));
+        assertEquals(this.measurement.getNetwork().getSoftnet().size(), registered.get("sysstat.net.irq.flowlimit"));
+
+        assertEquals(at(this.statistics, "queue.ldavg-15").asDouble(),
+                mr.get("sysstat.sched.load.15").gauge().value());
+        assertEquals(at(objects(SysstatDescriptors.DISK).get(1), "await").asDouble(),
+                mr.get("sysstat.io.dev.queue.wait").tag("blkdev", "dm-0").gauge().value());
+    }
+
+    // The JSON objects the paths of the table are relative to.
+    List<JsonNode> objects(SysstatDescriptors.Table<?> t) {
+        if (t.list == null) {
+            return List.of(this.statistics);
+        }
+        List<JsonNode> objects = new ArrayList<>();
+        at(this.statistics, t.list).forEach(objects::add);
+        return objects;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> String key(SysstatDescriptors.Table<T> t, Object value) {
+        return t.key.apply((T) value);
+    }
+
+    static JsonNode at(JsonNode node, String path) {
+        for (String field : path.split("\\.")) {
+            node = node.path(field);
+        }
+        return node;
+    }
+
+    static void set(JsonNode node, String path, int value) {
+        String[] fields = path.split("\\.");
+        for (int i = 0; i < fields.length - 1; i++) {
+            node = node.has(fields[i]) ? node.get(fields[i]) : ((ObjectNode) node).putObject(fields[i]);
+        }
+        ((ObjectNode) node).put(fields[fields.length - 1], value);
+    }
+
+    // The getter the value of the path finally comes from.
+    static Method getter(Class<?> type, String path) {
+        Method g = null;
+        for (String field : path.split("\\.")) {
+            g = SysstatDescriptors.getter(type, field);
+            type = g.getReturnType();
+        }
+        return g;
+    }
+}
@@ -0,0 +1,169 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.processor.SysstatJsonReader;
+
+/*
+ * The same sadf dumps read by the columns parser (processDump) and by the
+ * streaming one (SysstatJsonReader and update), which must come up with the
+ * same series, labels and values, as disks and interfaces get swapped,
+ * disappear and come back.
+ */
+class SysstatDumpTest {
+    static final String DUMP = "/net/p0f/openshift/metrics/processor/sysstat-dump.json";
+    static final String NVME_TPS = "sysstat_io_dev_tps{blkdev=\"nvme0n1\",host=\"worker-0\",} ";
+    static final String ENS_RECV = "sysstat_net_if_kb_recv{host=\"worker-0\",iface=\"ens3\",} ";
+
+    SysstatMetrics columns;
+    SysstatMetrics streaming;
+
+    @BeforeEach
+    void setUp() {
+        this.columns = SysstatMetrics.standalone("worker-0");
+        this.columns.samples = new ProcessAccountingMetricsTest.Fired();
+        this.streaming = SysstatMetrics.standalone("worker-0");
+    }
+
+    @Test
+    void sameAsStreaming() throws IOException {
+        List<String> lines = feed(dump());
+        // Statistics[0] only.
+        assertTrue(lines.contains("sysstat_sched_sz_runq{host=\"worker-0\",} 3.0"), lines.toString());
+        assertTrue(lines.contains(NVME_TPS + "112.7"), lines.toString());
+        assertTrue(lines.contains(ENS_RECV + "611.32"), lines.toString());
+    }
+
+    @Test
+    void devicesSwapped() throws IOException {
+        feed(dump());
+        List<String> lines = feed(swapped(dump()));
+        // The disks in the other order, each still with its own values.
+        assertTrue(lines.contains(NVME_TPS + "200.0"), lines.toString());
+        assertTrue(lines.contains("sysstat_io_dev_tps{blkdev=\"dm-0\",host=\"worker-0\",} 0.0"), lines.toString());
+        // ens3 replaced by ens4, which has its values.
+        assertFalse(lines.stream().anyMatch(l -> l.contains("iface=\"ens3\"")), lines.toString());
+        assertTrue(lines.contains(ENS_RECV.replace("ens3", "ens4") + "611.32"), lines.toString());
+
+        feed(dump());
+    }
+
+    @Test
+    void devicesGone() throws IOException {
+        feed(dump());
+        List<String> lines = feed(gone(dump()));
+        assertFalse(lines.stream().anyMatch(l -> l.contains("nvme0n1")), lines.toString());
+        assertFalse(lines.stream().anyMatch(l -> l.contains("iface=\"lo\"")), lines.toString());
+        assertTrue(lines.stream().anyMatch(l -> l.contains("dm-0")), lines.toString());
+
+        // And back, in rows given up before.
+        lines = feed(dump());
+        assertTrue(lines.contains(NVME_TPS + "112.7"), lines.toString());
+        feed(swapped(dump()));
+        feed(gone(swapped(dump())));
+        feed(dump());
+    }
+
+    /*
+     * Reads the dump both ways and returns what either renders, after
+     * checking it is the same.
+     */
+    List<String> feed(byte[] dump) throws IOException {
+        assertTrue(this.columns.processDump(new ByteArrayInputStream(dump)));
+        this.streaming.update(SysstatJsonReader.read(new ByteArrayInputStream(dump)));
+        List<String> lines = render(this.columns);
+        assertEquals(asFloats(render(this.streaming)), asFloats(lines));
+        return lines;
+    }
+
+    static List<String> render(SysstatMetrics m) {
+        ExpositionBuffer b = new ExpositionBuffer();
+        m.expositionTable.render(b);
+        List<String> lines = new ArrayList<>(Arrays.asList(
+                new String(b.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+        lines.removeIf(l -> l.startsWith("#"));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    /*
+     * The measurement model holds floats, whereas the columns are doubles
+     * parsed from the decimals as written, so values are compared as the
+     * floats nearest to them.
+     */
+    static List<String> asFloats(List<String> lines) {
+        List<String> out = new ArrayList<>(lines.size());
+        for (String l : lines) {
+            int blank = l.lastIndexOf(' ');
+            out.add(l.substring(0, blank + 1) + (float) Double.parseDouble(l.substring(blank + 1)));
+        }
+        return out;
+    }
+
+    static byte[] dump() throws IOException {
+        try (InputStream in = SysstatDumpTest.class.getResourceAsStream(DUMP)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /*
+     * The disks listed the other way round, nvme0n1 busier than before,
+     * and interface ens3 replaced by ens4.
+     */
+    static byte[] swapped(byte[] dump) {
+        List<String> lines = lines(dump);
+        int nvme = index(lines, l -> l.contains("\"disk-device\": \"nvme0n1\""));
+        int dm = index(lines, l -> l.contains("\"disk-device\": \"dm-0\""));
+        String first = lines.get(nvme).replace("\"tps\": 112.70", "\"tps\": 200.00");
+        lines.set(nvme, lines.get(dm) + ",");
+        lines.set(dm, first.substring(0, first.lastIndexOf(',')));
+        return join(lines.stream().map(l -> l.replace("\"ens3\"", "\"ens4\"")).collect(Collectors.toList()));
+    }
+
+    // Without nvme0n1 and lo.
+    static byte[] gone(byte[] dump) {
+        List<String> lines = lines(dump);
+        lines.removeIf(l -> l.contains("\"disk-device\": \"nvme0n1\"") || l.contains("\"iface\": \"lo\""));
+        // Whatever is last in its list now.
+        for (int i = 0; i + 1 < lines.size(); i++) {
+            if (lines.get(i + 1).trim().startsWith("]") && lines.get(i).endsWith(",")) {
+                lines.set(i, lines.get(i).substring(0, lines.get(i).length() - 1));
+            }
+        }
+        return join(lines);
+    }
+
+    static List<String> lines(byte[] dump) {
+        return new ArrayList<>(Arrays.asList(new String(dump, StandardCharsets.UTF_8).split("\n")));
+    }
+
+    static int index(List<String> lines, Predicate<String> p) {
+        for (int i = 0; i < lines.size(); i++) {
+            if (p.test(lines.get(i))) {
+                return i;
+            }
+        }
+        throw new AssertionError("not in the dump");
+    }
+
+    static byte[] join(List<String> lines) {
+        return String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,127 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+import net.p0f.openshift.metrics.processor.SysstatJsonReader;
+
+/*
+ * Measurements whose interfaces come, go and change places: every gauge in
+ * the registry must read the values of its own interface, those of new
+ * ones must be registered, and those of the ones that are gone removed.
+ */
+class SysstatMetricsTest {
+    static final String KB_RECV = "sysstat.net.if.kb.recv";
+    static final String RECV_DROP = "sysstat.net.if.err.recv.drop";
+
+    SimpleMeterRegistry mr;
+    SysstatMetrics metrics;
+    byte[] dump;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.mr = new SimpleMeterRegistry();
+        this.metrics = new SysstatMetrics();
+        this.metrics.mr = this.mr;
+        this.metrics.nodeIdentity = NodeIdentity.fixed("worker-0");
+        this.metrics.expositionTable = new ExpositionTable();
+        this.metrics.exposition = "micrometer";
+        this.dump = SysstatDumpTest.dump();
+    }
+
+    @Test
+    void followsInterfaces() throws IOException {
+        String[][] rounds = {
+                { "lo", "ens3" },
+                // Reordered.
+                { "ens3", "lo" },
+                // One added in between.
+                { "lo", "ens4", "ens3" },
+                // One gone, the others reordered.
+                { "ens3", "lo" },
+                { "ens4" },
+                // None at all.
+                {},
+                // Back again.
+                { "ens3", "eth0", "lo", "ens4" },
+        };
+        for (int round = 0; round < rounds.length; round++) {
+            this.metrics.update(measurement(round, rounds[round]));
+            Map<String, Double> expected = expected(round, rounds[round]);
+            assertEquals(expected, gauges(KB_RECV), "round " + round);
+            Map<String, Double> drops = new TreeMap<>();
+            expected.forEach((iface, v) -> drops.put(iface, v / 2));
+            assertEquals(drops, gauges(RECV_DROP), "round " + round);
+        }
+    }
+
+    @Test
+    void keepsFirstOfDuplicates() throws IOException {
+        SysstatMeasurement sm = measurement(0, "lo", "ens3");
+        SysstatMeasurement.Network.NetDev dup = new SysstatMeasurement.Network.NetDev();
+        dup.setIface("lo");
+        dup.setRxkB(-1);
+        sm.getNetwork().getNetDev().add(dup);
+        this.metrics.update(sm);
+        assertEquals(expected(0, "lo", "ens3"), gauges(KB_RECV));
+
+        this.metrics.update(measurement(1, "ens3", "lo"));
+        assertEquals(expected(1, "ens3", "lo"), gauges(KB_RECV));
+    }
+
+    // The fixture, with the interfaces given, each with values of its own.
+    SysstatMeasurement measurement(int round, String... ifaces) throws IOException {
+        SysstatMeasurement sm = SysstatJsonReader.read(new ByteArrayInputStream(this.dump));
+        List<SysstatMeasurement.Network.NetDev> devs = new ArrayList<>();
+        List<SysstatMeasurement.Network.NetEDev> edevs = new ArrayList<>();
+        for (String iface : ifaces) {
+            SysstatMeasurement.Network.NetDev d = new SysstatMeasurement.Network.NetDev();
+            d.setIface(iface);
+            d.setRxkB((float) value(round, iface));
+            devs.add(d);
+            SysstatMeasurement.Network.NetEDev e = new SysstatMeasurement.Network.NetEDev();
+            e.setIface(iface);
+            e.setRxdrop((float) value(round, iface) / 2);
+            edevs.add(e);
+        }
+        sm.getNetwork().setNetDev(devs);
+        sm.getNetwork().setNetEDev(edevs);
+        return sm;
+    }
+
+    static Map<String, Double> expected(int round, String... ifaces) {
+        Map<String, Double> expected = new TreeMap<>();
+        for (String iface : ifaces) {
+            expected.put(iface, value(round, iface));
+        }
+        return expected;
+    }
+
+    // Exact as a float, and different for every interface and round.
+    static double value(int round, String iface) {
+        return 1000 * round + 8 * (iface.hashCode() & 0x3f);
+    }
+
+    Map<String, Double> gauges(String name) {
+        Map<String, Double> values = new TreeMap<>();
+        for (Gauge g : this.mr.find(name).gauges()) {
+            assertEquals("worker-0", g.getId().getTag("host"));
+            Double previous = values.put(g.getId().getTag("iface"), g.value());
+            assertEquals(null, previous, "registered twice");
+        }
+        return values;
+    }
+}
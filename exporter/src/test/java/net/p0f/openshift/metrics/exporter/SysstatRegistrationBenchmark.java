@@ -0,0 +1,108 @@
+package net.p0f.openshift.metrics.exporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+/*
+ * Registering the gauges of every CPU of a 256-CPU measurement (plus
+ * "all"), from the descriptor table against the method references they
+ * were registered with before (registerCpu() as it was). Each invocation
+ * starts from an empty exposition table, and registry with "micrometer".
+ *
+ * Run with (-prof gc for allocation rates):
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       org.openjdk.jmh.Main SysstatRegistrationBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SysstatRegistrationBenchmark {
+    static final int CPUS = 256;
+
+    @Param({ "direct", "micrometer" })
+    String exposition;
+
+    List<SysstatMeasurement.CpuLoad> cpus;
+
+    @Setup
+    public void setUp() {
+        this.cpus = new ArrayList<>(CPUS + 1);
+        for (int i = -1; i < CPUS; i++) {
+            SysstatMeasurement.CpuLoad cl = new SysstatMeasurement.CpuLoad();
+            cl.setCpu(i < 0 ? "all" : Integer.toString(i));
+            cl.setUsr(12.41f + i);
+            cl.setSys(4.87f);
+            cl.setIowait(0.35f);
+            cl.setIdle(81.44f - i);
+            this.cpus.add(cl);
+        }
+    }
+
+    @Benchmark
+    public void descriptors(Blackhole bh) {
+        SysstatMetrics m = metrics();
+        for (SysstatMeasurement.CpuLoad cl : this.cpus) {
+            bh.consume(m.register(SysstatDescriptors.CPU, cl));
+        }
+    }
+
+    @Benchmark
+    public void methodReferences(Blackhole bh) {
+        SysstatMetrics m = metrics();
+        for (SysstatMeasurement.CpuLoad cl : this.cpus) {
+            bh.consume(registerCpu(m, cl));
+        }
+    }
+
+    SysstatMetrics metrics() {
+        SysstatMetrics m = SysstatMetrics.standalone("worker-0.ocp.example.com");
+        m.host = m.nodeIdentity.getName();
+        m.exposition = this.exposition;
+        m.expositionTable = new ExpositionTable();
+        if ("micrometer".equals(this.exposition)) {
+            m.mr = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        }
+        return m;
+    }
+
+    static List<Runnable> registerCpu(SysstatMetrics m, SysstatMeasurement.CpuLoad cl) {
+        Tags ctags = Tags.of("host", m.host, "cpu", cl.getCpu());
+        List<Runnable> dm = new ArrayList<>();
+
+        dm.add(m.gauge("sysstat.cpu.usr", ctags, cl::getUsr));
+        dm.add(m.gauge("sysstat.cpu.sys", ctags, cl::getSys));
+        dm.add(m.gauge("sysstat.cpu.nice", ctags, cl::getNice));
+        dm.add(m.gauge("sysstat.cpu.iowait", ctags, cl::getIowait));
+        dm.add(m.gauge("sysstat.cpu.steal", ctags, cl::getSteal));
+        dm.add(m.gauge("sysstat.cpu.irq", ctags, cl::getIrq));
+        dm.add(m.gauge("sysstat.cpu.soft", ctags, cl::getSoft));
+        dm.add(m.gauge("sysstat.cpu.guest", ctags, cl::getGuest));
+        dm.add(m.gauge("sysstat.cpu.gnice", ctags, cl::getGnice));
+        dm.add(m.gauge("sysstat.cpu.idle", ctags, cl::getIdle));
+        return dm;
+    }
+}
@@ -0,0 +1,193 @@
+package net.p0f.openshift.metrics.exporter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics.ProcessKey;
+
+/*
+ * The space-saving sketch against exact totals, its decay, and folding
+ * everything outside the top K into the reserved process name, including
+ * when a real command happens to be called "other".
+ */
+class TopKProcessesTest {
+    static final String HOST = "worker-0";
+
+    @Test
+    void staysWithinBounds() {
+        TopKProcesses t = new TopKProcesses(10, "cpu", 1);
+        Random r = new Random(42);
+        Map<ProcessKey, Double> exact = new HashMap<>();
+        double total = 0;
+        for (int gen = 1; gen <= 200; gen++) {
+            Map<ProcessKey, double[]> values = new HashMap<>();
+            for (int i = 0; i < 60; i++) {
+                // Skewed towards the first few, with a long tail of rare ones.
+                int p = (int) Math.floor(Math.pow(r.nextDouble(), 3) * 500);
+                double w = 1 + r.nextInt(8);
+                values.merge(key("proc-" + p), weighing(w), TopKProcessesTest::add);
+            }
+            for (Map.Entry<ProcessKey, double[]> e : values.entrySet()) {
+                double w = e.getValue()[PsacctSnapshot.USER] + e.getValue()[PsacctSnapshot.SYSTEM];
+                exact.merge(e.getKey(), w, Double::sum);
+                total += w;
+            }
+            t.fold(new PsacctSnapshot(gen, values));
+            assertHeap(t);
+        }
+
+        double counted = 0;
+        for (TopKProcesses.Counter c : t.counters.values()) {
+            double w = exact.getOrDefault(c.key, 0.0);
+            assertTrue(c.count - c.error <= w && w <= c.count, c.key + ": " + w + " in " + c.count + "-" + c.error);
+            counted += c.count;
+        }
+        // Every weight went into some counter.
+        assertEquals(total, counted);
+        // And anything heavier than the total over the counters has one.
+        for (Map.Entry<ProcessKey, Double> e : exact.entrySet()) {
+            if (e.getValue() > total / t.capacity) {
+                assertTrue(t.counters.containsKey(e.getKey()), e.getKey() + " with " + e.getValue());
+            }
+        }
+    }
+
+    @Test
+    void keepsHeavyHittersThroughChurn() {
+        TopKProcesses t = new TopKProcesses(5, "invocations", 0.95);
+        int fresh = 0;
+        for (int gen = 1; gen <= 50; gen++) {
+            Map<ProcessKey, double[]> values = new HashMap<>();
+            // Each above the total over the counters, as space-saving needs.
+            for (int i = 0; i < 5; i++) {
+                values.put(key("steady-" + i), invocations(100 + i));
+            }
+            // Randomly named temp binaries, each only ever seen once.
+            for (int i = 0; i < 1000; i++) {
+                values.put(key("tmp." + fresh++), invocations(1));
+            }
+            PsacctSnapshot folded = t.fold(new PsacctSnapshot(gen, values));
+            assertHeap(t);
+            assertEquals(t.capacity, t.counters.size());
+            assertEquals(6, folded.size());
+            assertEquals(1000, folded.get(key(TopKProcesses.OTHER), PsacctSnapshot.INVOCATIONS));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertTrue(t.isTracked(key("steady-" + i)));
+        }
+        assertFalse(t.isTracked(key("tmp.0")));
+    }
+
+    @Test
+    void decaysOldActivity() {
+        TopKProcesses decaying = new TopKProcesses(1, "cpu", 0.5);
+        TopKProcesses lasting = new TopKProcesses(1, "cpu", 1);
+        for (int gen = 1; gen <= 5; gen++) {
+            Map<ProcessKey, double[]> values = Map.of(key("build"), weighing(100), key("sshd"), weighing(10));
+            decaying.fold(new PsacctSnapshot(gen, values));
+            lasting.fold(new PsacctSnapshot(gen, values));
+        }
+        assertEquals(Set.of(key("build")), decaying.top);
+
+        // The build is over, sshd goes on.
+        for (int gen = 6; gen <= 15; gen++) {
+            Map<ProcessKey, double[]> values = Map.of(key("sshd"), weighing(10));
+            decaying.fold(new PsacctSnapshot(gen, values));
+            lasting.fold(new PsacctSnapshot(gen, values));
+        }
+        assertEquals(Set.of(key("sshd")), decaying.top);
+        assertEquals(Set.of(key("build")), lasting.top);
+    }
+
+    @Test
+    void foldsByContainer() {
+        TopKProcesses t = new TopKProcesses(2, "cpu", 0.95);
+        Map<ProcessKey, double[]> values = new HashMap<>();
+        // A real command called "other", busy enough to be in the top K.
+        values.put(key("other"), weighing(100));
+        values.put(key("java"), weighing(50));
+        values.put(key("sh"), weighing(1));
+        values.put(key("awk"), weighing(2));
+        values.put(new ProcessKey("sh", HOST, "c0ffee"), weighing(3));
+        Map<ProcessKey, double[]> copy = new HashMap<>();
+        values.forEach((k, v) -> copy.put(k, v.clone()));
+
+        PsacctSnapshot folded = t.fold(new PsacctSnapshot(7, values));
+        assertEquals(7, folded.getGeneration());
+        assertEquals(4, folded.size());
+        assertSame(values.get(key("other")), folded.getValues().get(key("other")));
+        assertEquals(3, folded.get(key(TopKProcesses.OTHER), PsacctSnapshot.USER));
+        assertEquals(2, folded.get(key(TopKProcesses.OTHER), PsacctSnapshot.INVOCATIONS));
+        assertEquals(3, folded.get(new ProcessKey(TopKProcesses.OTHER, HOST, "c0ffee"), PsacctSnapshot.USER));
+        // The snapshot folded from is left as it was.
+        values.forEach((k, v) -> assertArrayEquals(copy.get(k), v, k.toString()));
+
+        assertTrue(t.isTracked(key("other")));
+        assertTrue(t.isTracked(key(TopKProcesses.OTHER)));
+        assertFalse(t.isTracked(key("sh")));
+    }
+
+    @Test
+    void otherIsJustAnotherCommand() {
+        TopKProcesses t = new TopKProcesses(1, "cpu", 0.95);
+        Map<ProcessKey, double[]> values = new HashMap<>();
+        values.put(key("java"), weighing(100));
+        values.put(key("other"), weighing(5));
+        values.put(key("sh"), weighing(1));
+
+        PsacctSnapshot folded = t.fold(new PsacctSnapshot(1, values));
+        assertFalse(t.isTracked(key("other")));
+        assertFalse(folded.getValues().containsKey(key("other")));
+        assertEquals(6, folded.get(key(TopKProcesses.OTHER), PsacctSnapshot.USER));
+        // Longer than any command name can be.
+        assertTrue(TopKProcesses.OTHER.length() > 16);
+    }
+
+    static void assertHeap(TopKProcesses t) {
+        assertEquals(t.counters.size(), t.size);
+        for (int i = 0; i < t.size; i++) {
+            TopKProcesses.Counter c = t.heap[i];
+            assertEquals(i, c.index);
+            assertSame(c, t.counters.get(c.key));
+            if (i > 0) {
+                assertTrue(t.heap[(i - 1) / 2].count <= c.count, "heap order at " + i);
+            }
+        }
+    }
+
+    static ProcessKey key(String name) {
+        return new ProcessKey(name, HOST, "");
+    }
+
+    // One invocation of the given CPU time, split between user and system.
+    static double[] weighing(double cpu) {
+        double[] v = new double[PsacctSnapshot.FIELDS];
+        v[PsacctSnapshot.INVOCATIONS] = 1;
+        v[PsacctSnapshot.USER] = cpu;
+        return v;
+    }
+
+    static double[] invocations(int n) {
+        double[] v = new double[PsacctSnapshot.FIELDS];
+        v[PsacctSnapshot.INVOCATIONS] = n;
+        return v;
+    }
+
+    static double[] add(double[] a, double[] b) {
+        double[] sum = a.clone();
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,124 @@
+package net.p0f.openshift.metrics.exposition;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.prometheus.client.Collector;
+
+/*
+ * Numbers must come out exactly as the Prometheus client formats them,
+ * whether they take the integral shortcut or not, and text written through
+ * the Writer as String.getBytes(UTF_8) would encode it.
+ */
+class ExpositionBufferTest {
+    static final double PLAIN_LIMIT = 1e7;
+
+    @Test
+    void integralValues() {
+        check(0, 1, -1, 42, 1234567, -1234567);
+        check(-0.0);
+    }
+
+    @Test
+    void aroundPlainLimit() {
+        check(PLAIN_LIMIT - 1, PLAIN_LIMIT, PLAIN_LIMIT + 1);
+        check(-PLAIN_LIMIT + 1, -PLAIN_LIMIT, -PLAIN_LIMIT - 1);
+        check(Math.nextDown(PLAIN_LIMIT), Math.nextUp(PLAIN_LIMIT));
+        check(PLAIN_LIMIT - 0.5, PLAIN_LIMIT + 0.5);
+        check(1e15, 1e16, 9.007199254740993E15, Long.MAX_VALUE, Long.MIN_VALUE, 1e300);
+    }
+
+    @Test
+    void fractionsAndSmallValues() {
+        check(0.5, -0.5, 1.25, 0.001, 1e-3, 1e-4, Double.MIN_VALUE, Double.MAX_VALUE, 3.0e-10);
+        check(0.1 + 0.2, 2 / 3.0);
+    }
+
+    @Test
+    void nanAndInfinities() {
+        check(Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        ExpositionBuffer b = new ExpositionBuffer();
+        b.writeDouble(Double.POSITIVE_INFINITY);
+        b.writeDouble(Double.NEGATIVE_INFINITY);
+        b.writeDouble(Double.NaN);
+        assertEquals("+Inf-InfNaN", string(b));
+    }
+
+    @Test
+    void longs() {
+        ExpositionBuffer b = new ExpositionBuffer(1);
+        b.writeLong(0);
+        b.write((byte) ' ');
+        b.writeLong(-9);
+        b.write((byte) ' ');
+        b.writeLong(Long.MAX_VALUE);
+        b.write((byte) ' ');
+        b.writeLong(Long.MIN_VALUE);
+        assertEquals("0 -9 " + Long.MAX_VALUE + " " + Long.MIN_VALUE, string(b));
+    }
+
+    @Test
+    void growsAndResets() throws IOException {
+        ExpositionBuffer b = new ExpositionBuffer(4);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            b.writeAscii("x");
+            b.writeDouble(i + 0.5);
+            expected.append('x').append(i + 0.5);
+        }
+        assertEquals(expected.toString(), string(b));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        b.writeTo(out);
+        assertEquals(expected.toString(), out.toString(StandardCharsets.US_ASCII));
+
+        b.reset();
+        assertEquals(0, b.size());
+        b.write("abc".getBytes(StandardCharsets.US_ASCII), 1, 2);
+        assertEquals("bc", string(b));
+    }
+
+    @Test
+    void writerEncodesUtf8() throws IOException {
+        String s = "node_name{host=\"w\u00f6rker-\u0ca0_\u0ca0\",comm=\"\ud83d\ude00 \ud83d\"} 1.0\n";
+        ExpositionBuffer b = new ExpositionBuffer(1);
+        Writer w = b.writer();
+        w.write(s);
+        w.write('x');
+        w.write(s.toCharArray(), 3, 10);
+        // A pair split between writes.
+        w.write("a\ud83d");
+        w.write("\ude00b", 0, 2);
+        w.close();
+        String expected = s + "x" + s.substring(3, 13) + "a\ud83d\ude00b";
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), b.toByteArray());
+
+        // Nothing left over.
+        b.reset();
+        w.write("\ud83d");
+        b.reset();
+        w.write("\ude00");
+        assertArrayEquals("?".getBytes(StandardCharsets.UTF_8), b.toByteArray());
+        assertSame(w, b.writer());
+    }
+
+    static void check(double... values) {
+        for (double v : values) {
+            ExpositionBuffer b = new ExpositionBuffer(1);
+            b.writeDouble(v);
+            assertEquals(Collector.doubleToGoString(v), string(b), Double.toString(v));
+        }
+    }
+
+    static String string(ExpositionBuffer b) {
+        return new String(b.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
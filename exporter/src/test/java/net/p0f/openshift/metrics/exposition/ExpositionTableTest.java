@@ -0,0 +1,151 @@
+package net.p0f.openshift.metrics.exposition;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/*
+ * The table renders what the Prometheus registry would for the same
+ * gauges, also after series come and go. The registry orders families and
+ * series by hash, so the lines are compared sorted.
+ */
+class ExpositionTableTest {
+    ExpositionTable table;
+    PrometheusMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        this.table = new ExpositionTable();
+        this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    @Test
+    void encodesLabelsSortedAndEscaped() {
+        assertEquals("sysstat_cpu_usr{cpu=\"0\",host=\"node\",} ",
+                encode("sysstat_cpu_usr", Tags.of("host", "node", "cpu", "0")));
+        assertEquals("m{a=\"back\\\\slash\",b=\"\\\"quoted\\\"\",c=\"new\\nline\",} ",
+                encode("m", Tags.of("c", "new\nline", "b", "\"quoted\"", "a", "back\\slash")));
+        // Only backslash, quote and newline are escaped.
+        assertEquals("m{a=\"tab\there, \u00e9t\u00e9\",} ", encode("m", Tags.of("a", "tab\there, \u00e9t\u00e9")));
+        assertEquals("m{pod_uid=\"\",} ", encode("m", Tags.of("pod.uid", "")));
+        assertEquals("m ", encode("m", Tags.empty()));
+    }
+
+    @Test
+    void sanitizesNames() {
+        assertEquals("sysstat_cpu_usr", ExpositionTable.sanitize("sysstat.cpu.usr"));
+        assertEquals("_lives:x_y", ExpositionTable.sanitize("9lives:x-y"));
+        assertEquals("a1_b2", ExpositionTable.sanitize("a1.b2"));
+    }
+
+    @Test
+    void rendersSameAsRegistry() {
+        AtomicInteger n = new AtomicInteger(7);
+        gauge("sysstat.cpu.usr", Tags.of("cpu", "0", "host", "n\"x\\y\nz"), 1.5);
+        gauge("sysstat.cpu.usr", Tags.of("cpu", "1", "host", "n"), 1e7);
+        gauge("sysstat.cpu.usr", Tags.of("cpu", "2", "host", "n"), Double.NaN);
+        gauge("sysstat.memory.used", Tags.of("host", "n"), 123456789);
+        this.table.add("sysstat.queue.runq", Tags.of("host", "n"), n::get);
+        Gauge.builder("sysstat.queue.runq", n::get).tags(Tags.of("host", "n")).register(this.registry);
+
+        assertEquals(scrape(), render(this.table.capture()));
+        n.set(-3);
+        assertEquals(scrape(), render(this.table.capture()));
+    }
+
+    @Test
+    void layoutFollowsRemovals() {
+        List<ExpositionTable.Series> cpus = new ArrayList<>();
+        List<Meter> meters = new ArrayList<>();
+        for (int c = 0; c < 4; c++) {
+            cpus.add(this.table.add("sysstat.cpu.usr", Tags.of("cpu", "" + c), () -> 1));
+            meters.add(Gauge.builder("sysstat.cpu.usr", () -> 1).tags(Tags.of("cpu", "" + c)).register(this.registry));
+        }
+        ExpositionTable.Series memory = gauge("sysstat.memory.used", Tags.empty(), 2);
+        ExpositionTable.Snapshot before = this.table.capture();
+        ExpositionTable.Layout layout = before.layout;
+        assertSame(layout, this.table.capture().layout);
+
+        // Retired from the middle of a family.
+        this.table.remove(cpus.get(1));
+        this.registry.remove(meters.get(1));
+        ExpositionTable.Snapshot after = this.table.capture();
+        assertEquals(scrape(), render(after));
+        assertEquals(4, after.values.length);
+
+        // Gone from a family that is then empty, along with its header.
+        this.table.remove(memory);
+        this.registry.remove(this.registry.find("sysstat.memory.used").meter());
+        assertEquals(scrape(), render(this.table.capture()));
+        assertEquals(1, this.table.capture().layout.headers.length);
+
+        // Removing twice changes nothing.
+        ExpositionTable.Layout last = this.table.capture().layout;
+        this.table.remove(memory);
+        assertSame(last, this.table.capture().layout);
+
+        // And a family can come back.
+        gauge("sysstat.memory.used", Tags.empty(), 3);
+        assertEquals(scrape(), render(this.table.capture()));
+
+        // Snapshots taken earlier still render with their own layout.
+        assertEquals(5, before.values.length);
+        assertEquals(2, before.layout.headers.length);
+    }
+
+    @Test
+    void samplesKeepPrefixInstances() {
+        ExpositionTable.Series s = gauge("m", Tags.of("a", "b"), 1);
+        Samples first = this.table.capture().toSamples(Samples.SYSSTAT, 1);
+        Samples second = this.table.capture().toSamples(Samples.SYSSTAT, 2);
+        assertEquals(1, first.getCount());
+        assertSame(s.prefix, first.getSeries()[0]);
+        assertSame(first.getSeries()[0], second.getSeries()[0]);
+        assertArrayEquals(new double[] { 1 }, second.getValues());
+    }
+
+    // The same gauge in both the table and the registry.
+    ExpositionTable.Series gauge(String name, Tags tags, double value) {
+        Gauge.builder(name, () -> value).tags(tags).register(this.registry);
+        return this.table.add(name, tags, () -> value);
+    }
+
+    static String encode(String promName, Tags tags) {
+        return new String(ExpositionTable.encode(promName, tags), StandardCharsets.UTF_8);
+    }
+
+    List<String> scrape() {
+        return sorted(this.registry.scrape());
+    }
+
+    static List<String> render(ExpositionTable.Snapshot s) {
+        ExpositionBuffer b = new ExpositionBuffer(16);
+        s.render(b);
+        String text = new String(b.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(text.isEmpty() || text.endsWith("\n"));
+        return sorted(text);
+    }
+
+    static List<String> sorted(String text) {
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+}
@@ -0,0 +1,90 @@
+package net.p0f.openshift.metrics.exposition;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/*
+ * One scrape of the same gauges, rendered from the exposition table into a
+ * re-used buffer against the Micrometer registry's scrape(), both as a
+ * String and through the buffer's Writer. The series are
+ * shaped like those of a node: per CPU, per disk, per interface, per
+ * process, with a mix of integral and fractional values.
+ *
+ * Run with (-prof gc for allocation rates):
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       org.openjdk.jmh.Main ScrapeBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrapeBenchmark {
+    static final String[] FAMILIES = { "sysstat.cpu.usr", "sysstat.cpu.sys", "sysstat.cpu.idle",
+            "sysstat.disk.tps", "sysstat.disk.util", "sysstat.network.rxkb", "sysstat.network.txkb",
+            "psacct.invocation.count", "psacct.time.user", "psacct.time.system" };
+
+    // Series per family.
+    @Param({ "50", "500" })
+    int series;
+
+    ExpositionTable table;
+    ExpositionBuffer buffer;
+    PrometheusMeterRegistry registry;
+
+    @Setup
+    public void setUp() {
+        this.table = new ExpositionTable();
+        this.buffer = new ExpositionBuffer();
+        this.registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        for (String family : FAMILIES) {
+            for (int i = 0; i < this.series; i++) {
+                Tags tags = Tags.of("host", "worker-0.ocp.example.com", "instance", family + "-" + i);
+                double value = i % 2 == 0 ? i * 1000 : i / 7.0;
+                this.table.add(family, tags, () -> value);
+                Gauge.builder(family, () -> value).tags(tags).register(this.registry);
+            }
+        }
+        this.table.capture();
+    }
+
+    @Benchmark
+    public void table(Blackhole bh) {
+        this.buffer.reset();
+        this.table.render(this.buffer);
+        bh.consume(this.buffer.size());
+    }
+
+    @Benchmark
+    public void registry(Blackhole bh) {
+        bh.consume(this.registry.scrape());
+    }
+
+    // What ScrapeCache does with the rest of the registry.
+    @Benchmark
+    public void registryIntoBuffer(Blackhole bh) throws IOException {
+        this.buffer.reset();
+        this.registry.scrape(this.buffer.writer());
+        bh.consume(this.buffer.size());
+    }
+}
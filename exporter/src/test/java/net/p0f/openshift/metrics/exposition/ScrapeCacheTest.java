@@ -0,0 +1,163 @@
+package net.p0f.openshift.metrics.exposition;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.exporter.SysstatMetrics;
+
+/*
+ * When the cached response is served again, and when it is rendered anew:
+ * with every new generation, and once it is older than the max-age even if
+ * there was none, so that meters outside the generations do not go stale,
+ * though without a new ETag unless they changed.
+ */
+class ScrapeCacheTest {
+    static final long MAX_AGE = 5000;
+
+    ScrapeCache cache;
+    Generations sysstat = new Generations();
+    Counter other;
+
+    @BeforeEach
+    void setUp() {
+        this.cache = new ScrapeCache();
+        this.cache.expositionTable = new ExpositionTable();
+        this.cache.prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        this.cache.sysstatMetrics = this.sysstat;
+        this.cache.processAccountingMetrics = new ProcessAccountingMetrics();
+        this.cache.exposition = "direct";
+        this.cache.maxAge = MAX_AGE;
+
+        this.cache.expositionTable.add("sysstat.queue.runq", Tags.of("host", "n"), () -> 3);
+        this.cache.expositionTable.capture();
+        this.other = Counter.builder("jvm.other").register(this.cache.prometheusRegistry);
+    }
+
+    @Test
+    void servedAgainWithinMaxAge() {
+        ScrapeCache.Entry e = this.cache.getAt(MAX_AGE);
+        this.other.increment();
+        assertSame(e, this.cache.getAt(2 * MAX_AGE - 1));
+        assertTrue(plain(e).startsWith("# HELP sysstat_queue_runq"), plain(e));
+        assertTrue(plain(e).contains("jvm_other_total 0.0\n"), plain(e));
+    }
+
+    @Test
+    void registryRefreshedAfterMaxAge() {
+        ScrapeCache.Entry e = this.cache.getAt(MAX_AGE);
+        this.other.increment();
+        ScrapeCache.Entry next = this.cache.getAt(2 * MAX_AGE);
+        assertNotSame(e, next);
+        assertNotEquals(e.getETag(), next.getETag());
+        assertTrue(plain(next).contains("jvm_other_total 1.0\n"), plain(next));
+        assertFalse(next.matches(e.getETag()));
+    }
+
+    @Test
+    void sameBytesKeepETag() {
+        ScrapeCache.Entry e = this.cache.getAt(MAX_AGE);
+        // Several periods later, still the same generation with nothing new.
+        for (long now = 2 * MAX_AGE; now < 10 * MAX_AGE; now += 3 * MAX_AGE) {
+            ScrapeCache.Entry next = this.cache.getAt(now);
+            assertEquals(e.getETag(), next.getETag());
+            assertSame(e.getPlain(), next.getPlain());
+            assertSame(e.getGzip(), next.getGzip());
+            // What makes MetricsResource answer with a 304.
+            assertTrue(next.matches(e.getETag()));
+        }
+    }
+
+    @Test
+    void sameAsRegistryScrape() {
+        Counter.builder("psacct.exec").tag("process", "Web Content \u00e9\ud83d\ude00").register(this.cache.prometheusRegistry);
+        ScrapeCache.Entry e = this.cache.getAt(0);
+        ExpositionBuffer table = new ExpositionBuffer();
+        this.cache.expositionTable.render(table);
+        assertEquals(new String(table.toByteArray(), StandardCharsets.UTF_8) + this.cache.prometheusRegistry.scrape(),
+                plain(e));
+
+        // Rendered into the same buffer again.
+        this.cache.exposition = "micrometer";
+        this.sysstat.generation++;
+        assertEquals(this.cache.prometheusRegistry.scrape(), plain(this.cache.getAt(0)));
+    }
+
+    @Test
+    void renderedWithEveryGeneration() {
+        ScrapeCache.Entry e = this.cache.getAt(MAX_AGE);
+        this.sysstat.generation++;
+        ScrapeCache.Entry next = this.cache.getAt(MAX_AGE);
+        assertNotSame(e, next);
+        assertFalse(next.matches(e.getETag()));
+        assertSame(next, this.cache.getAt(MAX_AGE + 1));
+    }
+
+    @Test
+    void changesWithinGenerationGetNewETag() {
+        ScrapeCache.Entry e = this.cache.getAt(0);
+        this.other.increment();
+        ScrapeCache.Entry changed = this.cache.getAt(MAX_AGE);
+        assertNotEquals(e.getETag(), changed.getETag());
+        // Unchanged since, so that one stays.
+        assertEquals(changed.getETag(), this.cache.getAt(2 * MAX_AGE).getETag());
+        assertGzipped(changed);
+    }
+
+    @Test
+    void gzipsSameBody() {
+        assertGzipped(this.cache.getAt(0));
+    }
+
+    @Test
+    void matchesIfNoneMatch() {
+        ScrapeCache.Entry e = this.cache.getAt(0);
+        String etag = e.getETag();
+        assertTrue(e.matches(etag));
+        assertTrue(e.matches("W/" + etag));
+        assertTrue(e.matches("\"other\", " + etag));
+        assertTrue(e.matches(" * "));
+        assertFalse(e.matches(null));
+        assertFalse(e.matches("\"other\""));
+    }
+
+    static void assertGzipped(ScrapeCache.Entry e) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(e.getGzip()))) {
+            assertArrayEquals(e.getPlain(), in.readAllBytes());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    static String plain(ScrapeCache.Entry e) {
+        return new String(e.getPlain(), StandardCharsets.UTF_8);
+    }
+
+    // Generations as the test sets them, rather than as measurements come in.
+    static final class Generations extends SysstatMetrics {
+        long generation;
+
+        @Override
+        public long getGeneration() {
+            return this.generation;
+        }
+    }
+}
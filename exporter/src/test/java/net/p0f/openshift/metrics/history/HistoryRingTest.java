@@ -0,0 +1,127 @@
+package net.p0f.openshift.metrics.history;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.exposition.ExpositionBuffer;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Rounds going around the ring, series going missing and their slots
+ * freed once nothing of them is left, more series than slots, and what
+ * stream() writes since a given time.
+ */
+class HistoryRingTest {
+    static final byte[] A = series("a");
+    static final byte[] B = series("b");
+    static final byte[] C = series("c");
+
+    @Test
+    void wrapsAround() throws IOException {
+        HistoryRing ring = new HistoryRing(Samples.SYSSTAT, 3, 2);
+        for (int i = 1; i <= 5; i++) {
+            ring.append(round(i * 1000, A, i));
+        }
+        // Oldest first, the first two rounds overwritten.
+        assertEquals(List.of("a{x=\"1\"} 3.0 3000", "a{x=\"1\"} 4.0 4000", "a{x=\"1\"} 5.0 5000"), stream(ring, 0));
+        assertEquals(5, ring.rows);
+    }
+
+    @Test
+    void filtersSince() throws IOException {
+        HistoryRing ring = new HistoryRing(Samples.SYSSTAT, 4, 2);
+        for (int i = 1; i <= 6; i++) {
+            ring.append(round(i * 1000, A, i, B, -i));
+        }
+        assertEquals(List.of("a{x=\"1\"} 5.0 5000", "a{x=\"1\"} 6.0 6000", "b{x=\"1\"} -5.0 5000",
+                "b{x=\"1\"} -6.0 6000"), stream(ring, 4000));
+        assertEquals(List.of("a{x=\"1\"} 6.0 6000", "b{x=\"1\"} -6.0 6000"), stream(ring, 5999));
+        assertEquals(List.of(), stream(ring, 6000));
+        assertEquals(8, stream(ring, 0).size());
+    }
+
+    @Test
+    void missingSeriesFreeTheirSlot() throws IOException {
+        HistoryRing ring = new HistoryRing(Samples.SYSSTAT, 3, 2);
+        ring.append(round(1000, A, 1, B, 10));
+        ring.append(round(2000, A, 2, B, 20));
+        ring.append(round(3000, A, 3, B, 30));
+        // Not in the next round: what was in that row a lap ago is not b's
+        // value at 4000.
+        ring.append(round(4000, A, 4));
+        assertEquals(List.of("b{x=\"1\"} 20.0 2000", "b{x=\"1\"} 30.0 3000"), only(stream(ring, 0), "b"));
+
+        // Held on to for as long as any of its values are in the ring.
+        ring.append(round(5000, A, 5));
+        assertTrue(ring.slots.containsKey(B));
+        assertEquals(List.of("b{x=\"1\"} 30.0 3000"), only(stream(ring, 0), "b"));
+        ring.append(round(6000, A, 6));
+        assertFalse(ring.slots.containsKey(B));
+        assertEquals(1, ring.freeSlots.size());
+        assertEquals(List.of(), only(stream(ring, 0), "b"));
+
+        // Taken by another series, which does not inherit anything of b.
+        ring.append(round(7000, A, 7, C, 70));
+        assertEquals(List.of("c{x=\"1\"} 70.0 7000"), only(stream(ring, 0), "c"));
+        assertEquals(0, ring.dropped);
+    }
+
+    @Test
+    void runsOutOfSlots() throws IOException {
+        HistoryRing ring = new HistoryRing(Samples.PSACCT, 2, 2);
+        ring.append(round(1000, A, 1, B, 10, C, 100));
+        ring.append(round(2000, A, 2, B, 20, C, 200));
+        assertEquals(2, ring.dropped);
+        assertEquals(List.of(), only(stream(ring, 0), "c"));
+        assertEquals(4, stream(ring, 0).size());
+
+        // b is gone for good, and c gets its slot, two rounds later.
+        ring.append(round(3000, A, 3, C, 300));
+        assertEquals(List.of(), only(stream(ring, 0), "c"));
+        ring.append(round(4000, A, 4, C, 400));
+        ring.append(round(5000, A, 5, C, 500));
+        assertEquals(List.of("c{x=\"1\"} 500.0 5000"), only(stream(ring, 0), "c"));
+        assertEquals(4, ring.dropped);
+    }
+
+    @Test
+    void tooLarge() {
+        assertThrows(IllegalArgumentException.class, () -> new HistoryRing(Samples.SYSSTAT, 1 << 16, 1 << 16));
+    }
+
+    static byte[] series(String name) {
+        return (name + "{x=\"1\"} ").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Series and values, alternating.
+    static Samples round(long timestamp, Object... pairs) {
+        byte[][] series = new byte[pairs.length / 2][];
+        double[] values = new double[pairs.length / 2];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = (byte[]) pairs[2 * i];
+            values[i] = ((Number) pairs[2 * i + 1]).doubleValue();
+        }
+        return new Samples(Samples.SYSSTAT, timestamp, series, values, series.length);
+    }
+
+    static List<String> stream(HistoryRing ring, long since) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ring.stream(since, new ExpositionBuffer(16), out);
+        String s = out.toString(StandardCharsets.US_ASCII);
+        return s.isEmpty() ? List.of() : List.of(s.split("\n"));
+    }
+
+    static List<String> only(List<String> lines, String name) {
+        return lines.stream().filter(l -> l.startsWith(name + "{")).collect(Collectors.toList());
+    }
+}
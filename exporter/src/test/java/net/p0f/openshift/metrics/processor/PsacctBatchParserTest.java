@@ -0,0 +1,109 @@
+package net.p0f.openshift.metrics.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * Parsing psacct lines, in batches and one at a time, without ever going
+ * back to the resolver: the host name is read from NodeIdentity as is, once
+ * per batch, and never resolved again.
+ */
+class PsacctBatchParserTest {
+    static final String LINE = "     12     0.51re     0.03u     0.12s   231min     4maj     1swp   ";
+
+    @Test
+    void parsesBatch() {
+        Counting identity = new Counting("worker-0");
+        List<ProcessAccountingRecord> records = new PsacctBatchParser(identity).parse(
+                LINE + "\n\n" + LINE + "sadc\nnot a record\n" + LINE + "Web Content");
+
+        assertEquals(3, records.size());
+        assertEquals("ANONYMOUS", records.get(0).getProcessName());
+        assertEquals("sadc", records.get(1).getProcessName());
+        assertEquals("Web Content", records.get(2).getProcessName());
+        for (ProcessAccountingRecord par : records) {
+            assertSame("worker-0", par.getHostName());
+            assertEquals(12, par.getNumCalls());
+        }
+    }
+
+    @Test
+    void resolvesNothingPerRecord() {
+        Counting identity = new Counting("worker-0");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            lines.append(LINE).append("proc-").append(i % 100).append('\n');
+        }
+
+        PsacctBatchParser batches = new PsacctBatchParser(identity);
+        assertEquals(10000, batches.parse(lines.toString()).size());
+        assertEquals(10000, batches.parse(lines.toString()).size());
+        assertEquals(0, identity.refreshed.get());
+        assertEquals(2, identity.named.get());
+    }
+
+    @Test
+    void resolvesNothingPerLine() throws Exception {
+        Counting identity = new Counting("worker-0");
+        PsacctLineParser parser = new PsacctLineParser(identity);
+        DefaultCamelContext context = new DefaultCamelContext();
+        for (int i = 0; i < 1000; i++) {
+            Exchange exchange = new DefaultExchange(context);
+            exchange.getIn().setBody(LINE + "proc-" + i);
+            parser.process(exchange);
+            assertSame("worker-0", ((ProcessAccountingRecord) exchange.getMessage().getBody()).getHostName());
+        }
+        assertEquals(0, identity.refreshed.get());
+        assertEquals(1000, identity.named.get());
+
+        // Nothing left for the route to pass on.
+        for (String line : new String[] { "not a record", "" }) {
+            Exchange exchange = new DefaultExchange(context);
+            exchange.getIn().setBody(line);
+            parser.process(exchange);
+            assertNull(exchange.getMessage().getBody());
+        }
+        assertEquals(1000, identity.named.get());
+    }
+
+    @Test
+    void recordsAreNotResolvedEither() {
+        // Without a NodeIdentity, a record has a placeholder rather than a looked up name.
+        assertEquals(NodeIdentity.UNRESOLVABLE, new ProcessAccountingRecord().getHostName());
+    }
+
+    // Counts how often the name is asked for, and resolved.
+    static final class Counting extends NodeIdentity {
+        final AtomicInteger named = new AtomicInteger();
+        final AtomicInteger refreshed = new AtomicInteger();
+        final String name;
+
+        Counting(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            this.named.incrementAndGet();
+            return this.name;
+        }
+
+        @Override
+        public synchronized String refresh() {
+            this.refreshed.incrementAndGet();
+            return this.name;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.p0f.openshift.metrics.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+/*
+ * The single-pass parser against the regex chain it replaced (validity
+ * check, then conversion to CSV), on a dump of 2000 "sa -ajlp" lines.
+ *
+ * Bindy is gone from the dependencies, so the CSV is turned into a record
+ * with split() and parseInt()/parseFloat() instead, which is what Bindy
+ * does minus its reflection; the old path was slower than measured here.
+ * No name has spaces in it, as the old path would have dropped the line.
+ *
+ * Run with (-prof gc for allocation rates):
+ *   mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *       org.openjdk.jmh.Main PsacctLineParserBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PsacctLineParserBenchmark {
+    static final String[] NAMES = { "bash", "sh", "grep", "sed", "awk", "java", "conmon", "runc", "crio",
+            "kubelet", "ovs-vsctl", "iptables", "systemd-udevd", "sadc", "sa" };
+
+    static final String FORMAT = "%7d %10.2fre %9.2fu %9.2fs %8dmin %8dmaj %8dswp   %s";
+
+    List<String> lines;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(42);
+        this.lines = new ArrayList<>();
+        // The summary line first, without a name.
+        this.lines.add(String.format(Locale.ROOT, FORMAT, 50000, 12345.67, 987.65, 432.1, 1234567, 12, 0, ""));
+        for (int i = 1; i < 2000; i++) {
+            this.lines.add(String.format(Locale.ROOT, FORMAT, r.nextInt(5000), r.nextDouble() * 1000,
+                    r.nextDouble() * 100, r.nextDouble() * 10, r.nextInt(100000), r.nextInt(10), 0,
+                    NAMES[r.nextInt(NAMES.length)] + (i % 7 == 0 ? "*" : "")));
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole bh) {
+        for (String line : this.lines) {
+            ProcessAccountingRecord par = new ProcessAccountingRecord();
+            bh.consume(PsacctLineParser.parse(line, par));
+            bh.consume(par);
+        }
+    }
+
+    @Benchmark
+    public void regexCsv(Blackhole bh) {
+        for (String line : this.lines) {
+            if (!isRecordValid(line)) {
+                continue;
+            }
+            String csv = line.replaceAll(" +", ",")
+                    .replaceFirst("^,", "")
+                    .replaceFirst(",$", ",ANONYMOUS")
+                    .replaceAll("(re|u|s|min|maj|swp),", ",");
+            String[] f = csv.split(",");
+            ProcessAccountingRecord par = new ProcessAccountingRecord();
+            par.setNumCalls(Integer.parseInt(f[0]));
+            par.setElapsedTime(Float.parseFloat(f[1]));
+            par.setUserTime(Float.parseFloat(f[2]));
+            par.setSystemTime(Float.parseFloat(f[3]));
+            par.setMinFaults(Integer.parseInt(f[4]));
+            par.setMajFaults(Integer.parseInt(f[5]));
+            par.setSwapEvents(Integer.parseInt(f[6]));
+            par.setProcessName(f[7]);
+            bh.consume(par);
+        }
+    }
+
+    // What PsacctToCsv.isRecordValid() did.
+    static boolean isRecordValid(String body) {
+        StringTokenizer st = new StringTokenizer(body.replaceAll(" +", " ").replaceFirst(" $", " x"), " ");
+        return st.countTokens() == 8;
+    }
+}
@@ -0,0 +1,107 @@
+package net.p0f.openshift.metrics.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.model.ProcessAccountingRecord;
+
+class PsacctLineParserTest {
+    static final float EPSILON = 1e-6f;
+
+    @Test
+    void parsesAllColumns() {
+        ProcessAccountingRecord par = parse("     12     0.51re     0.03u     0.12s   231min     4maj     1swp   sadc");
+        assertEquals(12, par.getNumCalls());
+        assertEquals(0.51f, par.getElapsedTime(), EPSILON);
+        assertEquals(0.03f, par.getUserTime(), EPSILON);
+        assertEquals(0.12f, par.getSystemTime(), EPSILON);
+        assertEquals(231, par.getMinFaults());
+        assertEquals(4, par.getMajFaults());
+        assertEquals(1, par.getSwapEvents());
+        assertEquals("sadc", par.getProcessName());
+    }
+
+    @Test
+    void timesWithAndWithoutFractions() {
+        ProcessAccountingRecord par = parse("1 12re 1234.5u 0.123456789012s 0min 0maj 0swp x");
+        assertEquals(12f, par.getElapsedTime(), EPSILON);
+        assertEquals(1234.5f, par.getUserTime(), EPSILON);
+        assertEquals(0.123456789f, par.getSystemTime(), EPSILON);
+    }
+
+    @Test
+    void summaryLineIsAnonymous() {
+        assertEquals(PsacctLineParser.ANONYMOUS,
+                parse("   1530  1234.56re    12.34u     5.67s 12345min     1maj     0swp").getProcessName());
+        assertEquals(PsacctLineParser.ANONYMOUS,
+                parse("   1530  1234.56re    12.34u     5.67s 12345min     1maj     0swp   \t ").getProcessName());
+    }
+
+    @Test
+    void keepsNamesWithSpaces() {
+        assertEquals("Web Content", parse("2 1.00re 0.50u 0.10s 10min 0maj 0swp   Web Content  ").getProcessName());
+        assertEquals("kworker/u16:2 x", parse("2 1.00re 0.50u 0.10s 10min 0maj 0swp kworker/u16:2 x").getProcessName());
+        // Forked without exec.
+        assertEquals("bash*", parse("2 1.00re 0.50u 0.10s 10min 0maj 0swp bash*").getProcessName());
+    }
+
+    @Test
+    void checksSuffixes() {
+        invalid("1 0.01 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("1 0.01re 0.00s 0.01u 231min 0maj 0swp sadc");
+        invalid("1 0.01re 0.00u 0.01s 231maj 0min 0swp sadc");
+        invalid("1 0.01re 0.00u 0.01s 231mi 0maj 0swp sadc");
+        invalid("1 0.01re 0.00u 0.01s 231min 0maj 0sw sadc");
+        invalid("1 0.01re 0.00u 0.01s 231min 0maj 0swpx sadc");
+        invalid("1x 0.01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("1 0.01rex 0.00u 0.01s 231min 0maj 0swp sadc");
+    }
+
+    @Test
+    void rejectsMalformedLines() {
+        invalid("");
+        invalid("     ");
+        invalid("1 0.01re 0.00u 0.01s 231min 0maj");
+        invalid("1 0.01re 0.00u 0.01s 231min 0maj ");
+        invalid("1 0.01re0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("one 0.01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("1 -0.01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("1 .01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        // Fractions only in the times.
+        invalid("1.5 0.01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("1 0.01re 0.00u 0.01s 231.5min 0maj 0swp sadc");
+        // More digits than fit.
+        invalid("1234567890123456789 0.01re 0.00u 0.01s 231min 0maj 0swp sadc");
+        invalid("sadc");
+    }
+
+    @Test
+    void validatesWithoutRecord() {
+        assertTrue(PsacctLineParser.isRecordValid("1 0.01re 0.00u 0.01s 231min 0maj 0swp sadc"));
+        assertTrue(PsacctLineParser.isRecordValid("1 0.01re 0.00u 0.01s 231min 0maj 0swp"));
+        assertFalse(PsacctLineParser.isRecordValid("1 0.01re 0.00u 0.01s 231min 0maj"));
+    }
+
+    @Test
+    void parsesCharSequences() {
+        StringBuilder sb = new StringBuilder("xx 1 0.01re 0.00u 0.01s 231min 0maj 0swp sadc\nyy");
+        ProcessAccountingRecord par = new ProcessAccountingRecord();
+        assertTrue(PsacctLineParser.parse(sb.subSequence(3, sb.indexOf("\n")), par));
+        assertEquals("sadc", par.getProcessName());
+    }
+
+    static ProcessAccountingRecord parse(String line) {
+        ProcessAccountingRecord par = new ProcessAccountingRecord();
+        assertTrue(PsacctLineParser.parse(line, par), line);
+        assertTrue(PsacctLineParser.parse(line, null), line);
+        return par;
+    }
+
+    static void invalid(String line) {
+        assertFalse(PsacctLineParser.parse(line, new ProcessAccountingRecord()), line);
+        assertFalse(PsacctLineParser.parse(line, null), line);
+    }
+}
@@ -0,0 +1,123 @@
+package net.p0f.openshift.metrics.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import com.bazaarvoice.jolt.Chainr;
+import com.bazaarvoice.jolt.JsonUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import net.p0f.openshift.metrics.model.SysstatMeasurement;
+
+/*
+ * The streaming reader against the Jolt transform plus unmarshal it
+ * replaced, on a sadf -j dump with more in it than gets picked up.
+ */
+class SysstatJsonReaderTest {
+    static final Logger LOG = Logger.getLogger(SysstatJsonReaderTest.class.getName());
+
+    static final String DUMP = "sysstat-dump.json";
+    static final String SPEC = "/net/p0f/openshift/metrics/routes/transformSysstat.json";
+
+    static final ObjectMapper MAPPER = new ObjectMapper();
+    static final Chainr CHAINR = Chainr.fromSpec(JsonUtils.classpathToList(SPEC));
+
+    @Test
+    void readsSameMeasurementAsJolt() throws IOException {
+        byte[] dump = dump();
+        SysstatMeasurement streamed = SysstatJsonReader.read(new ByteArrayInputStream(dump));
+        SysstatMeasurement jolted = jolt(dump);
+
+        assertEquals(MAPPER.valueToTree(jolted), MAPPER.valueToTree(streamed));
+
+        // And not just the same, but what is in the dump.
+        assertEquals("worker-0.ocp.example.com", streamed.getHostname());
+        assertEquals(16, streamed.getNumCpus());
+        assertEquals(3, streamed.getCpuLoad().size());
+        assertEquals(2, streamed.getDisk().size());
+        assertEquals("nvme0n1", streamed.getDisk().get(0).getDiskDevice());
+        // From statistics[0] only.
+        assertEquals(3, streamed.getQueue().getRunqSz());
+        assertEquals(2, streamed.getNetwork().getNetDev().size());
+        assertEquals(0.04f, streamed.getPsi().getPsiIo().getFullAvg());
+    }
+
+    @Test
+    void rejectsOtherDocuments() {
+        assertThrows(IOException.class, () -> read("{\"sadf\": {}}"));
+        assertThrows(IOException.class, () -> read("{\"sysstat\": {\"hosts\": {}}}"));
+        assertThrows(IOException.class, () -> read("{\"sysstat\": {\"hosts\": []}}"));
+    }
+
+    @Test
+    void keepsHostWithoutStatistics() throws IOException {
+        SysstatMeasurement sm = read(
+                "{\"sysstat\": {\"hosts\": [{\"nodename\": \"n\", \"statistics\": [], \"number-of-cpus\": 4}]}}");
+        assertEquals("n", sm.getHostname());
+        assertEquals(4, sm.getNumCpus());
+    }
+
+    /*
+     * Bytes allocated by the calling thread per dump, after warming both up,
+     * which is what the streaming reader was meant to cut down on.
+     */
+    @Test
+    void allocatesLessThanJolt() throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] dump = dump();
+        int rounds = 2000;
+        for (int i = 0; i < rounds; i++) {
+            SysstatJsonReader.read(new ByteArrayInputStream(dump));
+            jolt(dump);
+        }
+
+        long tid = Thread.currentThread().getId();
+        long start = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < rounds; i++) {
+            SysstatJsonReader.read(new ByteArrayInputStream(dump));
+        }
+        long streaming = (threads.getThreadAllocatedBytes(tid) - start) / rounds;
+
+        start = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < rounds; i++) {
+            jolt(dump);
+        }
+        long jolt = (threads.getThreadAllocatedBytes(tid) - start) / rounds;
+
+        LOG.info("Bytes allocated per " + dump.length + " byte dump: streaming " + streaming + ", jolt " + jolt);
+        assertTrue(streaming < jolt / 2, "streaming " + streaming + " vs jolt " + jolt);
+    }
+
+    // What the route does with exporter.sysstat.parser=jolt.
+    static SysstatMeasurement jolt(byte[] dump) throws IOException {
+        Object input = JsonUtils.jsonToObject(new ByteArrayInputStream(dump));
+        String transformed = JsonUtils.toJsonString(CHAINR.transform(input));
+        return MAPPER.readValue(transformed, SysstatMeasurement.class);
+    }
+
+    static SysstatMeasurement read(String json) throws IOException {
+        return SysstatJsonReader.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static byte[] dump() throws IOException {
+        try (InputStream in = SysstatJsonReaderTest.class.getResourceAsStream(DUMP)) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Shards sending to an embedded receiver that answers with whatever status
+ * the test scripted: what goes over the wire, which failures are retried,
+ * how far apart the attempts are, and when samples are given up on.
+ */
+class ShardTest {
+    static final long BACKOFF_MIN = 50;
+    static final long BACKOFF_MAX = 120;
+
+    HttpServer server;
+    // Statuses to answer with in turn, then 204.
+    final ConcurrentLinkedQueue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    final BlockingQueue<Received> received = new LinkedBlockingQueue<>();
+    RemoteWrite rw;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/api/v1/write", x -> {
+            byte[] body;
+            try (InputStream in = x.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            this.received.add(new Received(System.nanoTime(), x.getRequestHeaders().getFirst("Content-Encoding"),
+                    x.getRequestHeaders().getFirst("X-Prometheus-Remote-Write-Version"), body));
+            Integer status = this.statuses.poll();
+            x.sendResponseHeaders(status == null ? 204 : status, -1);
+            x.close();
+        });
+        this.server.start();
+
+        this.rw = new RemoteWrite();
+        this.rw.mr = new SimpleMeterRegistry();
+        this.rw.url = Optional.of("http://127.0.0.1:" + this.server.getAddress().getPort() + "/api/v1/write");
+        this.rw.shardCount = 2;
+        this.rw.queueSize = 4;
+        this.rw.batchMax = 3;
+        this.rw.timeout = 5000;
+        this.rw.backoffMin = BACKOFF_MIN;
+        this.rw.backoffMax = BACKOFF_MAX;
+        this.rw.attempts = 5;
+        this.rw.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.rw.stop();
+        this.server.stop(0);
+    }
+
+    @Test
+    void sendsEverySample() throws Exception {
+        int count = 10;
+        byte[][] series = new byte[count][];
+        double[] values = new double[count];
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            series[i] = ExpositionTable.encode("psacct_invocation_count",
+                    Tags.of("container", "", "process", "p" + i));
+            values[i] = i;
+            expected.add("[__name__=psacct_invocation_count, process=p" + i + "] " + (double) i + "@1000");
+        }
+        this.rw.onSamples(new Samples(Samples.PSACCT, 1000, series, values, count));
+
+        List<String> sent = new ArrayList<>();
+        while (sent.size() < count) {
+            Received r = this.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(r, "only " + sent.size() + " samples arrived");
+            assertEquals("snappy", r.encoding);
+            assertEquals("0.1.0", r.version);
+            byte[] request = org.xerial.snappy.Snappy.uncompress(r.body);
+            List<String> batch = WriteRequestTest.decode(request, request.length);
+            assertTrue(batch.size() <= this.rw.batchMax, batch.toString());
+            sent.addAll(batch);
+        }
+        sent.sort(null);
+        expected.sort(null);
+        assertEquals(expected, sent);
+        awaitCount(() -> this.rw.sent.count(), count);
+        assertEquals(0, this.rw.dropped.count());
+    }
+
+    @Test
+    void retriesWithBackoff() throws Exception {
+        // Refused by the receiver, then throttled, then failing, then fine.
+        this.statuses.addAll(List.of(503, 429, 500, 502));
+        send();
+        List<Received> attempts = drain();
+        assertEquals(5, attempts.size());
+        long[] backoff = { BACKOFF_MIN, 2 * BACKOFF_MIN, BACKOFF_MAX, BACKOFF_MAX };
+        for (int i = 1; i < attempts.size(); i++) {
+            long gap = TimeUnit.NANOSECONDS.toMillis(attempts.get(i).at - attempts.get(i - 1).at);
+            assertTrue(gap >= backoff[i - 1], "attempt " + (i + 1) + " after " + gap + "ms");
+        }
+        assertEquals(4, this.rw.retries.count());
+        assertEquals(2, this.rw.sent.count());
+        assertEquals(0, this.rw.dropped.count());
+    }
+
+    @Test
+    void dropsOnClientError() throws Exception {
+        this.statuses.addAll(List.of(503, 400));
+        send();
+        assertEquals(2, drain().size());
+        assertEquals(1, this.rw.retries.count());
+        assertEquals(2, this.rw.dropped.count());
+        assertEquals(0, this.rw.sent.count());
+    }
+
+    @Test
+    void dropsAfterLastAttempt() throws Exception {
+        this.rw.attempts = 3;
+        this.statuses.addAll(List.of(500, 500, 500, 500));
+        send();
+        assertEquals(3, drain().size());
+        assertEquals(2, this.rw.retries.count());
+        assertEquals(2, this.rw.dropped.count());
+    }
+
+    @Test
+    void retriesUnreachableReceiver() throws Exception {
+        this.rw.attempts = 2;
+        this.server.stop(0);
+        send();
+        assertEquals(1, this.rw.retries.count());
+        assertEquals(2, this.rw.dropped.count());
+    }
+
+    // Two samples, straight through a shard of its own.
+    void send() throws InterruptedException {
+        RemoteWrite.Batch b = new RemoteWrite.Batch(1000, 2);
+        b.add(WriteRequest.labels(ExpositionTable.encode("sysstat_queue_runq", Tags.empty())), 1);
+        b.add(WriteRequest.labels(ExpositionTable.encode("sysstat_queue_plist", Tags.empty())), 2);
+        new Shard(9, this.rw).send(List.of(b), b.count);
+    }
+
+    List<Received> drain() {
+        List<Received> all = new ArrayList<>();
+        this.received.drainTo(all);
+        return all;
+    }
+
+    static void awaitCount(java.util.function.DoubleSupplier count, double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.getAsDouble() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, count.getAsDouble());
+    }
+
+    static final class Received {
+        final long at;
+        final String encoding;
+        final String version;
+        final byte[] body;
+
+        Received(long at, String encoding, String version, byte[] body) {
+            this.at = at;
+            this.encoding = encoding;
+            this.version = version;
+            this.body = body;
+        }
+    }
+}
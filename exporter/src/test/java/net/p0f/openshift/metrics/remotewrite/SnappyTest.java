@@ -0,0 +1,104 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Tags;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+
+/*
+ * Compressed by Snappy, uncompressed by the reference implementation
+ * (snappy-java): short and empty inputs, incompressible ones, long runs,
+ * far away matches, several blocks, and an actual request.
+ */
+class SnappyTest {
+    final int[] table = new int[1 << Snappy.TABLE_BITS];
+
+    @Test
+    void shortInputs() throws IOException {
+        for (int len = 0; len <= Snappy.MIN_BLOCK + 1; len++) {
+            byte[] b = new byte[len];
+            Arrays.fill(b, (byte) 'a');
+            roundTrip(b);
+        }
+        // Too short for matches, one literal.
+        assertArrayEquals(WriteRequestTest.bytes(0x03, 0x08, 'a', 'b', 'c'), compress("abc".getBytes()));
+        assertArrayEquals(WriteRequestTest.bytes(0x00), compress(new byte[0]));
+    }
+
+    @Test
+    void literalsAndCopiesOfEverySize() throws IOException {
+        Random r = new Random(42);
+        for (int literal : new int[] { 1, 59, 60, 61, 255, 256, 257, 65535, 65536, 65537 }) {
+            for (int copy : new int[] { 4, 11, 12, 63, 64, 65, 67, 68, 69, 200, 5000 }) {
+                byte[] b = new byte[literal + 2 * copy + 32];
+                r.nextBytes(b);
+                // The same run twice, with random bytes in between.
+                System.arraycopy(b, 0, b, literal + copy, copy);
+                roundTrip(b);
+            }
+        }
+    }
+
+    @Test
+    void farMatches() throws IOException {
+        Random r = new Random(7);
+        for (int distance : new int[] { 2047, 2048, 2049, 40000, Snappy.BLOCK - 100 }) {
+            byte[] b = new byte[distance + 200];
+            r.nextBytes(b);
+            System.arraycopy(b, 0, b, distance, 100);
+            roundTrip(b);
+        }
+    }
+
+    @Test
+    void incompressibleAndManyBlocks() throws IOException {
+        Random r = new Random(1);
+        for (int len : new int[] { Snappy.BLOCK - 1, Snappy.BLOCK, Snappy.BLOCK + 1, Snappy.BLOCK + Snappy.MIN_BLOCK - 1,
+                5 * Snappy.BLOCK + 12345 }) {
+            byte[] b = new byte[len];
+            r.nextBytes(b);
+            roundTrip(b);
+            Arrays.fill(b, (byte) 0);
+            roundTrip(b);
+            for (int i = 0; i < len; i++) {
+                b[i] = (byte) (i % 251);
+            }
+            roundTrip(b);
+        }
+    }
+
+    @Test
+    void shrinksRequests() throws IOException {
+        WriteRequest w = new WriteRequest();
+        for (int i = 0; i < 2000; i++) {
+            byte[] labels = WriteRequest.labels(ExpositionTable.encode("psacct_time_user",
+                    Tags.of("host", "worker-0.ocp.example.com", "process", "proc-" + (i % 300))));
+            w.add(labels, i * 0.25, 1_660_000_000_000L + i);
+        }
+        byte[] b = Arrays.copyOf(w.array(), w.size());
+        byte[] c = roundTrip(b);
+        assertTrue(c.length * 3 < b.length, c.length + " of " + b.length);
+    }
+
+    byte[] compress(byte[] b) {
+        byte[] dst = new byte[Snappy.maxCompressedLength(b.length)];
+        // Garbage in the table from a previous run must not matter.
+        Arrays.fill(this.table, 12345);
+        int len = Snappy.compress(b, b.length, dst, this.table);
+        return Arrays.copyOf(dst, len);
+    }
+
+    byte[] roundTrip(byte[] b) throws IOException {
+        byte[] c = compress(b);
+        assertTrue(org.xerial.snappy.Snappy.isValidCompressedBuffer(c), "invalid for " + b.length + " bytes");
+        assertArrayEquals(b, org.xerial.snappy.Snappy.uncompress(c), "differs for " + b.length + " bytes");
+        return c;
+    }
+}
@@ -0,0 +1,194 @@
+package net.p0f.openshift.metrics.remotewrite;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Tags;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+
+/*
+ * Requests decoded field by field, as a receiver would, from the labels of
+ * exposition prefixes through to the samples.
+ */
+class WriteRequestTest {
+    @Test
+    void encodesKnownBytes() {
+        byte[] labels = WriteRequest.labels(ExpositionTable.encode("up", Tags.empty()));
+        WriteRequest w = new WriteRequest();
+        w.add(labels, 1.0, 1000);
+        byte[] expected = bytes(0x0a, 0x1e,
+                0x0a, 0x0e, 0x0a, 0x08, '_', '_', 'n', 'a', 'm', 'e', '_', '_', 0x12, 0x02, 'u', 'p',
+                0x12, 0x0c, 0x09, 0, 0, 0, 0, 0, 0, 0xf0, 0x3f, 0x10, 0xe8, 0x07);
+        assertArrayEquals(expected, Arrays.copyOf(w.array(), w.size()));
+    }
+
+    @Test
+    void labelsSortedAndUnescaped() {
+        byte[] prefix = ExpositionTable.encode("sysstat_disk_util",
+                Tags.of("host", "node", "device", "a\"b\\c\nd", "_z", "1"));
+        assertEquals(List.of("__name__=sysstat_disk_util", "_z=1", "device=a\"b\\c\nd", "host=node"),
+                decodeLabels(WriteRequest.labels(prefix)));
+    }
+
+    @Test
+    void leavesOutEmptyLabels() {
+        byte[] prefix = ExpositionTable.encode("psacct_invocation_count",
+                Tags.of("container", "", "host", "node", "process", "bash"));
+        assertEquals(List.of("__name__=psacct_invocation_count", "host=node", "process=bash"),
+                decodeLabels(WriteRequest.labels(prefix)));
+
+        prefix = ExpositionTable.encode("psacct_invocation_count", Tags.of("container", ""));
+        assertEquals(List.of("__name__=psacct_invocation_count"), decodeLabels(WriteRequest.labels(prefix)));
+    }
+
+    @Test
+    void encodesSamples() {
+        byte[] a = WriteRequest.labels(ExpositionTable.encode("sysstat_cpu_usr", Tags.of("cpu", "0")));
+        // Long enough for the series length to take two bytes.
+        String longHost = "x".repeat(200);
+        byte[] b = WriteRequest.labels(ExpositionTable.encode("sysstat_queue_runq", Tags.of("host", longHost)));
+        // Small, so that it has to grow.
+        WriteRequest w = new WriteRequest(8);
+        w.add(a, -1.5, 0);
+        w.add(b, Double.NaN, 1L << 42);
+        w.add(a, Double.NEGATIVE_INFINITY, Long.MAX_VALUE);
+        assertEquals(List.of(
+                "[__name__=sysstat_cpu_usr, cpu=0] -1.5@0",
+                "[__name__=sysstat_queue_runq, host=" + longHost + "] NaN@" + (1L << 42),
+                "[__name__=sysstat_cpu_usr, cpu=0] -Infinity@" + Long.MAX_VALUE), decode(w.array(), w.size()));
+
+        w.reset();
+        assertEquals(0, w.size());
+        w.add(a, 2, 3);
+        assertEquals(List.of("[__name__=sysstat_cpu_usr, cpu=0] 2.0@3"), decode(w.array(), w.size()));
+    }
+
+    @Test
+    void varintSizes() {
+        long[] values = { 0, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+        int[] sizes = { 1, 1, 2, 2, 3, 5, 9, 10 };
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(sizes[i], WriteRequest.varintSize(values[i]), "size of " + values[i]);
+        }
+    }
+
+    /*
+     * Decodes a WriteRequest into one line per series: its labels, then
+     * value@timestamp for each sample.
+     */
+    static List<String> decode(byte[] buf, int len) {
+        Reader r = new Reader(buf, 0, len);
+        List<String> series = new ArrayList<>();
+        while (r.more()) {
+            assertEquals(0x0a, r.tag());
+            Reader ts = r.nested();
+            List<String> labels = new ArrayList<>();
+            StringBuilder sb = new StringBuilder();
+            while (ts.more()) {
+                int tag = ts.tag();
+                if (tag == 0x0a) {
+                    labels.add(label(ts.nested()));
+                } else {
+                    assertEquals(0x12, tag);
+                    Reader sample = ts.nested();
+                    assertEquals(0x09, sample.tag());
+                    double v = Double.longBitsToDouble(sample.fixed64());
+                    assertEquals(0x10, sample.tag());
+                    long t = sample.varint();
+                    assertTrue(!sample.more());
+                    sb.append(' ').append(v).append('@').append(t);
+                }
+            }
+            series.add(labels + sb.toString());
+        }
+        return series;
+    }
+
+    static List<String> decodeLabels(byte[] fields) {
+        Reader r = new Reader(fields, 0, fields.length);
+        List<String> labels = new ArrayList<>();
+        while (r.more()) {
+            assertEquals(0x0a, r.tag());
+            labels.add(label(r.nested()));
+        }
+        return labels;
+    }
+
+    static String label(Reader l) {
+        assertEquals(0x0a, l.tag());
+        String name = l.string();
+        assertEquals(0x12, l.tag());
+        String value = l.string();
+        assertTrue(!l.more());
+        return name + "=" + value;
+    }
+
+    static byte[] bytes(int... b) {
+        byte[] out = new byte[b.length];
+        for (int i = 0; i < b.length; i++) {
+            out[i] = (byte) b[i];
+        }
+        return out;
+    }
+
+    static final class Reader {
+        final byte[] buf;
+        int pos;
+        final int end;
+
+        Reader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean more() {
+            return this.pos < this.end;
+        }
+
+        int tag() {
+            return (int) varint();
+        }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0;; shift += 7) {
+                assertTrue(this.pos < this.end, "varint past the end");
+                int b = this.buf[this.pos++] & 0xff;
+                v |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return v;
+                }
+            }
+        }
+
+        long fixed64() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v |= (long) (this.buf[this.pos++] & 0xff) << (8 * i);
+            }
+            return v;
+        }
+
+        Reader nested() {
+            int len = (int) varint();
+            assertTrue(this.pos + len <= this.end, "length past the end");
+            Reader r = new Reader(this.buf, this.pos, this.pos + len);
+            this.pos += len;
+            return r;
+        }
+
+        String string() {
+            Reader r = nested();
+            return new String(this.buf, r.pos, r.end - r.pos, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package net.p0f.openshift.metrics.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.p0f.openshift.metrics.archive.DumpArchive;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.exposition.ExpositionTable;
+
+/*
+ * A small data path, an hour of archive and a done/ directory as older
+ * versions left it, replayed into OpenMetrics: every family in one piece
+ * under its TYPE line, and every sample at the time its dump was written.
+ */
+class ReplayTest {
+    static final String DUMP = "/net/p0f/openshift/metrics/processor/sysstat-dump.json";
+    static final String[] PROCESSES = { "sh", "java", "Web Content" };
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void replaysArchiveAndDone() throws Exception {
+        Path data = Files.createDirectories(this.tmp.resolve("metrics"));
+        Path out = this.tmp.resolve("out");
+        byte[] sysstat;
+        try (InputStream in = ReplayTest.class.getResourceAsStream(DUMP)) {
+            sysstat = in.readAllBytes();
+        }
+
+        // Two rounds in an hour of archive, not quite in order.
+        long t1 = 1700000000123L;
+        long t2 = t1 + 60000;
+        Path archive = Files.createDirectories(data.resolve("archive"))
+                .resolve(DumpArchive.HOUR.format(Instant.ofEpochMilli(t1)) + DumpArchive.SUFFIX);
+        member(archive, "sysstat", t2, sysstat);
+        member(archive, "psacct", t2 + 500, psacct(2));
+        member(archive, "sysstat", t1, sysstat);
+        member(archive, "psacct", t1 + 500, psacct(1));
+
+        // And one round of an older version, timed by modification time.
+        long t3 = 1600000000000L;
+        String second = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault())
+                .format(Instant.ofEpochMilli(t3));
+        Path done = Files.createDirectories(data.resolve("done").resolve(second.substring(0, 8)));
+        Files.write(done.resolve("sysstat-" + second), sysstat);
+        Files.setLastModifiedTime(done.resolve("sysstat-" + second), FileTime.fromMillis(t3));
+
+        Replay.main(new String[] { "--host", "worker-0", "--threads", "2", data.toString(), out.toString() });
+
+        List<Path> files = Replay.list(out, "*.om");
+        assertEquals(2, files.size(), files.toString());
+        String archived = "archive-" + DumpArchive.HOUR.format(Instant.ofEpochMilli(t1)) + ".om";
+        assertTrue(files.contains(out.resolve(archived)), files.toString());
+        // Named after the hour.
+        Path older = out.resolve("done-" + second.substring(0, 11) + ".om");
+        assertTrue(files.contains(older), files.toString());
+
+        Map<String, Set<String>> stamps = check(out.resolve(archived));
+        Set<String> psacct = new HashSet<>();
+        for (String gauge : ProcessAccountingMetrics.GAUGES) {
+            psacct.add(ExpositionTable.sanitize(gauge));
+        }
+        assertTrue(stamps.keySet().containsAll(psacct), stamps.keySet().toString());
+        assertTrue(stamps.size() > psacct.size() + 50, stamps.keySet().toString());
+        for (Map.Entry<String, Set<String>> e : stamps.entrySet()) {
+            Set<String> expected = psacct.contains(e.getKey()) ? Set.of("1700000000.623", "1700000060.623")
+                    : Set.of("1700000000.123", "1700000060.123");
+            assertEquals(expected, e.getValue(), e.getKey());
+        }
+
+        for (Set<String> s : check(older).values()) {
+            assertEquals(Set.of("1600000000.000"), s);
+        }
+    }
+
+    /*
+     * Checks that every family is written in one piece, as gauges, with
+     * series in the order of their samples' timestamps, and returns the
+     * timestamps of the samples of every family.
+     */
+    static Map<String, Set<String>> check(Path om) throws IOException {
+        List<String> lines = Files.readAllLines(om, StandardCharsets.UTF_8);
+        assertEquals("# EOF", lines.get(lines.size() - 1));
+        Map<String, Set<String>> stamps = new LinkedHashMap<>();
+        String family = null;
+        String series = null;
+        String last = null;
+        for (String line : lines.subList(0, lines.size() - 1)) {
+            if (line.startsWith("# TYPE ")) {
+                String[] f = line.split(" ");
+                assertEquals("gauge", f[3], line);
+                family = f[2];
+                assertFalse(stamps.containsKey(family), "family split: " + line);
+                stamps.put(family, new TreeSet<>());
+                continue;
+            }
+            assertFalse(line.startsWith("#"), line);
+            assertFalse(line.contains(",}"), line);
+            int brace = line.indexOf('{');
+            String name = brace < 0 ? line.substring(0, line.indexOf(' ')) : line.substring(0, brace);
+            assertEquals(family, name, line);
+
+            String ts = line.substring(line.lastIndexOf(' ') + 1);
+            String s = line.substring(0, line.lastIndexOf(' ', line.lastIndexOf(' ') - 1));
+            if (s.equals(series)) {
+                assertTrue(ts.compareTo(last) > 0, line);
+            }
+            series = s;
+            last = ts;
+            stamps.get(family).add(ts);
+        }
+        return stamps;
+    }
+
+    // As many records of each process as the round.
+    static byte[] psacct(int round) {
+        StringBuilder sb = new StringBuilder();
+        for (String p : PROCESSES) {
+            sb.append(String.format("%7d %7d.%03dre %5d.%03du %5d.%03ds %7dmin %5dmaj %5dswp   %s\n",
+                    round, round, 500, 0, 125, 0, 250, 1024, 0, 0, p));
+        }
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Appended as DumpArchive writes it.
+    static void member(Path file, String source, long written, byte[] payload) throws IOException {
+        try (OutputStream os = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                GZIPOutputStream gz = new GZIPOutputStream(os)) {
+            gz.write((DumpArchive.HEADER + source + " " + written + " " + payload.length + "\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            gz.write(payload);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package net.p0f.openshift.metrics.routes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.jupiter.api.Test;
+
+import net.p0f.openshift.metrics.archive.DumpArchive;
+import net.p0f.openshift.metrics.collector.DirectoryWatcher;
+import net.p0f.openshift.metrics.exporter.IngestLatency;
+import net.p0f.openshift.metrics.exporter.NodeIdentity;
+import net.p0f.openshift.metrics.exporter.ProcessAccountingMetrics;
+import net.p0f.openshift.metrics.exporter.PsacctSnapshot;
+
+/*
+ * A large psacct-dump-all through the actual routes, split into batches and
+ * one line at a time (batch size 0), which must both come up with the same
+ * snapshot. How long each took is logged, as a rough comparison.
+ */
+class PsacctConsumerTest {
+    static final Logger LOG = Logger.getLogger(PsacctConsumerTest.class.getName());
+
+    static final int LINES = 50000;
+    static final int PROCESSES = 700;
+
+    @Test
+    void batchesMatchLines() throws Exception {
+        String dump = dump();
+        // Both ways once over part of the dump first, so that neither is timed cold.
+        String part = dump.substring(0, dump.indexOf('\n', dump.length() / 5) + 1);
+        assertEquals(run(0, part), run(500, part));
+
+        Map<String, String> lines = run(0, dump);
+        Map<String, String> batches = run(500, dump);
+        assertEquals(PROCESSES, lines.size());
+        assertEquals(lines, batches);
+        // Batch sizes that do not divide the lines evenly, down to a line per batch.
+        assertEquals(lines, run(333, dump));
+        assertEquals(lines, run(1, dump));
+    }
+
+    /*
+     * Lines like those of "sa -ajlp", with process names repeating so that
+     * records have to be added up, along with blank and invalid lines.
+     * Times are in eighths of a second, so that they add up exactly in any
+     * order.
+     */
+    static String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            int p = i % PROCESSES;
+            if (i % 1000 == 999) {
+                sb.append('\n');
+            } else if (i % 1000 == 998) {
+                sb.append("not a record\n");
+            }
+            sb.append(String.format("%7d %7d.%03dre %5d.%03du %5d.%03ds %7dmin %5dmaj %5dswp   %s\n",
+                    1 + i % 13, i % 97, 125 * (i % 8), i % 5, 125 * (i % 3), i % 7, 125 * (i % 5),
+                    231 + i % 50, i % 4, i % 2, p % 10 == 0 ? "Web Content " + p : "proc-" + p));
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Feeds the dump to the routes as the directory watcher would, and
+     * returns the snapshot they published, by process.
+     */
+    static Map<String, String> run(int batchSize, String dump) throws Exception {
+        Publishing pam = new Publishing();
+        NodeIdentity identity = NodeIdentity.fixed("worker-0");
+
+        PsacctConsumer consumer = new PsacctConsumer();
+        consumer.dataPath = "/nonexistent";
+        consumer.source = "sa";
+        consumer.ingest = "watch";
+        consumer.batchSize = batchSize;
+        consumer.queue = 8;
+        consumer.dumpArchive = new DumpArchive();
+        consumer.nodeIdentity = identity;
+        consumer.processAccountingMetrics = pam;
+        RegisterProcessAccounting register = new RegisterProcessAccounting();
+        register.queue = 8;
+
+        DefaultCamelContext context = new DefaultCamelContext();
+        context.getRegistry().bind("processAccountingMetrics", pam);
+        context.getRegistry().bind("ingestLatency", new IngestLatency());
+        context.addRoutes(consumer);
+        context.addRoutes(register);
+        context.start();
+        try {
+            long start = System.nanoTime();
+            context.createProducerTemplate().sendBody(DirectoryWatcher.PSACCT_ENDPOINT, dump);
+            long took = System.nanoTime() - start;
+            assertNotNull(pam.published, "no snapshot published");
+            LOG.info(String.format("%d records with batch size %d in %d ms, %.2f us per record.",
+                    pam.published.getRecords(), batchSize, TimeUnit.NANOSECONDS.toMillis(took), took / 1000.0 / pam.published.getRecords()));
+
+            Map<String, String> byProcess = new TreeMap<>();
+            for (Map.Entry<ProcessAccountingMetrics.ProcessKey, double[]> e : pam.published.build().getValues().entrySet()) {
+                byProcess.put(e.getKey().toString(), Arrays.toString(e.getValue()));
+            }
+            return byProcess;
+        } finally {
+            context.stop();
+        }
+    }
+
+    // Keeps the snapshot rather than turning it into meters.
+    static final class Publishing extends ProcessAccountingMetrics {
+        volatile PsacctSnapshot.Builder published;
+
+        @Override
+        public void publishSnapshot(PsacctSnapshot.Builder snapshot) {
+            this.published = snapshot;
+        }
+    }
+}
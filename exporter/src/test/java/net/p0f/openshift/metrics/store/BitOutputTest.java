@@ -0,0 +1,114 @@
+package net.p0f.openshift.metrics.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Bits written by BitOutput read back by BitInput, at every width and
+ * across byte and buffer boundaries.
+ */
+class BitOutputTest {
+    @Test
+    void roundTripsEveryWidth() {
+        Random r = new Random(42);
+        int count = 100000;
+        long[] values = new long[count];
+        int[] widths = new int[count];
+        BitOutput out = new BitOutput();
+        for (int i = 0; i < count; i++) {
+            widths[i] = 1 + r.nextInt(64);
+            // Garbage above the width must not leak into the output.
+            values[i] = r.nextLong();
+            out.writeBits(values[i], widths[i]);
+        }
+        out.align();
+        // Well past the initial 64 KiB.
+        assertTrue(out.size() > 64 * 1024);
+
+        BitInput in = input(out);
+        for (int i = 0; i < count; i++) {
+            int n = widths[i];
+            long expected = n == 64 ? values[i] : values[i] & ((1L << n) - 1);
+            assertEquals(expected, in.readBits(n), "value " + i + " of " + n + " bits");
+        }
+    }
+
+    @Test
+    void readsSigned() {
+        BitOutput out = new BitOutput();
+        long[] values = { -1, 0, 1, -64, 63, -256, 255, -2048, 2047, Long.MIN_VALUE, Long.MAX_VALUE };
+        int[] widths = { 7, 7, 7, 7, 7, 9, 9, 12, 12, 64, 64 };
+        for (int i = 0; i < values.length; i++) {
+            out.writeBits(values[i], widths[i]);
+        }
+        out.align();
+        BitInput in = input(out);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], in.readSigned(widths[i]));
+        }
+    }
+
+    @Test
+    void bytesAndIntsWhenAligned() {
+        BitOutput out = new BitOutput();
+        out.writeByte('R');
+        int mark = out.size();
+        out.writeInt(0);
+        out.writeBits(1, 1);
+        out.align();
+        out.writeBytes(new byte[] { 1, 2, 3 });
+        out.writeInt(-2);
+        out.setInt(mark, 0xcafebabe);
+        assertEquals(1 + 4 + 1 + 3 + 4, out.size());
+
+        ByteBuffer b = ByteBuffer.wrap(out.array(), 0, out.size());
+        assertEquals('R', b.get(0));
+        assertEquals(0xcafebabe, b.getInt(1));
+        assertEquals((byte) 0x80, b.get(5));
+        assertEquals(3, b.get(8));
+        assertEquals(-2, b.getInt(9));
+    }
+
+    @Test
+    void resetStartsOver() {
+        BitOutput out = new BitOutput();
+        out.writeBits(0b101, 3);
+        out.reset();
+        out.writeBits(0b11, 2);
+        out.align();
+        assertEquals(1, out.size());
+        assertEquals((byte) 0b11000000, out.array()[0]);
+    }
+
+    @Test
+    void stopsAtEndOfFrame() {
+        BitOutput out = new BitOutput();
+        out.writeBits(0b1, 1);
+        out.align();
+        BitInput in = input(out);
+        assertTrue(in.readBit());
+        for (int i = 0; i < 7; i++) {
+            assertFalse(in.readBit());
+        }
+        assertThrows(IllegalStateException.class, in::readBit);
+    }
+
+    @Test
+    void readsFromOffset() {
+        ByteBuffer b = ByteBuffer.wrap(new byte[] { (byte) 0xff, 0x12, 0x34, (byte) 0xff });
+        BitInput in = new BitInput(b, 1, 2);
+        assertEquals(0x1234, in.readBits(16));
+        assertThrows(IllegalStateException.class, () -> in.readBits(1));
+    }
+
+    static BitInput input(BitOutput out) {
+        return new BitInput(ByteBuffer.wrap(out.array()), 0, out.size());
+    }
+}
@@ -0,0 +1,165 @@
+package net.p0f.openshift.metrics.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * Delta of delta timestamps at and around every bucket boundary, and
+ * values compared bit for bit, NaN payloads and negative zero included.
+ */
+class GorillaTest {
+    @Test
+    void timestampBuckets() {
+        long[] dods = { 0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+                Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+        BitOutput out = new BitOutput();
+        for (long dod : dods) {
+            Gorilla.writeTimestamp(out, dod);
+        }
+        out.align();
+        BitInput in = input(out);
+        for (long dod : dods) {
+            assertEquals(dod, Gorilla.readTimestamp(in));
+        }
+    }
+
+    @Test
+    void timestampBucketSizes() {
+        assertEquals(1, timestampBits(0));
+        assertEquals(2 + 7, timestampBits(63));
+        assertEquals(2 + 7, timestampBits(-64));
+        assertEquals(3 + 9, timestampBits(64));
+        assertEquals(3 + 9, timestampBits(-65));
+        assertEquals(3 + 9, timestampBits(255));
+        assertEquals(3 + 9, timestampBits(-256));
+        assertEquals(4 + 12, timestampBits(256));
+        assertEquals(4 + 12, timestampBits(-257));
+        assertEquals(4 + 12, timestampBits(2047));
+        assertEquals(4 + 12, timestampBits(-2048));
+        assertEquals(4 + 64, timestampBits(2048));
+        assertEquals(4 + 64, timestampBits(-2049));
+    }
+
+    @Test
+    void identicalValuesTakeOneBit() {
+        Gorilla.Values w = new Gorilla.Values();
+        w.ensure(1);
+        BitOutput out = new BitOutput();
+        w.write(out, 0, 42.5);
+        out.align();
+        int first = out.size();
+        for (int i = 0; i < 800; i++) {
+            w.write(out, 0, 42.5);
+        }
+        out.align();
+        assertEquals(first + 100, out.size());
+        roundTrip(42.5, 42.5, 42.5);
+    }
+
+    @Test
+    void specialValues() {
+        roundTrip(Double.NaN, Double.NaN, 1, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, 0.0, -0.0, 0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+                -Double.MAX_VALUE, Double.longBitsToDouble(0x7ff8dead0000beefL), Double.NaN);
+        // Starting from nothing, as every series does.
+        roundTrip(0.0, 0.0);
+        roundTrip(-0.0);
+        roundTrip(Double.longBitsToDouble(1));
+        roundTrip(Double.longBitsToDouble(-1));
+    }
+
+    @Test
+    void windowsGrowAndShrink() {
+        // XORs of one bit at either end, then all 64, then a narrow one inside.
+        roundTrip(Double.longBitsToDouble(1), Double.longBitsToDouble(0), Double.longBitsToDouble(Long.MIN_VALUE),
+                Double.longBitsToDouble(0), Double.longBitsToDouble(-1), Double.longBitsToDouble(-2),
+                Double.longBitsToDouble(~0x0ff0L), 1.0, 1.5, 1.25, 1.125);
+    }
+
+    @Test
+    void interleavedSeries() {
+        Random r = new Random(42);
+        int series = 50;
+        int rounds = 200;
+        double[][] v = new double[rounds][series];
+        for (int round = 0; round < rounds; round++) {
+            for (int s = 0; s < series; s++) {
+                switch (s % 5) {
+                case 0:
+                    v[round][s] = s;
+                    break;
+                case 1:
+                    v[round][s] = round * 1000;
+                    break;
+                case 2:
+                    v[round][s] = r.nextDouble();
+                    break;
+                case 3:
+                    v[round][s] = r.nextInt(3) == 0 ? Double.NaN : r.nextGaussian() * 1e9;
+                    break;
+                default:
+                    v[round][s] = Double.longBitsToDouble(r.nextLong());
+                }
+            }
+        }
+
+        Gorilla.Values w = new Gorilla.Values();
+        BitOutput out = new BitOutput();
+        for (int round = 0; round < rounds; round++) {
+            for (int s = 0; s < series; s++) {
+                w.ensure(s + 1);
+                w.write(out, s, v[round][s]);
+            }
+        }
+        out.align();
+
+        Gorilla.Values rd = new Gorilla.Values();
+        rd.ensure(series);
+        BitInput in = input(out);
+        for (int round = 0; round < rounds; round++) {
+            for (int s = 0; s < series; s++) {
+                assertBits(v[round][s], rd.read(in, s));
+            }
+        }
+    }
+
+    // Writes and reads back a single series.
+    static void roundTrip(double... values) {
+        Gorilla.Values w = new Gorilla.Values();
+        w.ensure(1);
+        BitOutput out = new BitOutput();
+        for (double v : values) {
+            w.write(out, 0, v);
+        }
+        out.align();
+        Gorilla.Values r = new Gorilla.Values();
+        r.ensure(1);
+        BitInput in = input(out);
+        for (double v : values) {
+            assertBits(v, r.read(in, 0));
+        }
+    }
+
+    static void assertBits(double expected, double actual) {
+        assertEquals(Double.doubleToRawLongBits(expected), Double.doubleToRawLongBits(actual),
+                expected + " vs " + actual);
+    }
+
+    static int timestampBits(long dod) {
+        BitOutput out = new BitOutput();
+        // Eight times over, so that the bits add up to as many whole bytes.
+        for (int i = 0; i < 8; i++) {
+            Gorilla.writeTimestamp(out, dod);
+        }
+        out.align();
+        return out.size();
+    }
+
+    static BitInput input(BitOutput out) {
+        return new BitInput(ByteBuffer.wrap(out.array()), 0, out.size());
+    }
+}
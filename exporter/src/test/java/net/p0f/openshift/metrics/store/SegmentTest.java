@@ -0,0 +1,203 @@
+package net.p0f.openshift.metrics.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.p0f.openshift.metrics.exposition.Samples;
+
+/*
+ * Rounds of both sources written to a segment and read back sample for
+ * sample, while series come and go, timestamps jitter and go back, and the
+ * exporter dies half-way through a write.
+ */
+class SegmentTest {
+    static final int SIZE = 1024 * 1024;
+
+    @TempDir
+    Path tmp;
+
+    Path path;
+    Segment segment;
+    BitOutput staging = new BitOutput();
+    List<String> written = new ArrayList<>();
+
+    final byte[] cpu0 = series("sysstat_cpu_usr{cpu=\"0\",} ");
+    final byte[] cpu1 = series("sysstat_cpu_usr{cpu=\"1\",} ");
+    final byte[] runq = series("sysstat_queue_runq ");
+    final byte[] bash = series("psacct_invocation_count{process=\"bash\",} ");
+    final byte[] sadc = series("psacct_invocation_count{process=\"sadc\",} ");
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.path = this.tmp.resolve("1000.seg");
+        this.segment = new Segment(this.path, 1000, SIZE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (this.segment.channel.isOpen()) {
+            this.segment.close();
+        }
+    }
+
+    @Test
+    void roundTrips() throws IOException {
+        long[] timestamps = { 1000, 11000, 21000, 31003, 40990, 51000, 61000, 61000, 50000, 70000, 1L << 50, 80000 };
+        for (int i = 0; i < timestamps.length; i++) {
+            long ts = timestamps[i];
+            if (i < 4) {
+                append(Samples.SYSSTAT, ts, new byte[][] { this.cpu0, this.cpu1, this.runq }, 1.5, i, 3);
+            } else if (i < 8) {
+                // One series gone, another back in a different order.
+                append(Samples.SYSSTAT, ts, new byte[][] { this.runq, this.cpu0 }, Double.NaN,
+                        Double.POSITIVE_INFINITY);
+            } else {
+                append(Samples.SYSSTAT, ts, new byte[][] { this.runq, this.cpu0, this.cpu1 }, -0.0,
+                        Double.NEGATIVE_INFINITY, i * 1e-9);
+            }
+            // Psacct rounds in between, with timestamps of their own.
+            append(Samples.PSACCT, 500 + ts / 2, i % 3 == 0 ? new byte[][] { this.bash, this.sadc }
+                    : new byte[][] { this.bash }, i, i);
+        }
+        assertEquals(this.written, read(-1, Long.MIN_VALUE));
+
+        this.segment.close();
+        assertEquals(this.segment.position, Files.size(this.path));
+        assertEquals(this.written, read(-1, Long.MIN_VALUE));
+    }
+
+    @Test
+    void identicalRoundsAreSmall() throws IOException {
+        byte[][] layout = { this.cpu0, this.cpu1, this.runq, this.bash, this.sadc };
+        append(Samples.SYSSTAT, 0, layout, 1, 2, 3, 4, 5);
+        // The first delta is stored as a delta of delta from zero.
+        append(Samples.SYSSTAT, 10000, layout, 1, 2, 3, 4, 5);
+        int first = this.segment.position;
+        for (int i = 2; i < 102; i++) {
+            append(Samples.SYSSTAT, i * 10000L, layout, 1, 2, 3, 4, 5);
+        }
+        // The frame header, then one bit for the timestamp and one per value, padded to a byte.
+        assertEquals(first + 100 * (Segment.FRAME_HEADER + 1), this.segment.position);
+        assertEquals(this.written, read(-1, Long.MIN_VALUE));
+    }
+
+    @Test
+    void readsOnlyNewerRounds() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append(Samples.SYSSTAT, i * 1000L, new byte[][] { this.cpu0 }, i);
+        }
+        List<String> read = read(-1, 6000);
+        assertEquals(this.written.subList(7, 10), read);
+    }
+
+    /*
+     * The exporter died after copying a round, but before writing the type
+     * byte that makes it valid: nothing of it is read, and neither are the
+     * series and layout frames that came with it.
+     */
+    @Test
+    void stopsAtTornFrame() throws IOException {
+        append(Samples.SYSSTAT, 1000, new byte[][] { this.cpu0 }, 1);
+        append(Samples.SYSSTAT, 2000, new byte[][] { this.cpu0 }, 2);
+        List<String> valid = new ArrayList<>(this.written);
+        int end = this.segment.position;
+
+        append(Samples.SYSSTAT, 3000, new byte[][] { this.cpu0, this.cpu1 }, 3, 4);
+        assertEquals(Segment.SERIES, this.segment.buf.get(end));
+        this.segment.buf.put(end, (byte) 0);
+        assertEquals(valid, read(-1, Long.MIN_VALUE));
+
+        this.segment.buf.put(end, Segment.SERIES);
+        assertEquals(this.written, read(-1, Long.MIN_VALUE));
+    }
+
+    @Test
+    void stopsAtCutOffFrame() throws IOException {
+        append(Samples.SYSSTAT, 1000, new byte[][] { this.cpu0 }, 1);
+        List<String> valid = new ArrayList<>(this.written);
+        int end = this.segment.position;
+        append(Samples.SYSSTAT, 2000, new byte[][] { this.cpu0 }, 2);
+
+        for (int limit = end; limit < this.segment.position; limit++) {
+            assertEquals(valid, read(limit, Long.MIN_VALUE), "limit " + limit);
+        }
+        assertEquals(this.written, read(this.segment.position, Long.MIN_VALUE));
+    }
+
+    @Test
+    void refusesRoundThatDoesNotFit() throws IOException {
+        this.segment.close();
+        Files.delete(this.path);
+        this.segment = new Segment(this.path, 1000, 128);
+        append(Samples.SYSSTAT, 1000, new byte[][] { this.runq }, 1);
+        int end = this.segment.position;
+
+        byte[][] layout = { this.cpu0, this.cpu1, this.bash, this.sadc };
+        assertFalse(this.segment.append(samples(Samples.SYSSTAT, 2000, layout, 1, 2, 3, 4), this.staging));
+        assertEquals(end, this.segment.position);
+        assertEquals(this.written, read(-1, Long.MIN_VALUE));
+    }
+
+    @Test
+    void ignoresOtherSources() throws IOException {
+        assertTrue(this.segment.append(samples("other", 1000, new byte[][] { this.cpu0 }, 1), this.staging));
+        assertEquals(Segment.HEADER, this.segment.position);
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path other = this.tmp.resolve("other.seg");
+        Files.write(other, new byte[Segment.HEADER]);
+        assertThrows(IOException.class, () -> SegmentReader.read(other, -1, 0, (source, s, ts, v) -> {
+        }));
+        // Too short to be anything.
+        Files.write(other, new byte[3]);
+        SegmentReader.read(other, -1, 0, (source, s, ts, v) -> {
+            throw new AssertionError();
+        });
+    }
+
+    void append(String source, long ts, byte[][] series, double... values) {
+        assertTrue(this.segment.append(samples(source, ts, series, values), this.staging));
+        for (int i = 0; i < series.length; i++) {
+            this.written.add(sample(source, series[i], ts, values[i]));
+        }
+    }
+
+    List<String> read(long limit, long since) throws IOException {
+        List<String> read = new ArrayList<>();
+        SegmentReader.read(this.path, limit, since, (source, series, ts, v) -> read.add(sample(source, series, ts, v)));
+        return read;
+    }
+
+    // Arrays longer than the count, so that anything past it must be ignored.
+    static Samples samples(String source, long ts, byte[][] series, double... values) {
+        byte[][] padded = new byte[series.length + 2][];
+        System.arraycopy(series, 0, padded, 0, series.length);
+        return new Samples(source, ts, padded, values, series.length);
+    }
+
+    // Values by their bits, so that NaN and -0.0 compare as written.
+    static String sample(String source, byte[] series, long ts, double v) {
+        return source + " " + new String(series, StandardCharsets.UTF_8) + ts + " "
+                + Long.toHexString(Double.doubleToRawLongBits(v));
+    }
+
+    static byte[] series(String prefix) {
+        return prefix.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -44,6 +44,19 @@ case ${CUMULATIVE:-0} in
 	;;
 esac
 
+# Does the exporter summarise raw accounting records itself?
+case ${PACCT_MODE:-sa} in
+    raw)
+	ROTATE_KB=${ROTATE_KB:-65536}
+	echo "Leaving raw accounting records to the exporter, rotating at ${ROTATE_KB}kB."
+	PACCT_MODE=raw
+	;;
+    *)
+	echo "Summarising accounting records with sa."
+	PACCT_MODE=sa
+	;;
+esac
+
 # Clean up /var/account/pacct on startup if so requested.
 case ${STARTUP_SCRATCH:-0} in
     1|yes|true)
@@ -59,6 +72,11 @@ esac
 echo "Making sure /var/account/pacct is ready..."
 /usr/libexec/psacct/accton-create
 
+# The exporter runs unprivileged, but is in the root group.
+if [ ${PACCT_MODE} = "raw" ]; then
+    chmod 0640 /var/account/pacct
+fi
+
 # Start accounting
 /usr/sbin/accton /var/account/pacct
 
@@ -66,11 +84,30 @@ echo "Making sure /var/account/pacct is ready..."
 while [ 1  ]; do
     sleep ${PERIOD}
 
+    # In raw mode the exporter keeps the file open and only reads what was
+    # appended since last time. Rotate by renaming and switching accounting
+    # over to a new file; the exporter keeps reading the old one as well
+    # until it stops growing, as the kernel writes to it until accton is done.
+    if [ ${PACCT_MODE} = "raw" ]; then
+	if [ $(du -k /var/account/pacct | cut -f1) -ge ${ROTATE_KB} ]; then
+	    echo "Rotating /var/account/pacct..."
+	    rm -f /var/account/pacct.old
+	    mv /var/account/pacct /var/account/pacct.old
+	    /usr/libexec/psacct/accton-create
+	    chmod 0640 /var/account/pacct
+	    /usr/sbin/accton /var/account/pacct
+	fi
+	continue
+    fi
+
     # Report after waking up.
     #	Looks like the choice is between paging and I/O, can't have both.
 
     # This one prints paging info...
-    /usr/sbin/sa -ajlp > /var/account/psacct-dump-all
+    #	(Written under a temporary name and renamed into place, so that the
+    #	exporter never sees a partial report.)
+    /usr/sbin/sa -ajlp > /var/account/psacct-dump-all.tmp
+    mv -f /var/account/psacct-dump-all.tmp /var/account/psacct-dump-all
 
     # ...and this one prints total I/O operations (which seems to be unsupported).
     #/usr/sbin/sa -ajlD > /var/account/psacct-dump-all
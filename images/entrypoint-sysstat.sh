@@ -57,7 +57,10 @@ while [ 1 ]; do
     # Produce the report.
     REPORT_FROM=$(date +%H:%M:%S -d "${REPORT_LENGTH} seconds ago")
     REPORT_UNTIL=$(date +%H:%M:%S)
-    /usr/bin/sadf -s ${REPORT_FROM} -e ${REPORT_UNTIL} -j -- -A > /var/log/sa/sysstat-dump.json
+    # Write it under a temporary name and rename it into place, so that the
+    # exporter never sees a partial report.
+    /usr/bin/sadf -s ${REPORT_FROM} -e ${REPORT_UNTIL} -j -- -A > /var/log/sa/sysstat-dump.json.tmp
+    mv -f /var/log/sa/sysstat-dump.json.tmp /var/log/sa/sysstat-dump.json
 
     # Have we awoken in a new day? Rotation record, please!
     NEW_HOUR="$(date +%H)"